@@ -3,16 +3,125 @@ package org.spectrum7.CloudAccessFramework.AWS;
 import com.google.common.flogger.FluentLogger;
 import org.spectrum7.CloudAccessFramework.Accessors.CloudAccessor;
 import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.ComputeInstance;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.InstanceQuery;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchResult;
 import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
-import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
-import software.amazon.awssdk.auth.credentials.InstanceProfileCredentialsProvider;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.ec2.Ec2Client;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.AccessorMetrics;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.DefaultAccessorMetrics;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.OperationTimer;
+import org.spectrum7.CloudAccessFramework.Accessors.TerminationResult;
+import org.spectrum7.CloudAccessFramework.Accessors.Throttling.RequestThrottler;
 import software.amazon.awssdk.services.ec2.model.*;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
 public class AWSAccessor implements CloudAccessor {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final String INSTANCE_PROFILE_SCOPE = "instance-profile";
+    private static final int KEY_PAIR_CLEANUP_THREADS = 4;
+    private static final long KEY_PAIR_CLEANUP_GRACE_SECONDS = 10;
+    private final EC2ClientCache clientCache;
+    private final AWSKeyPairManager keyPairManager;
+    private final RequestThrottler throttler;
+    private final boolean ownsThrottler;
+    private final AccessorMetrics metrics;
+    private final AWSInstanceInventory inventory;
+    private final InstanceStatePoller statePoller;
+    private final TagWriter tagWriter;
+    private final LaunchJournal journal;
+    private final PlacementEngine placement;
+    private final AWSMetadataCache metadataCache;
+    /* Sequence of the launches when there is no journal, starting from the clock so that it differs across runs */
+    private final AtomicLong launchSequence = new AtomicLong(System.currentTimeMillis() * 1000);
+    private volatile ExecutorService keyPairCleanup = null;
+    
+    /**
+     * Creates an accessor with a client cache using the default limits.
+     */
+    public AWSAccessor() {
+        this(EC2ClientCache.create());
+    }
+    
+    /**
+     * Creates an accessor which obtains its EC2 clients from the specified cache. The accessor takes ownership of
+     * the cache and closes it when the accessor is closed.
+     *
+     * @param clientCache Cache of EC2 clients
+     */
+    public AWSAccessor(EC2ClientCache clientCache) {
+        this(clientCache, AWSKeyPairManager.create());
+    }
+    
+    /**
+     * Creates an accessor which obtains its EC2 clients from the specified cache and manages key pairs with the
+     * specified key pair manager.
+     *
+     * @param clientCache    Cache of EC2 clients
+     * @param keyPairManager Manager of the key pairs used to launch instances
+     */
+    public AWSAccessor(EC2ClientCache clientCache, AWSKeyPairManager keyPairManager) {
+        this(builder().clientCache(clientCache).keyPairManager(keyPairManager));
+    }
+    
+    private AWSAccessor(Builder builder) {
+        this.metrics = builder.metrics != null ? builder.metrics : new DefaultAccessorMetrics();
+        this.clientCache = builder.clientCache != null ? builder.clientCache :
+                EC2ClientCache.builder().metrics(metrics).build();
+        this.keyPairManager = builder.keyPairManager != null ? builder.keyPairManager : AWSKeyPairManager.create();
+        this.ownsThrottler = builder.throttler == null;
+        this.throttler = ownsThrottler ? defaultThrottler() : builder.throttler;
+        this.inventory = AWSInstanceInventory.create();
+        this.statePoller = InstanceStatePoller.create(inventory::update);
+        this.tagWriter = TagWriter.create(inventory::updateTags);
+        this.journal = builder.journal;
+        this.placement = builder.placement != null ? builder.placement : PlacementEngine.create();
+        this.metadataCache = builder.metadataCache;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Rate limits which start well below the documented EC2 request rates and adapt from there. RunInstances has a
+     * much smaller bucket than the other actions. Calls must succeed within 30 seconds, 60 for RunInstances, the
+     * describe calls are hedged at the 95th percentile of their latency, and the calls of a region are rejected for
+     * 30 seconds after 5 consecutive server errors or timeouts.
+     *
+     * @return RequestThrottler instance
+     */
+    public static RequestThrottler defaultThrottler() {
+        return RequestThrottler.builder(new AWSErrorClassifier())
+                .actionRate("RunInstances", 2)
+                .actionRate("CreateKeyPair", 5)
+                .actionRate("DeleteKeyPair", 5)
+                .deadline(Duration.ofSeconds(30))
+                .actionDeadline("RunInstances", Duration.ofSeconds(60))
+                .hedging(95, Duration.ofMillis(50))
+                .circuitBreaker(5, Duration.ofSeconds(30))
+                .build();
+    }
     
     /**
      * Create an instance without specifying the access keys. This function should be used only when
@@ -36,43 +145,78 @@ public class AWSAccessor implements CloudAccessor {
     @Override
     public void createComputeInstance(LaunchSpecifications instanceSpecifications)
             throws CloudExceptions {
-        if (instanceSpecifications instanceof AWSLaunchSpecifications) {
-            Ec2Client ec2Client = getEC2Client(instanceSpecifications.getRegion());
-            if (ec2Client != null) {
-                createComputeInstance(ec2Client, instanceSpecifications);
-                
-            }
-            else {
-                logger.atSevere().log(
-                        "EC2 Client is null. Please check %s", instanceSpecifications.getRegion());
-                throw new NullPointerException("Unable to obtain an EC2 client instance");
-            }
+        checkAWSSpecifications(instanceSpecifications);
+        EC2Gateway ec2Client;
+        try {
+            ec2Client = getEC2Client(instanceSpecifications.getRegion());
         }
-        else {
+        catch (RuntimeException e) {
+            throw clientUnavailable(instanceSpecifications.getRegion(), e);
+        }
+        createComputeInstance(ec2Client, instanceSpecifications);
+    }
+    
+    private static void checkAWSSpecifications(LaunchSpecifications instanceSpecifications) throws CloudExceptions {
+        if (!(instanceSpecifications instanceof AWSLaunchSpecifications)) {
             logger.atSevere().log(
                     "The launch specifications is not of a suitable type. Expected AWS instance");
+            throw new CloudExceptions("The launch specifications is not of a suitable type. Expected AWS instance");
         }
     }
     
+    private static CloudExceptions clientUnavailable(String region, RuntimeException e) {
+        logger.atSevere().withCause(e).log("Unable to obtain an EC2 client for %s", region);
+        return new CloudExceptions("Unable to obtain an EC2 client instance for " + region, e);
+    }
+    
     private void createComputeInstance(
-            Ec2Client ec2Client, LaunchSpecifications instanceSpecifications) throws CloudExceptions {
-        String instanceName = instanceSpecifications.getInstanceName();
-        String launchTemplateID = null;
-        RunInstancesRequest.Builder runInstancesRequestBuilder = RunInstancesRequest.builder();
-        String privateKey = generateKeyPair(instanceName, ec2Client, true);
-        instanceSpecifications.setPrivateKey(privateKey);
-        if (instanceSpecifications.getTemplateID() != null) {
-            launchTemplateID = instanceSpecifications.getTemplateID();
+            EC2Gateway ec2Client, LaunchSpecifications instanceSpecifications) throws CloudExceptions {
+        OperationTimer timer = metrics.start(EC2Gateway.PROVIDER, ec2Client.getRegion(), "CreateComputeInstance");
+        try {
+            launchInstance(ec2Client, instanceSpecifications);
+            timer.success();
         }
-        if (privateKey != null && !privateKey.isEmpty()) {
-            if (launchTemplateID != null) {
-                LaunchTemplateSpecification launchTemplateSpecification =
-                        LaunchTemplateSpecification.builder().launchTemplateId(launchTemplateID).build();
-                runInstancesRequestBuilder.launchTemplate(launchTemplateSpecification);
+        catch (CloudExceptions | RuntimeException e) {
+            timer.failure();
+            throw e;
+        }
+    }
+    
+    private void launchInstance(
+            EC2Gateway ec2Client, LaunchSpecifications instanceSpecifications) throws CloudExceptions {
+        if (metadataCache != null) {
+            metadataCache.validate(ec2Client, instanceSpecifications);
+        }
+        String keyName = keyPairName(instanceSpecifications);
+        String privateKey = getPrivateKey(ec2Client, keyName, isSharedKeyPair(instanceSpecifications));
+        instanceSpecifications.setPrivateKey(privateKey);
+        List<PlacementEngine.Pool> pools = placementPools(ec2Client.getRegion(), instanceSpecifications);
+        boolean keepClientToken = true;
+        while (true) {
+            PlacementEngine.Pool pool = placement.allocate(pools, 1).get(0).getPool();
+            RunInstancesResponse response;
+            try {
+                response = runInstances(ec2Client, placedRequest(LaunchRequests.withNameTag(
+                        LaunchRequests.runInstancesRequest(instanceSpecifications, keyName, 1).toBuilder(),
+                        instanceSpecifications), pool, keepClientToken),
+                        Collections.singletonList(instanceSpecifications));
             }
-            else {
+            catch (CloudExceptions | RuntimeException e) {
+                if (!AWSErrorClassifier.isInsufficientCapacity(e) || pools.size() == 1) {
+                    throw e;
+                }
+                logger.atWarning().log("No capacity in %s, trying another pool", pool);
+                placement.recordLaunch(pool, 1, 0);
+                pools = new ArrayList<>(pools);
+                pools.remove(pool);
+                keepClientToken = false;
+                continue;
             }
-            runInstancesRequestBuilder.maxCount(1).minCount(1).keyName(instanceName);
+            placement.recordLaunch(pool, 1, 1);
+            placed(instanceSpecifications, pool);
+            LaunchRequests.fill(instanceSpecifications, response.reservationId(), response.instances().get(0));
+            inventory.update(ec2Client, response.instances().get(0));
+            return;
         }
     }
     
@@ -101,74 +245,1171 @@ public class AWSAccessor implements CloudAccessor {
     public void createComputeInstance(
             String accessKey, String secretKey, LaunchSpecifications instanceSpecifications)
             throws CloudExceptions {
-        Ec2Client ec2Client = getEC2Client(accessKey, secretKey, instanceSpecifications.getRegion());
-        if (ec2Client != null) {
-            createComputeInstance(ec2Client, instanceSpecifications);
-            
+        checkAWSSpecifications(instanceSpecifications);
+        EC2Gateway ec2Client;
+        try {
+            ec2Client = getEC2Client(accessKey, secretKey, instanceSpecifications.getRegion());
         }
-        else {
-            logger.atSevere().log(
-                    "EC2 Client is null. Please check %s", instanceSpecifications.getRegion());
-            throw new NullPointerException("Unable to obtain an EC2 client instance");
+        catch (RuntimeException e) {
+            throw clientUnavailable(instanceSpecifications.getRegion(), e);
         }
+        createComputeInstance(ec2Client, instanceSpecifications);
+    }
+    
+    /**
+     * Creates a number of instances without specifying the access keys. Specifications which result in the same
+     * RunInstances request are launched with a single call, using either their shared key pair or a key pair named
+     * after the first specification of the group. Each specification of the group receives the private key of that
+     * key pair.
+     *
+     * @param instanceSpecifications Values for creation of the instances. Each specification describes one instance.
+     * @return One result per specification, in the same order as instanceSpecifications
+     */
+    @Override
+    public List<LaunchResult> createComputeInstances(List<LaunchSpecifications> instanceSpecifications)
+            throws CloudExceptions {
+        return createComputeInstances(instanceSpecifications, this::getEC2Client);
     }
     
     /**
-     * Returns an Ec2Client with the credentials of the instance on which the application is running
+     * Creates a number of instances with the specified access and secret keys. Specifications which result in the
+     * same RunInstances request are launched with a single call.
+     *
+     * @param accessKey              AWS Accesskey.
+     * @param secretKey              AWS Secretkey
+     * @param instanceSpecifications Values for creation of the instances. Each specification describes one instance.
+     * @return One result per specification, in the same order as instanceSpecifications
+     */
+    @Override
+    public List<LaunchResult> createComputeInstances(
+            String accessKey, String secretKey, List<LaunchSpecifications> instanceSpecifications)
+            throws CloudExceptions {
+        return createComputeInstances(instanceSpecifications, region -> getEC2Client(accessKey, secretKey, region));
+    }
+    
+    private List<LaunchResult> createComputeInstances(
+            List<LaunchSpecifications> instanceSpecifications, Function<String, EC2Gateway> ec2Clients)
+            throws CloudExceptions {
+        if (instanceSpecifications == null) {
+            throw new CloudExceptions("No launch specifications specified");
+        }
+        LaunchResult[] results = new LaunchResult[instanceSpecifications.size()];
+        Map<LaunchGroup, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < instanceSpecifications.size(); i++) {
+            LaunchSpecifications instanceSpecification = instanceSpecifications.get(i);
+            if (!(instanceSpecification instanceof AWSLaunchSpecifications)) {
+                results[i] = LaunchResult.failed(instanceSpecification,
+                        new CloudExceptions("The launch specifications is not of a suitable type. Expected AWS instance"));
+                continue;
+            }
+            try {
+                LaunchGroup group = new LaunchGroup(instanceSpecification.getRegion(),
+                        LaunchRequests.runInstancesRequest(instanceSpecification,
+                                isSharedKeyPair(instanceSpecification) ? keyPairName(instanceSpecification) : null, 1),
+                        placementPools(instanceSpecification.getRegion(), instanceSpecification));
+                groups.computeIfAbsent(group, g -> new ArrayList<>()).add(i);
+            }
+            catch (CloudExceptions | RuntimeException e) {
+                logger.atSevere().withCause(e).log("Invalid launch specifications %s",
+                        instanceSpecification.getInstanceName());
+                results[i] = LaunchResult.failed(instanceSpecification,
+                        new CloudExceptions("Invalid launch specifications " + instanceSpecification.getInstanceName(),
+                                e));
+            }
+        }
+        if (metadataCache != null) {
+            prefetchMetadata(ec2Clients, groups, instanceSpecifications);
+        }
+        for (Map.Entry<LaunchGroup, List<Integer>> group : groups.entrySet()) {
+            List<LaunchSpecifications> members = new ArrayList<>(group.getValue().size());
+            group.getValue().forEach(i -> members.add(instanceSpecifications.get(i)));
+            OperationTimer timer = metrics.start(EC2Gateway.PROVIDER, group.getKey().region, "LaunchGroup");
+            List<LaunchResult> groupResults = launchGroup(ec2Clients, group.getKey(), members);
+            if (groupResults.stream().anyMatch(LaunchResult::isLaunched)) {
+                timer.success();
+            }
+            else {
+                timer.failure();
+            }
+            for (int i = 0; i < groupResults.size(); i++) {
+                results[group.getValue().get(i)] = groupResults.get(i);
+            }
+        }
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * Describes the images, subnets and security groups of the groups missing from the metadata cache, with one call
+     * per kind of resource and region. A failure is only logged, the groups then describe their resources when they
+     * are checked.
+     */
+    private void prefetchMetadata(Function<String, EC2Gateway> ec2Clients, Map<LaunchGroup, List<Integer>> groups,
+                                  List<LaunchSpecifications> instanceSpecifications) {
+        Map<String, List<LaunchSpecifications>> regions = new LinkedHashMap<>();
+        for (Map.Entry<LaunchGroup, List<Integer>> group : groups.entrySet()) {
+            regions.computeIfAbsent(group.getKey().region, r -> new ArrayList<>())
+                    .add(instanceSpecifications.get(group.getValue().get(0)));
+        }
+        for (Map.Entry<String, List<LaunchSpecifications>> region : regions.entrySet()) {
+            try {
+                metadataCache.prefetch(ec2Clients.apply(region.getKey()), region.getValue());
+            }
+            catch (CloudExceptions | RuntimeException e) {
+                logger.atWarning().withCause(e).log("Unable to describe the resources of the launches in %s",
+                        region.getKey());
+            }
+        }
+    }
+    
+    /**
+     * Launches the members of a group, split across the capacity pools of the group by the placement engine, with a
+     * RunInstances call per pool. Each call asks for at least one instance, so that a partial launch is accepted when
+     * EC2 is short of capacity. The launched instances are handed to the members in the order of their launch index.
+     * The members a pool could not launch are routed to the other pools, and those left over when no pool is left are
+     * reported as INSUFFICIENT_CAPACITY.
+     */
+    private List<LaunchResult> launchGroup(
+            Function<String, EC2Gateway> ec2Clients, LaunchGroup group, List<LaunchSpecifications> members) {
+        LaunchResult[] results = new LaunchResult[members.size()];
+        String keyName = keyPairName(members.get(0));
+        EC2Gateway ec2Client;
+        try {
+            ec2Client = ec2Clients.apply(group.region);
+            if (metadataCache != null) {
+                /* The members of a group share their image, subnets and security groups */
+                metadataCache.validate(ec2Client, members.get(0));
+            }
+            String privateKey = getPrivateKey(ec2Client, keyName, isSharedKeyPair(members.get(0)));
+            members.forEach(member -> member.setPrivateKey(privateKey));
+        }
+        catch (CloudExceptions | RuntimeException e) {
+            logger.atSevere().withCause(e).log("Unable to launch %d instances in %s", members.size(), group.region);
+            for (int i = 0; i < members.size(); i++) {
+                results[i] = LaunchResult.failed(members.get(i), new CloudExceptions("Unable to create the instance " +
+                        members.get(i).getInstanceName(), e));
+            }
+            return Arrays.asList(results);
+        }
+        List<PlacementEngine.Pool> pools = new ArrayList<>(group.pools);
+        List<Integer> pending = new ArrayList<>(members.size());
+        for (int i = 0; i < members.size(); i++) {
+            pending.add(i);
+        }
+        int launched = 0;
+        Exception capacityError = null;
+        /* The client token of the specifications only applies to a launch of the whole group in one pool */
+        boolean keepClientToken = true;
+        while (!pending.isEmpty() && !pools.isEmpty()) {
+            List<PlacementEngine.Allocation> allocations = placement.allocate(pools, pending.size());
+            keepClientToken &= allocations.size() == 1;
+            List<Integer> left = new ArrayList<>();
+            int offset = 0;
+            for (PlacementEngine.Allocation allocation : allocations) {
+                PlacementEngine.Pool pool = allocation.getPool();
+                List<Integer> batch = pending.subList(offset, offset + allocation.getCount());
+                offset += allocation.getCount();
+                List<LaunchSpecifications> batchMembers = new ArrayList<>(batch.size());
+                batch.forEach(i -> batchMembers.add(members.get(i)));
+                boolean sharedName = sharedName(batchMembers);
+                RunInstancesRequest.Builder request = group.request.toBuilder()
+                        .minCount(1)
+                        .maxCount(batch.size())
+                        .keyName(keyName);
+                if (sharedName) {
+                    LaunchRequests.withNameTag(request, batchMembers.get(0));
+                }
+                RunInstancesResponse response;
+                try {
+                    response = runInstances(ec2Client, placedRequest(request, pool, keepClientToken), batchMembers);
+                }
+                catch (CloudExceptions | RuntimeException e) {
+                    if (AWSErrorClassifier.isInsufficientCapacity(e)) {
+                        logger.atWarning().log("No capacity for %d instances in %s", batch.size(), pool);
+                        placement.recordLaunch(pool, batch.size(), 0);
+                        pools.remove(pool);
+                        capacityError = e;
+                        left.addAll(batch);
+                    }
+                    else {
+                        logger.atSevere().withCause(e).log("Unable to launch %d instances in %s", batch.size(), pool);
+                        for (int i : batch) {
+                            results[i] = LaunchResult.failed(members.get(i), new CloudExceptions(
+                                    "Unable to create the instance " + members.get(i).getInstanceName(), e));
+                        }
+                    }
+                    continue;
+                }
+                List<Instance> instances = new ArrayList<>(response.instances());
+                instances.sort(Comparator.comparing(Instance::amiLaunchIndex,
+                        Comparator.nullsLast(Comparator.naturalOrder())));
+                placement.recordLaunch(pool, batch.size(), instances.size());
+                for (int j = 0; j < batch.size(); j++) {
+                    LaunchSpecifications member = members.get(batch.get(j));
+                    if (j < instances.size()) {
+                        placed(member, pool);
+                        LaunchRequests.fill(member, response.reservationId(), instances.get(j));
+                        inventory.update(ec2Client, instances.get(j));
+                        if (!sharedName) {
+                            writeNameTag(ec2Client, member);
+                        }
+                        results[batch.get(j)] = LaunchResult.launched(member);
+                    }
+                    else {
+                        left.add(batch.get(j));
+                    }
+                }
+                launched += instances.size();
+                if (instances.size() < batch.size()) {
+                    logger.atWarning().log("Partial launch in %s: %d of %d instances", pool, instances.size(),
+                            batch.size());
+                    pools.remove(pool);
+                }
+            }
+            /* The tokens of the members left belong to launches which are over */
+            left.forEach(i -> ((AWSLaunchSpecifications) members.get(i)).setClientToken(null));
+            pending = left;
+            keepClientToken = false;
+        }
+        for (int i : pending) {
+            LaunchSpecifications member = members.get(i);
+            results[i] = LaunchResult.insufficientCapacity(member, capacityError != null ?
+                    new CloudExceptions("Unable to create the instance " + member.getInstanceName(), capacityError) :
+                    new CloudExceptions(String.format("Only %d of %d instances could be launched in %s", launched,
+                            members.size(), group.region)));
+        }
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * Returns the capacity pools of launch specifications: their instance type and then each alternative instance
+     * type, each with their subnet and then each alternative subnet. The first pool is the one of the specifications.
+     */
+    private static List<PlacementEngine.Pool> placementPools(
+            String region, LaunchSpecifications instanceSpecifications) {
+        Set<String> subnetIDs = new LinkedHashSet<>();
+        Set<String> instanceTypes = new LinkedHashSet<>();
+        subnetIDs.add(instanceSpecifications.getSubnetID());
+        instanceTypes.add(instanceSpecifications.getInstanceType());
+        if (instanceSpecifications instanceof AWSLaunchSpecifications) {
+            subnetIDs.addAll(((AWSLaunchSpecifications) instanceSpecifications).getAlternativeSubnetIDs());
+            instanceTypes.addAll(((AWSLaunchSpecifications) instanceSpecifications).getAlternativeInstanceTypes());
+        }
+        List<PlacementEngine.Pool> pools = new ArrayList<>(subnetIDs.size() * instanceTypes.size());
+        for (String instanceType : instanceTypes) {
+            for (String subnetID : subnetIDs) {
+                pools.add(new PlacementEngine.Pool(region, subnetID, instanceType));
+            }
+        }
+        return pools;
+    }
+    
+    /**
+     * Places a launch request in a pool, overriding the subnet and the instance type of the request with those of
+     * the pool.
+     *
+     * @param request         The request of the specifications
+     * @param pool            The pool chosen by the placement engine
+     * @param keepClientToken false to drop the client token of the request, which does not match the launch
+     * @return The request of the launch in the pool
+     */
+    private static RunInstancesRequest placedRequest(
+            RunInstancesRequest.Builder request, PlacementEngine.Pool pool, boolean keepClientToken) {
+        if (pool.getSubnetID() != null) {
+            request.subnetId(pool.getSubnetID());
+        }
+        if (pool.getInstanceType() != null) {
+            request.instanceType(pool.getInstanceType());
+        }
+        if (!keepClientToken) {
+            request.clientToken(null);
+        }
+        return request.build();
+    }
+    
+    /* The members of a batch are launched with their Name tag when they all have the same one */
+    private static boolean sharedName(List<LaunchSpecifications> members) {
+        String name = LaunchRequests.nameTag(members.get(0));
+        if (name == null) {
+            return false;
+        }
+        for (LaunchSpecifications member : members) {
+            if (!name.equals(LaunchRequests.nameTag(member))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /* The Name tags of the instances launched together under different names are written once they are launched */
+    private void writeNameTag(EC2Gateway ec2Client, LaunchSpecifications instanceSpecifications) {
+        String name = LaunchRequests.nameTag(instanceSpecifications);
+        if (name == null) {
+            return;
+        }
+        tagWriter.write(ec2Client, Collections.singletonList(instanceSpecifications.getInstanceID()),
+                Collections.singletonMap(LaunchRequests.NAME_TAG, name)).whenComplete((v, e) -> {
+            if (e != null) {
+                logger.atWarning().withCause(e).log("Unable to tag the instance %s with its name",
+                        instanceSpecifications.getInstanceID());
+            }
+        });
+    }
+    
+    /* The specifications hold the instance type they were launched with, which may be an alternative one */
+    private static void placed(LaunchSpecifications instanceSpecifications, PlacementEngine.Pool pool) {
+        if (instanceSpecifications instanceof AWSLaunchSpecifications && pool.getInstanceType() != null &&
+                !pool.getInstanceType().equals(instanceSpecifications.getInstanceType())) {
+            ((AWSLaunchSpecifications) instanceSpecifications).launchedAs(pool.getInstanceType());
+        }
+    }
+    
+    /**
+     * Makes a RunInstances call with a client token, recorded in the launch journal until the outcome of the call is
+     * known. A derived token is kept in the launch specifications while the outcome is unknown, so that launching
+     * them again returns the same instances.
+     *
+     * @param ec2Client The EC2 calls for the launch
+     * @param request   The request, with the client token of the specifications if they have one
+     * @param members   The launch specifications of the instances of the request
+     * @return The response of RunInstances
+     */
+    private RunInstancesResponse runInstances(
+            EC2Gateway ec2Client, RunInstancesRequest request, List<LaunchSpecifications> members)
+            throws CloudExceptions {
+        long sequence = journal != null ? journal.nextSequence() : launchSequence.incrementAndGet();
+        request = LaunchRequests.withClientToken(sequence, ec2Client.getScope(), ec2Client.getRegion(), request,
+                members);
+        if (journal != null) {
+            LaunchRequests.begin(journal, sequence, ec2Client.getScope(), ec2Client.getRegion(), request, members);
+        }
+        try {
+            RunInstancesResponse response = ec2Client.runInstances(request);
+            LaunchRequests.end(journal, sequence, request, members, null);
+            return response;
+        }
+        catch (CloudExceptions | RuntimeException e) {
+            LaunchRequests.end(journal, sequence, request, members, e);
+            throw e;
+        }
+    }
+    
+    /**
+     * Finds out what became of the launches left unfinished in the launch journal with the credentials of the
+     * instance on which the application is running. Only the client tokens of those launches are looked up, with
+     * DescribeInstances calls filtered by client token, and the launches are then marked complete. The instances
+     * found are added to the inventory.
+     *
+     * @return The unfinished launches, with the instances EC2 launched for them
+     * @throws CloudExceptions Exception thrown when the accessor has no launch journal, or when none of the regions
+     *                         could be looked up. The launches of the regions which could not be looked up are left
+     *                         for the next recovery.
+     */
+    public List<RecoveredLaunch> recoverLaunches() throws CloudExceptions {
+        return recoverLaunches(INSTANCE_PROFILE_SCOPE, this::getEC2Client);
+    }
+    
+    /**
+     * Finds out what became of the launches left unfinished in the launch journal with the specified access key.
+     *
+     * @param accessKey AWS Accesskey.
+     * @param secretKey AWS Secretkey
+     * @return The unfinished launches, with the instances EC2 launched for them
+     * @throws CloudExceptions Exception thrown when the accessor has no launch journal, or when none of the regions
+     *                         could be looked up
+     */
+    public List<RecoveredLaunch> recoverLaunches(String accessKey, String secretKey) throws CloudExceptions {
+        return recoverLaunches(accessKey, region -> getEC2Client(accessKey, secretKey, region));
+    }
+    
+    private List<RecoveredLaunch> recoverLaunches(String scope, Function<String, EC2Gateway> ec2Clients)
+            throws CloudExceptions {
+        if (journal == null) {
+            throw new CloudExceptions("The accessor has no launch journal");
+        }
+        Map<String, List<LaunchJournal.Entry>> regions = new LinkedHashMap<>();
+        for (LaunchJournal.Entry entry : journal.unfinished(scope)) {
+            regions.computeIfAbsent(entry.region, r -> new ArrayList<>()).add(entry);
+        }
+        List<RecoveredLaunch> recovered = new ArrayList<>();
+        CloudExceptions failure = null;
+        for (Map.Entry<String, List<LaunchJournal.Entry>> region : regions.entrySet()) {
+            List<LaunchJournal.Entry> entries = region.getValue();
+            try {
+                EC2Gateway ec2Client = ec2Clients.apply(region.getKey());
+                for (int start = 0; start < entries.size(); start += AWSInstanceInventory.MAX_FILTER_VALUES) {
+                    List<LaunchJournal.Entry> batch = entries.subList(start,
+                            Math.min(entries.size(), start + AWSInstanceInventory.MAX_FILTER_VALUES));
+                    recovered.addAll(recover(ec2Client, batch));
+                }
+            }
+            catch (CloudExceptions | RuntimeException e) {
+                logger.atWarning().withCause(e).log("Unable to recover %d launches in %s", entries.size(),
+                        region.getKey());
+                failure = e instanceof CloudExceptions ? (CloudExceptions) e :
+                        new CloudExceptions("Unable to recover the launches in " + region.getKey(), e);
+            }
+        }
+        if (failure != null && recovered.isEmpty()) {
+            throw failure;
+        }
+        return recovered;
+    }
+    
+    private List<RecoveredLaunch> recover(EC2Gateway ec2Client, List<LaunchJournal.Entry> entries)
+            throws CloudExceptions {
+        Map<String, List<Instance>> launched = new LinkedHashMap<>();
+        entries.forEach(entry -> launched.put(entry.clientToken, new ArrayList<>()));
+        Filter clientTokens = Filter.builder().name("client-token").values(launched.keySet()).build();
+        String nextToken = null;
+        do {
+            DescribeInstancesResponse response = ec2Client.describeInstances(DescribeInstancesRequest.builder()
+                    .filters(clientTokens)
+                    .maxResults(InstanceStatePoller.MAX_IDS_PER_CALL)
+                    .nextToken(nextToken)
+                    .build());
+            for (Reservation reservation : response.reservations()) {
+                for (Instance instance : reservation.instances()) {
+                    List<Instance> instances = launched.get(instance.clientToken());
+                    if (instances != null) {
+                        instances.add(instance);
+                    }
+                }
+            }
+            nextToken = response.nextToken();
+        }
+        while (nextToken != null && !nextToken.isEmpty());
+        List<RecoveredLaunch> recovered = new ArrayList<>(entries.size());
+        for (LaunchJournal.Entry entry : entries) {
+            List<Instance> instances = launched.get(entry.clientToken);
+            instances.sort(Comparator.comparing(Instance::amiLaunchIndex,
+                    Comparator.nullsLast(Comparator.naturalOrder())));
+            List<ComputeInstance> computeInstances = new ArrayList<>(instances.size());
+            for (Instance instance : instances) {
+                inventory.update(ec2Client, instance);
+                computeInstances.add(AWSInstanceInventory.toComputeInstance(ec2Client.getRegion(), instance));
+            }
+            recovered.add(new RecoveredLaunch(ec2Client.getRegion(), entry.clientToken, entry.instanceNames,
+                    computeInstances));
+            journal.complete(entry.sequence);
+        }
+        return recovered;
+    }
+    
+    /**
+     * Waits for a launched instance to be running, polling with the credentials of the instance on which the
+     * application is running. The instance is polled together with all the other instances waited on in the same
+     * region, with DescribeInstances calls of up to 1000 instances each.
+     *
+     * @param instanceSpecifications Values of a launched instance, holding its instance ID
+     * @return future holding instanceSpecifications once the instance is running and its addresses are filled in
+     */
+    @Override
+    public CompletableFuture<LaunchSpecifications> awaitRunning(LaunchSpecifications instanceSpecifications) {
+        return statePoller.await(getEC2Client(instanceSpecifications.getRegion()), instanceSpecifications,
+                InstanceStateName.RUNNING);
+    }
+    
+    /**
+     * Waits for a launched instance to be running, polling with the specified access and secret keys.
+     *
+     * @param accessKey              AWS Accesskey.
+     * @param secretKey              AWS Secretkey
+     * @param instanceSpecifications Values of a launched instance, holding its instance ID
+     * @return future holding instanceSpecifications once the instance is running and its addresses are filled in
+     */
+    @Override
+    public CompletableFuture<LaunchSpecifications> awaitRunning(
+            String accessKey, String secretKey, LaunchSpecifications instanceSpecifications) {
+        return statePoller.await(getEC2Client(accessKey, secretKey, instanceSpecifications.getRegion()),
+                instanceSpecifications, InstanceStateName.RUNNING);
+    }
+    
+    /**
+     * Terminates instances with the credentials of the instance on which the application is running. The instance
+     * IDs of each region are terminated with TerminateInstances calls of up to 1000 IDs each. The key pairs created
+     * for the instances are then deleted in parallel in the background.
+     *
+     * @param instanceSpecifications Values of launched instances, holding their instance IDs
+     * @return One result per specification, in the same order as instanceSpecifications
+     */
+    @Override
+    public List<TerminationResult> terminateComputeInstances(Collection<LaunchSpecifications> instanceSpecifications)
+            throws CloudExceptions {
+        return terminateComputeInstances(instanceSpecifications, this::getEC2Client);
+    }
+    
+    /**
+     * Terminates instances with the specified access and secret keys.
+     *
+     * @param accessKey              AWS Accesskey.
+     * @param secretKey              AWS Secretkey
+     * @param instanceSpecifications Values of launched instances, holding their instance IDs
+     * @return One result per specification, in the same order as instanceSpecifications
+     */
+    @Override
+    public List<TerminationResult> terminateComputeInstances(
+            String accessKey, String secretKey, Collection<LaunchSpecifications> instanceSpecifications)
+            throws CloudExceptions {
+        return terminateComputeInstances(instanceSpecifications,
+                region -> getEC2Client(accessKey, secretKey, region));
+    }
+    
+    private List<TerminationResult> terminateComputeInstances(
+            Collection<LaunchSpecifications> instanceSpecifications, Function<String, EC2Gateway> ec2Clients)
+            throws CloudExceptions {
+        if (instanceSpecifications == null) {
+            throw new CloudExceptions("No launch specifications specified");
+        }
+        List<LaunchSpecifications> members = new ArrayList<>(instanceSpecifications);
+        TerminationResult[] results = new TerminationResult[members.size()];
+        /* Region, then instance ID, then the positions of the specifications of that instance */
+        Map<String, Map<String, List<Integer>>> regions = new LinkedHashMap<>();
+        for (int i = 0; i < members.size(); i++) {
+            LaunchSpecifications member = members.get(i);
+            if (!(member instanceof AWSLaunchSpecifications)) {
+                results[i] = TerminationResult.failed(member, new CloudExceptions(
+                        "The launch specifications is not of a suitable type. Expected AWS instance"));
+            }
+            else if (member.getInstanceID() == null || member.getRegion() == null) {
+                results[i] = TerminationResult.failed(member, new CloudExceptions(
+                        "The launch specifications of " + member.getInstanceName() + " has no instance ID or region"));
+            }
+            else {
+                regions.computeIfAbsent(member.getRegion(), r -> new LinkedHashMap<>())
+                        .computeIfAbsent(member.getInstanceID(), id -> new ArrayList<>()).add(i);
+            }
+        }
+        for (Map.Entry<String, Map<String, List<Integer>>> region : regions.entrySet()) {
+            OperationTimer timer = metrics.start(EC2Gateway.PROVIDER, region.getKey(), "TerminateGroup");
+            boolean terminated = terminateRegion(ec2Clients, region.getKey(), region.getValue(), members, results);
+            if (terminated) {
+                timer.success();
+            }
+            else {
+                timer.failure();
+            }
+        }
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * Terminates the instances of one region and schedules the deletion of their key pairs.
+     *
+     * @return true if any instance of the region is terminated
+     */
+    private boolean terminateRegion(Function<String, EC2Gateway> ec2Clients, String region,
+                                    Map<String, List<Integer>> instances, List<LaunchSpecifications> members,
+                                    TerminationResult[] results) {
+        EC2Gateway ec2Client;
+        try {
+            ec2Client = ec2Clients.apply(region);
+        }
+        catch (RuntimeException e) {
+            logger.atSevere().withCause(e).log("Unable to obtain an EC2 client for %s", region);
+            instances.values().forEach(positions -> positions.forEach(i -> results[i] = TerminationResult.failed(
+                    members.get(i), new CloudExceptions("Unable to obtain an EC2 client instance", e))));
+            return false;
+        }
+        List<String> instanceIDs = new ArrayList<>(instances.keySet());
+        Set<String> keyPairNames = new LinkedHashSet<>();
+        boolean terminated = false;
+        for (int start = 0; start < instanceIDs.size(); start += InstanceStatePoller.MAX_IDS_PER_CALL) {
+            List<String> batch = instanceIDs.subList(start,
+                    Math.min(instanceIDs.size(), start + InstanceStatePoller.MAX_IDS_PER_CALL));
+            Set<String> terminating = new HashSet<>();
+            Set<String> notFound = new HashSet<>();
+            CloudExceptions error = null;
+            try {
+                terminateBatch(ec2Client, batch, terminating, notFound);
+            }
+            catch (CloudExceptions | RuntimeException e) {
+                logger.atSevere().withCause(e).log("Unable to terminate %d instances in %s", batch.size(), region);
+                error = e instanceof CloudExceptions ? (CloudExceptions) e :
+                        new CloudExceptions("Unable to terminate the instances in " + region, e);
+            }
+            for (String instanceID : batch) {
+                for (int i : instances.get(instanceID)) {
+                    LaunchSpecifications member = members.get(i);
+                    if (terminating.contains(instanceID)) {
+                        results[i] = TerminationResult.terminating(member);
+                    }
+                    else if (notFound.contains(instanceID)) {
+                        results[i] = TerminationResult.notFound(member,
+                                new CloudExceptions("The instance " + instanceID + " does not exist in " + region));
+                    }
+                    else {
+                        results[i] = TerminationResult.failed(member, error != null ? error :
+                                new CloudExceptions("The instance " + instanceID + " was not terminated"));
+                        continue;
+                    }
+                    terminated = true;
+                    if (!isSharedKeyPair(member) && member.getInstanceName() != null) {
+                        keyPairNames.add(member.getInstanceName());
+                    }
+                }
+            }
+        }
+        deleteKeyPairs(ec2Client, keyPairNames);
+        return terminated;
+    }
+    
+    /*
+    A single unknown instance ID fails the whole call. The unknown IDs named in the error are reported as not found
+    and the call is made once more without them.
+     */
+    private void terminateBatch(EC2Gateway ec2Client, List<String> instanceIDs, Set<String> terminating,
+                                Set<String> notFound) throws CloudExceptions {
+        TerminateInstancesResponse response;
+        try {
+            response = ec2Client.terminateInstances(
+                    TerminateInstancesRequest.builder().instanceIds(instanceIDs).build());
+        }
+        catch (CloudExceptions e) {
+            Set<String> unknown = InstanceStatePoller.unknownInstanceIDs(e);
+            if (unknown == null || unknown.isEmpty()) {
+                throw e;
+            }
+            notFound.addAll(unknown);
+            List<String> known = new ArrayList<>(instanceIDs);
+            known.removeAll(unknown);
+            if (known.isEmpty()) {
+                return;
+            }
+            response = ec2Client.terminateInstances(TerminateInstancesRequest.builder().instanceIds(known).build());
+        }
+        for (InstanceStateChange change : response.terminatingInstances()) {
+            terminating.add(change.instanceId());
+            inventory.updateState(ec2Client, change.instanceId(), change.currentState());
+        }
+    }
+    
+    /**
+     * Deletes the per instance key pairs of terminated instances on background threads. A failed deletion only
+     * leaves a key pair behind, so it is logged and not reported.
+     */
+    private void deleteKeyPairs(EC2Gateway ec2Client, Set<String> keyPairNames) {
+        for (String keyPairName : keyPairNames) {
+            try {
+                keyPairCleanup().execute(() -> {
+                    try {
+                        keyPairManager.deleteKeyPair(ec2Client, keyPairName);
+                    }
+                    catch (CloudExceptions | RuntimeException e) {
+                        logger.atWarning().withCause(e).log("Unable to delete the key pair %s in %s", keyPairName,
+                                ec2Client.getRegion());
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                logger.atWarning().log("The accessor is closed. Key pair %s is left in %s", keyPairName,
+                        ec2Client.getRegion());
+            }
+        }
+    }
+    
+    private ExecutorService keyPairCleanup() {
+        if (keyPairCleanup == null) {
+            synchronized (this) {
+                if (keyPairCleanup == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    keyPairCleanup = Executors.newFixedThreadPool(KEY_PAIR_CLEANUP_THREADS, runnable -> {
+                        Thread thread = new Thread(runnable, "key-pair-cleanup-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return keyPairCleanup;
+    }
+    
+    /**
+     * Waits for an instance to be terminated, polling with the credentials of the instance on which the application
+     * is running. The instance is polled together with all the other instances waited on in the same region.
+     *
+     * @param instanceSpecifications Values of an instance being terminated, holding its instance ID
+     * @return future holding instanceSpecifications once the instance is terminated
+     */
+    @Override
+    public CompletableFuture<LaunchSpecifications> awaitTerminated(LaunchSpecifications instanceSpecifications) {
+        return statePoller.await(getEC2Client(instanceSpecifications.getRegion()), instanceSpecifications,
+                InstanceStateName.TERMINATED);
+    }
+    
+    /**
+     * Waits for an instance to be terminated, polling with the specified access and secret keys.
+     *
+     * @param accessKey              AWS Accesskey.
+     * @param secretKey              AWS Secretkey
+     * @param instanceSpecifications Values of an instance being terminated, holding its instance ID
+     * @return future holding instanceSpecifications once the instance is terminated
+     */
+    @Override
+    public CompletableFuture<LaunchSpecifications> awaitTerminated(
+            String accessKey, String secretKey, LaunchSpecifications instanceSpecifications) {
+        return statePoller.await(getEC2Client(accessKey, secretKey, instanceSpecifications.getRegion()),
+                instanceSpecifications, InstanceStateName.TERMINATED);
+    }
+    
+    /**
+     * Stops instances with the credentials of the instance on which the application is running, with StopInstances
+     * calls of up to 1000 instances each per region. Only instances with EBS root volumes can be stopped.
+     *
+     * @param instanceSpecifications Values of launched instances, holding their instance IDs
+     * @throws CloudExceptions Exception thrown when the instances of a region cannot be stopped
+     */
+    @Override
+    public void stopComputeInstances(Collection<LaunchSpecifications> instanceSpecifications)
+            throws CloudExceptions {
+        changeStates(instanceSpecifications, this::getEC2Client, false);
+    }
+    
+    /**
+     * Stops instances with the specified access and secret keys.
+     *
+     * @param accessKey              AWS Accesskey.
+     * @param secretKey              AWS Secretkey
+     * @param instanceSpecifications Values of launched instances, holding their instance IDs
+     * @throws CloudExceptions Exception thrown when the instances of a region cannot be stopped
+     */
+    @Override
+    public void stopComputeInstances(
+            String accessKey, String secretKey, Collection<LaunchSpecifications> instanceSpecifications)
+            throws CloudExceptions {
+        changeStates(instanceSpecifications, region -> getEC2Client(accessKey, secretKey, region), false);
+    }
+    
+    /**
+     * Waits for an instance to be stopped, polling with the credentials of the instance on which the application is
+     * running.
+     *
+     * @param instanceSpecifications Values of an instance being stopped, holding its instance ID
+     * @return future holding instanceSpecifications once the instance is stopped
+     */
+    @Override
+    public CompletableFuture<LaunchSpecifications> awaitStopped(LaunchSpecifications instanceSpecifications) {
+        return statePoller.await(getEC2Client(instanceSpecifications.getRegion()), instanceSpecifications,
+                InstanceStateName.STOPPED);
+    }
+    
+    /**
+     * Waits for an instance to be stopped, polling with the specified access and secret keys.
+     *
+     * @param accessKey              AWS Accesskey.
+     * @param secretKey              AWS Secretkey
+     * @param instanceSpecifications Values of an instance being stopped, holding its instance ID
+     * @return future holding instanceSpecifications once the instance is stopped
+     */
+    @Override
+    public CompletableFuture<LaunchSpecifications> awaitStopped(
+            String accessKey, String secretKey, LaunchSpecifications instanceSpecifications) {
+        return statePoller.await(getEC2Client(accessKey, secretKey, instanceSpecifications.getRegion()),
+                instanceSpecifications, InstanceStateName.STOPPED);
+    }
+    
+    /**
+     * Starts stopped instances with the credentials of the instance on which the application is running, with
+     * StartInstances calls of up to 1000 instances each per region. A start fails with InsufficientInstanceCapacity
+     * when EC2 is short of capacity for the instance type in the availability zone of the instance.
+     *
+     * @param instanceSpecifications Values of stopped instances, holding their instance IDs
+     * @throws CloudExceptions Exception thrown when the instances of a region cannot be started
+     */
+    @Override
+    public void startComputeInstances(Collection<LaunchSpecifications> instanceSpecifications)
+            throws CloudExceptions {
+        changeStates(instanceSpecifications, this::getEC2Client, true);
+    }
+    
+    /**
+     * Starts stopped instances with the specified access and secret keys.
+     *
+     * @param accessKey              AWS Accesskey.
+     * @param secretKey              AWS Secretkey
+     * @param instanceSpecifications Values of stopped instances, holding their instance IDs
+     * @throws CloudExceptions Exception thrown when the instances of a region cannot be started
+     */
+    @Override
+    public void startComputeInstances(
+            String accessKey, String secretKey, Collection<LaunchSpecifications> instanceSpecifications)
+            throws CloudExceptions {
+        changeStates(instanceSpecifications, region -> getEC2Client(accessKey, secretKey, region), true);
+    }
+    
+    /*
+    Starts or stops the instances region by region. A region which fails does not stop the others, and the first
+    failure is thrown once all the regions have been tried, with the others attached as suppressed exceptions.
+     */
+    private void changeStates(Collection<LaunchSpecifications> instanceSpecifications,
+                              Function<String, EC2Gateway> ec2Clients, boolean start) throws CloudExceptions {
+        if (instanceSpecifications == null) {
+            throw new CloudExceptions("No launch specifications specified");
+        }
+        String action = start ? "StartComputeInstances" : "StopComputeInstances";
+        Map<String, Set<String>> regions = new LinkedHashMap<>();
+        for (LaunchSpecifications instanceSpecification : instanceSpecifications) {
+            if (instanceSpecification.getInstanceID() == null || instanceSpecification.getRegion() == null) {
+                throw new CloudExceptions("The launch specifications of " + instanceSpecification.getInstanceName() +
+                        " has no instance ID or region");
+            }
+            regions.computeIfAbsent(instanceSpecification.getRegion(), r -> new LinkedHashSet<>())
+                    .add(instanceSpecification.getInstanceID());
+        }
+        CloudExceptions error = null;
+        for (Map.Entry<String, Set<String>> region : regions.entrySet()) {
+            OperationTimer timer = metrics.start(EC2Gateway.PROVIDER, region.getKey(), action);
+            List<String> instanceIDs = new ArrayList<>(region.getValue());
+            try {
+                EC2Gateway ec2Client = ec2Clients.apply(region.getKey());
+                for (int from = 0; from < instanceIDs.size(); from += InstanceStatePoller.MAX_IDS_PER_CALL) {
+                    List<String> batch = instanceIDs.subList(from,
+                            Math.min(instanceIDs.size(), from + InstanceStatePoller.MAX_IDS_PER_CALL));
+                    if (start) {
+                        ec2Client.startInstances(StartInstancesRequest.builder().instanceIds(batch).build());
+                    }
+                    else {
+                        ec2Client.stopInstances(StopInstancesRequest.builder().instanceIds(batch).build());
+                    }
+                }
+                timer.success();
+            }
+            catch (CloudExceptions | RuntimeException e) {
+                timer.failure();
+                logger.atSevere().withCause(e).log("Unable to %s %d instances in %s", start ? "start" : "stop",
+                        instanceIDs.size(), region.getKey());
+                CloudExceptions regionError = e instanceof CloudExceptions ? (CloudExceptions) e :
+                        new CloudExceptions("Unable to " + (start ? "start" : "stop") + " the instances in " +
+                                region.getKey(), e);
+                if (error == null) {
+                    error = regionError;
+                }
+                else {
+                    error.addSuppressed(regionError);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+    
+    /**
+     * Tags instances with the credentials of the instance on which the application is running. The tags written
+     * within a tenth of a second are merged per instance, and the instances of a region which end up with the same
+     * tags are tagged with CreateTags calls of up to 1000 instances each. Instances launched a moment ago which EC2
+     * does not know yet are tagged again a few times.
+     *
+     * @param instanceSpecifications Values of launched instances, holding their instance IDs
+     * @param tags                   The tags to write
+     * @return future completing once the instances are tagged. The future fails with CloudExceptions if an instance
+     * cannot be tagged.
+     */
+    @Override
+    public CompletableFuture<Void> tagComputeInstances(
+            Collection<LaunchSpecifications> instanceSpecifications, Map<String, String> tags) {
+        return tagComputeInstances(instanceSpecifications, tags, this::getEC2Client);
+    }
+    
+    /**
+     * Tags instances with the specified access and secret keys.
+     *
+     * @param accessKey              AWS Accesskey.
+     * @param secretKey              AWS Secretkey
+     * @param instanceSpecifications Values of launched instances, holding their instance IDs
+     * @param tags                   The tags to write
+     * @return future completing once the instances are tagged
+     */
+    @Override
+    public CompletableFuture<Void> tagComputeInstances(
+            String accessKey, String secretKey, Collection<LaunchSpecifications> instanceSpecifications,
+            Map<String, String> tags) {
+        return tagComputeInstances(instanceSpecifications, tags, region -> getEC2Client(accessKey, secretKey, region));
+    }
+    
+    private CompletableFuture<Void> tagComputeInstances(Collection<LaunchSpecifications> instanceSpecifications,
+                                                        Map<String, String> tags,
+                                                        Function<String, EC2Gateway> ec2Clients) {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        if (instanceSpecifications == null || tags == null) {
+            failed.completeExceptionally(new CloudExceptions("No launch specifications or tags specified"));
+            return failed;
+        }
+        Map<String, Set<String>> regions = new LinkedHashMap<>();
+        for (LaunchSpecifications instanceSpecification : instanceSpecifications) {
+            if (instanceSpecification.getInstanceID() == null || instanceSpecification.getRegion() == null) {
+                failed.completeExceptionally(new CloudExceptions("The launch specifications of " +
+                        instanceSpecification.getInstanceName() + " has no instance ID or region"));
+                return failed;
+            }
+            regions.computeIfAbsent(instanceSpecification.getRegion(), r -> new LinkedHashSet<>())
+                    .add(instanceSpecification.getInstanceID());
+        }
+        List<CompletableFuture<Void>> writes = new ArrayList<>(regions.size());
+        for (Map.Entry<String, Set<String>> region : regions.entrySet()) {
+            try {
+                writes.add(tagWriter.write(ec2Clients.apply(region.getKey()), region.getValue(), tags));
+            }
+            catch (RuntimeException e) {
+                CompletableFuture<Void> regionFailed = new CompletableFuture<>();
+                regionFailed.completeExceptionally(new CloudExceptions("Unable to tag the instances in " +
+                        region.getKey(), e));
+                writes.add(regionFailed);
+            }
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
+    }
+    
+    /**
+     * Lists instances from the local inventory, with the credentials of the instance on which the application is
+     * running. The first query for a region loads all its instances, the following queries are served from memory.
+     *
+     * @param query Criteria of the instances
+     * @return The instances of the inventory matching the query
+     * @throws CloudExceptions Exception thrown when the inventory of the region cannot be loaded
+     */
+    @Override
+    public List<ComputeInstance> listComputeInstances(InstanceQuery query) throws CloudExceptions {
+        String region = query.getRegion();
+        return inventory.index(INSTANCE_PROFILE_SCOPE, region, () -> getEC2Client(region)).query(query);
+    }
+    
+    /**
+     * Lists instances from the local inventory, with the specified access and secret keys. Each set of credentials
+     * has its own inventory.
+     *
+     * @param accessKey AWS Accesskey.
+     * @param secretKey AWS Secretkey
+     * @param query     Criteria of the instances
+     * @return The instances of the inventory matching the query
+     * @throws CloudExceptions Exception thrown when the inventory of the region cannot be loaded
+     */
+    @Override
+    public List<ComputeInstance> listComputeInstances(String accessKey, String secretKey, InstanceQuery query)
+            throws CloudExceptions {
+        String region = query.getRegion();
+        return inventory.index(accessKey, region, () -> getEC2Client(accessKey, secretKey, region)).query(query);
+    }
+    
+    /**
+     * @return The metrics of the EC2 calls, the launches and the construction of the EC2 clients of this accessor
+     */
+    @Override
+    public AccessorMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Returns the throttled EC2 calls for a cached Ec2Client with the credentials of the instance on which the
+     * application is running
      *
      * @param region String with region ID. This string should be one of those defined by AWS.
-     * @return Ec2Client instance
+     * @return EC2Gateway instance
      */
-    private Ec2Client getEC2Client(String region) {
-        InstanceProfileCredentialsProvider ipcp = InstanceProfileCredentialsProvider.create();
-        Region awsRegion = Region.of(region);
-        return Ec2Client.builder().credentialsProvider(ipcp).region(awsRegion).build();
+    private EC2Gateway getEC2Client(String region) {
+        return new EC2Gateway(clientCache.getClient(region), INSTANCE_PROFILE_SCOPE, region, throttler,
+                metrics);
     }
     
     /**
-     * Returns an Ec2Client with the credentials of the instance on which the application is running
+     * Returns the throttled EC2 calls for a cached Ec2Client with the specified access and secret keys
      *
      * @param accessKey The access key for the instance
      * @param secretKey The secret key for the instance
      * @param region    String with region ID. This string should be one of those defined by AWS.
-     * @return Ec2Client instance
-     */
-    private Ec2Client getEC2Client(String accessKey, String secretKey, String region) {
-        Region awsRegion = Region.of(region);
-        AwsBasicCredentials awsBasicCredentials = AwsBasicCredentials.create(accessKey, secretKey);
-        return Ec2Client.builder()
-                .credentialsProvider(StaticCredentialsProvider.create(awsBasicCredentials))
-                .region(awsRegion)
-                .build();
+     * @return EC2Gateway instance
+     */
+    private EC2Gateway getEC2Client(String accessKey, String secretKey, String region) {
+        return new EC2Gateway(clientCache.getClient(accessKey, secretKey, region), accessKey, region,
+                throttler, metrics);
     }
     
     /**
-     * Generates a key pair based on the name provided. This key pair is used to create EC2 instances.
-     * Key pairs are combination of public and private keys and is used for secure PKI communication.
-     * The created EC2 instances can be accessed only using this keypair.
+     * Closes all the EC2 clients held by this accessor along with their shared http client. Pending waits for
+     * instances fail, and pending key pair deletions are given a few seconds to complete. A throttler passed to the
+     * builder is left open, since it may be shared with other accessors.
+     */
+    @Override
+    public void close() {
+        statePoller.close();
+        tagWriter.close();
+        inventory.close();
+        if (journal != null) {
+            journal.close();
+        }
+        if (keyPairCleanup != null) {
+            keyPairCleanup.shutdown();
+            try {
+                if (!keyPairCleanup.awaitTermination(KEY_PAIR_CLEANUP_GRACE_SECONDS, TimeUnit.SECONDS)) {
+                    logger.atWarning().log("Some key pairs of terminated instances were not deleted");
+                    keyPairCleanup.shutdownNow();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                keyPairCleanup.shutdownNow();
+            }
+        }
+        if (ownsThrottler) {
+            throttler.close();
+        }
+        clientCache.close();
+    }
+    
+    /**
+     * Returns the private key for a launch. A shared key pair is reused if it already exists, otherwise a fresh key
+     * pair is created for the launch.
      *
-     * @param keyPairName The name for the key pair.
-     * @param ec2         The EC2 client for creating the key pair
-     * @param forceCreate if true, earlier keypairs with the keyPairName are deleted and a fresh
-     *                    keypair is created. If false, a new keypair with the keyPairName is created.
+     * @param ec2Client   The EC2 calls for the key pair
+     * @param keyPairName The name of the key pair
+     * @param shared      true if the key pair is shared by a group of instances
      * @return The key material of the private key
      */
-    private String generateKeyPair(String keyPairName, Ec2Client ec2, boolean forceCreate) {
-        DescribeKeyPairsResponse response = ec2.describeKeyPairs();
-    /*
-    Checks if the keypair is already present.
-     */
-        if (forceCreate) {
-            for (KeyPairInfo key_pair : response.keyPairs()) {
-                if (key_pair.keyName().equalsIgnoreCase(keyPairName)) {
-                    DeleteKeyPairRequest request =
-                            DeleteKeyPairRequest.builder().keyName(keyPairName).build();
-                    ec2.deleteKeyPair(request);
-                }
+    private String getPrivateKey(EC2Gateway ec2Client, String keyPairName, boolean shared) throws CloudExceptions {
+        String privateKey = shared ? keyPairManager.getSharedKeyPair(ec2Client, keyPairName) :
+                keyPairManager.createKeyPair(ec2Client, keyPairName);
+        if (privateKey == null || privateKey.isEmpty()) {
+            logger.atSevere().log("Unable to create the key pair %s", keyPairName);
+            throw new CloudExceptions("Unable to create the key pair " + keyPairName);
+        }
+        return privateKey;
+    }
+    
+    static boolean isSharedKeyPair(LaunchSpecifications instanceSpecifications) {
+        return ((AWSLaunchSpecifications) instanceSpecifications).getKeyPairName() != null;
+    }
+    
+    /**
+     * The key pair of an instance is either the shared key pair of its group or a key pair named after the instance.
+     */
+    static String keyPairName(LaunchSpecifications instanceSpecifications) {
+        String sharedKeyPairName = ((AWSLaunchSpecifications) instanceSpecifications).getKeyPairName();
+        return sharedKeyPairName != null ? sharedKeyPairName : instanceSpecifications.getInstanceName();
+    }
+    
+    /**
+     * Specifications which produce the same RunInstances request, user data included, in the same region and with the
+     * same capacity pools. The request is built without a key name, so it only holds the fields which are common to
+     * all the members of the group.
+     */
+    private static final class LaunchGroup {
+        private final String region;
+        private final RunInstancesRequest request;
+        private final List<PlacementEngine.Pool> pools;
+        
+        private LaunchGroup(String region, RunInstancesRequest request, List<PlacementEngine.Pool> pools) {
+            this.region = Objects.requireNonNull(region, "region");
+            this.request = request;
+            this.pools = pools;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LaunchGroup)) {
+                return false;
             }
+            LaunchGroup that = (LaunchGroup) o;
+            return region.equals(that.region) && request.equals(that.request) && pools.equals(that.pools);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(region, request, pools);
+        }
+    }
+    
+    public static final class Builder {
+        private EC2ClientCache clientCache = null;
+        private AWSKeyPairManager keyPairManager = null;
+        private RequestThrottler throttler = null;
+        private AccessorMetrics metrics = null;
+        private LaunchJournal journal = null;
+        private PlacementEngine placement = null;
+        private AWSMetadataCache metadataCache = null;
+        
+        private Builder() {
+        }
+        
+        /**
+         * @param clientCache Cache of EC2 clients. The accessor takes ownership of the cache.
+         * @return this builder
+         */
+        public Builder clientCache(EC2ClientCache clientCache) {
+            this.clientCache = clientCache;
+            return this;
+        }
+        
+        /**
+         * @param keyPairManager Manager of the key pairs used to launch instances
+         * @return this builder
+         */
+        public Builder keyPairManager(AWSKeyPairManager keyPairManager) {
+            this.keyPairManager = keyPairManager;
+            return this;
+        }
+        
+        /**
+         * @param throttler Rate limiting and retry layer for the EC2 calls. A throttler can be shared by several
+         *                  accessors so that they share the rate limits of the account. The accessor does not close
+         *                  it.
+         * @return this builder
+         */
+        public Builder throttler(RequestThrottler throttler) {
+            this.throttler = throttler;
+            return this;
+        }
+        
+        /**
+         * @param metrics Metrics of the EC2 calls and the launches. A DefaultAccessorMetrics is used if not set,
+         *                AccessorMetrics.noop() turns the metrics off. When the accessor creates its own client
+         *                cache, the cache records the construction of the clients in the same metrics.
+         * @return this builder
+         */
+        public Builder metrics(AccessorMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+        
+        /**
+         * @param journal Write-ahead journal of the launches, from which {@link #recoverLaunches()} finds out what
+         *                became of the launches interrupted by a crash. The accessor takes ownership of the journal.
+         *                Recovery is not run by the accessor, since the unfinished launches may have been made with
+         *                access keys it does not hold: call recoverLaunches with each set of credentials on startup.
+         * @return this builder
+         */
+        public Builder launchJournal(LaunchJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+        
+        /**
+         * @param placement Placement engine spreading the launches across the alternative subnets and instance types
+         *                  of the specifications. An engine can be shared by several accessors launching in the same
+         *                  account, so that they share what they learn about capacity. A new engine is created if
+         *                  not set.
+         * @return this builder
+         */
+        public Builder placementEngine(PlacementEngine placement) {
+            this.placement = placement;
+            return this;
+        }
+        
+        /**
+         * @param metadataCache Cache of the images, subnets and security groups, against which the specifications
+         *                      are checked before they are launched. A launch whose image, subnet or security group
+         *                      does not exist then fails without a RunInstances call. The specifications are not
+         *                      checked if not set.
+         * @return this builder
+         */
+        public Builder metadataCache(AWSMetadataCache metadataCache) {
+            this.metadataCache = metadataCache;
+            return this;
+        }
+        
+        public AWSAccessor build() {
+            return new AWSAccessor(this);
         }
-        CreateKeyPairRequest request = CreateKeyPairRequest.builder().keyName(keyPairName).build();
-        CreateKeyPairResponse createKeyPairResponse = ec2.createKeyPair(request);
-        return createKeyPairResponse.keyMaterial(); // Returns the private key.
     }
 }
@@ -0,0 +1,301 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import com.google.common.flogger.FluentLogger;
+import org.spectrum7.CloudAccessFramework.Accessors.AsyncCloudAccessor;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.AccessorMetrics;
+import org.spectrum7.CloudAccessFramework.Accessors.Throttling.RequestThrottler;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.RunInstancesResponse;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AsyncCloudAccessor backed by Ec2AsyncClient. The RunInstances call of every launch is a non blocking call running
+ * on the event loop of the shared netty http client, so a large number of launches can be in flight without holding a
+ * thread each. The calls go through a RequestThrottler, which delays and retries them on a timer thread instead of
+ * blocking.
+ * <p>
+ * The key pairs are managed by an AWSKeyPairManager, as for AWSAccessor: a launch with a shared key pair name reuses
+ * the pair without any key pair call once it is known, and a per instance key pair costs a single CreateKeyPair call.
+ * The manager makes blocking calls, which run on a small pool of key pair threads.
+ * <p>
+ * Every launch is made with a client token derived from the launch, as AWSAccessor does, and is recorded in the
+ * launch journal of the accessor if it has one. An AWSAccessor opened on the same journal after a crash finds out what
+ * became of the launches of both accessors with recoverLaunches.
+ */
+public class AWSAsyncAccessor implements AsyncCloudAccessor {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final String INSTANCE_PROFILE_SCOPE = "instance-profile";
+    private static final int KEY_PAIR_THREADS = 4;
+    private final EC2ClientCache clientCache;
+    private final RequestThrottler throttler;
+    private final boolean ownsThrottler;
+    private final AWSKeyPairManager keyPairManager;
+    private final LaunchJournal journal;
+    /* Sequence of the launches when there is no journal, starting from the clock so that it differs across runs */
+    private final AtomicLong launchSequence = new AtomicLong(System.currentTimeMillis() * 1000);
+    private volatile ExecutorService keyPairs = null;
+    
+    /**
+     * Creates an accessor with a client cache using the default limits.
+     */
+    public AWSAsyncAccessor() {
+        this(EC2ClientCache.create());
+    }
+    
+    /**
+     * Creates an accessor which obtains its EC2 clients from the specified cache. The accessor takes ownership of
+     * the cache and closes it when the accessor is closed.
+     *
+     * @param clientCache Cache of EC2 clients
+     */
+    public AWSAsyncAccessor(EC2ClientCache clientCache) {
+        this.clientCache = clientCache;
+        this.throttler = AWSAccessor.defaultThrottler();
+        this.ownsThrottler = true;
+        this.keyPairManager = AWSKeyPairManager.create();
+        this.journal = null;
+    }
+    
+    /**
+     * Creates an accessor which obtains its EC2 clients from the specified cache and rate limits its calls with the
+     * specified throttler. The throttler is not closed with the accessor, so it can be shared with other accessors.
+     *
+     * @param clientCache Cache of EC2 clients
+     * @param throttler   Rate limiting and retry layer for the EC2 calls
+     */
+    public AWSAsyncAccessor(EC2ClientCache clientCache, RequestThrottler throttler) {
+        this(clientCache, throttler, AWSKeyPairManager.create());
+    }
+    
+    /**
+     * Creates an accessor like {@link #AWSAsyncAccessor(EC2ClientCache, RequestThrottler)} which manages its key pairs
+     * with the specified manager, for instance one shared with an AWSAccessor.
+     *
+     * @param clientCache    Cache of EC2 clients
+     * @param throttler      Rate limiting and retry layer for the EC2 calls
+     * @param keyPairManager Manager of the key pairs used to launch instances
+     */
+    public AWSAsyncAccessor(EC2ClientCache clientCache, RequestThrottler throttler, AWSKeyPairManager keyPairManager) {
+        this(clientCache, throttler, keyPairManager, null);
+    }
+    
+    /**
+     * Creates an accessor like {@link #AWSAsyncAccessor(EC2ClientCache, RequestThrottler, AWSKeyPairManager)} which
+     * records its launches in a launch journal. The accessor takes ownership of the journal.
+     *
+     * @param clientCache    Cache of EC2 clients
+     * @param throttler      Rate limiting and retry layer for the EC2 calls
+     * @param keyPairManager Manager of the key pairs used to launch instances
+     * @param journal        Write-ahead journal of the launches. Null for none.
+     */
+    public AWSAsyncAccessor(EC2ClientCache clientCache, RequestThrottler throttler, AWSKeyPairManager keyPairManager,
+                            LaunchJournal journal) {
+        this.clientCache = clientCache;
+        this.throttler = throttler;
+        this.ownsThrottler = false;
+        this.keyPairManager = keyPairManager;
+        this.journal = journal;
+    }
+    
+    @Override
+    public CompletableFuture<LaunchSpecifications> createComputeInstance(
+            LaunchSpecifications instanceSpecifications) {
+        if (!(instanceSpecifications instanceof AWSLaunchSpecifications)) {
+            logger.atSevere().log(
+                    "The launch specifications is not of a suitable type. Expected AWS instance");
+            return failedFuture(new CloudExceptions("The launch specifications is not of a suitable type"));
+        }
+        String region = instanceSpecifications.getRegion();
+        Ec2AsyncClient ec2Client;
+        EC2Gateway keyPairClient;
+        try {
+            ec2Client = clientCache.getAsyncClient(region);
+            keyPairClient = new EC2Gateway(clientCache.getClient(region), INSTANCE_PROFILE_SCOPE, region, throttler,
+                    AccessorMetrics.noop());
+        }
+        catch (RuntimeException e) {
+            return failedFuture(new CloudExceptions("Unable to obtain an EC2 client instance", e));
+        }
+        return createComputeInstance(ec2Client, keyPairClient, instanceSpecifications);
+    }
+    
+    @Override
+    public CompletableFuture<LaunchSpecifications> createComputeInstance(
+            String accessKey, String secretKey, LaunchSpecifications instanceSpecifications) {
+        if (!(instanceSpecifications instanceof AWSLaunchSpecifications)) {
+            logger.atSevere().log(
+                    "The launch specifications is not of a suitable type. Expected AWS instance");
+            return failedFuture(new CloudExceptions("The launch specifications is not of a suitable type"));
+        }
+        String region = instanceSpecifications.getRegion();
+        Ec2AsyncClient ec2Client;
+        EC2Gateway keyPairClient;
+        try {
+            ec2Client = clientCache.getAsyncClient(accessKey, secretKey, region);
+            keyPairClient = new EC2Gateway(clientCache.getClient(accessKey, secretKey, region), accessKey, region,
+                    throttler, AccessorMetrics.noop());
+        }
+        catch (RuntimeException e) {
+            return failedFuture(new CloudExceptions("Unable to obtain an EC2 client instance", e));
+        }
+        return createComputeInstance(ec2Client, keyPairClient, instanceSpecifications);
+    }
+    
+    private CompletableFuture<LaunchSpecifications> createComputeInstance(
+            Ec2AsyncClient ec2Client, EC2Gateway keyPairClient, LaunchSpecifications instanceSpecifications) {
+        String instanceName = instanceSpecifications.getInstanceName();
+        String throttlingScope = keyPairClient.getScope() + '/' + keyPairClient.getRegion();
+        String keyName = AWSAccessor.keyPairName(instanceSpecifications);
+        boolean shared = AWSAccessor.isSharedKeyPair(instanceSpecifications);
+        long sequence = journal != null ? journal.nextSequence() : launchSequence.incrementAndGet();
+        RunInstancesRequest request;
+        try {
+            request = LaunchRequests.withClientToken(sequence, keyPairClient.getScope(), keyPairClient.getRegion(),
+                    LaunchRequests.withNameTag(LaunchRequests.runInstancesRequest(instanceSpecifications, keyName, 1)
+                            .toBuilder(), instanceSpecifications).build(),
+                    Collections.singletonList(instanceSpecifications));
+        }
+        catch (CloudExceptions e) {
+            return failedFuture(e);
+        }
+        CompletableFuture<LaunchSpecifications> launch = privateKey(keyPairClient, keyName, shared)
+                .thenCompose(privateKey -> {
+                    instanceSpecifications.setPrivateKey(privateKey);
+                    return runInstances(keyPairClient, throttlingScope, ec2Client, request, sequence,
+                            instanceSpecifications);
+                })
+                .thenApply(response -> {
+                    LaunchRequests.fill(instanceSpecifications, response.reservationId(), response.instances().get(0));
+                    return instanceSpecifications;
+                });
+        return wrapErrors(launch, "Unable to create the instance " + instanceName);
+    }
+    
+    /**
+     * Makes the RunInstances call of a launch, recorded in the launch journal until the outcome of the call is known.
+     */
+    private CompletableFuture<RunInstancesResponse> runInstances(
+            EC2Gateway keyPairClient, String throttlingScope, Ec2AsyncClient ec2Client, RunInstancesRequest request,
+            long sequence, LaunchSpecifications instanceSpecifications) {
+        List<LaunchSpecifications> members = Collections.singletonList(instanceSpecifications);
+        if (journal != null) {
+            try {
+                LaunchRequests.begin(journal, sequence, keyPairClient.getScope(), keyPairClient.getRegion(), request,
+                        members);
+            }
+            catch (CloudExceptions e) {
+                return failedFuture(e);
+            }
+        }
+        CompletableFuture<RunInstancesResponse> response = throttler.executeAsync(throttlingScope, "RunInstances",
+                false, () -> ec2Client.runInstances(request));
+        return response.whenComplete((value, error) -> LaunchRequests.end(journal, sequence, request, members,
+                error == null ? null : unwrap(error)));
+    }
+    
+    /**
+     * Obtains the private key of a launch from the key pair manager, on a key pair thread.
+     *
+     * @param ec2         The EC2 calls for the credentials and the region of the key pair
+     * @param keyPairName Name of the shared key pair, or of the key pair of the instance
+     * @param shared      true if the key pair is shared by a group of instances
+     * @return future holding the key material of the private key
+     */
+    private CompletableFuture<String> privateKey(EC2Gateway ec2, String keyPairName, boolean shared) {
+        CompletableFuture<String> privateKey = new CompletableFuture<>();
+        try {
+            keyPairs().execute(() -> {
+                try {
+                    privateKey.complete(shared ? keyPairManager.getSharedKeyPair(ec2, keyPairName) :
+                            keyPairManager.createKeyPair(ec2, keyPairName));
+                }
+                catch (CloudExceptions | RuntimeException e) {
+                    privateKey.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            privateKey.completeExceptionally(new CloudExceptions("The accessor has been closed", e));
+        }
+        return privateKey;
+    }
+    
+    private ExecutorService keyPairs() {
+        if (keyPairs == null) {
+            synchronized (this) {
+                if (keyPairs == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    keyPairs = Executors.newFixedThreadPool(KEY_PAIR_THREADS, runnable -> {
+                        Thread thread = new Thread(runnable, "key-pair-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return keyPairs;
+    }
+    
+    /**
+     * Closes all the EC2 clients held by this accessor along with their shared http client, and the launch journal.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (keyPairs != null) {
+                keyPairs.shutdownNow();
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (ownsThrottler) {
+            throttler.close();
+        }
+        clientCache.close();
+    }
+    
+    private static <T> CompletableFuture<T> wrapErrors(CompletableFuture<T> future, String errorMessage) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            }
+            else {
+                Throwable cause = unwrap(error);
+                logger.atSevere().withCause(cause).log("%s", errorMessage);
+                result.completeExceptionally(
+                        cause instanceof CloudExceptions ? cause : new CloudExceptions(errorMessage, cause));
+            }
+        });
+        return result;
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) &&
+                cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+    
+    private static <T> CompletableFuture<T> failedFuture(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+}
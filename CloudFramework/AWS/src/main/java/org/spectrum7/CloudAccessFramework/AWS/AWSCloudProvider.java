@@ -0,0 +1,27 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.CloudAccessor;
+import org.spectrum7.CloudAccessFramework.Accessors.CloudType;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.Accessors.Providers.CloudProvider;
+
+/**
+ * AWS provider of the provider registry. The AWS SDK is loaded only when launch specifications or an accessor are
+ * first created.
+ */
+public final class AWSCloudProvider implements CloudProvider {
+    @Override
+    public CloudType getCloudType() {
+        return CloudType.AWS;
+    }
+    
+    @Override
+    public LaunchSpecifications newLaunchSpecifications() {
+        return new AWSLaunchSpecifications();
+    }
+    
+    @Override
+    public CloudAccessor newAccessor() {
+        return new AWSAccessor();
+    }
+}
@@ -0,0 +1,59 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Credentials.CloudCredentials;
+import org.spectrum7.CloudAccessFramework.Accessors.Credentials.RefreshingCredentials;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+/**
+ * AwsCredentialsProvider handing out the shared RefreshingCredentials of an identity to the SDK clients. The SDK
+ * credentials are converted once per set of credentials, not on every request.
+ */
+final class AWSCredentialsProvider implements AwsCredentialsProvider {
+    private final RefreshingCredentials credentials;
+    private volatile Converted converted = null;
+    
+    AWSCredentialsProvider(RefreshingCredentials credentials) {
+        this.credentials = credentials;
+    }
+    
+    @Override
+    public AwsCredentials resolveCredentials() {
+        CloudCredentials current;
+        try {
+            current = credentials.get();
+        }
+        catch (CloudExceptions e) {
+            throw SdkClientException.builder().message(e.getMessage()).cause(e).build();
+        }
+        Converted last = converted;
+        if (last != null && last.source == current) {
+            return last.awsCredentials;
+        }
+        AwsCredentials awsCredentials = current.getSessionToken() == null ?
+                AwsBasicCredentials.create(current.getAccessKey(), current.getSecretKey()) :
+                AwsSessionCredentials.create(current.getAccessKey(), current.getSecretKey(),
+                        current.getSessionToken());
+        converted = new Converted(current, awsCredentials);
+        return awsCredentials;
+    }
+    
+    @Override
+    public String toString() {
+        return "AWSCredentialsProvider{identity=" + credentials.getIdentity() + '}';
+    }
+    
+    private static final class Converted {
+        private final CloudCredentials source;
+        private final AwsCredentials awsCredentials;
+        
+        private Converted(CloudCredentials source, AwsCredentials awsCredentials) {
+            this.source = source;
+            this.awsCredentials = awsCredentials;
+        }
+    }
+}
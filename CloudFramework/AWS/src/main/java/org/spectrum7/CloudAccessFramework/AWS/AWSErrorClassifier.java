@@ -0,0 +1,85 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Throttling.ErrorClassifier;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Classifies the errors returned by the EC2 API for the RequestThrottler.
+ */
+public class AWSErrorClassifier implements ErrorClassifier {
+    private static final Set<String> THROTTLING_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "RequestLimitExceeded", "Throttling", "ThrottlingException", "ThrottledException",
+            "RequestThrottled", "RequestThrottledException", "TooManyRequestsException"));
+    private static final Set<String> TRANSIENT_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "InternalError", "InternalFailure", "ServiceUnavailable", "Unavailable", "RequestTimeout",
+            "RequestTimeoutException"));
+    /*
+    Capacity errors are returned with a 5xx status code but retrying the same request is pointless.
+     */
+    private static final Set<String> CAPACITY_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "InsufficientInstanceCapacity", "InsufficientHostCapacity", "InsufficientReservedInstanceCapacity",
+            "InsufficientCapacity"));
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int INTERNAL_SERVER_ERROR = 500;
+    
+    @Override
+    public boolean isThrottle(Throwable error) {
+        AwsServiceException serviceException = serviceException(error);
+        if (serviceException == null) {
+            return false;
+        }
+        return serviceException.statusCode() == TOO_MANY_REQUESTS ||
+                THROTTLING_ERROR_CODES.contains(errorCode(serviceException));
+    }
+    
+    @Override
+    public boolean isTransient(Throwable error) {
+        if (error instanceof SdkClientException) {
+            return true;
+        }
+        AwsServiceException serviceException = serviceException(error);
+        if (serviceException == null) {
+            return false;
+        }
+        String errorCode = errorCode(serviceException);
+        if (CAPACITY_ERROR_CODES.contains(errorCode)) {
+            return false;
+        }
+        return TRANSIENT_ERROR_CODES.contains(errorCode) || serviceException.statusCode() >= INTERNAL_SERVER_ERROR;
+    }
+    
+    /**
+     * @param error Error thrown by an EC2 call, possibly wrapped in CloudExceptions
+     * @return true if EC2 did not have the capacity to launch the requested instances
+     */
+    public static boolean isInsufficientCapacity(Throwable error) {
+        AwsServiceException serviceException = serviceException(error);
+        return serviceException != null && CAPACITY_ERROR_CODES.contains(errorCode(serviceException));
+    }
+    
+    /**
+     * @param error Error thrown by an EC2 call, possibly wrapped in CloudExceptions
+     * @return The EC2 error code. Null if the error did not come from EC2.
+     */
+    public static String errorCode(Throwable error) {
+        AwsServiceException serviceException = serviceException(error);
+        return serviceException == null ? null : errorCode(serviceException);
+    }
+    
+    private static String errorCode(AwsServiceException serviceException) {
+        return serviceException.awsErrorDetails() == null ? null : serviceException.awsErrorDetails().errorCode();
+    }
+    
+    private static AwsServiceException serviceException(Throwable error) {
+        Throwable cause = error;
+        while (cause != null && !(cause instanceof AwsServiceException)) {
+            cause = cause.getCause();
+        }
+        return (AwsServiceException) cause;
+    }
+}
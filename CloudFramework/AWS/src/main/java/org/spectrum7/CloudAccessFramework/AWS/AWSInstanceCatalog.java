@@ -0,0 +1,467 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import com.google.common.flogger.FluentLogger;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import software.amazon.awssdk.services.ec2.model.InstanceType;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Offline catalog of the AWS regions and instance types, with the capacity of each instance type. A versioned
+ * catalog is bundled with the module, so that launch specifications can be validated and sized without any API call.
+ * <p>
+ * The instance types are held in order of price, and indexed by region, architecture and minimum vCPUs, memory and
+ * GPUs with bit sets over that order. A query intersects the bit sets of its criteria, and the first type left is the
+ * cheapest.
+ */
+public final class AWSInstanceCatalog {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final String RESOURCE = "instance-catalog.csv";
+    private static final String ALL_REGIONS = "*";
+    private static final BitSet NONE = new BitSet();
+    private final String version;
+    private final Map<String, RegionInfo> regions;
+    private final Map<String, InstanceTypeInfo> instanceTypes;
+    private final Map<String, List<InstanceTypeInfo>> families;
+    /* Instance types in order of price. The bit sets index this array. */
+    private final InstanceTypeInfo[] byPrice;
+    private final Map<String, BitSet> offeredIn;
+    private final Map<String, BitSet> architectures;
+    private final BitSet burstable;
+    private final Threshold vcpus;
+    private final Threshold memory;
+    private final Threshold gpus;
+    
+    private AWSInstanceCatalog(String version, Map<String, RegionInfo> regions, List<InstanceTypeInfo> instanceTypes,
+                               Map<String, List<String>> typeRegions) {
+        this.version = version;
+        this.regions = Collections.unmodifiableMap(regions);
+        this.byPrice = instanceTypes.toArray(new InstanceTypeInfo[0]);
+        Arrays.sort(byPrice, Comparator.comparingDouble(InstanceTypeInfo::getHourlyPrice)
+                .thenComparingInt(InstanceTypeInfo::getVcpus)
+                .thenComparingDouble(InstanceTypeInfo::getMemoryGiB)
+                .thenComparing(InstanceTypeInfo::getName));
+        Map<String, InstanceTypeInfo> byName = new HashMap<>();
+        Map<String, List<InstanceTypeInfo>> byFamily = new HashMap<>();
+        this.offeredIn = new HashMap<>();
+        this.architectures = new HashMap<>();
+        this.burstable = new BitSet(byPrice.length);
+        for (int i = 0; i < byPrice.length; i++) {
+            InstanceTypeInfo instanceType = byPrice[i];
+            instanceType.index = i;
+            byName.put(instanceType.name, instanceType);
+            byFamily.computeIfAbsent(instanceType.family, f -> new ArrayList<>()).add(instanceType);
+            List<String> offered = typeRegions.get(instanceType.name);
+            for (String region : offered.contains(ALL_REGIONS) ? regions.keySet() : offered) {
+                offeredIn.computeIfAbsent(region, r -> new BitSet(byPrice.length)).set(i);
+            }
+            for (String architecture : instanceType.architectures) {
+                architectures.computeIfAbsent(architecture, a -> new BitSet(byPrice.length)).set(i);
+            }
+            if (instanceType.isBurstable()) {
+                burstable.set(i);
+            }
+        }
+        /* Families are listed by size, the order of price within a family */
+        byFamily.replaceAll((family, members) -> Collections.unmodifiableList(members));
+        this.instanceTypes = byName;
+        this.families = byFamily;
+        this.vcpus = new Threshold(byPrice, InstanceTypeInfo::getVcpus);
+        this.memory = new Threshold(byPrice, InstanceTypeInfo::getMemoryMiB);
+        this.gpus = new Threshold(byPrice, InstanceTypeInfo::getGpus);
+    }
+    
+    /**
+     * Returns the catalog bundled with the module, read on first use. If the bundled catalog cannot be read, the
+     * catalog returned is empty.
+     *
+     * @return The bundled catalog
+     */
+    public static AWSInstanceCatalog getDefault() {
+        return DefaultCatalog.CATALOG;
+    }
+    
+    /**
+     * Reads a catalog file in the format of the bundled catalog, such as a more recent version of it.
+     *
+     * @param file The catalog file
+     * @return The catalog
+     * @throws IOException Exception thrown when the file cannot be read or is malformed
+     */
+    public static AWSInstanceCatalog load(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(reader, file.toString());
+        }
+    }
+    
+    private static AWSInstanceCatalog parse(BufferedReader reader, String source) throws IOException {
+        String version = null;
+        Map<String, RegionInfo> regions = new LinkedHashMap<>();
+        List<InstanceTypeInfo> instanceTypes = new ArrayList<>();
+        Map<String, List<String>> typeRegions = new HashMap<>();
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            try {
+                switch (fields[0]) {
+                    case "version":
+                        version = fields[1];
+                        break;
+                    case "region":
+                        regions.put(fields[1], new RegionInfo(fields[1], fields[2]));
+                        break;
+                    case "type":
+                        InstanceType awsInstanceType = InstanceType.fromValue(fields[1]);
+                        if (awsInstanceType == InstanceType.UNKNOWN_TO_SDK_VERSION) {
+                            /* The catalog may be more recent than the SDK, which could not launch the type */
+                            logger.atFine().log("Skipping instance type %s unknown to the SDK", fields[1]);
+                            break;
+                        }
+                        instanceTypes.add(new InstanceTypeInfo(fields[1], awsInstanceType, Integer.parseInt(fields[2]),
+                                Double.parseDouble(fields[3]), Arrays.asList(fields[4].split(";")), fields[5],
+                                Integer.parseInt(fields[6]), Double.parseDouble(fields[7])));
+                        typeRegions.put(fields[1], Arrays.asList(fields[8].split(";")));
+                        break;
+                    default:
+                        throw new IOException(
+                                "Unknown record " + fields[0] + " on line " + lineNumber + " of " + source);
+                }
+            }
+            catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                throw new IOException("Malformed line " + lineNumber + " of " + source, e);
+            }
+        }
+        if (version == null) {
+            throw new IOException("The catalog " + source + " has no version");
+        }
+        return new AWSInstanceCatalog(version, regions, instanceTypes, typeRegions);
+    }
+    
+    /**
+     * @return The version of the catalog
+     */
+    public String getVersion() {
+        return version;
+    }
+    
+    /**
+     * @param region The region ID, such as us-east-1
+     * @return The region. Null if the catalog does not know it.
+     */
+    public RegionInfo getRegion(String region) {
+        return region == null ? null : regions.get(region);
+    }
+    
+    /**
+     * @return The regions of the catalog
+     */
+    public Collection<RegionInfo> getRegions() {
+        return regions.values();
+    }
+    
+    /**
+     * @param instanceType The name of the instance type, such as m5.large
+     * @return The instance type. Null if the catalog does not know it.
+     */
+    public InstanceTypeInfo getInstanceType(String instanceType) {
+        return instanceType == null ? null : instanceTypes.get(instanceType);
+    }
+    
+    /**
+     * @param family The family of instance types, such as m5
+     * @return The instance types of the family, from the smallest to the largest. Empty if the catalog does not know
+     * the family.
+     */
+    public List<InstanceTypeInfo> getFamily(String family) {
+        return families.getOrDefault(family, Collections.emptyList());
+    }
+    
+    /**
+     * @param instanceType The name of the instance type
+     * @param region       The region ID
+     * @return true if the instance type is offered in the region
+     */
+    public boolean isOffered(String instanceType, String region) {
+        InstanceTypeInfo info = getInstanceType(instanceType);
+        return info != null && offeredIn.getOrDefault(region, NONE).get(info.index);
+    }
+    
+    /**
+     * Checks that the region and the instance type of launch specifications are known to the catalog, and that the
+     * instance type is offered in the region. Specifications launched from a launch template without an instance
+     * type are only checked for their region.
+     *
+     * @param launchSpecifications The launch specifications
+     * @throws CloudExceptions Exception thrown when the region or the instance type is unknown, or when the instance
+     *                         type is not offered in the region
+     */
+    public void validate(LaunchSpecifications launchSpecifications) throws CloudExceptions {
+        String region = launchSpecifications.getRegion();
+        if (getRegion(region) == null) {
+            throw new CloudExceptions("Region " + region + " is not in the instance catalog " + version);
+        }
+        String instanceType = launchSpecifications.getInstanceType();
+        if (instanceType == null) {
+            return;
+        }
+        if (getInstanceType(instanceType) == null) {
+            throw new CloudExceptions("Instance type " + instanceType + " is not in the instance catalog " + version);
+        }
+        if (!isOffered(instanceType, region)) {
+            throw new CloudExceptions("Instance type " + instanceType + " is not offered in " + region);
+        }
+    }
+    
+    /**
+     * Finds the instance types meeting requirements.
+     *
+     * @param region       The region ID. Null for any region.
+     * @param requirements The minimum capacity
+     * @return The instance types meeting the requirements, from the cheapest to the most expensive
+     */
+    public List<InstanceTypeInfo> find(String region, InstanceTypeRequirements requirements) {
+        BitSet matches = matches(region, requirements);
+        List<InstanceTypeInfo> found = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            found.add(byPrice[i]);
+        }
+        return found;
+    }
+    
+    /**
+     * Finds the cheapest instance type meeting requirements. Among types of the same price, the smallest is chosen.
+     * Prices are the on-demand Linux prices of us-east-1, which rank the instance types in the other regions as well.
+     *
+     * @param region       The region ID. Null for any region.
+     * @param requirements The minimum capacity
+     * @return The cheapest instance type. Null if no instance type meets the requirements.
+     */
+    public InstanceTypeInfo findCheapest(String region, InstanceTypeRequirements requirements) {
+        int cheapest = matches(region, requirements).nextSetBit(0);
+        return cheapest < 0 ? null : byPrice[cheapest];
+    }
+    
+    private BitSet matches(String region, InstanceTypeRequirements requirements) {
+        BitSet matches = (BitSet) vcpus.atLeast(requirements.getMinVcpus()).clone();
+        matches.and(memory.atLeast((int) Math.ceil(requirements.getMinMemoryGiB() * 1024)));
+        matches.and(gpus.atLeast(requirements.getMinGpus()));
+        if (region != null) {
+            matches.and(offeredIn.getOrDefault(region, NONE));
+        }
+        if (requirements.getArchitecture() != null) {
+            matches.and(architectures.getOrDefault(requirements.getArchitecture(), NONE));
+        }
+        if (!requirements.isBurstable()) {
+            matches.andNot(burstable);
+        }
+        return matches;
+    }
+    
+    @Override
+    public String toString() {
+        return "AWSInstanceCatalog{version=" + version + ", regions=" + regions.size() + ", instanceTypes=" +
+                byPrice.length + '}';
+    }
+    
+    /*
+    Instance types with at least a given value of a capacity. The distinct values are sorted, and each has the set of
+    the types with at least that value.
+     */
+    private static final class Threshold {
+        private final int[] levels;
+        private final BitSet[] atLeast;
+        
+        private Threshold(InstanceTypeInfo[] instanceTypes, ToIntFunction<InstanceTypeInfo> capacity) {
+            this.levels = Arrays.stream(instanceTypes).mapToInt(capacity).distinct().sorted().toArray();
+            this.atLeast = new BitSet[levels.length];
+            for (int level = 0; level < levels.length; level++) {
+                atLeast[level] = new BitSet(instanceTypes.length);
+                for (int i = 0; i < instanceTypes.length; i++) {
+                    if (capacity.applyAsInt(instanceTypes[i]) >= levels[level]) {
+                        atLeast[level].set(i);
+                    }
+                }
+            }
+        }
+        
+        private BitSet atLeast(int value) {
+            int level = Arrays.binarySearch(levels, value);
+            if (level < 0) {
+                /* The smallest level above the value */
+                level = -level - 1;
+            }
+            return level < levels.length ? atLeast[level] : NONE;
+        }
+    }
+    
+    private static final class DefaultCatalog {
+        private static final AWSInstanceCatalog CATALOG = loadDefault();
+        
+        private static AWSInstanceCatalog loadDefault() {
+            try (InputStream in = AWSInstanceCatalog.class.getResourceAsStream(RESOURCE)) {
+                if (in == null) {
+                    throw new IOException("Resource " + RESOURCE + " not found");
+                }
+                return parse(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), RESOURCE);
+            }
+            catch (IOException e) {
+                logger.atSevere().withCause(e).log("Unable to read the bundled instance catalog");
+                return new AWSInstanceCatalog("none", new LinkedHashMap<>(), new ArrayList<>(), new HashMap<>());
+            }
+        }
+    }
+    
+    /**
+     * A region of the catalog.
+     */
+    public static final class RegionInfo {
+        private final String id;
+        private final String name;
+        
+        private RegionInfo(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+        
+        /**
+         * @return The region ID, such as us-east-1
+         */
+        public String getId() {
+            return id;
+        }
+        
+        /**
+         * @return The display name of the region
+         */
+        public String getName() {
+            return name;
+        }
+        
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+    
+    /**
+     * An instance type of the catalog, with its capacity.
+     */
+    public static final class InstanceTypeInfo {
+        private final String name;
+        private final String family;
+        private final InstanceType awsInstanceType;
+        private final int vcpus;
+        private final double memoryGiB;
+        private final List<String> architectures;
+        private final String networkPerformance;
+        private final int gpus;
+        private final double hourlyPrice;
+        /* Position in the price order of the catalog */
+        private int index = -1;
+        
+        private InstanceTypeInfo(String name, InstanceType awsInstanceType, int vcpus, double memoryGiB,
+                                 List<String> architectures, String networkPerformance, int gpus,
+                                 double hourlyPrice) {
+            this.name = name;
+            this.family = name.substring(0, name.indexOf('.'));
+            this.awsInstanceType = awsInstanceType;
+            this.vcpus = vcpus;
+            this.memoryGiB = memoryGiB;
+            this.architectures = Collections.unmodifiableList(architectures);
+            this.networkPerformance = networkPerformance;
+            this.gpus = gpus;
+            this.hourlyPrice = hourlyPrice;
+        }
+        
+        /**
+         * @return The name of the instance type, such as m5.large
+         */
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * @return The family of the instance type, such as m5
+         */
+        public String getFamily() {
+            return family;
+        }
+        
+        InstanceType getAwsInstanceType() {
+            return awsInstanceType;
+        }
+        
+        public int getVcpus() {
+            return vcpus;
+        }
+        
+        public double getMemoryGiB() {
+            return memoryGiB;
+        }
+        
+        private int getMemoryMiB() {
+            return (int) Math.round(memoryGiB * 1024);
+        }
+        
+        /**
+         * @return The processor architectures supported, such as x86_64 or arm64
+         */
+        public List<String> getArchitectures() {
+            return architectures;
+        }
+        
+        /**
+         * @return The network performance as published by AWS, such as "Up to 10 Gigabit"
+         */
+        public String getNetworkPerformance() {
+            return networkPerformance;
+        }
+        
+        public int getGpus() {
+            return gpus;
+        }
+        
+        /**
+         * @return The on-demand Linux price per hour in us-east-1, in USD
+         */
+        public double getHourlyPrice() {
+            return hourlyPrice;
+        }
+        
+        /**
+         * @return true if the CPU of the instance type is burstable, and throttled once its credits are spent
+         */
+        public boolean isBurstable() {
+            return family.startsWith("t");
+        }
+        
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
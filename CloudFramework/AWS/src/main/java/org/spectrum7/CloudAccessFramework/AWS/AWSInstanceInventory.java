@@ -0,0 +1,324 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import com.google.common.flogger.FluentLogger;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.ComputeInstance;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.ComputeInstanceState;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.InstanceIndex;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.InstanceQuery;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.Filter;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceState;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Local inventory of the instances of each credentials identity and region, loaded on first use with a paginated
+ * DescribeInstances listing.
+ * <p>
+ * EC2 has no API returning the instances changed since a point in time, so the inventory is kept up to date with
+ * cheaper incremental refreshes: the instances in a transitional state are described by ID, and the instances
+ * launched or started since the previous refresh are listed with a launch-time filter. Changes made by other clients to
+ * stable instances (stopping or terminating a running instance) are picked up by a full listing at a lower cadence.
+ * The launches of the accessor and the states observed by the instance state poller are applied directly.
+ */
+final class AWSInstanceInventory implements AutoCloseable {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final int MAX_RESULTS = 1000;
+    static final int MAX_FILTER_VALUES = 200;
+    /* Launches which EC2 may not list yet, or may have timed on a clock running behind ours */
+    private static final Duration LAUNCH_TIME_MARGIN = Duration.ofMinutes(1);
+    private static final DateTimeFormatter LAUNCH_MINUTE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm")
+            .withZone(ZoneOffset.UTC);
+    private final Map<String, RegionInventory> regions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final long refreshIntervalNanos;
+    private final long reconcileIntervalNanos;
+    
+    /**
+     * @param refreshInterval   Interval between incremental refreshes of a region
+     * @param reconcileInterval Interval between full listings of a region
+     */
+    AWSInstanceInventory(Duration refreshInterval, Duration reconcileInterval) {
+        this.refreshIntervalNanos = refreshInterval.toNanos();
+        this.reconcileIntervalNanos = reconcileInterval.toNanos();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "instance-inventory");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+    
+    static AWSInstanceInventory create() {
+        return new AWSInstanceInventory(Duration.ofSeconds(30), Duration.ofMinutes(5));
+    }
+    
+    /**
+     * Returns the index of the instances of a credentials identity and region. The first call for a region lists
+     * all its instances and schedules the refreshes, the following calls return the index as it is.
+     *
+     * @param scope  Identity of the credentials
+     * @param region Region of the instances
+     * @param ec2    Supplies the EC2 calls for the credentials and the region
+     * @return InstanceIndex instance
+     * @throws CloudExceptions Exception thrown when the initial listing fails
+     */
+    InstanceIndex index(String scope, String region, Supplier<EC2Gateway> ec2) throws CloudExceptions {
+        RegionInventory inventory = regions.computeIfAbsent(scope + '/' + region,
+                k -> new RegionInventory(region, ec2));
+        inventory.load();
+        return inventory.index;
+    }
+    
+    /**
+     * Applies the current state of an instance, as returned by an EC2 call. Ignored if the inventory of the region
+     * has not been loaded.
+     *
+     * @param ec2      The EC2 calls the instance was returned by
+     * @param instance The instance
+     */
+    void update(EC2Gateway ec2, Instance instance) {
+        RegionInventory inventory = regions.get(ec2.getScope() + '/' + ec2.getRegion());
+        if (inventory != null && inventory.loaded) {
+            inventory.index.put(toComputeInstance(ec2.getRegion(), instance));
+        }
+    }
+    
+    /**
+     * Applies a state change of an instance, as returned by calls such as TerminateInstances which do not return the
+     * whole instance. Ignored if the instance is not in the inventory.
+     *
+     * @param ec2        The EC2 calls the state change was returned by
+     * @param instanceID ID of the instance
+     * @param state      The current state of the instance
+     */
+    void updateState(EC2Gateway ec2, String instanceID, InstanceState state) {
+        RegionInventory inventory = regions.get(ec2.getScope() + '/' + ec2.getRegion());
+        if (inventory == null || !inventory.loaded) {
+            return;
+        }
+        ComputeInstance instance = inventory.index.get(instanceID);
+        if (instance != null) {
+            inventory.index.put(instance.toBuilder().state(toState(state)).build());
+        }
+    }
+    
+    /**
+     * Applies tags written to instances, as they are not returned by CreateTags. Ignored for the instances which are
+     * not in the inventory.
+     *
+     * @param ec2         The EC2 calls the tags were written with
+     * @param instanceIDs IDs of the instances
+     * @param tags        The tags written, added to the tags of the instances
+     */
+    void updateTags(EC2Gateway ec2, Collection<String> instanceIDs, Map<String, String> tags) {
+        RegionInventory inventory = regions.get(ec2.getScope() + '/' + ec2.getRegion());
+        if (inventory == null || !inventory.loaded) {
+            return;
+        }
+        for (String instanceID : instanceIDs) {
+            ComputeInstance instance = inventory.index.get(instanceID);
+            if (instance != null) {
+                Map<String, String> merged = new LinkedHashMap<>(instance.getTags());
+                merged.putAll(tags);
+                inventory.index.put(instance.toBuilder().tags(merged).build());
+            }
+        }
+    }
+    
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+    
+    /**
+     * @param region   Region of the instance
+     * @param instance Instance returned by EC2
+     * @return ComputeInstance holding the values of the instance
+     */
+    static ComputeInstance toComputeInstance(String region, Instance instance) {
+        Map<String, String> tags = instance.tags() == null ? Collections.emptyMap() :
+                instance.tags().stream().collect(Collectors.toMap(Tag::key, Tag::value, (a, b) -> b));
+        return ComputeInstance.builder()
+                .instanceID(instance.instanceId())
+                .region(region)
+                .state(toState(instance.state()))
+                .instanceType(instance.instanceTypeAsString())
+                .imageID(instance.imageId())
+                .subnetID(instance.subnetId())
+                .vpcID(instance.vpcId())
+                .privateIPAddress(instance.privateIpAddress())
+                .publicIPAddress(instance.publicIpAddress())
+                .publicHostName(instance.publicDnsName() == null || instance.publicDnsName().isEmpty() ? null :
+                        instance.publicDnsName())
+                .launchTime(instance.launchTime())
+                .tags(tags)
+                .build();
+    }
+    
+    private static ComputeInstanceState toState(InstanceState state) {
+        if (state == null || state.nameAsString() == null) {
+            return ComputeInstanceState.UNKNOWN;
+        }
+        switch (state.nameAsString()) {
+            case "pending":
+                return ComputeInstanceState.PENDING;
+            case "running":
+                return ComputeInstanceState.RUNNING;
+            case "stopping":
+                return ComputeInstanceState.STOPPING;
+            case "stopped":
+                return ComputeInstanceState.STOPPED;
+            case "shutting-down":
+                return ComputeInstanceState.SHUTTING_DOWN;
+            case "terminated":
+                return ComputeInstanceState.TERMINATED;
+            default:
+                return ComputeInstanceState.UNKNOWN;
+        }
+    }
+    
+    private final class RegionInventory {
+        private final String region;
+        private final Supplier<EC2Gateway> ec2;
+        private final InstanceIndex index = new InstanceIndex();
+        private volatile boolean loaded = false;
+        private long lastListingNanos;
+        /* The launches from this time on are listed by the next refresh */
+        private Instant launchedSince;
+        
+        private RegionInventory(String region, Supplier<EC2Gateway> ec2) {
+            this.region = region;
+            this.ec2 = ec2;
+        }
+        
+        private void load() throws CloudExceptions {
+            if (loaded) {
+                return;
+            }
+            synchronized (this) {
+                if (!loaded) {
+                    listAll();
+                    loaded = true;
+                    scheduler.scheduleWithFixedDelay(this::refresh, refreshIntervalNanos, refreshIntervalNanos,
+                            TimeUnit.NANOSECONDS);
+                    logger.atInfo().log("Loaded %d instances in %s", index.size(), region);
+                }
+            }
+        }
+        
+        private synchronized void refresh() {
+            try {
+                if (System.nanoTime() - lastListingNanos >= reconcileIntervalNanos) {
+                    listAll();
+                    return;
+                }
+                EC2Gateway gateway = ec2.get();
+                List<String> transitional = index.query(InstanceQuery.builder(region)
+                        .states(ComputeInstanceState.PENDING, ComputeInstanceState.STOPPING,
+                                ComputeInstanceState.SHUTTING_DOWN)
+                        .build())
+                        .stream().map(ComputeInstance::getInstanceID).collect(Collectors.toList());
+                for (int start = 0; start < transitional.size(); start += MAX_FILTER_VALUES) {
+                    List<String> batch = transitional.subList(start,
+                            Math.min(transitional.size(), start + MAX_FILTER_VALUES));
+                    long mark = index.mark();
+                    index.replaceAll(list(gateway, Filter.builder().name("instance-id").values(batch).build()),
+                            batch, mark);
+                }
+                /*
+                Launching or starting an instance sets its launch time. The filter matches launch times by prefix, so
+                the minutes since the previous refresh are listed and the instances launched before it are dropped.
+                 */
+                Instant since = launchedSince;
+                Instant now = Instant.now();
+                long mark = index.mark();
+                List<ComputeInstance> launched = list(gateway, Filter.builder().name("launch-time")
+                        .values(launchTimePrefixes(since, now)).build());
+                launched.removeIf(instance -> instance.getLaunchTime() != null
+                        && instance.getLaunchTime().isBefore(since));
+                index.replaceAll(launched, Collections.emptyList(), mark);
+                launchedSince = now.minus(LAUNCH_TIME_MARGIN);
+            }
+            catch (CloudExceptions | RuntimeException e) {
+                logger.atWarning().withCause(e).log("Unable to refresh the instance inventory of %s", region);
+            }
+        }
+        
+        private void listAll() throws CloudExceptions {
+            Instant since = Instant.now().minus(LAUNCH_TIME_MARGIN);
+            long mark = index.mark();
+            Collection<String> known = index.instanceIDs();
+            index.replaceAll(list(ec2.get(), null), known, mark);
+            lastListingNanos = System.nanoTime();
+            launchedSince = since;
+        }
+        
+        /*
+        One launch-time prefix per minute from since to now. Longer gaps, which the full listings normally keep from
+        happening, are covered by hour or day prefixes so the filter stays within its number of values.
+         */
+        private List<String> launchTimePrefixes(Instant since, Instant now) {
+            int length = 16;
+            ChronoUnit unit = ChronoUnit.MINUTES;
+            if (ChronoUnit.MINUTES.between(since, now) >= MAX_FILTER_VALUES) {
+                length = 13;
+                unit = ChronoUnit.HOURS;
+            }
+            if (ChronoUnit.HOURS.between(since, now) >= MAX_FILTER_VALUES) {
+                length = 10;
+                unit = ChronoUnit.DAYS;
+                since = now.minus(MAX_FILTER_VALUES - 1, ChronoUnit.DAYS);
+            }
+            List<String> prefixes = new ArrayList<>();
+            for (Instant time = since.truncatedTo(unit); !time.isAfter(now); time = time.plus(1, unit)) {
+                prefixes.add(LAUNCH_MINUTE.format(time).substring(0, length) + '*');
+            }
+            return prefixes;
+        }
+        
+        private List<ComputeInstance> list(EC2Gateway gateway, Filter filter) throws CloudExceptions {
+            List<ComputeInstance> instances = new ArrayList<>();
+            String nextToken = null;
+            do {
+                DescribeInstancesRequest.Builder request = DescribeInstancesRequest.builder()
+                        .maxResults(MAX_RESULTS)
+                        .nextToken(nextToken);
+                if (filter != null) {
+                    request.filters(filter);
+                }
+                DescribeInstancesResponse response = gateway.describeInstances(request.build());
+                for (Reservation reservation : response.reservations()) {
+                    for (Instance instance : reservation.instances()) {
+                        instances.add(toComputeInstance(region, instance));
+                    }
+                }
+                nextToken = response.nextToken();
+            }
+            while (nextToken != null && !nextToken.isEmpty());
+            return instances;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import software.amazon.awssdk.services.ec2.model.CreateKeyPairRequest;
+import software.amazon.awssdk.services.ec2.model.DeleteKeyPairRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeKeyPairsRequest;
+import software.amazon.awssdk.services.ec2.model.Filter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Manages the lifecycle of EC2 key pairs. The manager keeps a local index of the key pairs it knows about, so that
+ * the account does not have to be listed on every launch. Lookups which cannot be answered from the index use a
+ * describe call filtered by the key name.
+ * <p>
+ * Two modes are supported.
+ * <ul>
+ * <li>Per instance key pairs. A fresh key pair is created for every launch, replacing any earlier pair with the same
+ * name. This is the behaviour of instances launched without a shared key pair name.</li>
+ * <li>Shared key pairs. A fleet or a group of instances reuses one key pair. The private key is written to a local
+ * keystore directory the first time the pair is created and is read back from there afterwards, so that launches
+ * after the first one do not make any key pair calls. A shared pair is never replaced by the manager, as other
+ * hosts may hold its private key.</li>
+ * </ul>
+ * Index entries are scoped by the credentials identity and the region, since key pairs are per account and per
+ * region. Per instance key pairs are not indexed, as each of them is used once.
+ * <p>
+ * The private key of a shared pair is stored under the credentials identity, the region and the key pair name, so
+ * the identity and the name are limited to the characters EC2 accepts in key pair names, excluding path separators.
+ */
+public class AWSKeyPairManager {
+    private static final String DUPLICATE_KEY_PAIR = "InvalidKeyPair.Duplicate";
+    private static final String KEY_FILE_EXTENSION = ".pem";
+    /* EC2 key pair names are printable ASCII, the path separators are left out so a name is a single file name */
+    private static final Pattern KEY_NAME = Pattern.compile("[A-Za-z0-9 _.:()#,@\\[\\]+=&;{}!$*-]{1,255}");
+    private static final Pattern DOTS = Pattern.compile("\\.+");
+    private static final int LOCK_STRIPES = 64;
+    private final Path keyStoreDirectory;
+    /* Private keys of the known shared key pairs */
+    private final Map<String, String> index = new ConcurrentHashMap<>();
+    /* Calls for the same key pair are serialized on one of a fixed set of locks, so no lock has to be removed */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    
+    /**
+     * @param keyStoreDirectory Directory in which the private keys of the shared key pairs are stored
+     */
+    public AWSKeyPairManager(Path keyStoreDirectory) {
+        this.keyStoreDirectory = keyStoreDirectory;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+    
+    /**
+     * Creates a manager which stores the shared private keys under .spectrum7/keypairs in the home directory of the
+     * user.
+     *
+     * @return AWSKeyPairManager instance
+     */
+    public static AWSKeyPairManager create() {
+        return new AWSKeyPairManager(Paths.get(System.getProperty("user.home"), ".spectrum7", "keypairs"));
+    }
+    
+    /**
+     * Creates a fresh key pair, replacing any existing key pair with the same name. The create call is attempted
+     * first, and the existing pair is deleted only if EC2 reports a duplicate, so in the common case a single call is
+     * made. The pair is not added to the index.
+     *
+     * @param ec2         The EC2 calls for the credentials and the region of the key pair
+     * @param keyPairName The name for the key pair
+     * @return The key material of the private key
+     * @throws CloudExceptions Exception thrown when the key pair cannot be created
+     */
+    String createKeyPair(EC2Gateway ec2, String keyPairName) throws CloudExceptions {
+        String indexKey = indexKey(ec2, keyPairName);
+        synchronized (lockFor(indexKey)) {
+            /* A shared pair with the same name is replaced */
+            index.remove(indexKey);
+            try {
+                return create(ec2, keyPairName);
+            }
+            catch (CloudExceptions e) {
+                if (!DUPLICATE_KEY_PAIR.equals(AWSErrorClassifier.errorCode(e))) {
+                    throw e;
+                }
+                delete(ec2, keyPairName);
+                return create(ec2, keyPairName);
+            }
+        }
+    }
+    
+    /**
+     * Returns the private key of a key pair shared by a group of instances, creating the pair if required. The
+     * private key is served from memory or from the keystore directory whenever possible. A pair which exists in EC2
+     * but whose private key is not in the keystore is not replaced, since other hosts may be launching with it: EC2
+     * does not return the private key of an existing pair, so the key has to be copied into the keystore, or the pair
+     * deleted with {@link #deleteKeyPair} to rotate it.
+     *
+     * @param ec2         The EC2 calls for the credentials and the region of the key pair
+     * @param keyPairName The name of the shared key pair
+     * @return The key material of the private key
+     * @throws CloudExceptions Exception thrown when the key pair cannot be created or stored, when it exists but its
+     *                         private key is not in the keystore, or when the name of the key pair or the credentials
+     *                         identity is not a valid key pair name
+     */
+    String getSharedKeyPair(EC2Gateway ec2, String keyPairName) throws CloudExceptions {
+        String indexKey = indexKey(ec2, keyPairName);
+        String privateKey = index.get(indexKey);
+        if (privateKey != null) {
+            return privateKey;
+        }
+        Path keyFile = keyFile(ec2, keyPairName);
+        synchronized (lockFor(indexKey)) {
+            privateKey = index.get(indexKey);
+            if (privateKey != null) {
+                return privateKey;
+            }
+            boolean existsInEC2 = exists(ec2, keyPairName);
+            if (existsInEC2 && Files.isReadable(keyFile)) {
+                privateKey = read(keyFile);
+            }
+            else if (existsInEC2) {
+                throw new CloudExceptions("The private key of the shared key pair " + keyPairName + " is not in " +
+                        keyFile + ". Copy it there from a host which has it, or delete the key pair to replace it");
+            }
+            else {
+                privateKey = create(ec2, keyPairName);
+                write(keyFile, privateKey);
+            }
+            index.put(indexKey, privateKey);
+            return privateKey;
+        }
+    }
+    
+    /**
+     * Deletes a key pair from EC2, from the index and from the keystore directory.
+     *
+     * @param ec2         The EC2 calls for the credentials and the region of the key pair
+     * @param keyPairName The name of the key pair
+     * @throws CloudExceptions Exception thrown when the key pair cannot be deleted
+     */
+    void deleteKeyPair(EC2Gateway ec2, String keyPairName) throws CloudExceptions {
+        String indexKey = indexKey(ec2, keyPairName);
+        synchronized (lockFor(indexKey)) {
+            delete(ec2, keyPairName);
+            index.remove(indexKey);
+            /* A pair whose name cannot be a file name was never stored in the keystore */
+            if (!isValidName(ec2.getScope()) || !isValidName(ec2.getRegion()) || !isValidName(keyPairName)) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(keyFile(ec2, keyPairName));
+            }
+            catch (IOException e) {
+                throw new CloudExceptions("Unable to remove the private key of " + keyPairName, e);
+            }
+        }
+    }
+    
+    private boolean exists(EC2Gateway ec2, String keyPairName) throws CloudExceptions {
+        DescribeKeyPairsRequest request = DescribeKeyPairsRequest.builder()
+                .filters(Filter.builder().name("key-name").values(keyPairName).build())
+                .build();
+        return !ec2.describeKeyPairs(request).keyPairs().isEmpty();
+    }
+    
+    private String create(EC2Gateway ec2, String keyPairName) throws CloudExceptions {
+        CreateKeyPairRequest request = CreateKeyPairRequest.builder().keyName(keyPairName).build();
+        return ec2.createKeyPair(request).keyMaterial();
+    }
+    
+    private void delete(EC2Gateway ec2, String keyPairName) throws CloudExceptions {
+        // DeleteKeyPair succeeds even if the key pair does not exist
+        ec2.deleteKeyPair(DeleteKeyPairRequest.builder().keyName(keyPairName).build());
+    }
+    
+    private Object lockFor(String indexKey) {
+        return locks[(indexKey.hashCode() & Integer.MAX_VALUE) % locks.length];
+    }
+    
+    private Path keyFile(EC2Gateway ec2, String keyPairName) throws CloudExceptions {
+        return keyStoreDirectory.resolve(checkName(ec2.getScope(), "credentials identity"))
+                .resolve(checkName(ec2.getRegion(), "region"))
+                .resolve(checkName(keyPairName, "name") + KEY_FILE_EXTENSION);
+    }
+    
+    private static String checkName(String name, String description) throws CloudExceptions {
+        if (!isValidName(name)) {
+            throw new CloudExceptions("Invalid " + description + " for a key pair: " + name);
+        }
+        return name;
+    }
+    
+    private static boolean isValidName(String name) {
+        return name != null && KEY_NAME.matcher(name).matches() && !DOTS.matcher(name).matches();
+    }
+    
+    private static String indexKey(EC2Gateway ec2, String keyPairName) {
+        return ec2.getScope() + '/' + ec2.getRegion() + '/' + keyPairName;
+    }
+    
+    private static String read(Path keyFile) throws CloudExceptions {
+        try {
+            return new String(Files.readAllBytes(keyFile), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new CloudExceptions("Unable to read the private key from " + keyFile, e);
+        }
+    }
+    
+    /*
+    The key is written to a temporary file readable only by the owner and then moved in place, so that a crash never
+    leaves a truncated key behind.
+     */
+    private static void write(Path keyFile, String privateKey) throws CloudExceptions {
+        try {
+            Files.createDirectories(keyFile.getParent());
+            Path temporaryFile = keyFile.resolveSibling(keyFile.getFileName() + ".tmp");
+            Files.deleteIfExists(temporaryFile);
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                Set<PosixFilePermission> ownerOnly =
+                        EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+                Files.createFile(temporaryFile, PosixFilePermissions.asFileAttribute(ownerOnly));
+            }
+            Files.write(temporaryFile, privateKey.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temporaryFile, keyFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, keyFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e) {
+            throw new CloudExceptions("Unable to store the private key in " + keyFile, e);
+        }
+    }
+}
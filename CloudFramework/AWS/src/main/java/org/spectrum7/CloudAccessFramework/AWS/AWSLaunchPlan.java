@@ -0,0 +1,393 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ec2.model.InstanceType;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateSpecification;
+import software.amazon.awssdk.services.ec2.model.ResourceType;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.Tag;
+import software.amazon.awssdk.services.ec2.model.TagSpecification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable shape of the instances launched many times over: region, launch template or AMI, instance type, subnet,
+ * security groups, shared key pair, common tags and user data. The plan is validated once when it is built and
+ * compiled into a RunInstances request template. Each launch only overlays its own fields (tags, client token and key
+ * pair) on the template, without validating or rebuilding the rest of the request.
+ * <p>
+ * Plans are thread safe and are meant to be built once and kept, for instance one per fleet.
+ */
+public final class AWSLaunchPlan {
+    private final Region region;
+    private final String templateID;
+    private final String imageID;
+    private final InstanceType instanceType;
+    private final String subnetID;
+    private final List<String> securityGroupIDs;
+    private final String keyPairName;
+    private final Map<String, String> tags;
+    private final String userData;
+    private final UserData encodedUserData;
+    private final List<String> alternativeSubnetIDs;
+    private final List<String> alternativeInstanceTypes;
+    private final RunInstancesRequest template;
+    private final List<TagSpecification> tagSpecifications;
+    
+    private AWSLaunchPlan(Builder builder, Region region, InstanceType instanceType,
+                          List<String> alternativeInstanceTypes, UserData encodedUserData) {
+        this.region = region;
+        this.templateID = builder.templateID;
+        this.imageID = builder.imageID;
+        this.instanceType = instanceType;
+        this.subnetID = builder.subnetID;
+        this.securityGroupIDs = Collections.unmodifiableList(new ArrayList<>(builder.securityGroupIDs));
+        this.keyPairName = builder.keyPairName;
+        this.tags = Collections.unmodifiableMap(new LinkedHashMap<>(builder.tags));
+        this.tagSpecifications = tagSpecifications(tags);
+        this.alternativeSubnetIDs = Collections.unmodifiableList(new ArrayList<>(builder.alternativeSubnetIDs));
+        this.alternativeInstanceTypes = alternativeInstanceTypes;
+        this.userData = builder.userData;
+        this.encodedUserData = encodedUserData;
+        RunInstancesRequest.Builder request = RunInstancesRequest.builder();
+        if (templateID != null) {
+            request.launchTemplate(LaunchTemplateSpecification.builder().launchTemplateId(templateID).build());
+        }
+        if (imageID != null) {
+            request.imageId(imageID);
+        }
+        if (instanceType != null) {
+            request.instanceType(instanceType);
+        }
+        if (subnetID != null) {
+            request.subnetId(subnetID);
+        }
+        if (!securityGroupIDs.isEmpty()) {
+            request.securityGroupIds(securityGroupIDs);
+        }
+        if (!tagSpecifications.isEmpty()) {
+            request.tagSpecifications(tagSpecifications);
+        }
+        if (encodedUserData != null) {
+            request.userData(encodedUserData.getEncoded());
+        }
+        this.template = request.minCount(1).maxCount(1).keyName(keyPairName).build();
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Creates the launch specifications of an instance of this plan. The specifications stay bound to the plan, and
+     * are launched from its request template, as long as none of the fields of the plan is changed on them.
+     *
+     * @param instanceName Name of the instance
+     * @return AWSLaunchSpecifications bound to this plan
+     */
+    public AWSLaunchSpecifications newLaunchSpecifications(String instanceName) {
+        AWSLaunchSpecifications instanceSpecifications = new AWSLaunchSpecifications(this);
+        instanceSpecifications.setInstanceName(instanceName);
+        return instanceSpecifications;
+    }
+    
+    /**
+     * Overlays the fields of a launch on the request template.
+     *
+     * @param tags        Tags of the instances. The precompiled tag specifications of the plan are reused when these
+     *                    are the tags of the plan.
+     * @param clientToken Idempotency token of the launch. Null for none.
+     * @param keyName     Key pair of the launch. Null to use the shared key pair of the plan.
+     * @param count       Number of instances to launch
+     * @return RunInstancesRequest of the launch
+     */
+    RunInstancesRequest requestFor(Map<String, String> tags, String clientToken, String keyName, int count) {
+        boolean planTags = tags == null || tags == this.tags || tags.equals(this.tags);
+        if (planTags && clientToken == null && keyName == null && count == 1) {
+            return template;
+        }
+        RunInstancesRequest.Builder request = template.toBuilder().minCount(count).maxCount(count);
+        if (!planTags) {
+            request.tagSpecifications(tagSpecifications(tags));
+        }
+        if (clientToken != null) {
+            request.clientToken(clientToken);
+        }
+        if (keyName != null) {
+            request.keyName(keyName);
+        }
+        return request.build();
+    }
+    
+    static List<TagSpecification> tagSpecifications(Map<String, String> tags) {
+        if (tags == null || tags.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Tag> instanceTags = new ArrayList<>(tags.size());
+        tags.forEach((key, value) -> instanceTags.add(Tag.builder().key(key).value(value).build()));
+        return Collections.singletonList(TagSpecification.builder()
+                .resourceType(ResourceType.INSTANCE)
+                .tags(instanceTags)
+                .build());
+    }
+    
+    public String getRegion() {
+        return region.id();
+    }
+    
+    Region getAwsRegion() {
+        return region;
+    }
+    
+    public String getTemplateID() {
+        return templateID;
+    }
+    
+    public String getImageID() {
+        return imageID;
+    }
+    
+    /**
+     * @return The instance type. Null if the plan launches from a template which sets the instance type.
+     */
+    public String getInstanceType() {
+        return instanceType == null ? null : instanceType.toString();
+    }
+    
+    InstanceType getAwsInstanceType() {
+        return instanceType;
+    }
+    
+    public String getSubnetID() {
+        return subnetID;
+    }
+    
+    /**
+     * @return Unmodifiable list of the security group IDs
+     */
+    public List<String> getSecurityGroupIDs() {
+        return securityGroupIDs;
+    }
+    
+    /**
+     * @return Name of the key pair shared by the instances of the plan. Null if each instance has its own key pair.
+     */
+    public String getKeyPairName() {
+        return keyPairName;
+    }
+    
+    /**
+     * @return Unmodifiable map of the tags common to all the instances of the plan
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+    
+    /**
+     * @return The user data set as text. Null if there is none, or if it was set as a {@link UserData} payload.
+     */
+    public String getUserData() {
+        return userData;
+    }
+    
+    /**
+     * @return The user data of the instances, encoded once when the plan was built. Null if there is none.
+     */
+    public UserData getEncodedUserData() {
+        return encodedUserData;
+    }
+    
+    /**
+     * @return Unmodifiable list of the subnets the instances can be launched in as well
+     */
+    public List<String> getAlternativeSubnetIDs() {
+        return alternativeSubnetIDs;
+    }
+    
+    /**
+     * @return Unmodifiable list of the instance types the instances can be launched with as well
+     */
+    public List<String> getAlternativeInstanceTypes() {
+        return alternativeInstanceTypes;
+    }
+    
+    public static final class Builder {
+        private final List<String> securityGroupIDs = new ArrayList<>();
+        private final List<String> alternativeSubnetIDs = new ArrayList<>();
+        private final List<String> alternativeInstanceTypes = new ArrayList<>();
+        private final Map<String, String> tags = new LinkedHashMap<>();
+        private String region = null;
+        private String templateID = null;
+        private String imageID = null;
+        private String instanceType = null;
+        private String subnetID = null;
+        private String keyPairName = null;
+        private InstanceTypeRequirements instanceTypeRequirements = null;
+        private String userData = null;
+        private UserData encodedUserData = null;
+        
+        private Builder() {
+        }
+        
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+        
+        /**
+         * @param templateID ID of the launch template. The AMI and the instance type are then optional and
+         *                   override the values of the template when set.
+         * @return this builder
+         */
+        public Builder templateID(String templateID) {
+            this.templateID = templateID;
+            return this;
+        }
+        
+        public Builder imageID(String imageID) {
+            this.imageID = imageID;
+            return this;
+        }
+        
+        public Builder instanceType(String instanceType) {
+            this.instanceType = instanceType;
+            return this;
+        }
+        
+        /**
+         * Sizes the instances of the plan from the instance catalog, when no instance type is set. The cheapest
+         * instance type of the catalog offered in the region of the plan and meeting the requirements is chosen.
+         *
+         * @param instanceTypeRequirements The minimum capacity of the instances
+         * @return this builder
+         * @see AWSInstanceCatalog#findCheapest(String, InstanceTypeRequirements)
+         */
+        public Builder instanceType(InstanceTypeRequirements instanceTypeRequirements) {
+            this.instanceTypeRequirements = instanceTypeRequirements;
+            return this;
+        }
+        
+        public Builder subnetID(String subnetID) {
+            this.subnetID = subnetID;
+            return this;
+        }
+        
+        /**
+         * @param userData User data of the instances, sent as it is
+         * @return this builder
+         */
+        public Builder userData(String userData) {
+            this.userData = userData;
+            this.encodedUserData = null;
+            return this;
+        }
+        
+        /**
+         * @param userData User data payload of the instances, such as a compressed multi-part cloud-init payload
+         * @return this builder
+         */
+        public Builder userData(UserData userData) {
+            this.userData = null;
+            this.encodedUserData = userData;
+            return this;
+        }
+        
+        /**
+         * @param alternativeSubnetIDs Subnets the instances can be launched in as well, when the subnet of the plan
+         *                             is short of capacity
+         * @return this builder
+         * @see AWSLaunchSpecifications#setAlternativeSubnetIDs(List)
+         */
+        public Builder alternativeSubnetIDs(List<String> alternativeSubnetIDs) {
+            this.alternativeSubnetIDs.clear();
+            if (alternativeSubnetIDs != null) {
+                this.alternativeSubnetIDs.addAll(alternativeSubnetIDs);
+            }
+            return this;
+        }
+        
+        /**
+         * @param alternativeInstanceTypes Instance types the instances can be launched with as well, when the
+         *                                 instance type of the plan is short of capacity
+         * @return this builder
+         * @see AWSLaunchSpecifications#setAlternativeInstanceTypes(List)
+         */
+        public Builder alternativeInstanceTypes(List<String> alternativeInstanceTypes) {
+            this.alternativeInstanceTypes.clear();
+            if (alternativeInstanceTypes != null) {
+                this.alternativeInstanceTypes.addAll(alternativeInstanceTypes);
+            }
+            return this;
+        }
+        
+        public Builder securityGroupIDs(List<String> securityGroupIDs) {
+            this.securityGroupIDs.clear();
+            if (securityGroupIDs != null) {
+                this.securityGroupIDs.addAll(securityGroupIDs);
+            }
+            return this;
+        }
+        
+        /**
+         * @param keyPairName Name of a key pair shared by all the instances of the plan. Null to create a key pair
+         *                    per instance.
+         * @return this builder
+         */
+        public Builder keyPairName(String keyPairName) {
+            this.keyPairName = keyPairName;
+            return this;
+        }
+        
+        public Builder tag(String key, String value) {
+            this.tags.put(key, value);
+            return this;
+        }
+        
+        public Builder tags(Map<String, String> tags) {
+            this.tags.clear();
+            if (tags != null) {
+                this.tags.putAll(tags);
+            }
+            return this;
+        }
+        
+        /**
+         * Validates the plan and compiles its request template.
+         *
+         * @return AWSLaunchPlan instance
+         * @throws CloudExceptions Exception thrown when the region or the instance type is not known to AWS, when
+         *                         neither a launch template nor an AMI and an instance type are specified, when no
+         *                         instance type of the catalog meets the requirements of the plan, or when the user
+         *                         data is larger than EC2 accepts
+         */
+        public AWSLaunchPlan build() throws CloudExceptions {
+            if (region == null) {
+                throw new CloudExceptions("A region is required");
+            }
+            if (templateID == null && (imageID == null || instanceType == null && instanceTypeRequirements == null)) {
+                throw new CloudExceptions("Either a launch template or an AMI ID and an instance type are required");
+            }
+            Region awsRegion = AWSLaunchSpecifications.toRegion(region);
+            String instanceType = this.instanceType;
+            if (instanceType == null && instanceTypeRequirements != null) {
+                AWSInstanceCatalog.InstanceTypeInfo cheapest =
+                        AWSInstanceCatalog.getDefault().findCheapest(region, instanceTypeRequirements);
+                if (cheapest == null) {
+                    throw new CloudExceptions("No instance type of the catalog meets " + instanceTypeRequirements +
+                            " in " + region);
+                }
+                instanceType = cheapest.getName();
+            }
+            InstanceType awsInstanceType = instanceType == null ? null :
+                    AWSLaunchSpecifications.toInstanceType(instanceType);
+            return new AWSLaunchPlan(this, awsRegion, awsInstanceType,
+                    AWSLaunchSpecifications.toInstanceTypes(alternativeInstanceTypes),
+                    userData != null ? UserData.of(userData) : encodedUserData);
+        }
+    }
+}
@@ -5,25 +5,36 @@ import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
 import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.ec2.model.InstanceType;
-import software.amazon.awssdk.services.ec2.model.Tag;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 
 import static java.util.stream.Collectors.toMap;
 
 
+/**
+ * Mutable launch specifications of a single AWS instance. Specifications created from an AWSLaunchPlan stay bound to
+ * the plan and are launched from its precompiled request, until one of the fields of the plan is changed on them.
+ */
 public class AWSLaunchSpecifications implements LaunchSpecifications {
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final Map<String, Region> REGIONS =
+            Region.regions().stream().collect(toMap(Region::id, Function.identity(), (a, b) -> a));
+    private static final Map<String, InstanceType> INSTANCE_TYPES =
+            InstanceType.knownValues().stream().collect(toMap(InstanceType::toString, Function.identity()));
     private InstanceType awsInstanceType = null;
     private Region awsRegion = null;
     private List<String> securityGroupIDs = null;
     private String reservationID = null;
     private List<String> networkInterfaces = null;
     private String userData = null;
-    private HashMap<String, String> tags = null;
+    private UserData encodedUserData = null;
+    private Map<String, String> tags = Collections.emptyMap();
     private String privateKey = null;
     private String templateID = null;
     private String imageID = null;
@@ -34,7 +45,54 @@ public class AWSLaunchSpecifications implements LaunchSpecifications {
     private String subnetID = null;
     private String vpcID = null;
     private String instanceName = null;
-    private List<Tag> awsTags = null;
+    private String keyPairName = null;
+    private String clientToken = null;
+    private boolean derivedClientToken = false;
+    private List<String> alternativeSubnetIDs = Collections.emptyList();
+    private List<String> alternativeInstanceTypes = Collections.emptyList();
+    private AWSLaunchPlan launchPlan = null;
+    
+    public AWSLaunchSpecifications() {
+    }
+    
+    /**
+     * Specifications bound to a launch plan. The plan fields are taken from the plan without validating them again.
+     *
+     * @param launchPlan The launch plan
+     */
+    AWSLaunchSpecifications(AWSLaunchPlan launchPlan) {
+        this.launchPlan = launchPlan;
+        this.awsRegion = launchPlan.getAwsRegion();
+        this.awsInstanceType = launchPlan.getAwsInstanceType();
+        this.templateID = launchPlan.getTemplateID();
+        this.imageID = launchPlan.getImageID();
+        this.subnetID = launchPlan.getSubnetID();
+        this.securityGroupIDs = launchPlan.getSecurityGroupIDs();
+        this.keyPairName = launchPlan.getKeyPairName();
+        this.tags = launchPlan.getTags();
+        this.userData = launchPlan.getUserData();
+        this.encodedUserData = launchPlan.getEncodedUserData();
+        this.alternativeSubnetIDs = launchPlan.getAlternativeSubnetIDs();
+        this.alternativeInstanceTypes = launchPlan.getAlternativeInstanceTypes();
+    }
+    
+    /**
+     * @return The launch plan the specifications are bound to. Null if the specifications are not bound to a plan,
+     * or were changed after they were created from the plan.
+     */
+    public AWSLaunchPlan getLaunchPlan() {
+        return launchPlan;
+    }
+    
+    /*
+    Changing a field of the plan detaches the specifications from the plan, since the precompiled request no longer
+    matches them.
+     */
+    private void planFieldChanged(Object previous, Object value) {
+        if (launchPlan != null && !Objects.equals(previous, value)) {
+            launchPlan = null;
+        }
+    }
     
     @Override
     public String getPrivateKey() {
@@ -48,36 +106,57 @@ public class AWSLaunchSpecifications implements LaunchSpecifications {
     
     @Override
     public String getRegion() {
-        return awsRegion.toString();
+        return awsRegion == null ? null : awsRegion.toString();
     }
     
     @Override
     public void setRegion(String region) throws CloudExceptions {
-        this.awsRegion =
-                Region.regions().stream().filter(regionName -> region.equals(regionName.toString())).findFirst().orElse(null);
-        if (awsRegion == null) {
-            logger.atSevere().log("Region not found %s", region);
-            throw new CloudExceptions("Specified Region cannot be determined in AWS. Please check and try again");
-        }
-        
+        Region awsRegion = toRegion(region);
+        planFieldChanged(this.awsRegion, awsRegion);
+        this.awsRegion = awsRegion;
     }
     
+    /**
+     * @return The instance type. Null if it is not set.
+     */
     @Override
     public String getInstanceType() {
-        return this.awsInstanceType.toString();
+        return awsInstanceType == null ? null : awsInstanceType.toString();
     }
     
     @Override
     public void setInstanceType(String instanceType) throws CloudExceptions {
-        this.awsInstanceType = InstanceType.fromValue(instanceType);
-        if (this.awsInstanceType == null || this.awsInstanceType.compareTo(InstanceType.UNKNOWN_TO_SDK_VERSION) == 0) {
+        InstanceType awsInstanceType = toInstanceType(instanceType);
+        planFieldChanged(this.awsInstanceType, awsInstanceType);
+        this.awsInstanceType = awsInstanceType;
+    }
+    
+    /*
+    The placement engine may launch the instance with one of the alternative instance types. The specifications then
+    hold the instance type it was launched with.
+     */
+    void launchedAs(String instanceType) {
+        InstanceType awsInstanceType = INSTANCE_TYPES.get(instanceType);
+        planFieldChanged(this.awsInstanceType, awsInstanceType);
+        this.awsInstanceType = awsInstanceType;
+    }
+    
+    static Region toRegion(String region) throws CloudExceptions {
+        Region awsRegion = region == null ? null : REGIONS.get(region);
+        if (awsRegion == null) {
+            logger.atSevere().log("Region not found %s", region);
+            throw new CloudExceptions("Specified Region cannot be determined in AWS. Please check and try again");
+        }
+        return awsRegion;
+    }
+    
+    static InstanceType toInstanceType(String instanceType) throws CloudExceptions {
+        InstanceType awsInstanceType = instanceType == null ? null : INSTANCE_TYPES.get(instanceType);
+        if (awsInstanceType == null) {
             logger.atSevere().log("Unknown instance type specified %s", instanceType);
             throw new CloudExceptions("Specified instance type not found in AWS");
-            
-            
         }
-        
-        
+        return awsInstanceType;
     }
     
     @Override
@@ -87,6 +166,7 @@ public class AWSLaunchSpecifications implements LaunchSpecifications {
     
     @Override
     public void setSecurityGroupIDs(List<String> securityGroupIDs) {
+        planFieldChanged(this.securityGroupIDs, securityGroupIDs);
         this.securityGroupIDs = securityGroupIDs;
     }
     
@@ -100,34 +180,60 @@ public class AWSLaunchSpecifications implements LaunchSpecifications {
         this.reservationID = reservationID;
     }
     
+    /**
+     * @return The user data set as text. Null if there is none, or if it was set as a {@link UserData} payload.
+     */
     @Override
     public String getUserData() {
         return userData;
     }
     
+    /**
+     * @param userData User data of the instance, sent as it is. It is encoded once per distinct content, and checked
+     *                 against the size limit of EC2 when the instance is launched.
+     */
     @Override
     public void setUserData(String userData) {
+        planFieldChanged(this.userData == null ? this.encodedUserData : this.userData, userData);
         this.userData = userData;
+        this.encodedUserData = null;
     }
     
+    /**
+     * @param userData User data payload of the instance, such as a compressed multi-part cloud-init payload
+     */
+    public void setUserData(UserData userData) {
+        planFieldChanged(this.encodedUserData, userData);
+        this.userData = null;
+        this.encodedUserData = userData;
+    }
+    
+    /**
+     * @return The user data encoded for RunInstances. Null if there is no user data.
+     * @throws CloudExceptions Exception thrown when the user data set as text is larger than EC2 accepts
+     */
+    public UserData getEncodedUserData() throws CloudExceptions {
+        if (encodedUserData == null && userData != null) {
+            encodedUserData = UserData.of(userData);
+        }
+        return encodedUserData;
+    }
+    
+    /**
+     * @return Unmodifiable map of the tags of the instance. Empty if no tags are set.
+     */
     @Override
     public Map<String, String> getTags() {
-        return awsTags.stream().collect(toMap(Tag::key, Tag::value));
-        
-        
+        return tags;
     }
     
+    /**
+     * @param tags Tags of the instance, replacing the tags set before
+     */
     @Override
     public void setTags(Map<String, String> tags) {
-        if (awsTags == null) {
-            awsTags = new ArrayList<>();
-        }
-        tags.forEach((k, v) -> {
-            Tag tag = Tag.builder().key(k).value(v).build();
-            awsTags.add(tag);
-            
-        });
-        
+        this.tags = tags == null || tags.isEmpty() ? Collections.emptyMap() :
+                Collections.unmodifiableMap(new LinkedHashMap<>(tags));
     }
     
     @Override
@@ -137,6 +243,7 @@ public class AWSLaunchSpecifications implements LaunchSpecifications {
     
     @Override
     public void setTemplateID(String templateID) {
+        planFieldChanged(this.templateID, templateID);
         this.templateID = templateID;
     }
     
@@ -147,6 +254,7 @@ public class AWSLaunchSpecifications implements LaunchSpecifications {
     
     @Override
     public void setImageID(String imageID) {
+        planFieldChanged(this.imageID, imageID);
         this.imageID = imageID;
     }
     
@@ -197,6 +305,7 @@ public class AWSLaunchSpecifications implements LaunchSpecifications {
     
     @Override
     public void setSubnetID(String subnetID) {
+        planFieldChanged(this.subnetID, subnetID);
         this.subnetID = subnetID;
     }
     
@@ -219,4 +328,111 @@ public class AWSLaunchSpecifications implements LaunchSpecifications {
     public void setInstanceName(String instanceName) {
         this.instanceName = instanceName;
     }
+    
+    /**
+     * @return Name of the key pair shared by a group of instances. Null if the instance has its own key pair.
+     */
+    public String getKeyPairName() {
+        return keyPairName;
+    }
+    
+    /**
+     * Launches the instance with a key pair shared by a fleet or a group of instances, instead of creating a key pair
+     * named after the instance. The shared key pair is created on first use and reused afterwards.
+     *
+     * @param keyPairName Name of the shared key pair. Null to create a key pair per instance.
+     */
+    public void setKeyPairName(String keyPairName) {
+        planFieldChanged(this.keyPairName, keyPairName);
+        this.keyPairName = keyPairName;
+    }
+    
+    /**
+     * @return Idempotency token of the launch. Set by the accessor when the instance is launched, unless it was set
+     * beforehand.
+     */
+    public String getClientToken() {
+        return clientToken;
+    }
+    
+    /**
+     * Launching the specifications again with the same client token returns the instances of the first launch
+     * instead of launching new ones, for up to several hours after they were terminated. The accessor derives a token
+     * for every launch, and stores it here only while the outcome of the launch is unknown, for instance after a
+     * timeout, so that retrying the launch of the same specifications is safe. The derived token is cleared once a
+     * launch of the specifications has a definite outcome, so that launching them again launches a new instance.
+     *
+     * @param clientToken Idempotency token of the launch, up to 64 ASCII characters. Null to let the accessor derive
+     *                    one.
+     */
+    public void setClientToken(String clientToken) {
+        this.clientToken = clientToken;
+        this.derivedClientToken = false;
+    }
+    
+    /* Keeps the derived token of a launch whose outcome is unknown, unless the caller set a token */
+    void holdClientToken(String clientToken) {
+        if (this.clientToken == null) {
+            this.clientToken = clientToken;
+            this.derivedClientToken = true;
+        }
+    }
+    
+    /* Clears the derived token once a launch has a definite outcome. A token set by the caller is kept. */
+    void releaseClientToken() {
+        if (derivedClientToken) {
+            this.clientToken = null;
+            this.derivedClientToken = false;
+        }
+    }
+    
+    /**
+     * @return Unmodifiable list of the subnets the instance can be launched in when the subnet of the specifications
+     * is short of capacity
+     */
+    public List<String> getAlternativeSubnetIDs() {
+        return alternativeSubnetIDs;
+    }
+    
+    /**
+     * Lists subnets in which the instance can be launched as well. Launches are spread across the subnet of the
+     * specifications and these subnets, and are moved away from those short of capacity.
+     *
+     * @param alternativeSubnetIDs Subnets of the same VPC. Null or empty for none.
+     */
+    public void setAlternativeSubnetIDs(List<String> alternativeSubnetIDs) {
+        this.alternativeSubnetIDs = alternativeSubnetIDs == null ? Collections.emptyList() :
+                Collections.unmodifiableList(new ArrayList<>(alternativeSubnetIDs));
+    }
+    
+    /**
+     * @return Unmodifiable list of the instance types the instance can be launched with when the instance type of the
+     * specifications is short of capacity
+     */
+    public List<String> getAlternativeInstanceTypes() {
+        return alternativeInstanceTypes;
+    }
+    
+    /**
+     * Lists instance types the instance can be launched with as well. Launches are spread across the instance type of
+     * the specifications and these instance types, and are moved away from those short of capacity. Once launched,
+     * the specifications hold the instance type the instance was launched with.
+     *
+     * @param alternativeInstanceTypes Instance types. Null or empty for none.
+     * @throws CloudExceptions Exception thrown when one of the instance types is not known to AWS
+     */
+    public void setAlternativeInstanceTypes(List<String> alternativeInstanceTypes) throws CloudExceptions {
+        this.alternativeInstanceTypes = toInstanceTypes(alternativeInstanceTypes);
+    }
+    
+    static List<String> toInstanceTypes(List<String> instanceTypes) throws CloudExceptions {
+        if (instanceTypes == null || instanceTypes.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> validated = new ArrayList<>(instanceTypes.size());
+        for (String instanceType : instanceTypes) {
+            validated.add(toInstanceType(instanceType).toString());
+        }
+        return Collections.unmodifiableList(validated);
+    }
 }
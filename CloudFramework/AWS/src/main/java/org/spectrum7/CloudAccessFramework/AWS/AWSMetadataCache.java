@@ -0,0 +1,541 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import software.amazon.awssdk.services.ec2.model.DescribeImagesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSecurityGroupsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
+import software.amazon.awssdk.services.ec2.model.Filter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Cache of the images, subnets and security groups the launches refer to, resolved with Describe* calls whose answer
+ * hardly ever changes. The entries expire after a time to live, resources which were not found after a shorter one,
+ * and the least recently used entries are evicted once the cache is full.
+ * <p>
+ * Concurrent lookups of the same resource share a single request, and the resources missing from the cache in a
+ * lookup of many are described together, with one call per kind of resource filtered by their IDs. The cache is
+ * keyed by credentials identity and region, is thread safe and is meant to be shared by the launches of an accessor.
+ */
+public final class AWSMetadataCache {
+    public static final Duration DEFAULT_TTL = Duration.ofHours(1);
+    public static final Duration DEFAULT_NOT_FOUND_TTL = Duration.ofMinutes(1);
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    private static final Kind<Image> IMAGES = new Kind<>("image", AWSMetadataCache::describeImages);
+    private static final Kind<Subnet> SUBNETS = new Kind<>("subnet", AWSMetadataCache::describeSubnets);
+    private static final Kind<SecurityGroup> SECURITY_GROUPS =
+            new Kind<>("security group", AWSMetadataCache::describeSecurityGroups);
+    private final long ttlNanos;
+    private final long notFoundTtlNanos;
+    private final Map<Key, Lookup> entries;
+    
+    private AWSMetadataCache(Builder builder) {
+        this.ttlNanos = builder.ttl.toNanos();
+        this.notFoundTtlNanos = builder.notFoundTtl.toNanos();
+        int maxEntries = builder.maxEntries;
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<Key, Lookup>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Lookup> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+    
+    /**
+     * @return A cache with the default time to live and size
+     */
+    public static AWSMetadataCache create() {
+        return builder().build();
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * @return The number of resources in the cache, found or not
+     */
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * Drops every entry, so that the resources are described again on their next lookup.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+    
+    /**
+     * Resolves the images, subnets and security groups of launch specifications, with at most one call per kind of
+     * resource for those which are not cached.
+     *
+     * @param ec2Client              The EC2 calls of the region of the specifications
+     * @param instanceSpecifications The specifications
+     * @throws CloudExceptions Exception thrown when the resources cannot be described
+     */
+    void prefetch(EC2Gateway ec2Client, Collection<LaunchSpecifications> instanceSpecifications)
+            throws CloudExceptions {
+        Set<String> imageIDs = new LinkedHashSet<>();
+        Set<String> subnetIDs = new LinkedHashSet<>();
+        Set<String> securityGroupIDs = new LinkedHashSet<>();
+        for (LaunchSpecifications instanceSpecification : instanceSpecifications) {
+            if (instanceSpecification.getImageID() != null) {
+                imageIDs.add(instanceSpecification.getImageID());
+            }
+            subnetIDs.addAll(subnetIDs(instanceSpecification));
+            if (instanceSpecification.getSecurityGroupIDs() != null) {
+                securityGroupIDs.addAll(instanceSpecification.getSecurityGroupIDs());
+            }
+        }
+        resolve(ec2Client, IMAGES, imageIDs);
+        resolve(ec2Client, SUBNETS, subnetIDs);
+        resolve(ec2Client, SECURITY_GROUPS, securityGroupIDs);
+    }
+    
+    /**
+     * Checks that the image, the subnets and the security groups of launch specifications exist, and that the
+     * security groups belong to the VPC of the subnets.
+     *
+     * @param ec2Client              The EC2 calls of the region of the specifications
+     * @param instanceSpecifications The specifications
+     * @throws CloudExceptions Exception thrown when a resource does not exist or is in another VPC, or when the
+     *                         resources cannot be described
+     */
+    void validate(EC2Gateway ec2Client, LaunchSpecifications instanceSpecifications) throws CloudExceptions {
+        String region = ec2Client.getRegion();
+        if (instanceSpecifications.getImageID() != null &&
+                resolve(ec2Client, IMAGES, Collections.singleton(instanceSpecifications.getImageID())).isEmpty()) {
+            throw new CloudExceptions("The image " + instanceSpecifications.getImageID() + " does not exist in " +
+                    region);
+        }
+        String vpcID = null;
+        List<String> subnetIDs = subnetIDs(instanceSpecifications);
+        Map<String, Subnet> subnets = resolve(ec2Client, SUBNETS, subnetIDs);
+        for (String subnetID : subnetIDs) {
+            Subnet subnet = subnets.get(subnetID);
+            if (subnet == null) {
+                throw new CloudExceptions("The subnet " + subnetID + " does not exist in " + region);
+            }
+            if (vpcID == null) {
+                vpcID = subnet.getVpcID();
+            }
+            else if (!vpcID.equals(subnet.getVpcID())) {
+                throw new CloudExceptions("The subnet " + subnetID + " is not in the VPC " + vpcID);
+            }
+        }
+        List<String> securityGroupIDs = instanceSpecifications.getSecurityGroupIDs();
+        if (securityGroupIDs == null || securityGroupIDs.isEmpty()) {
+            return;
+        }
+        Map<String, SecurityGroup> securityGroups = resolve(ec2Client, SECURITY_GROUPS, securityGroupIDs);
+        for (String securityGroupID : securityGroupIDs) {
+            SecurityGroup securityGroup = securityGroups.get(securityGroupID);
+            if (securityGroup == null) {
+                throw new CloudExceptions("The security group " + securityGroupID + " does not exist in " + region);
+            }
+            if (vpcID != null && securityGroup.getVpcID() != null && !vpcID.equals(securityGroup.getVpcID())) {
+                throw new CloudExceptions("The security group " + securityGroupID + " is not in the VPC " + vpcID +
+                        " of the subnet");
+            }
+        }
+    }
+    
+    /**
+     * @param ec2Client The EC2 calls of the region of the image
+     * @param imageID   The image ID
+     * @return The image, or null if it does not exist
+     * @throws CloudExceptions Exception thrown when the image cannot be described
+     */
+    Image getImage(EC2Gateway ec2Client, String imageID) throws CloudExceptions {
+        return resolve(ec2Client, IMAGES, Collections.singleton(imageID)).get(imageID);
+    }
+    
+    /**
+     * @param ec2Client The EC2 calls of the region of the subnet
+     * @param subnetID  The subnet ID
+     * @return The subnet, or null if it does not exist
+     * @throws CloudExceptions Exception thrown when the subnet cannot be described
+     */
+    Subnet getSubnet(EC2Gateway ec2Client, String subnetID) throws CloudExceptions {
+        return resolve(ec2Client, SUBNETS, Collections.singleton(subnetID)).get(subnetID);
+    }
+    
+    /**
+     * @param ec2Client       The EC2 calls of the region of the security group
+     * @param securityGroupID The security group ID
+     * @return The security group, or null if it does not exist
+     * @throws CloudExceptions Exception thrown when the security group cannot be described
+     */
+    SecurityGroup getSecurityGroup(EC2Gateway ec2Client, String securityGroupID) throws CloudExceptions {
+        return resolve(ec2Client, SECURITY_GROUPS, Collections.singleton(securityGroupID)).get(securityGroupID);
+    }
+    
+    private static List<String> subnetIDs(LaunchSpecifications instanceSpecifications) {
+        List<String> subnetIDs = new ArrayList<>();
+        if (instanceSpecifications.getSubnetID() != null) {
+            subnetIDs.add(instanceSpecifications.getSubnetID());
+        }
+        if (instanceSpecifications instanceof AWSLaunchSpecifications) {
+            subnetIDs.addAll(((AWSLaunchSpecifications) instanceSpecifications).getAlternativeSubnetIDs());
+        }
+        return subnetIDs;
+    }
+    
+    /*
+    Looks the resources up in the cache. The resources which are missing or expired get an entry whose value is
+    pending, so that concurrent lookups wait for it instead of describing them again, and are described by this
+    thread. The resources which were not found are left out of the result.
+     */
+    private <T> Map<String, T> resolve(EC2Gateway ec2Client, Kind<T> kind, Collection<String> ids)
+            throws CloudExceptions {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        long now = System.nanoTime();
+        Map<String, Lookup> lookups = new LinkedHashMap<>();
+        Map<String, Lookup> owned = new LinkedHashMap<>();
+        synchronized (entries) {
+            for (String id : ids) {
+                if (lookups.containsKey(id)) {
+                    continue;
+                }
+                Key key = new Key(ec2Client.getScope(), ec2Client.getRegion(), kind.name, id);
+                Lookup entry = entries.get(key);
+                if (entry == null || entry.isExpired(now)) {
+                    entry = new Lookup(key);
+                    entries.put(key, entry);
+                    owned.put(id, entry);
+                }
+                lookups.put(id, entry);
+            }
+        }
+        if (!owned.isEmpty()) {
+            describe(ec2Client, kind, owned);
+        }
+        Map<String, T> resolved = new HashMap<>();
+        for (Map.Entry<String, Lookup> lookup : lookups.entrySet()) {
+            Object value;
+            try {
+                value = lookup.getValue().value.join();
+            }
+            catch (CompletionException e) {
+                throw new CloudExceptions("Unable to describe the " + kind.name + " " + lookup.getKey() + " in " +
+                        ec2Client.getRegion(), e.getCause());
+            }
+            if (value != null) {
+                resolved.put(lookup.getKey(), kind.type(value));
+            }
+        }
+        return resolved;
+    }
+    
+    private <T> void describe(EC2Gateway ec2Client, Kind<T> kind, Map<String, Lookup> owned) {
+        List<String> ids = new ArrayList<>(owned.keySet());
+        try {
+            for (int start = 0; start < ids.size(); start += AWSInstanceInventory.MAX_FILTER_VALUES) {
+                List<String> batch =
+                        ids.subList(start, Math.min(ids.size(), start + AWSInstanceInventory.MAX_FILTER_VALUES));
+                Map<String, T> found;
+                try {
+                    found = kind.describer.describe(ec2Client, batch);
+                }
+                catch (CloudExceptions | RuntimeException e) {
+                    /* Failures are not cached, the next lookup describes the resources again */
+                    for (String id : batch) {
+                        Lookup entry = owned.get(id);
+                        entries.remove(entry.key, entry);
+                        entry.value.completeExceptionally(e);
+                    }
+                    continue;
+                }
+                long now = System.nanoTime();
+                for (String id : batch) {
+                    T value = found.get(id);
+                    Lookup entry = owned.get(id);
+                    entry.expires = now + (value != null ? ttlNanos : notFoundTtlNanos);
+                    entry.value.complete(value);
+                }
+            }
+        }
+        finally {
+            /* Lookups waiting for the entries must not wait forever if this thread fails in between */
+            for (Lookup entry : owned.values()) {
+                if (!entry.value.isDone()) {
+                    entries.remove(entry.key, entry);
+                    entry.value.completeExceptionally(new IllegalStateException("The lookup was interrupted"));
+                }
+            }
+        }
+    }
+    
+    private static Map<String, Image> describeImages(EC2Gateway ec2Client, List<String> imageIDs)
+            throws CloudExceptions {
+        Map<String, Image> images = new HashMap<>();
+        ec2Client.describeImages(DescribeImagesRequest.builder().filters(filter("image-id", imageIDs)).build())
+                .images().forEach(image -> images.put(image.imageId(), new Image(image.imageId(), image.name(),
+                image.stateAsString(), image.architectureAsString())));
+        return images;
+    }
+    
+    private static Map<String, Subnet> describeSubnets(EC2Gateway ec2Client, List<String> subnetIDs)
+            throws CloudExceptions {
+        Map<String, Subnet> subnets = new HashMap<>();
+        ec2Client.describeSubnets(DescribeSubnetsRequest.builder().filters(filter("subnet-id", subnetIDs)).build())
+                .subnets().forEach(subnet -> subnets.put(subnet.subnetId(), new Subnet(subnet.subnetId(),
+                subnet.vpcId(), subnet.availabilityZone())));
+        return subnets;
+    }
+    
+    private static Map<String, SecurityGroup> describeSecurityGroups(
+            EC2Gateway ec2Client, List<String> securityGroupIDs) throws CloudExceptions {
+        Map<String, SecurityGroup> securityGroups = new HashMap<>();
+        ec2Client.describeSecurityGroups(DescribeSecurityGroupsRequest.builder()
+                .filters(filter("group-id", securityGroupIDs)).build())
+                .securityGroups().forEach(group -> securityGroups.put(group.groupId(), new SecurityGroup(
+                group.groupId(), group.groupName(), group.vpcId())));
+        return securityGroups;
+    }
+    
+    private static Filter filter(String name, List<String> values) {
+        return Filter.builder().name(name).values(values).build();
+    }
+    
+    /**
+     * An AMI of a region.
+     */
+    public static final class Image {
+        private final String imageID;
+        private final String name;
+        private final String state;
+        private final String architecture;
+        
+        private Image(String imageID, String name, String state, String architecture) {
+            this.imageID = imageID;
+            this.name = name;
+            this.state = state;
+            this.architecture = architecture;
+        }
+        
+        public String getImageID() {
+            return imageID;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * @return The state of the image when it was described, such as available
+         */
+        public String getState() {
+            return state;
+        }
+        
+        public String getArchitecture() {
+            return architecture;
+        }
+        
+        @Override
+        public String toString() {
+            return "Image{imageID=" + imageID + ", name=" + name + ", state=" + state + ", architecture=" +
+                    architecture + '}';
+        }
+    }
+    
+    /**
+     * A subnet of a region, with its VPC and availability zone.
+     */
+    public static final class Subnet {
+        private final String subnetID;
+        private final String vpcID;
+        private final String availabilityZone;
+        
+        private Subnet(String subnetID, String vpcID, String availabilityZone) {
+            this.subnetID = subnetID;
+            this.vpcID = vpcID;
+            this.availabilityZone = availabilityZone;
+        }
+        
+        public String getSubnetID() {
+            return subnetID;
+        }
+        
+        public String getVpcID() {
+            return vpcID;
+        }
+        
+        public String getAvailabilityZone() {
+            return availabilityZone;
+        }
+        
+        @Override
+        public String toString() {
+            return "Subnet{subnetID=" + subnetID + ", vpcID=" + vpcID + ", availabilityZone=" + availabilityZone +
+                    '}';
+        }
+    }
+    
+    /**
+     * A security group of a region.
+     */
+    public static final class SecurityGroup {
+        private final String groupID;
+        private final String groupName;
+        private final String vpcID;
+        
+        private SecurityGroup(String groupID, String groupName, String vpcID) {
+            this.groupID = groupID;
+            this.groupName = groupName;
+            this.vpcID = vpcID;
+        }
+        
+        public String getGroupID() {
+            return groupID;
+        }
+        
+        public String getGroupName() {
+            return groupName;
+        }
+        
+        /**
+         * @return The VPC of the security group. Null for an EC2-Classic security group.
+         */
+        public String getVpcID() {
+            return vpcID;
+        }
+        
+        @Override
+        public String toString() {
+            return "SecurityGroup{groupID=" + groupID + ", groupName=" + groupName + ", vpcID=" + vpcID + '}';
+        }
+    }
+    
+    @FunctionalInterface
+    private interface Describer<T> {
+        Map<String, T> describe(EC2Gateway ec2Client, List<String> ids) throws CloudExceptions;
+    }
+    
+    /* A kind of resource: the name used in the keys and the messages, and how to describe a batch of them */
+    private static final class Kind<T> {
+        private final String name;
+        private final Describer<T> describer;
+        
+        private Kind(String name, Describer<T> describer) {
+            this.name = name;
+            this.describer = describer;
+        }
+        
+        @SuppressWarnings("unchecked")
+        private T type(Object value) {
+            return (T) value;
+        }
+    }
+    
+    private static final class Key {
+        private final String scope;
+        private final String region;
+        private final String kind;
+        private final String id;
+        
+        private Key(String scope, String region, String kind, String id) {
+            this.scope = scope;
+            this.region = region;
+            this.kind = kind;
+            this.id = id;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return scope.equals(that.scope) && region.equals(that.region) && kind.equals(that.kind) &&
+                    id.equals(that.id);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(scope, region, kind, id);
+        }
+    }
+    
+    /* A resource, pending until it is described, then the resource or null if it was not found */
+    private static final class Lookup {
+        private final Key key;
+        private final CompletableFuture<Object> value = new CompletableFuture<>();
+        private volatile long expires;
+        
+        private Lookup(Key key) {
+            this.key = key;
+        }
+        
+        private boolean isExpired(long now) {
+            return value.isDone() && (value.isCompletedExceptionally() || expires - now <= 0);
+        }
+    }
+    
+    public static final class Builder {
+        private Duration ttl = DEFAULT_TTL;
+        private Duration notFoundTtl = DEFAULT_NOT_FOUND_TTL;
+        private int maxEntries = DEFAULT_MAX_ENTRIES;
+        
+        private Builder() {
+        }
+        
+        /**
+         * @param ttl Time the resources which were found stay in the cache. Defaults to 1 hour.
+         * @return this builder
+         */
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+        
+        /**
+         * @param notFoundTtl Time the resources which were not found stay in the cache, so that a launch with a
+         *                    wrong ID is not described again on every attempt. Defaults to 1 minute.
+         * @return this builder
+         */
+        public Builder notFoundTtl(Duration notFoundTtl) {
+            this.notFoundTtl = notFoundTtl;
+            return this;
+        }
+        
+        /**
+         * @param maxEntries Maximum number of resources in the cache. Defaults to 10000.
+         * @return this builder
+         */
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+        
+        public AWSMetadataCache build() {
+            if (ttl == null || ttl.isNegative() || notFoundTtl == null || notFoundTtl.isNegative()) {
+                throw new IllegalArgumentException("The times to live cannot be negative");
+            }
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException("The cache must hold at least one entry");
+            }
+            return new AWSMetadataCache(this);
+        }
+    }
+}
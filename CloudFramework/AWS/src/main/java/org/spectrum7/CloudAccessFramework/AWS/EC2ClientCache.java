@@ -0,0 +1,561 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import com.google.common.flogger.FluentLogger;
+import org.spectrum7.CloudAccessFramework.Accessors.Credentials.CloudCredentials;
+import org.spectrum7.CloudAccessFramework.Accessors.Credentials.CredentialsRegistry;
+import org.spectrum7.CloudAccessFramework.Accessors.Credentials.CredentialsSource;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.AccessorMetrics;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.OperationTimer;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClient;
+import software.amazon.awssdk.services.ec2.Ec2AsyncClientBuilder;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.Ec2ClientBuilder;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe cache of Ec2Client and Ec2AsyncClient instances keyed by region and credential identity. All the
+ * clients handed out by the cache share a single SdkHttpClient (or a single netty based SdkAsyncHttpClient for the
+ * asynchronous clients), so that the connection pool, the TLS sessions and the credential lookups are reused across
+ * launches instead of being rebuilt for every call. The netty client is created only when an asynchronous client is
+ * first requested.
+ * <p>
+ * The clients of an identity share one set of credentials from a CredentialsRegistry, refreshed in the background
+ * ahead of their expiration. The credentials of the instance role are fetched from the instance metadata service by a
+ * single request at a time, however many clients are built or launches are made at once.
+ * <p>
+ * Retries of the SDK are turned off on the cached clients. Retries are handled by the RequestThrottler of the
+ * accessors, which coordinates them across threads. Every call is aborted by the SDK after the API call timeout, so
+ * that a call to an endpoint which hangs does not hold its thread and connection past the deadlines of the throttler.
+ * <p>
+ * The cache is bounded. When more than maxClients clients are held, the least recently used one is removed from the
+ * cache. A client may still be in use by the thread it was last handed to, or held by a gateway across calls, so a
+ * removed client is only closed once it has not been handed out for idleTimeout. Cached clients which have not been
+ * handed out for idleTimeout are closed and removed as well. Closing the cache closes every client along with the
+ * shared http client.
+ * <p>
+ * The time taken to build each client is recorded in the AccessorMetrics under the BuildClient action.
+ */
+public class EC2ClientCache implements AutoCloseable {
+    public static final int DEFAULT_MAX_CLIENTS = 64;
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(15);
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+    public static final int DEFAULT_MAX_CONCURRENCY = 500;
+    public static final Duration DEFAULT_API_CALL_TIMEOUT = Duration.ofSeconds(60);
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final String INSTANCE_PROFILE_IDENTITY = "instance-profile";
+    private final Map<ClientKey, CachedClient> clients = new ConcurrentHashMap<>();
+    /* Clients removed from the cache to keep it bounded, closed once idle */
+    private final Map<CachedClient, ClientKey> retired = new ConcurrentHashMap<>();
+    /* Fingerprint of the secret key of each access key, to hash a secret key once rather than on every call */
+    private final Map<String, SecretFingerprint> fingerprints = new ConcurrentHashMap<>();
+    private final SdkHttpClient httpClient;
+    private final int maxConcurrency;
+    private final int maxClients;
+    private final long idleTimeoutNanos;
+    private final AtomicLong nextSweepNanos;
+    private final AccessorMetrics metrics;
+    private final ClientFactory clientFactory;
+    private final URI endpointOverride;
+    private final Duration apiCallTimeout;
+    private volatile SdkAsyncHttpClient asyncHttpClient = null;
+    private final CredentialsRegistry credentials;
+    private final boolean ownsCredentials;
+    private final CredentialsSource defaultCredentials;
+    private volatile boolean closed = false;
+    
+    private EC2ClientCache(Builder builder) {
+        this.maxClients = builder.maxClients;
+        this.idleTimeoutNanos = builder.idleTimeout.toNanos();
+        this.nextSweepNanos = new AtomicLong(System.nanoTime() + idleTimeoutNanos);
+        this.maxConcurrency = builder.maxConcurrency;
+        this.metrics = builder.metrics;
+        this.clientFactory = builder.clientFactory;
+        this.endpointOverride = builder.endpointOverride;
+        this.apiCallTimeout = builder.apiCallTimeout;
+        this.ownsCredentials = builder.credentials == null;
+        this.credentials = ownsCredentials ? CredentialsRegistry.create() : builder.credentials;
+        this.defaultCredentials = builder.defaultCredentials != null ? builder.defaultCredentials :
+                new InstanceMetadataCredentialsSource();
+        this.httpClient = ApacheHttpClient.builder().maxConnections(builder.maxConnections).build();
+    }
+    
+    /**
+     * Creates a cache with the default limits.
+     *
+     * @return EC2ClientCache instance
+     */
+    public static EC2ClientCache create() {
+        return builder().build();
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Returns a cached Ec2Client which uses the credentials of the instance on which the application is running.
+     *
+     * @param region String with region ID. This string should be one of those defined by AWS.
+     * @return Ec2Client instance
+     */
+    Ec2Client getClient(String region) {
+        return (Ec2Client) getClient(new ClientKey(region, INSTANCE_PROFILE_IDENTITY, null, false), null, null);
+    }
+    
+    /**
+     * Returns a cached Ec2Client for the specified access and secret keys.
+     *
+     * @param accessKey The access key
+     * @param secretKey The secret key
+     * @param region    String with region ID. This string should be one of those defined by AWS.
+     * @return Ec2Client instance
+     */
+    Ec2Client getClient(String accessKey, String secretKey, String region) {
+        return (Ec2Client) getClient(new ClientKey(region, accessKey, fingerprint(accessKey, secretKey), false),
+                accessKey, secretKey);
+    }
+    
+    /**
+     * Returns a cached Ec2AsyncClient which uses the credentials of the instance on which the application is running.
+     *
+     * @param region String with region ID. This string should be one of those defined by AWS.
+     * @return Ec2AsyncClient instance
+     */
+    Ec2AsyncClient getAsyncClient(String region) {
+        return (Ec2AsyncClient) getClient(new ClientKey(region, INSTANCE_PROFILE_IDENTITY, null, true), null, null);
+    }
+    
+    /**
+     * Returns a cached Ec2AsyncClient for the specified access and secret keys.
+     *
+     * @param accessKey The access key
+     * @param secretKey The secret key
+     * @param region    String with region ID. This string should be one of those defined by AWS.
+     * @return Ec2AsyncClient instance
+     */
+    Ec2AsyncClient getAsyncClient(String accessKey, String secretKey, String region) {
+        return (Ec2AsyncClient) getClient(new ClientKey(region, accessKey, fingerprint(accessKey, secretKey), true),
+                accessKey, secretKey);
+    }
+    
+    private SdkAutoCloseable getClient(ClientKey key, String accessKey, String secretKey) {
+        if (closed) {
+            throw new IllegalStateException("The EC2 client cache has been closed");
+        }
+        CachedClient cachedClient = clients.computeIfAbsent(key, k -> new CachedClient(buildClient(k, accessKey,
+                secretKey)));
+        cachedClient.touch();
+        if (closed) {
+            /* The cache was closed while the client was built, and may have missed it */
+            evict(key, cachedClient);
+            throw new IllegalStateException("The EC2 client cache has been closed");
+        }
+        if (clients.size() > maxClients) {
+            evictLeastRecentlyUsed();
+        }
+        sweepIdleClients();
+        return cachedClient.client;
+    }
+    
+    private SdkAutoCloseable buildClient(ClientKey key, String accessKey, String secretKey) {
+        OperationTimer timer = metrics.start(EC2Gateway.PROVIDER, key.region, "BuildClient");
+        try {
+            SdkAutoCloseable client = buildClient(key, credentialsProvider(key, accessKey, secretKey));
+            timer.success();
+            return client;
+        }
+        catch (RuntimeException e) {
+            timer.failure();
+            throw e;
+        }
+    }
+    
+    /*
+    The clients of an identity share its credentials across regions and between the sync and async clients.
+     */
+    private AwsCredentialsProvider credentialsProvider(ClientKey key, String accessKey, String secretKey) {
+        if (accessKey == null) {
+            return new AWSCredentialsProvider(credentials.get(INSTANCE_PROFILE_IDENTITY, () -> defaultCredentials));
+        }
+        CloudCredentials keys = new CloudCredentials(accessKey, secretKey, null, null);
+        return new AWSCredentialsProvider(credentials.get(key.credentialsIdentity(), () -> () -> keys));
+    }
+    
+    private SdkAutoCloseable buildClient(ClientKey key, AwsCredentialsProvider credentialsProvider) {
+        ClientOverrideConfiguration overrideConfiguration =
+                ClientOverrideConfiguration.builder().retryPolicy(RetryPolicy.none()).apiCallTimeout(apiCallTimeout)
+                        .build();
+        if (key.async) {
+            Ec2AsyncClientBuilder builder = Ec2AsyncClient.builder()
+                    .credentialsProvider(credentialsProvider)
+                    .region(Region.of(key.region))
+                    .httpClient(getAsyncHttpClient())
+                    .overrideConfiguration(overrideConfiguration);
+            if (endpointOverride != null) {
+                builder.endpointOverride(endpointOverride);
+            }
+            return builder.build();
+        }
+        if (clientFactory != null) {
+            return clientFactory.create(Region.of(key.region), credentialsProvider);
+        }
+        Ec2ClientBuilder builder = Ec2Client.builder()
+                .credentialsProvider(credentialsProvider)
+                .region(Region.of(key.region))
+                .httpClient(httpClient)
+                .overrideConfiguration(overrideConfiguration);
+        if (endpointOverride != null) {
+            builder.endpointOverride(endpointOverride);
+        }
+        return builder.build();
+    }
+    
+    private SdkAsyncHttpClient getAsyncHttpClient() {
+        if (asyncHttpClient == null) {
+            synchronized (this) {
+                if (asyncHttpClient == null) {
+                    asyncHttpClient = NettyNioAsyncHttpClient.builder().maxConcurrency(maxConcurrency).build();
+                }
+            }
+        }
+        return asyncHttpClient;
+    }
+    
+    private void evictLeastRecentlyUsed() {
+        while (clients.size() > maxClients) {
+            Map.Entry<ClientKey, CachedClient> eldest = null;
+            for (Map.Entry<ClientKey, CachedClient> entry : clients.entrySet()) {
+                if (eldest == null || entry.getValue().lastAccessNanos < eldest.getValue().lastAccessNanos) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            if (clients.remove(eldest.getKey(), eldest.getValue())) {
+                logger.atFine().log("Removing EC2 client for %s from the cache", eldest.getKey().region);
+                retired.put(eldest.getValue(), eldest.getKey());
+            }
+        }
+    }
+    
+    /*
+    Idle clients are swept at most once per idle timeout by whichever caller gets there first.
+     */
+    private void sweepIdleClients() {
+        long now = System.nanoTime();
+        long nextSweep = nextSweepNanos.get();
+        if (now - nextSweep < 0 || !nextSweepNanos.compareAndSet(nextSweep, now + idleTimeoutNanos)) {
+            return;
+        }
+        clients.forEach((key, cachedClient) -> {
+            if (now - cachedClient.lastAccessNanos > idleTimeoutNanos) {
+                evict(key, cachedClient);
+            }
+        });
+        retired.forEach((cachedClient, key) -> {
+            if (now - cachedClient.lastAccessNanos > idleTimeoutNanos) {
+                closeRetired(key, cachedClient);
+            }
+        });
+    }
+    
+    private void evict(ClientKey key, CachedClient cachedClient) {
+        if (clients.remove(key, cachedClient)) {
+            logger.atFine().log("Closing EC2 client for %s", key.region);
+            cachedClient.client.close();
+            forgetUnusedKeys(key);
+        }
+    }
+    
+    private void closeRetired(ClientKey key, CachedClient cachedClient) {
+        if (retired.remove(cachedClient, key)) {
+            logger.atFine().log("Closing EC2 client for %s", key.region);
+            cachedClient.client.close();
+            forgetUnusedKeys(key);
+        }
+    }
+    
+    /* Keys which are no longer used by any client are forgotten, the instance profile is kept */
+    private void forgetUnusedKeys(ClientKey key) {
+        String identity = key.credentialsIdentity();
+        if (key.secretFingerprint != null
+                && clients.keySet().stream().noneMatch(k -> identity.equals(k.credentialsIdentity()))
+                && retired.values().stream().noneMatch(k -> identity.equals(k.credentialsIdentity()))) {
+            credentials.invalidate(identity);
+            fingerprints.remove(key.identity);
+        }
+    }
+    
+    /**
+     * Number of clients currently held by the cache
+     *
+     * @return client count
+     */
+    public int size() {
+        return clients.size();
+    }
+    
+    /**
+     * Closes all the cached clients and the shared http clients. The cache cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        clients.forEach(this::evict);
+        retired.forEach((cachedClient, key) -> closeRetired(key, cachedClient));
+        httpClient.close();
+        synchronized (this) {
+            if (asyncHttpClient != null) {
+                asyncHttpClient.close();
+            }
+        }
+        if (ownsCredentials) {
+            credentials.close();
+        }
+    }
+    
+    private String fingerprint(String accessKey, String secretKey) {
+        SecretFingerprint fingerprint = fingerprints.get(accessKey);
+        if (fingerprint == null || !Objects.equals(fingerprint.secretKey, secretKey)) {
+            fingerprint = new SecretFingerprint(secretKey, fingerprint(secretKey));
+            fingerprints.put(accessKey, fingerprint);
+        }
+        return fingerprint.fingerprint;
+    }
+    
+    private static String fingerprint(String secretKey) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return LaunchRequests.hex(digest.digest(String.valueOf(secretKey).getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+    
+    private static final class SecretFingerprint {
+        private final String secretKey;
+        private final String fingerprint;
+        
+        private SecretFingerprint(String secretKey, String fingerprint) {
+            this.secretKey = secretKey;
+            this.fingerprint = fingerprint;
+        }
+    }
+    
+    private static final class ClientKey {
+        private final String region;
+        private final String identity;
+        private final String secretFingerprint;
+        private final boolean async;
+        
+        private ClientKey(String region, String identity, String secretFingerprint, boolean async) {
+            this.region = region;
+            this.identity = identity;
+            this.secretFingerprint = secretFingerprint;
+            this.async = async;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+            ClientKey that = (ClientKey) o;
+            return async == that.async && region.equals(that.region) && identity.equals(that.identity) &&
+                    Objects.equals(secretFingerprint, that.secretFingerprint);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(region, identity, secretFingerprint, async);
+        }
+        
+        private String credentialsIdentity() {
+            return secretFingerprint == null ? identity : identity + '/' + secretFingerprint;
+        }
+    }
+    
+    private static final class CachedClient {
+        private final SdkAutoCloseable client;
+        private volatile long lastAccessNanos = System.nanoTime();
+        
+        private CachedClient(SdkAutoCloseable client) {
+            this.client = client;
+        }
+        
+        private void touch() {
+            lastAccessNanos = System.nanoTime();
+        }
+    }
+    
+    /**
+     * Builds the synchronous clients in place of the default SDK client builder, for instance to use an in-process
+     * fake of EC2 in benchmarks or an EC2 emulator.
+     */
+    @FunctionalInterface
+    public interface ClientFactory {
+        /**
+         * @param region              Region of the client
+         * @param credentialsProvider Credentials of the client
+         * @return Ec2Client instance. The cache closes it when it is evicted.
+         */
+        Ec2Client create(Region region, AwsCredentialsProvider credentialsProvider);
+    }
+    
+    public static final class Builder {
+        private int maxClients = DEFAULT_MAX_CLIENTS;
+        private Duration idleTimeout = DEFAULT_IDLE_TIMEOUT;
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+        private AccessorMetrics metrics = AccessorMetrics.noop();
+        private ClientFactory clientFactory = null;
+        private URI endpointOverride = null;
+        private Duration apiCallTimeout = DEFAULT_API_CALL_TIMEOUT;
+        private CredentialsRegistry credentials = null;
+        private CredentialsSource defaultCredentials = null;
+        
+        private Builder() {
+        }
+        
+        /**
+         * @param maxClients Maximum number of (region, credentials) clients held at any point of time
+         * @return this builder
+         */
+        public Builder maxClients(int maxClients) {
+            if (maxClients < 1) {
+                throw new IllegalArgumentException("maxClients should be at least 1");
+            }
+            this.maxClients = maxClients;
+            return this;
+        }
+        
+        /**
+         * @param idleTimeout Clients unused for this duration are closed
+         * @return this builder
+         */
+        public Builder idleTimeout(Duration idleTimeout) {
+            if (idleTimeout == null || idleTimeout.isNegative() || idleTimeout.isZero()) {
+                throw new IllegalArgumentException("idleTimeout should be a positive duration");
+            }
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+        
+        /**
+         * @param maxConnections Size of the connection pool of the http client shared by all the cached clients
+         * @return this builder
+         */
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections < 1) {
+                throw new IllegalArgumentException("maxConnections should be at least 1");
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+        
+        /**
+         * @param maxConcurrency Maximum number of concurrent requests of the netty http client shared by all the
+         *                       cached asynchronous clients
+         * @return this builder
+         */
+        public Builder maxConcurrency(int maxConcurrency) {
+            if (maxConcurrency < 1) {
+                throw new IllegalArgumentException("maxConcurrency should be at least 1");
+            }
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+        
+        /**
+         * @param metrics Metrics receiving the time taken to build the clients
+         * @return this builder
+         */
+        public Builder metrics(AccessorMetrics metrics) {
+            if (metrics == null) {
+                throw new IllegalArgumentException("metrics should not be null, use AccessorMetrics.noop()");
+            }
+            this.metrics = metrics;
+            return this;
+        }
+        
+        /**
+         * @param clientFactory Builds the synchronous clients. Null for the default SDK clients sharing the http
+         *                      client of the cache.
+         * @return this builder
+         */
+        public Builder clientFactory(ClientFactory clientFactory) {
+            this.clientFactory = clientFactory;
+            return this;
+        }
+        
+        /**
+         * @param endpointOverride Endpoint the clients send their requests to in place of the EC2 endpoint of their
+         *                         region, for instance a local EC2 emulator. Null for the regional endpoints.
+         * @return this builder
+         */
+        public Builder endpointOverride(URI endpointOverride) {
+            this.endpointOverride = endpointOverride;
+            return this;
+        }
+        
+        /**
+         * @param apiCallTimeout Time after which the SDK aborts a call of the clients built by the cache. It should
+         *                       not be shorter than the longest deadline of the throttler.
+         * @return this builder
+         */
+        public Builder apiCallTimeout(Duration apiCallTimeout) {
+            if (apiCallTimeout == null || apiCallTimeout.isNegative() || apiCallTimeout.isZero()) {
+                throw new IllegalArgumentException("apiCallTimeout should be a positive duration");
+            }
+            this.apiCallTimeout = apiCallTimeout;
+            return this;
+        }
+        
+        /**
+         * @param credentials Registry of the credentials of the clients, to share the credentials with other caches.
+         *                    Null for a registry of the cache, closed along with it.
+         * @return this builder
+         */
+        public Builder credentials(CredentialsRegistry credentials) {
+            this.credentials = credentials;
+            return this;
+        }
+        
+        /**
+         * @param defaultCredentials Source of the credentials of the clients requested without keys. Null for the
+         *                           credentials of the instance role, from the instance metadata service.
+         * @return this builder
+         */
+        public Builder defaultCredentials(CredentialsSource defaultCredentials) {
+            this.defaultCredentials = defaultCredentials;
+            return this;
+        }
+        
+        public EC2ClientCache build() {
+            return new EC2ClientCache(this);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.AccessorMetrics;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.OperationTimer;
+import org.spectrum7.CloudAccessFramework.Accessors.Throttling.RequestThrottler;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.CreateKeyPairRequest;
+import software.amazon.awssdk.services.ec2.model.CreateKeyPairResponse;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.CreateTagsResponse;
+import software.amazon.awssdk.services.ec2.model.DeleteKeyPairRequest;
+import software.amazon.awssdk.services.ec2.model.DeleteKeyPairResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeImagesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeImagesResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeKeyPairsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeKeyPairsResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeSecurityGroupsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSecurityGroupsResponse;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsRequest;
+import software.amazon.awssdk.services.ec2.model.DescribeSubnetsResponse;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.RunInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.StartInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.StartInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.StopInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.StopInstancesResponse;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.TerminateInstancesResponse;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * The EC2 calls made by the accessor. Every call goes through the RequestThrottler, rate limited per credentials
+ * identity, region and action, and SDK errors come out as CloudExceptions. The latency, the attempts, the throttled
+ * attempts and the outcome of every call are recorded in the AccessorMetrics, tagged with the region and the action.
+ * The describe calls are hedged when the throttler hedges, and the circuit breakers of the throttler cover the
+ * credentials identity and the region.
+ */
+final class EC2Gateway {
+    static final String PROVIDER = "aws";
+    private static final AWSErrorClassifier ERROR_CLASSIFIER = new AWSErrorClassifier();
+    private final Ec2Client ec2Client;
+    private final String scope;
+    private final String region;
+    private final RequestThrottler throttler;
+    private final AccessorMetrics metrics;
+    private final String throttlingScope;
+    
+    /**
+     * @param ec2Client The EC2 client for the calls
+     * @param scope     Identity of the credentials used by the client
+     * @param region    Region of the client
+     * @param throttler The rate limiting and retry layer
+     * @param metrics   Metrics of the calls
+     */
+    EC2Gateway(Ec2Client ec2Client, String scope, String region, RequestThrottler throttler,
+               AccessorMetrics metrics) {
+        this.ec2Client = ec2Client;
+        this.scope = scope;
+        this.region = region;
+        this.throttler = throttler;
+        this.metrics = metrics;
+        this.throttlingScope = scope + '/' + region;
+    }
+    
+    String getScope() {
+        return scope;
+    }
+    
+    String getRegion() {
+        return region;
+    }
+    
+    DescribeKeyPairsResponse describeKeyPairs(DescribeKeyPairsRequest request) throws CloudExceptions {
+        return read("DescribeKeyPairs", () -> ec2Client.describeKeyPairs(request));
+    }
+    
+    CreateKeyPairResponse createKeyPair(CreateKeyPairRequest request) throws CloudExceptions {
+        return call("CreateKeyPair", false, () -> ec2Client.createKeyPair(request));
+    }
+    
+    DeleteKeyPairResponse deleteKeyPair(DeleteKeyPairRequest request) throws CloudExceptions {
+        return call("DeleteKeyPair", true, () -> ec2Client.deleteKeyPair(request));
+    }
+    
+    DescribeInstancesResponse describeInstances(DescribeInstancesRequest request) throws CloudExceptions {
+        return read("DescribeInstances", () -> ec2Client.describeInstances(request));
+    }
+    
+    DescribeImagesResponse describeImages(DescribeImagesRequest request) throws CloudExceptions {
+        return read("DescribeImages", () -> ec2Client.describeImages(request));
+    }
+    
+    DescribeSubnetsResponse describeSubnets(DescribeSubnetsRequest request) throws CloudExceptions {
+        return read("DescribeSubnets", () -> ec2Client.describeSubnets(request));
+    }
+    
+    DescribeSecurityGroupsResponse describeSecurityGroups(DescribeSecurityGroupsRequest request)
+            throws CloudExceptions {
+        return read("DescribeSecurityGroups", () -> ec2Client.describeSecurityGroups(request));
+    }
+    
+    RunInstancesResponse runInstances(RunInstancesRequest request) throws CloudExceptions {
+        return call("RunInstances", false, () -> ec2Client.runInstances(request));
+    }
+    
+    TerminateInstancesResponse terminateInstances(TerminateInstancesRequest request) throws CloudExceptions {
+        return call("TerminateInstances", true, () -> ec2Client.terminateInstances(request));
+    }
+    
+    StopInstancesResponse stopInstances(StopInstancesRequest request) throws CloudExceptions {
+        return call("StopInstances", true, () -> ec2Client.stopInstances(request));
+    }
+    
+    StartInstancesResponse startInstances(StartInstancesRequest request) throws CloudExceptions {
+        return call("StartInstances", true, () -> ec2Client.startInstances(request));
+    }
+    
+    CreateTagsResponse createTags(CreateTagsRequest request) throws CloudExceptions {
+        return call("CreateTags", true, () -> ec2Client.createTags(request));
+    }
+    
+    /* Describe calls are safe to send twice at the same time, so their attempts may be hedged */
+    private <T> T read(String action, Supplier<T> call) throws CloudExceptions {
+        return call(action, true, true, call);
+    }
+    
+    private <T> T call(String action, boolean idempotent, Supplier<T> call) throws CloudExceptions {
+        return call(action, idempotent, false, call);
+    }
+    
+    private <T> T call(String action, boolean idempotent, boolean hedged, Supplier<T> call) throws CloudExceptions {
+        OperationTimer timer = metrics.start(PROVIDER, region, action);
+        Callable<T> attempt = () -> {
+            long start = System.nanoTime();
+            try {
+                return call.get();
+            }
+            catch (RuntimeException e) {
+                if (ERROR_CLASSIFIER.isThrottle(e)) {
+                    timer.throttled();
+                }
+                throw e;
+            }
+            finally {
+                timer.attempt(System.nanoTime() - start);
+            }
+        };
+        try {
+            T response = hedged ? throttler.executeHedged(throttlingScope, action, attempt) :
+                    throttler.execute(throttlingScope, action, idempotent, attempt);
+            timer.success();
+            return response;
+        }
+        catch (CloudExceptions | RuntimeException e) {
+            timer.failure();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Credentials.CloudCredentials;
+import org.spectrum7.CloudAccessFramework.Accessors.Credentials.CredentialsSource;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fetches the credentials of the IAM role of the instance the application runs on from the instance metadata
+ * service. A session token is requested first (IMDSv2), and the requests are sent without one if the service does
+ * not hand out tokens. The name of the role is looked up once and kept.
+ * <p>
+ * The endpoint of the service can be changed with the aws.ec2MetadataServiceEndpoint system property, as with the
+ * SDK.
+ */
+final class InstanceMetadataCredentialsSource implements CredentialsSource {
+    private static final String DEFAULT_ENDPOINT = "http://169.254.169.254";
+    private static final String ENDPOINT_PROPERTY = "aws.ec2MetadataServiceEndpoint";
+    private static final String TOKEN_PATH = "/latest/api/token";
+    private static final String CREDENTIALS_PATH = "/latest/meta-data/iam/security-credentials/";
+    private static final String TOKEN_TTL_HEADER = "X-aws-ec2-metadata-token-ttl-seconds";
+    private static final String TOKEN_HEADER = "X-aws-ec2-metadata-token";
+    private static final String TOKEN_TTL_SECONDS = "21600";
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 2000;
+    private final String endpoint;
+    private volatile String roleName = null;
+    
+    InstanceMetadataCredentialsSource() {
+        this(System.getProperty(ENDPOINT_PROPERTY, DEFAULT_ENDPOINT));
+    }
+    
+    /**
+     * @param endpoint Base URL of the instance metadata service
+     */
+    InstanceMetadataCredentialsSource(String endpoint) {
+        this.endpoint = endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+    }
+    
+    @Override
+    public CloudCredentials fetch() throws CloudExceptions {
+        String token = token();
+        String role = roleName;
+        if (role == null) {
+            role = role(token);
+        }
+        Response response = request("GET", CREDENTIALS_PATH + role, token);
+        if (response.status == HttpURLConnection.HTTP_NOT_FOUND) {
+            /* The role of the instance was replaced */
+            role = role(token);
+            response = request("GET", CREDENTIALS_PATH + role, token);
+        }
+        if (response.status != HttpURLConnection.HTTP_OK) {
+            throw new CloudExceptions("Unable to fetch the credentials of the instance role " + role + ": HTTP "
+                    + response.status);
+        }
+        String code = field(response.body, "Code");
+        if (code != null && !"Success".equals(code)) {
+            throw new CloudExceptions("The instance metadata service returned " + code + " for the role " + role);
+        }
+        String accessKey = field(response.body, "AccessKeyId");
+        String secretKey = field(response.body, "SecretAccessKey");
+        if (accessKey == null || secretKey == null) {
+            throw new CloudExceptions("The credentials of the instance role " + role + " are incomplete");
+        }
+        String expiration = field(response.body, "Expiration");
+        try {
+            return new CloudCredentials(accessKey, secretKey, field(response.body, "Token"),
+                    expiration == null ? null : Instant.parse(expiration));
+        }
+        catch (DateTimeParseException e) {
+            throw new CloudExceptions("Invalid expiration of the instance role credentials: " + expiration, e);
+        }
+    }
+    
+    /*
+    A null token sends the requests without one, for services which only support IMDSv1.
+     */
+    private String token() throws CloudExceptions {
+        Response response = request("PUT", TOKEN_PATH, null);
+        if (response.status == HttpURLConnection.HTTP_OK) {
+            return response.body.trim();
+        }
+        if (response.status == HttpURLConnection.HTTP_FORBIDDEN || response.status == HttpURLConnection.HTTP_NOT_FOUND
+                || response.status == HttpURLConnection.HTTP_BAD_METHOD) {
+            return null;
+        }
+        throw new CloudExceptions("Unable to obtain an instance metadata token: HTTP " + response.status);
+    }
+    
+    private String role(String token) throws CloudExceptions {
+        Response response = request("GET", CREDENTIALS_PATH, token);
+        String role = response.status == HttpURLConnection.HTTP_OK ? response.body.trim().split("\\s+")[0] : "";
+        if (role.isEmpty()) {
+            throw new CloudExceptions("No IAM role is attached to the instance: HTTP " + response.status);
+        }
+        roleName = role;
+        return role;
+    }
+    
+    private Response request(String method, String path, String token) throws CloudExceptions {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(endpoint + path).openConnection();
+            connection.setRequestMethod(method);
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setUseCaches(false);
+            if (TOKEN_PATH.equals(path)) {
+                connection.setRequestProperty(TOKEN_TTL_HEADER, TOKEN_TTL_SECONDS);
+            }
+            else if (token != null) {
+                connection.setRequestProperty(TOKEN_HEADER, token);
+            }
+            int status = connection.getResponseCode();
+            InputStream body = status < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() :
+                    connection.getErrorStream();
+            return new Response(status, body == null ? "" : read(body));
+        }
+        catch (IOException e) {
+            throw new CloudExceptions("Unable to reach the instance metadata service at " + endpoint, e);
+        }
+        finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+    
+    private static String read(InputStream body) throws IOException {
+        try (InputStream in = body) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+    
+    /*
+    The credentials document is a flat JSON object of string values.
+     */
+    private static String field(String json, String name) {
+        Matcher matcher = Pattern.compile('"' + name + "\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"").matcher(json);
+        return matcher.find() ? matcher.group(1).replace("\\/", "/") : null;
+    }
+    
+    private static final class Response {
+        private final int status;
+        private final String body;
+        
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
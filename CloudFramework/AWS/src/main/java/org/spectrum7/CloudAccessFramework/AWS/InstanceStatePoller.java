@@ -0,0 +1,327 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import com.google.common.flogger.FluentLogger;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import software.amazon.awssdk.services.ec2.model.DescribeInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.InstanceStateName;
+import software.amazon.awssdk.services.ec2.model.Reservation;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shared background poller which waits for instances to reach a state. The instance IDs of all the pending waits
+ * are collected per credentials identity and region, and polled together with DescribeInstances calls of up to 1000
+ * IDs each, so the number of calls does not grow with the number of instances being waited on.
+ * <p>
+ * The poll interval adapts to the progress. It is reset to the minimum interval whenever new instances are added or
+ * an instance reaches its state, and grows up to the maximum interval while nothing changes.
+ */
+final class InstanceStatePoller implements AutoCloseable {
+    static final int MAX_IDS_PER_CALL = 1000;
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final String INSTANCE_NOT_FOUND = "InvalidInstanceID.NotFound";
+    private static final Pattern INSTANCE_ID = Pattern.compile("i-[0-9a-f]+");
+    private final Map<String, PollGroup> groups = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    private final long timeoutNanos;
+    private final BiConsumer<EC2Gateway, Instance> listener;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean newInstances = false;
+    private long intervalNanos;
+    
+    /**
+     * @param minInterval Interval between polls while instances are changing state
+     * @param maxInterval Longest interval between polls
+     * @param timeout     Waits which take longer than this fail
+     * @param listener    Receives every instance described by the poller
+     */
+    InstanceStatePoller(Duration minInterval, Duration maxInterval, Duration timeout,
+                        BiConsumer<EC2Gateway, Instance> listener) {
+        this.minIntervalNanos = minInterval.toNanos();
+        this.maxIntervalNanos = maxInterval.toNanos();
+        this.timeoutNanos = timeout.toNanos();
+        this.listener = listener;
+        this.intervalNanos = minIntervalNanos;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "instance-state-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+    
+    static InstanceStatePoller create(BiConsumer<EC2Gateway, Instance> listener) {
+        return new InstanceStatePoller(Duration.ofSeconds(2), Duration.ofSeconds(15), Duration.ofMinutes(10),
+                listener);
+    }
+    
+    /**
+     * Waits for the instance of the launch specifications to reach a state. When the instance reaches the running
+     * state, the wait completes only once the private IP address has been assigned, and the addresses and the host
+     * name are filled into the launch specifications.
+     *
+     * @param ec2                    The EC2 calls for the credentials and the region of the instance
+     * @param instanceSpecifications Launch specifications holding the instance ID
+     * @param targetState            State to wait for
+     * @return future holding the launch specifications once the instance has reached the state. The future fails if
+     * the instance is terminated while waiting for another state, or if the wait times out.
+     */
+    CompletableFuture<LaunchSpecifications> await(
+            EC2Gateway ec2, LaunchSpecifications instanceSpecifications, InstanceStateName targetState) {
+        String instanceID = instanceSpecifications.getInstanceID();
+        if (instanceID == null) {
+            CompletableFuture<LaunchSpecifications> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new CloudExceptions("The launch specifications has no instance ID"));
+            return failed;
+        }
+        PollGroup group = groups.computeIfAbsent(ec2.getScope() + '/' + ec2.getRegion(), k -> new PollGroup());
+        group.ec2 = ec2;
+        PendingInstance[] replaced = new PendingInstance[1];
+        PendingInstance pending = group.pending.compute(instanceID, (id, current) -> {
+            if (current != null && current.targetState == targetState) {
+                return current;
+            }
+            replaced[0] = current;
+            return new PendingInstance(instanceSpecifications, targetState, System.nanoTime() + timeoutNanos);
+        });
+        if (replaced[0] != null) {
+            /* An instance waited on for one state is now waited on for another, typically terminated */
+            replaced[0].future.completeExceptionally(new CloudExceptions("The wait for " + instanceID + " to be " +
+                    replaced[0].targetState + " was replaced by a wait for it to be " + targetState));
+        }
+        newInstances = true;
+        schedule(minIntervalNanos);
+        return pending.future;
+    }
+    
+    private void schedule(long delayNanos) {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(this::pollAll, delayNanos, TimeUnit.NANOSECONDS);
+            }
+            catch (RuntimeException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+    
+    private void pollAll() {
+        boolean progress = false;
+        try {
+            for (PollGroup group : groups.values()) {
+                progress |= poll(group);
+            }
+        }
+        catch (RuntimeException e) {
+            logger.atWarning().withCause(e).log("Polling of instance states failed");
+        }
+        finally {
+            if (progress || newInstances) {
+                newInstances = false;
+                intervalNanos = minIntervalNanos;
+            }
+            else {
+                intervalNanos = Math.min(maxIntervalNanos, intervalNanos + intervalNanos / 2);
+            }
+            scheduled.set(false);
+            if (groups.values().stream().anyMatch(group -> !group.pending.isEmpty())) {
+                schedule(intervalNanos);
+            }
+        }
+    }
+    
+    /**
+     * Polls the pending instances of a group.
+     *
+     * @return true if any wait completed
+     */
+    private boolean poll(PollGroup group) {
+        boolean progress = false;
+        long now = System.nanoTime();
+        List<String> instanceIDs = new ArrayList<>(group.pending.size());
+        for (Map.Entry<String, PendingInstance> entry : group.pending.entrySet()) {
+            if (now - entry.getValue().deadlineNanos > 0) {
+                complete(group, entry.getKey(), new CloudExceptions("Timed out waiting for " + entry.getKey() +
+                        " to be " + entry.getValue().targetState));
+                progress = true;
+            }
+            else {
+                instanceIDs.add(entry.getKey());
+            }
+        }
+        for (int start = 0; start < instanceIDs.size(); start += MAX_IDS_PER_CALL) {
+            List<String> batch = instanceIDs.subList(start, Math.min(instanceIDs.size(), start + MAX_IDS_PER_CALL));
+            List<Instance> instances;
+            Set<String> unknown = new HashSet<>();
+            try {
+                instances = describe(group.ec2, batch, unknown);
+            }
+            catch (CloudExceptions e) {
+                logger.atWarning().withCause(e).log("Unable to describe %d instances in %s", batch.size(),
+                        group.ec2.getRegion());
+                continue;
+            }
+            for (Instance instance : instances) {
+                listener.accept(group.ec2, instance);
+                progress |= update(group, instance);
+            }
+            /*
+            Terminated instances are only visible for a while. Once EC2 no longer knows one, it is terminated.
+             */
+            for (String instanceID : unknown) {
+                PendingInstance pending = group.pending.get(instanceID);
+                if (pending != null && pending.targetState == InstanceStateName.TERMINATED) {
+                    complete(group, instanceID, null);
+                    progress = true;
+                }
+            }
+        }
+        return progress;
+    }
+    
+    /*
+    Instances which have just been launched may not be visible to DescribeInstances yet, and a single unknown ID
+    fails the whole call. The unknown IDs named in the error are left out and the call is made once more.
+     */
+    private List<Instance> describe(EC2Gateway ec2, List<String> instanceIDs, Set<String> unknown)
+            throws CloudExceptions {
+        try {
+            return instances(ec2, instanceIDs);
+        }
+        catch (CloudExceptions e) {
+            Set<String> notFound = unknownInstanceIDs(e);
+            if (notFound == null) {
+                throw e;
+            }
+            unknown.addAll(notFound);
+            List<String> known = new ArrayList<>(instanceIDs);
+            known.removeAll(notFound);
+            if (notFound.isEmpty() || known.isEmpty()) {
+                return new ArrayList<>();
+            }
+            return instances(ec2, known);
+        }
+    }
+    
+    /**
+     * @param error Error of an EC2 call on instance IDs
+     * @return The instance IDs named in the error if EC2 does not know some of the instances. Null for any other
+     * error.
+     */
+    static Set<String> unknownInstanceIDs(CloudExceptions error) {
+        if (!INSTANCE_NOT_FOUND.equals(AWSErrorClassifier.errorCode(error))) {
+            return null;
+        }
+        Set<String> unknown = new HashSet<>();
+        Matcher matcher = INSTANCE_ID.matcher(String.valueOf(error.getCause().getMessage()));
+        while (matcher.find()) {
+            unknown.add(matcher.group());
+        }
+        return unknown;
+    }
+    
+    private static List<Instance> instances(EC2Gateway ec2, List<String> instanceIDs) throws CloudExceptions {
+        DescribeInstancesRequest request = DescribeInstancesRequest.builder().instanceIds(instanceIDs).build();
+        List<Instance> instances = new ArrayList<>(instanceIDs.size());
+        for (Reservation reservation : ec2.describeInstances(request).reservations()) {
+            instances.addAll(reservation.instances());
+        }
+        return instances;
+    }
+    
+    /**
+     * Completes the wait of an instance if it has reached its state, or failed.
+     *
+     * @return true if the wait completed
+     */
+    private boolean update(PollGroup group, Instance instance) {
+        PendingInstance pending = group.pending.get(instance.instanceId());
+        if (pending == null || instance.state() == null) {
+            return false;
+        }
+        InstanceStateName state = instance.state().name();
+        if (state == pending.targetState) {
+            if (state == InstanceStateName.RUNNING) {
+                if (instance.privateIpAddress() == null) {
+                    return false;
+                }
+                LaunchRequests.fill(pending.instanceSpecifications, null, instance);
+            }
+            complete(group, instance.instanceId(), null);
+            return true;
+        }
+        if (pending.targetState != InstanceStateName.TERMINATED &&
+                (state == InstanceStateName.TERMINATED || state == InstanceStateName.SHUTTING_DOWN)) {
+            String reason = instance.stateReason() == null ? state.toString() : instance.stateReason().message();
+            complete(group, instance.instanceId(), new CloudExceptions("Instance " + instance.instanceId() +
+                    " was terminated while waiting for it to be " + pending.targetState + ": " + reason));
+            return true;
+        }
+        return false;
+    }
+    
+    private void complete(PollGroup group, String instanceID, CloudExceptions error) {
+        PendingInstance pending = group.pending.remove(instanceID);
+        if (pending == null) {
+            return;
+        }
+        if (error == null) {
+            pending.future.complete(pending.instanceSpecifications);
+        }
+        else {
+            pending.future.completeExceptionally(error);
+        }
+    }
+    
+    /**
+     * Stops polling. Pending waits fail.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (PollGroup group : groups.values()) {
+            for (String instanceID : new ArrayList<>(group.pending.keySet())) {
+                complete(group, instanceID, new CloudExceptions("The instance state poller has been closed"));
+            }
+        }
+    }
+    
+    private static final class PollGroup {
+        private final Map<String, PendingInstance> pending = new ConcurrentHashMap<>();
+        private volatile EC2Gateway ec2;
+    }
+    
+    private static final class PendingInstance {
+        private final LaunchSpecifications instanceSpecifications;
+        private final InstanceStateName targetState;
+        private final long deadlineNanos;
+        private final CompletableFuture<LaunchSpecifications> future = new CompletableFuture<>();
+        
+        private PendingInstance(LaunchSpecifications instanceSpecifications, InstanceStateName targetState,
+                                long deadlineNanos) {
+            this.instanceSpecifications = instanceSpecifications;
+            this.targetState = targetState;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+/**
+ * Minimum capacity of an instance, used to pick an instance type from the {@link AWSInstanceCatalog}.
+ */
+public final class InstanceTypeRequirements {
+    private final int minVcpus;
+    private final double minMemoryGiB;
+    private final int minGpus;
+    private final String architecture;
+    private final boolean burstable;
+    
+    private InstanceTypeRequirements(Builder builder) {
+        this.minVcpus = builder.minVcpus;
+        this.minMemoryGiB = builder.minMemoryGiB;
+        this.minGpus = builder.minGpus;
+        this.architecture = builder.architecture;
+        this.burstable = builder.burstable;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    public int getMinVcpus() {
+        return minVcpus;
+    }
+    
+    public double getMinMemoryGiB() {
+        return minMemoryGiB;
+    }
+    
+    public int getMinGpus() {
+        return minGpus;
+    }
+    
+    /**
+     * @return The processor architecture, such as x86_64 or arm64. Null for any architecture.
+     */
+    public String getArchitecture() {
+        return architecture;
+    }
+    
+    /**
+     * @return true if burstable instance types, whose CPU is throttled once their credits are spent, are accepted
+     */
+    public boolean isBurstable() {
+        return burstable;
+    }
+    
+    @Override
+    public String toString() {
+        return "InstanceTypeRequirements{minVcpus=" + minVcpus + ", minMemoryGiB=" + minMemoryGiB + ", minGpus=" +
+                minGpus + ", architecture=" + architecture + ", burstable=" + burstable + '}';
+    }
+    
+    public static final class Builder {
+        private int minVcpus = 0;
+        private double minMemoryGiB = 0;
+        private int minGpus = 0;
+        private String architecture = null;
+        private boolean burstable = true;
+        
+        private Builder() {
+        }
+        
+        public Builder minVcpus(int minVcpus) {
+            this.minVcpus = minVcpus;
+            return this;
+        }
+        
+        public Builder minMemoryGiB(double minMemoryGiB) {
+            this.minMemoryGiB = minMemoryGiB;
+            return this;
+        }
+        
+        public Builder minGpus(int minGpus) {
+            this.minGpus = minGpus;
+            return this;
+        }
+        
+        /**
+         * @param architecture The processor architecture, such as x86_64 or arm64. Null for any architecture.
+         * @return this builder
+         */
+        public Builder architecture(String architecture) {
+            this.architecture = architecture;
+            return this;
+        }
+        
+        /**
+         * @param burstable false to exclude burstable instance types. Defaults to true.
+         * @return this builder
+         */
+        public Builder burstable(boolean burstable) {
+            this.burstable = burstable;
+            return this;
+        }
+        
+        public InstanceTypeRequirements build() {
+            if (minVcpus < 0 || minMemoryGiB < 0 || minGpus < 0) {
+                throw new IllegalArgumentException("The minimum capacity cannot be negative");
+            }
+            return new InstanceTypeRequirements(this);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import com.google.common.flogger.FluentLogger;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal of the launches of an accessor. Every launch is recorded with its client token
+ * before RunInstances is called, and marked complete once the outcome of the call is known. After a crash, or a
+ * call which timed out, the entries which were never completed name exactly the client tokens to look up, so the
+ * instances which were launched can be found with a few targeted DescribeInstances calls instead of a scan of the
+ * account.
+ * <p>
+ * Beginning a launch is durable: the record is forced to disk before the call is made. Concurrent launches share
+ * the forces (group commit), so the cost of the fsync is paid once per batch of launches rather than once per
+ * launch. Completions are not forced, since losing one only causes a harmless lookup on recovery.
+ * <p>
+ * Each record is a line ending with a CRC32, so a record torn by a crash is detected and ignored. The journal is
+ * compacted to its unfinished entries when it is opened and regularly afterwards.
+ */
+public final class LaunchJournal implements AutoCloseable {
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private static final String BEGIN = "B";
+    private static final String COMPLETE = "C";
+    private static final String SEQUENCE = "S";
+    private static final int COMPACTION_THRESHOLD = 4096;
+    private final Path file;
+    private final Map<Long, Entry> pending = new ConcurrentSkipListMap<>();
+    private final Set<Long> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicLong sequence;
+    private final Object syncLock = new Object();
+    private FileChannel channel;
+    /* Positions count the bytes written since the journal was opened, across compactions */
+    private long writtenPosition = 0;
+    private volatile long syncedPosition = 0;
+    private int completedSinceCompaction = 0;
+    private boolean closed = false;
+    
+    private LaunchJournal(Path file, long lastSequence) {
+        this.file = file;
+        this.sequence = new AtomicLong(lastSequence);
+    }
+    
+    /**
+     * Opens a journal, creating it if it does not exist. The unfinished entries of the journal are kept for
+     * recovery and the completed ones are dropped.
+     *
+     * @param file Journal file
+     * @return LaunchJournal instance
+     * @throws CloudExceptions Exception thrown when the journal cannot be read or written
+     */
+    public static LaunchJournal open(Path file) throws CloudExceptions {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            long lastSequence = 0;
+            Map<Long, Entry> entries = new ConcurrentSkipListMap<>();
+            if (Files.exists(file)) {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    String[] fields = parse(line);
+                    if (fields == null) {
+                        logger.atWarning().log("Ignoring a damaged record of the launch journal %s", file);
+                        continue;
+                    }
+                    long recordSequence = Long.parseLong(fields[1]);
+                    lastSequence = Math.max(lastSequence, recordSequence);
+                    if (BEGIN.equals(fields[0])) {
+                        entries.put(recordSequence, Entry.decode(fields));
+                    }
+                    else if (COMPLETE.equals(fields[0])) {
+                        entries.remove(recordSequence);
+                    }
+                }
+            }
+            LaunchJournal journal = new LaunchJournal(file, lastSequence);
+            journal.pending.putAll(entries);
+            synchronized (journal) {
+                journal.rewrite();
+            }
+            if (!entries.isEmpty()) {
+                logger.atInfo().log("%d unfinished launches in %s", entries.size(), file);
+            }
+            return journal;
+        }
+        catch (IOException | RuntimeException e) {
+            throw new CloudExceptions("Unable to open the launch journal " + file, e);
+        }
+    }
+    
+    /**
+     * @return Sequence number of the next launch. Sequence numbers keep increasing across restarts.
+     */
+    long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+    
+    /**
+     * Records the start of a launch and forces it to disk.
+     *
+     * @param entry The launch
+     * @throws CloudExceptions Exception thrown when the record cannot be written. The launch should not be made.
+     */
+    void begin(Entry entry) throws CloudExceptions {
+        long position;
+        synchronized (this) {
+            checkOpen();
+            position = append(entry.encode());
+            inFlight.add(entry.sequence);
+            pending.put(entry.sequence, entry);
+        }
+        sync(position);
+    }
+    
+    /**
+     * Records the end of a launch, whether instances were launched or EC2 rejected the call.
+     *
+     * @param sequenceNumber Sequence number of the launch
+     */
+    void complete(long sequenceNumber) {
+        inFlight.remove(sequenceNumber);
+        if (pending.remove(sequenceNumber) == null) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                append(COMPLETE + ' ' + sequenceNumber);
+                if (++completedSinceCompaction >= COMPACTION_THRESHOLD) {
+                    rewrite();
+                }
+            }
+            catch (IOException | CloudExceptions e) {
+                logger.atWarning().withCause(e).log("Unable to record the completion of launch %d", sequenceNumber);
+            }
+        }
+    }
+    
+    /**
+     * Leaves a launch unfinished, for instance when the call timed out and it is unknown whether instances were
+     * launched. The launch is then returned by {@link #unfinished(String)}.
+     *
+     * @param sequenceNumber Sequence number of the launch
+     */
+    void abandon(long sequenceNumber) {
+        inFlight.remove(sequenceNumber);
+    }
+    
+    /**
+     * @param scope Identity of the credentials of the launches
+     * @return The launches of the identity which were never completed, excluding those in progress
+     */
+    List<Entry> unfinished(String scope) {
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : pending.values()) {
+            if (entry.scope.equals(scope) && !inFlight.contains(entry.sequence)) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+    
+    /**
+     * @return Number of launches which were not completed, including those in progress
+     */
+    public int getUnfinishedCount() {
+        return pending.size();
+    }
+    
+    public Path getFile() {
+        return file;
+    }
+    
+    /**
+     * Forces the journal to disk and closes it.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.force(false);
+            channel.close();
+        }
+        catch (IOException e) {
+            logger.atWarning().withCause(e).log("Unable to close the launch journal %s", file);
+        }
+    }
+    
+    private void checkOpen() throws CloudExceptions {
+        if (closed) {
+            throw new CloudExceptions("The launch journal " + file + " has been closed");
+        }
+    }
+    
+    /* Called with the lock of the journal held */
+    private long append(String payload) throws CloudExceptions {
+        ByteBuffer record = ByteBuffer.wrap((payload + ' ' + crc(payload) + '\n').getBytes(StandardCharsets.UTF_8));
+        try {
+            while (record.hasRemaining()) {
+                writtenPosition += channel.write(record);
+            }
+        }
+        catch (IOException e) {
+            throw new CloudExceptions("Unable to write to the launch journal " + file, e);
+        }
+        return writtenPosition;
+    }
+    
+    /*
+    Group commit. A thread which finds its record already forced by another thread returns at once, otherwise it
+    forces everything written so far, including the records of the threads queued behind it.
+     */
+    private void sync(long position) throws CloudExceptions {
+        if (syncedPosition >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedPosition >= position) {
+                return;
+            }
+            FileChannel current;
+            long target;
+            synchronized (this) {
+                checkOpen();
+                current = channel;
+                target = writtenPosition;
+            }
+            try {
+                current.force(false);
+            }
+            catch (ClosedChannelException e) {
+                /* The journal was compacted meanwhile, which made the record durable */
+                if (syncedPosition < position) {
+                    throw new CloudExceptions("Unable to sync the launch journal " + file, e);
+                }
+                return;
+            }
+            catch (IOException e) {
+                throw new CloudExceptions("Unable to sync the launch journal " + file, e);
+            }
+            syncedPosition = Math.max(syncedPosition, target);
+        }
+    }
+    
+    /*
+    Writes the unfinished entries to a new file, forced before it replaces the journal, so everything written until
+    then is durable. Called with the lock of the journal held.
+     */
+    private void rewrite() throws IOException, CloudExceptions {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        /*
+        The last sequence number is kept so that the sequence numbers, and the client tokens derived from them, are
+        not reused once the entries are dropped.
+         */
+        String last = SEQUENCE + ' ' + sequence.get();
+        StringBuilder content = new StringBuilder(last).append(' ').append(crc(last)).append('\n');
+        for (Entry entry : pending.values()) {
+            String payload = entry.encode();
+            content.append(payload).append(' ').append(crc(payload)).append('\n');
+        }
+        try (FileChannel out = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        try {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncedPosition = writtenPosition;
+        completedSinceCompaction = 0;
+    }
+    
+    private static String crc(String payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+    
+    /**
+     * @return The fields of a record. Null if the record is damaged.
+     */
+    private static String[] parse(String line) {
+        int separator = line.lastIndexOf(' ');
+        if (separator < 0 || !crc(line.substring(0, separator)).equals(line.substring(separator + 1))) {
+            return null;
+        }
+        String[] fields = line.substring(0, separator).split(" ");
+        boolean valid = (BEGIN.equals(fields[0]) && fields.length == Entry.FIELDS) ||
+                ((COMPLETE.equals(fields[0]) || SEQUENCE.equals(fields[0])) && fields.length == 2);
+        return valid ? fields : null;
+    }
+    
+    /**
+     * A launch recorded in the journal.
+     */
+    static final class Entry {
+        private static final int FIELDS = 7;
+        final long sequence;
+        final String clientToken;
+        final String scope;
+        final String region;
+        final int count;
+        final List<String> instanceNames;
+        
+        Entry(long sequence, String clientToken, String scope, String region, int count,
+              List<String> instanceNames) {
+            this.sequence = sequence;
+            this.clientToken = clientToken;
+            this.scope = scope;
+            this.region = region;
+            this.count = count;
+            this.instanceNames = Collections.unmodifiableList(new ArrayList<>(instanceNames));
+        }
+        
+        private String encode() {
+            List<String> names = new ArrayList<>(instanceNames.size());
+            instanceNames.forEach(name -> names.add(escape(name)));
+            return BEGIN + ' ' + sequence + ' ' + escape(clientToken) + ' ' + escape(scope) + ' ' + escape(region) +
+                    ' ' + count + ' ' + (names.isEmpty() ? "-" : String.join(",", names));
+        }
+        
+        private static Entry decode(String[] fields) {
+            List<String> names = new ArrayList<>();
+            if (!"-".equals(fields[6])) {
+                for (String name : Arrays.asList(fields[6].split(",", -1))) {
+                    names.add(unescape(name));
+                }
+            }
+            return new Entry(Long.parseLong(fields[1]), unescape(fields[2]), unescape(fields[3]),
+                    unescape(fields[4]), Integer.parseInt(fields[5]), names);
+        }
+        
+        private static String escape(String value) {
+            try {
+                return URLEncoder.encode(value == null ? "" : value, "UTF-8");
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        private static String unescape(String value) {
+            try {
+                return URLDecoder.decode(value, "UTF-8");
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import software.amazon.awssdk.services.ec2.model.Instance;
+import software.amazon.awssdk.services.ec2.model.LaunchTemplateSpecification;
+import software.amazon.awssdk.services.ec2.model.RunInstancesRequest;
+import software.amazon.awssdk.services.ec2.model.TagSpecification;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Translation between LaunchSpecifications and the EC2 model classes. Shared by the synchronous and the
+ * asynchronous accessors so that both send exactly the same requests.
+ */
+final class LaunchRequests {
+    static final String NAME_TAG = "Name";
+    
+    private LaunchRequests() {
+    }
+    
+    /**
+     * Builds the RunInstances request for the specifications. Specifications bound to an AWSLaunchPlan are launched
+     * from the precompiled request of the plan. If a launch template ID is specified, the instance is launched from
+     * the template. Otherwise the AMI ID, instance type, subnet ID and security group IDs from the specifications are
+     * used. The tags, the user data and the client token of the specifications are applied to the request.
+     *
+     * @param instanceSpecifications Values for creation of the instance
+     * @param keyName                Name of the key pair the instances are launched with
+     * @param count                  Number of instances to launch
+     * @return RunInstancesRequest for the specifications
+     * @throws CloudExceptions Exception thrown when the user data is larger than EC2 accepts
+     */
+    static RunInstancesRequest runInstancesRequest(
+            LaunchSpecifications instanceSpecifications, String keyName, int count) throws CloudExceptions {
+        String clientToken = null;
+        UserData userData;
+        if (instanceSpecifications instanceof AWSLaunchSpecifications) {
+            AWSLaunchSpecifications awsSpecifications = (AWSLaunchSpecifications) instanceSpecifications;
+            clientToken = awsSpecifications.getClientToken();
+            AWSLaunchPlan launchPlan = awsSpecifications.getLaunchPlan();
+            if (launchPlan != null) {
+                return launchPlan.requestFor(instanceSpecifications.getTags(), clientToken,
+                        Objects.equals(keyName, launchPlan.getKeyPairName()) ? null : keyName, count);
+            }
+            userData = awsSpecifications.getEncodedUserData();
+        }
+        else {
+            userData = instanceSpecifications.getUserData() == null ? null :
+                    UserData.of(instanceSpecifications.getUserData());
+        }
+        RunInstancesRequest.Builder runInstancesRequestBuilder = RunInstancesRequest.builder();
+        if (instanceSpecifications.getTemplateID() != null) {
+            LaunchTemplateSpecification launchTemplateSpecification =
+                    LaunchTemplateSpecification.builder().launchTemplateId(instanceSpecifications.getTemplateID())
+                            .build();
+            runInstancesRequestBuilder.launchTemplate(launchTemplateSpecification);
+        }
+        else {
+            runInstancesRequestBuilder.imageId(instanceSpecifications.getImageID())
+                    .instanceType(instanceSpecifications.getInstanceType())
+                    .subnetId(instanceSpecifications.getSubnetID())
+                    .securityGroupIds(instanceSpecifications.getSecurityGroupIDs());
+        }
+        List<TagSpecification> tagSpecifications = AWSLaunchPlan.tagSpecifications(instanceSpecifications.getTags());
+        if (!tagSpecifications.isEmpty()) {
+            runInstancesRequestBuilder.tagSpecifications(tagSpecifications);
+        }
+        if (userData != null) {
+            runInstancesRequestBuilder.userData(userData.getEncoded());
+        }
+        return runInstancesRequestBuilder.maxCount(count).minCount(count).keyName(keyName).clientToken(clientToken)
+                .build();
+    }
+    
+    /**
+     * The instance name is shown by EC2 from the Name tag of the instance. EC2 applies the same tags to all the
+     * instances of a RunInstances call, so the Name tag is only part of the request when its instances share the name.
+     *
+     * @param instanceSpecifications Values for creation of the instance
+     * @return The value of the Name tag the instance is launched with. Null if the specifications have no instance
+     * name or tag the instance with a Name of their own.
+     */
+    static String nameTag(LaunchSpecifications instanceSpecifications) {
+        String instanceName = instanceSpecifications.getInstanceName();
+        Map<String, String> tags = instanceSpecifications.getTags();
+        if (instanceName == null || instanceName.isEmpty() || tags != null && tags.containsKey(NAME_TAG)) {
+            return null;
+        }
+        return instanceName;
+    }
+    
+    /**
+     * Adds the Name tag of the specifications to the tags the request launches its instances with.
+     *
+     * @param request                RunInstances request built for the specifications
+     * @param instanceSpecifications Values for creation of the instances, which share their instance name
+     * @return The request
+     */
+    static RunInstancesRequest.Builder withNameTag(
+            RunInstancesRequest.Builder request, LaunchSpecifications instanceSpecifications) {
+        String name = nameTag(instanceSpecifications);
+        if (name == null) {
+            return request;
+        }
+        Map<String, String> tags = instanceSpecifications.getTags() == null ? new LinkedHashMap<>() :
+                new LinkedHashMap<>(instanceSpecifications.getTags());
+        tags.put(NAME_TAG, name);
+        return request.tagSpecifications(AWSLaunchPlan.tagSpecifications(tags));
+    }
+    
+    /**
+     * Gives a RunInstances request the client token of its launch. A request without a client token gets a token
+     * derived from the launch, which {@link #end} keeps in the launch specifications if the outcome of the launch is
+     * unknown.
+     *
+     * @param sequence Sequence number of the launch, unique per accessor or per launch journal
+     * @param scope    Identity of the credentials of the launch
+     * @param region   Region of the launch
+     * @param request  The request, with the client token of the specifications if they have one
+     * @param members  The launch specifications of the instances of the request
+     * @return The request with its client token
+     */
+    static RunInstancesRequest withClientToken(long sequence, String scope, String region, RunInstancesRequest request,
+                                               List<LaunchSpecifications> members) {
+        if (request.clientToken() != null) {
+            return request;
+        }
+        return request.toBuilder().clientToken(clientToken(sequence, scope, region, request)).build();
+    }
+    
+    /**
+     * Records a launch in the launch journal before its RunInstances call is made.
+     *
+     * @param journal  The launch journal
+     * @param sequence Sequence number of the launch, from the journal
+     * @param scope    Identity of the credentials of the launch
+     * @param region   Region of the launch
+     * @param request  The request, with its client token
+     * @param members  The launch specifications of the instances of the request
+     * @throws CloudExceptions Exception thrown when the launch cannot be recorded. The call should not be made.
+     */
+    static void begin(LaunchJournal journal, long sequence, String scope, String region, RunInstancesRequest request,
+                      List<LaunchSpecifications> members) throws CloudExceptions {
+        List<String> instanceNames = new ArrayList<>(members.size());
+        members.forEach(member -> instanceNames.add(member.getInstanceName()));
+        journal.begin(new LaunchJournal.Entry(sequence, request.clientToken(), scope, region, request.maxCount(),
+                instanceNames));
+    }
+    
+    /**
+     * Records the outcome of a launch. An error returned by EC2 means nothing was launched. Any other error, such as
+     * a timeout, leaves the outcome unknown: the launch is left in the journal for recovery, and its client token is
+     * kept in the launch specifications so that launching them again returns the instances of the launch, if any.
+     * Otherwise the derived tokens of the specifications are cleared, so that launching them again launches new
+     * instances.
+     *
+     * @param journal  The launch journal. Null if the launches are not journaled.
+     * @param sequence Sequence number of the launch
+     * @param request  The request, with its client token
+     * @param members  The launch specifications of the instances of the request
+     * @param error    Error of the RunInstances call. Null if it succeeded.
+     */
+    static void end(LaunchJournal journal, long sequence, RunInstancesRequest request,
+                    List<LaunchSpecifications> members, Throwable error) {
+        boolean known = error == null || AWSErrorClassifier.errorCode(error) != null;
+        for (LaunchSpecifications member : members) {
+            if (member instanceof AWSLaunchSpecifications) {
+                if (known) {
+                    ((AWSLaunchSpecifications) member).releaseClientToken();
+                }
+                else {
+                    ((AWSLaunchSpecifications) member).holdClientToken(request.clientToken());
+                }
+            }
+        }
+        if (journal == null) {
+            return;
+        }
+        if (known) {
+            journal.complete(sequence);
+        }
+        else {
+            journal.abandon(sequence);
+        }
+    }
+    
+    /**
+     * Derives the client token of a launch from its sequence number, the identity and the region it is made in and
+     * the request. The same launch always gets the same token, and different launches get different tokens.
+     *
+     * @param sequence Sequence number of the launch, unique per accessor or per launch journal
+     * @param scope    Identity of the credentials of the launch
+     * @param region   Region of the launch
+     * @param request  RunInstances request of the launch, without a client token
+     * @return 64 hexadecimal characters, the longest client token EC2 accepts
+     */
+    static String clientToken(long sequence, String scope, String region, RunInstancesRequest request) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        String launch = sequence + "\n" + scope + '\n' + region + '\n' + request;
+        return hex(digest.digest(launch.getBytes(StandardCharsets.UTF_8)));
+    }
+    
+    /**
+     * @param bytes Bytes, typically a hash
+     * @return The bytes as lowercase hexadecimal characters
+     */
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+    
+    /**
+     * Copies the identifiers and addresses of a launched instance into the specifications.
+     *
+     * @param instanceSpecifications The specifications the instance was launched with
+     * @param reservationID          Reservation ID returned by RunInstances. Ignored if null.
+     * @param instance               The launched instance
+     */
+    static void fill(LaunchSpecifications instanceSpecifications, String reservationID, Instance instance) {
+        if (reservationID != null) {
+            instanceSpecifications.setReservationID(reservationID);
+        }
+        instanceSpecifications.setInstanceID(instance.instanceId());
+        instanceSpecifications.setPrivateIPAddress(instance.privateIpAddress());
+        instanceSpecifications.setPublicIPAddress(instance.publicIpAddress());
+        if (instance.publicDnsName() != null && !instance.publicDnsName().isEmpty()) {
+            instanceSpecifications.setPublicHostName(instance.publicDnsName());
+        }
+        if (instance.subnetId() != null) {
+            instanceSpecifications.setSubnetID(instance.subnetId());
+        }
+        if (instance.vpcId() != null) {
+            instanceSpecifications.setVpcID(instance.vpcId());
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spreads launches across the capacity pools of launch specifications, the combinations of their subnets and
+ * instance types. Capacity failures are remembered per pool with a score which decays with time, so that a pool out
+ * of capacity is avoided for a while and then tried again.
+ * <p>
+ * A launch is split across the healthy pools in proportion to their health, and the instances a pool could not
+ * launch are routed to the remaining healthy pools. Pools whose score is too high are used only when no healthy pool
+ * is left. The engine is thread safe and is meant to be shared by the launches of an accessor.
+ */
+public final class PlacementEngine {
+    public static final Duration DEFAULT_HALF_LIFE = Duration.ofMinutes(5);
+    /*
+    A pool is avoided while its score is at least this, that is for two half-lives after a launch which got none of
+    its instances, and for one half-life after a launch which got half of them
+     */
+    private static final double UNHEALTHY_SCORE = 0.25;
+    /* Scores below this are forgotten */
+    private static final double FORGOTTEN_SCORE = 0.01;
+    private final Map<Pool, Score> scores = new ConcurrentHashMap<>();
+    private final double decayPerNano;
+    
+    private PlacementEngine(Builder builder) {
+        this.decayPerNano = Math.log(2) / builder.halfLife.toNanos();
+    }
+    
+    /**
+     * @return An engine with the default half-life of the capacity failures
+     */
+    public static PlacementEngine create() {
+        return builder().build();
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Returns the decayed capacity failure score of a pool. A launch which got none of its instances adds 1 to the
+     * score, a partial launch adds the fraction of the instances missing.
+     *
+     * @param region       The region of the pool
+     * @param subnetID     The subnet of the pool. Null for the default subnet.
+     * @param instanceType The instance type of the pool. Null for the instance type of the launch template.
+     * @return The score. 0 for a pool without recent capacity failures.
+     */
+    public double getFailureScore(String region, String subnetID, String instanceType) {
+        return score(new Pool(region, subnetID, instanceType), System.nanoTime());
+    }
+    
+    /**
+     * Splits a number of instances across pools. The healthy pools get a share in proportion to their health, which
+     * falls from 1 without failures to 0 when they become unhealthy, in the order of the pools for equal shares.
+     * When no pool is healthy, all the instances go to the pool with the lowest score.
+     *
+     * @param pools The pools, in the order of preference
+     * @param count The number of instances
+     * @return The number of instances of each pool which gets some, in the order of the pools
+     */
+    List<Allocation> allocate(List<Pool> pools, int count) {
+        if (pools.isEmpty() || count <= 0) {
+            return Collections.emptyList();
+        }
+        long now = System.nanoTime();
+        double[] weights = new double[pools.size()];
+        double totalWeight = 0;
+        int best = 0;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < pools.size(); i++) {
+            double score = score(pools.get(i), now);
+            if (score < UNHEALTHY_SCORE) {
+                weights[i] = 1 - score / UNHEALTHY_SCORE;
+                totalWeight += weights[i];
+            }
+            if (score < bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        if (totalWeight == 0) {
+            return Collections.singletonList(new Allocation(pools.get(best), count));
+        }
+        /* Largest remainder split of the instances by weight */
+        int[] counts = new int[pools.size()];
+        double[] remainders = new double[pools.size()];
+        int allocated = 0;
+        for (int i = 0; i < pools.size(); i++) {
+            double share = count * weights[i] / totalWeight;
+            counts[i] = (int) share;
+            remainders[i] = weights[i] == 0 ? -1 : share - counts[i];
+            allocated += counts[i];
+        }
+        List<Integer> byRemainder = new ArrayList<>(pools.size());
+        for (int i = 0; i < pools.size(); i++) {
+            byRemainder.add(i);
+        }
+        byRemainder.sort(Comparator.comparingDouble((Integer i) -> -remainders[i]).thenComparingInt(i -> i));
+        for (int i = 0; allocated < count; i++) {
+            counts[byRemainder.get(i)]++;
+            allocated++;
+        }
+        List<Allocation> allocations = new ArrayList<>();
+        for (int i = 0; i < pools.size(); i++) {
+            if (counts[i] > 0) {
+                allocations.add(new Allocation(pools.get(i), counts[i]));
+            }
+        }
+        return allocations;
+    }
+    
+    /**
+     * Records the outcome of a launch in a pool.
+     *
+     * @param pool      The pool
+     * @param requested The number of instances requested
+     * @param launched  The number of instances launched
+     */
+    void recordLaunch(Pool pool, int requested, int launched) {
+        long now = System.nanoTime();
+        if (launched < requested) {
+            scores.computeIfAbsent(pool, p -> new Score()).add((double) (requested - launched) / requested, now);
+            return;
+        }
+        Score score = scores.get(pool);
+        /* A full launch shows the pool has capacity again, and halves what is left of its failures */
+        if (score != null && score.halve(now) < FORGOTTEN_SCORE) {
+            scores.remove(pool, score);
+        }
+    }
+    
+    private double score(Pool pool, long now) {
+        Score score = scores.get(pool);
+        return score == null ? 0 : score.value(now);
+    }
+    
+    /* Exponentially decayed score, with the time it was last updated */
+    private final class Score {
+        private double value = 0;
+        private long updated = System.nanoTime();
+        
+        private synchronized double value(long now) {
+            if (now > updated) {
+                value *= Math.exp(-decayPerNano * (now - updated));
+                updated = now;
+            }
+            return value;
+        }
+        
+        private synchronized void add(double delta, long now) {
+            value = value(now) + delta;
+        }
+        
+        private synchronized double halve(long now) {
+            value = value(now) / 2;
+            return value;
+        }
+    }
+    
+    /**
+     * Subnet and instance type of a region in which instances can be launched.
+     */
+    static final class Pool {
+        private final String region;
+        private final String subnetID;
+        private final String instanceType;
+        
+        Pool(String region, String subnetID, String instanceType) {
+            this.region = Objects.requireNonNull(region, "region");
+            this.subnetID = subnetID;
+            this.instanceType = instanceType;
+        }
+        
+        String getSubnetID() {
+            return subnetID;
+        }
+        
+        String getInstanceType() {
+            return instanceType;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Pool)) {
+                return false;
+            }
+            Pool that = (Pool) o;
+            return region.equals(that.region) && Objects.equals(subnetID, that.subnetID) &&
+                    Objects.equals(instanceType, that.instanceType);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(region, subnetID, instanceType);
+        }
+        
+        @Override
+        public String toString() {
+            return region + '/' + subnetID + '/' + instanceType;
+        }
+    }
+    
+    /**
+     * Number of instances to launch in a pool.
+     */
+    static final class Allocation {
+        private final Pool pool;
+        private final int count;
+        
+        private Allocation(Pool pool, int count) {
+            this.pool = pool;
+            this.count = count;
+        }
+        
+        Pool getPool() {
+            return pool;
+        }
+        
+        int getCount() {
+            return count;
+        }
+    }
+    
+    public static final class Builder {
+        private Duration halfLife = DEFAULT_HALF_LIFE;
+        
+        private Builder() {
+        }
+        
+        /**
+         * @param halfLife Time for the score of a capacity failure to decay by half. Defaults to 5 minutes.
+         * @return this builder
+         */
+        public Builder halfLife(Duration halfLife) {
+            this.halfLife = halfLife;
+            return this;
+        }
+        
+        public PlacementEngine build() {
+            if (halfLife == null || halfLife.isZero() || halfLife.isNegative()) {
+                throw new IllegalArgumentException("The half-life must be positive");
+            }
+            return new PlacementEngine(this);
+        }
+    }
+}
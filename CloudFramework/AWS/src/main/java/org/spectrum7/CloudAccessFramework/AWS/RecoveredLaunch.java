@@ -0,0 +1,62 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.ComputeInstance;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A launch which was left unfinished in the launch journal, by a crash or a call which timed out, and what became of
+ * it. Either EC2 launched its instances and they are listed, or the launch never reached EC2 and it can be made
+ * again.
+ */
+public final class RecoveredLaunch {
+    private final String region;
+    private final String clientToken;
+    private final List<String> instanceNames;
+    private final List<ComputeInstance> instances;
+    
+    RecoveredLaunch(String region, String clientToken, List<String> instanceNames, List<ComputeInstance> instances) {
+        this.region = region;
+        this.clientToken = clientToken;
+        this.instanceNames = instanceNames;
+        this.instances = Collections.unmodifiableList(instances);
+    }
+    
+    public String getRegion() {
+        return region;
+    }
+    
+    public String getClientToken() {
+        return clientToken;
+    }
+    
+    /**
+     * @return The names of the instances of the launch, in the order of the launch specifications
+     */
+    public List<String> getInstanceNames() {
+        return instanceNames;
+    }
+    
+    /**
+     * @return The instances EC2 launched with the client token, in the order of their launch index. The instance at
+     * a position belongs to the instance name at the same position. Fewer instances than names means a partial
+     * launch.
+     */
+    public List<ComputeInstance> getInstances() {
+        return instances;
+    }
+    
+    /**
+     * @return true if EC2 launched instances for the launch
+     */
+    public boolean isLaunched() {
+        return !instances.isEmpty();
+    }
+    
+    @Override
+    public String toString() {
+        return "RecoveredLaunch{region=" + region + ", clientToken=" + clientToken + ", instanceNames=" +
+                instanceNames + ", instances=" + instances.size() + '}';
+    }
+}
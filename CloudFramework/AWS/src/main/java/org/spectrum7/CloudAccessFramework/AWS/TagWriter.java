@@ -0,0 +1,316 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import com.google.common.flogger.FluentLogger;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import software.amazon.awssdk.services.ec2.model.CreateTagsRequest;
+import software.amazon.awssdk.services.ec2.model.Tag;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shared background writer of resource tags. The tags written are collected per credentials identity and region for
+ * a short linger time, the tags written to the same resource are merged, and the resources which end up with the
+ * same tags are tagged together with CreateTags calls of up to 1000 resources and 50 tags each. Tagging many
+ * resources then costs a call per distinct set of tags rather than a call per resource.
+ * <p>
+ * Instances which have just been launched may not be known to CreateTags yet, and a single unknown ID fails the whole
+ * call. The unknown IDs named in the error are written again after the retry delay, a few times, and the other
+ * resources of the call are written right away.
+ */
+final class TagWriter implements AutoCloseable {
+    static final int MAX_RESOURCES_PER_CALL = 1000;
+    static final int MAX_TAGS_PER_CALL = 50;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private final Map<String, WriteGroup> groups = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final long lingerNanos;
+    private final long retryDelayNanos;
+    private final Listener listener;
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    
+    /**
+     * @param linger     Time the writes are collected before they are sent
+     * @param retryDelay Time after which the tags of a resource unknown to EC2 are written again
+     * @param listener   Receives the tags written to the resources
+     */
+    TagWriter(Duration linger, Duration retryDelay, Listener listener) {
+        this.lingerNanos = linger.toNanos();
+        this.retryDelayNanos = retryDelay.toNanos();
+        this.listener = listener;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "tag-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+    }
+    
+    static TagWriter create(Listener listener) {
+        return new TagWriter(Duration.ofMillis(100), Duration.ofSeconds(1), listener);
+    }
+    
+    /**
+     * Writes tags to resources. The tags are added to the tags the resources already have, replacing the values of
+     * the tags with the same keys.
+     *
+     * @param ec2         The EC2 calls for the credentials and the region of the resources
+     * @param resourceIDs IDs of the resources, typically instance IDs
+     * @param tags        The tags to write
+     * @return future completing once the tags are written to every resource. The future fails with CloudExceptions
+     * if the tags of a resource cannot be written.
+     */
+    CompletableFuture<Void> write(EC2Gateway ec2, Collection<String> resourceIDs, Map<String, String> tags) {
+        if (resourceIDs.isEmpty() || tags.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (scheduler.isShutdown()) {
+            return closed();
+        }
+        WriteGroup group = groups.computeIfAbsent(ec2.getScope() + '/' + ec2.getRegion(), k -> new WriteGroup());
+        group.ec2 = ec2;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(resourceIDs.size());
+        synchronized (group) {
+            for (String resourceID : resourceIDs) {
+                PendingResource pending = new PendingResource(resourceID, tags, 0, System.nanoTime());
+                futures.add(pending.futures.get(0));
+                group.merge(pending);
+            }
+        }
+        try {
+            schedule(lingerNanos);
+        }
+        catch (RejectedExecutionException e) {
+            return closed();
+        }
+        return futures.size() == 1 ? futures.get(0) :
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+    
+    private static CompletableFuture<Void> closed() {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new CloudExceptions("The tag writer has been closed"));
+        return failed;
+    }
+    
+    private void schedule(long delayNanos) {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(this::flushAll, delayNanos, TimeUnit.NANOSECONDS);
+            }
+            catch (RuntimeException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+    
+    private void flushAll() {
+        try {
+            for (WriteGroup group : groups.values()) {
+                flush(group);
+            }
+        }
+        catch (RuntimeException e) {
+            logger.atWarning().withCause(e).log("Writing of tags failed");
+        }
+        finally {
+            scheduled.set(false);
+            long next = Long.MAX_VALUE;
+            for (WriteGroup group : groups.values()) {
+                synchronized (group) {
+                    for (PendingResource pending : group.pending.values()) {
+                        next = Math.min(next, pending.notBeforeNanos - System.nanoTime());
+                    }
+                }
+            }
+            if (next != Long.MAX_VALUE) {
+                try {
+                    schedule(Math.max(lingerNanos, next));
+                }
+                catch (RejectedExecutionException e) {
+                    /* The writer is closed */
+                }
+            }
+        }
+    }
+    
+    /* Takes the resources which are due and writes them, grouped by their tags */
+    private void flush(WriteGroup group) {
+        Map<Map<String, String>, List<PendingResource>> tagSets = new LinkedHashMap<>();
+        long now = System.nanoTime();
+        synchronized (group) {
+            Iterator<PendingResource> iterator = group.pending.values().iterator();
+            while (iterator.hasNext()) {
+                PendingResource pending = iterator.next();
+                if (now - pending.notBeforeNanos >= 0) {
+                    iterator.remove();
+                    tagSets.computeIfAbsent(pending.tags, tags -> new ArrayList<>()).add(pending);
+                }
+            }
+        }
+        for (Map.Entry<Map<String, String>, List<PendingResource>> tagSet : tagSets.entrySet()) {
+            List<PendingResource> resources = tagSet.getValue();
+            for (int start = 0; start < resources.size(); start += MAX_RESOURCES_PER_CALL) {
+                write(group, tagSet.getKey(),
+                        resources.subList(start, Math.min(resources.size(), start + MAX_RESOURCES_PER_CALL)));
+            }
+        }
+    }
+    
+    /*
+    The resources unknown to EC2 are taken out of the call and retried later, and the call is made again for the
+    others. Each pass writes fewer resources, as an error naming none of the resources of the call fails them all.
+     */
+    private void write(WriteGroup group, Map<String, String> tags, List<PendingResource> resources) {
+        List<Tag> allTags = new ArrayList<>(tags.size());
+        tags.forEach((key, value) -> allTags.add(Tag.builder().key(key).value(value).build()));
+        List<PendingResource> batch = resources;
+        while (!batch.isEmpty()) {
+            List<String> resourceIDs = new ArrayList<>(batch.size());
+            batch.forEach(pending -> resourceIDs.add(pending.resourceID));
+            try {
+                for (int start = 0; start < allTags.size(); start += MAX_TAGS_PER_CALL) {
+                    group.ec2.createTags(CreateTagsRequest.builder()
+                            .resources(resourceIDs)
+                            .tags(allTags.subList(start, Math.min(allTags.size(), start + MAX_TAGS_PER_CALL)))
+                            .build());
+                }
+            }
+            catch (CloudExceptions e) {
+                Set<String> unknown = InstanceStatePoller.unknownInstanceIDs(e);
+                List<PendingResource> known = new ArrayList<>(batch.size());
+                if (unknown != null) {
+                    for (PendingResource pending : batch) {
+                        if (!unknown.contains(pending.resourceID)) {
+                            known.add(pending);
+                        }
+                    }
+                }
+                if (known.size() == batch.size()) {
+                    logger.atWarning().withCause(e).log("Unable to tag %d resources in %s", batch.size(),
+                            group.ec2.getRegion());
+                    batch.forEach(pending -> pending.complete(e));
+                    return;
+                }
+                for (PendingResource pending : batch) {
+                    if (!unknown.contains(pending.resourceID)) {
+                        continue;
+                    }
+                    if (pending.attempts + 1 >= MAX_ATTEMPTS) {
+                        pending.complete(new CloudExceptions("Unable to tag " + pending.resourceID +
+                                ", it does not exist", e));
+                    }
+                    else {
+                        synchronized (group) {
+                            group.merge(pending.retry(System.nanoTime() + retryDelayNanos));
+                        }
+                    }
+                }
+                batch = known;
+                continue;
+            }
+            listener.written(group.ec2, resourceIDs, tags);
+            batch.forEach(pending -> pending.complete(null));
+            return;
+        }
+    }
+    
+    /**
+     * Writes the tags which are due, and fails the writes still waiting for a retry.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (WriteGroup group : groups.values()) {
+            flush(group);
+            synchronized (group) {
+                group.pending.values().forEach(pending -> pending.complete(
+                        new CloudExceptions("The tag writer has been closed")));
+                group.pending.clear();
+            }
+        }
+    }
+    
+    /**
+     * Receives the tags written to resources.
+     */
+    interface Listener {
+        void written(EC2Gateway ec2, List<String> resourceIDs, Map<String, String> tags);
+    }
+    
+    private static final class WriteGroup {
+        private final Map<String, PendingResource> pending = new LinkedHashMap<>();
+        private volatile EC2Gateway ec2;
+        
+        /* A write waiting for a retry is merged under the writes made since, so the latest values win */
+        private void merge(PendingResource write) {
+            PendingResource current = pending.get(write.resourceID);
+            if (current == null) {
+                pending.put(write.resourceID, write);
+                return;
+            }
+            boolean retry = write.attempts > 0;
+            Map<String, String> tags = new LinkedHashMap<>(retry ? write.tags : current.tags);
+            tags.putAll(retry ? current.tags : write.tags);
+            PendingResource merged = new PendingResource(write.resourceID, tags,
+                    Math.max(current.attempts, write.attempts), Math.max(current.notBeforeNanos, write.notBeforeNanos),
+                    current.futures);
+            merged.futures.addAll(write.futures);
+            pending.put(write.resourceID, merged);
+        }
+    }
+    
+    private static final class PendingResource {
+        private final String resourceID;
+        private final Map<String, String> tags;
+        private final int attempts;
+        private final long notBeforeNanos;
+        private final List<CompletableFuture<Void>> futures;
+        
+        private PendingResource(String resourceID, Map<String, String> tags, int attempts, long notBeforeNanos) {
+            this(resourceID, tags, attempts, notBeforeNanos,
+                    new ArrayList<>(Collections.singletonList(new CompletableFuture<>())));
+        }
+        
+        private PendingResource(String resourceID, Map<String, String> tags, int attempts, long notBeforeNanos,
+                                List<CompletableFuture<Void>> futures) {
+            this.resourceID = resourceID;
+            this.tags = Collections.unmodifiableMap(new LinkedHashMap<>(tags));
+            this.attempts = attempts;
+            this.notBeforeNanos = notBeforeNanos;
+            this.futures = futures;
+        }
+        
+        private PendingResource retry(long notBeforeNanos) {
+            return new PendingResource(resourceID, tags, attempts + 1, notBeforeNanos, futures);
+        }
+        
+        private void complete(CloudExceptions error) {
+            for (CompletableFuture<Void> future : futures) {
+                if (error == null) {
+                    future.complete(null);
+                }
+                else {
+                    future.completeExceptionally(error);
+                }
+            }
+        }
+    }
+}
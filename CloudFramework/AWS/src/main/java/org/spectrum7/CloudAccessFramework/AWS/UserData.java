@@ -0,0 +1,344 @@
+package org.spectrum7.CloudAccessFramework.AWS;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * User data of instances, encoded for RunInstances. Multi-part payloads are assembled as a MIME multipart message,
+ * the format cloud-init reads, and streamed through gzip and base64 without holding the intermediate forms. The size
+ * EC2 counts, the payload before base64, is checked against the 16 KB limit of EC2 while the payload is encoded, so
+ * that an oversized payload fails before any API call.
+ * <p>
+ * Encoded payloads are cached by the SHA-256 hash of their content, so that launching the same payload many times
+ * encodes it once.
+ */
+public final class UserData {
+    /**
+     * Largest user data EC2 accepts, in bytes before base64
+     */
+    public static final int MAX_SIZE = 16 * 1024;
+    public static final String CLOUD_CONFIG = "text/cloud-config";
+    public static final String SHELL_SCRIPT = "text/x-shellscript";
+    private static final int CACHE_SIZE = 256;
+    private static final Map<String, UserData> CACHE =
+            Collections.synchronizedMap(new LinkedHashMap<String, UserData>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, UserData> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+    private final String contentHash;
+    private final String encoded;
+    private final int size;
+    private final boolean compressed;
+    
+    private UserData(String contentHash, String encoded, int size, boolean compressed) {
+        this.contentHash = contentHash;
+        this.encoded = encoded;
+        this.size = size;
+        this.compressed = compressed;
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Encodes user data given as text, as it is, without compression. This is the user data of
+     * {@link AWSLaunchSpecifications#setUserData(String)}.
+     *
+     * @param userData The user data
+     * @return The encoded user data
+     * @throws CloudExceptions Exception thrown when the user data is larger than {@link #MAX_SIZE}
+     */
+    public static UserData of(String userData) throws CloudExceptions {
+        return encode(Collections.singletonList(new Part(null, userData.getBytes(StandardCharsets.UTF_8), null)),
+                false);
+    }
+    
+    private static UserData encode(List<Part> parts, boolean compressed) throws CloudExceptions {
+        String contentHash;
+        try {
+            contentHash = contentHash(parts, compressed);
+        }
+        catch (IOException e) {
+            throw new CloudExceptions("Unable to read the user data", e);
+        }
+        UserData cached = CACHE.get(contentHash);
+        if (cached != null) {
+            return cached;
+        }
+        ByteArrayOutputStream base64 = new ByteArrayOutputStream();
+        SizeLimit limit = new SizeLimit(Base64.getEncoder().wrap(base64));
+        try (OutputStream out = compressed ? new GZIPOutputStream(limit) : limit) {
+            write(parts, contentHash, out);
+        }
+        catch (SizeLimitExceeded e) {
+            throw new CloudExceptions("The user data is larger than the " + MAX_SIZE + " bytes EC2 accepts" +
+                    (compressed ? " once compressed" : ""));
+        }
+        catch (IOException e) {
+            throw new CloudExceptions("Unable to encode the user data", e);
+        }
+        UserData userData = new UserData(contentHash, new String(base64.toByteArray(), StandardCharsets.US_ASCII),
+                limit.size, compressed);
+        CACHE.put(contentHash, userData);
+        return userData;
+    }
+    
+    private static String contentHash(List<Part> parts, boolean compressed) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update((byte) (compressed ? 1 : 0));
+        digest.update((byte) parts.size());
+        for (Part part : parts) {
+            digest.update(String.valueOf(part.contentType).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            /* The file name goes into the Content-Disposition header of the part */
+            digest.update((byte) (part.fileName == null ? 0 : 1));
+            if (part.fileName != null) {
+                digest.update(part.fileName.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            /* The length of each part keeps the parts apart */
+            CountingOutputStream counter = new CountingOutputStream();
+            part.writeTo(new DigestOutputStream(counter, digest));
+            long length = counter.count;
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                digest.update((byte) (length >>> shift));
+            }
+        }
+        return LaunchRequests.hex(digest.digest());
+    }
+    
+    /*
+    A single untyped part is the user data itself. Typed parts are sent as a MIME multipart message, with a boundary
+    derived from the content hash.
+     */
+    private static void write(List<Part> parts, String contentHash, OutputStream out) throws IOException {
+        if (parts.size() == 1 && parts.get(0).contentType == null) {
+            parts.get(0).writeTo(out);
+            return;
+        }
+        String boundary = "==" + contentHash.substring(0, 32) + "==";
+        ascii(out, "Content-Type: multipart/mixed; boundary=\"" + boundary + "\"\r\nMIME-Version: 1.0\r\n\r\n");
+        for (Part part : parts) {
+            ascii(out, "--" + boundary + "\r\nContent-Type: " + part.contentType + "; charset=\"utf-8\"\r\n" +
+                    "MIME-Version: 1.0\r\nContent-Transfer-Encoding: 7bit\r\n");
+            if (part.fileName != null) {
+                ascii(out, "Content-Disposition: attachment; filename=\"" + part.fileName + "\"\r\n");
+            }
+            ascii(out, "\r\n");
+            part.writeTo(out);
+            ascii(out, "\r\n");
+        }
+        ascii(out, "--" + boundary + "--\r\n");
+    }
+    
+    private static void ascii(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    /**
+     * @return The user data in base64, as sent in RunInstances
+     */
+    public String getEncoded() {
+        return encoded;
+    }
+    
+    /**
+     * @return The size EC2 counts against {@link #MAX_SIZE}: the bytes before base64, compressed if the payload is
+     * compressed
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * @return SHA-256 hash of the content of the payload, in hexadecimal
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public boolean isCompressed() {
+        return compressed;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof UserData && contentHash.equals(((UserData) o).contentHash);
+    }
+    
+    @Override
+    public int hashCode() {
+        return contentHash.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return "UserData{contentHash=" + contentHash + ", size=" + size + ", compressed=" + compressed + '}';
+    }
+    
+    /* A part of the payload, held in memory or read from a file as it is written */
+    private static final class Part {
+        private final String contentType;
+        private final byte[] content;
+        private final Path file;
+        private final String fileName;
+        
+        private Part(String contentType, byte[] content, Path file) {
+            this.contentType = contentType;
+            this.content = content;
+            this.file = file;
+            this.fileName = file == null || file.getFileName() == null ? null : file.getFileName().toString();
+        }
+        
+        private void writeTo(OutputStream out) throws IOException {
+            if (content != null) {
+                out.write(content);
+                return;
+            }
+            try (InputStream in = Files.newInputStream(file)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+    }
+    
+    private static final class CountingOutputStream extends OutputStream {
+        private long count = 0;
+        
+        @Override
+        public void write(int b) {
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+    
+    /* Counts the bytes written to the base64 encoder, and stops the encoding once they are over the limit */
+    private static final class SizeLimit extends FilterOutputStream {
+        private int size = 0;
+        
+        private SizeLimit(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            count(1);
+            out.write(b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count(len);
+            out.write(b, off, len);
+        }
+        
+        private void count(int length) throws SizeLimitExceeded {
+            size += length;
+            if (size > MAX_SIZE) {
+                throw new SizeLimitExceeded();
+            }
+        }
+    }
+    
+    private static final class SizeLimitExceeded extends IOException {
+        private static final long serialVersionUID = 6021374905127493318L;
+    }
+    
+    public static final class Builder {
+        private final List<Part> parts = new ArrayList<>();
+        private boolean compressed = true;
+        
+        private Builder() {
+        }
+        
+        /**
+         * Adds a part of the payload.
+         *
+         * @param contentType MIME type of the part, such as {@link #CLOUD_CONFIG} or {@link #SHELL_SCRIPT}
+         * @param content     Content of the part
+         * @return this builder
+         */
+        public Builder part(String contentType, String content) {
+            parts.add(new Part(checkContentType(contentType), content.getBytes(StandardCharsets.UTF_8), null));
+            return this;
+        }
+        
+        /**
+         * Adds a part of the payload read from a file. The file is read when the payload is built, and streamed into
+         * the payload.
+         *
+         * @param contentType MIME type of the part
+         * @param file        File holding the content of the part
+         * @return this builder
+         */
+        public Builder part(String contentType, Path file) {
+            parts.add(new Part(checkContentType(contentType), null, file));
+            return this;
+        }
+        
+        /**
+         * @param compressed true to gzip the payload, which cloud-init detects and decompresses. Defaults to true.
+         * @return this builder
+         */
+        public Builder compressed(boolean compressed) {
+            this.compressed = compressed;
+            return this;
+        }
+        
+        /**
+         * Encodes the payload, or returns the cached encoding of the same content.
+         *
+         * @return The encoded user data
+         * @throws CloudExceptions Exception thrown when the payload is larger than {@link #MAX_SIZE}, or when a file
+         *                         cannot be read
+         */
+        public UserData build() throws CloudExceptions {
+            if (parts.isEmpty()) {
+                throw new IllegalArgumentException("The user data has no parts");
+            }
+            return encode(new ArrayList<>(parts), compressed);
+        }
+        
+        private static String checkContentType(String contentType) {
+            if (contentType == null || contentType.isEmpty() || contentType.contains("\r") ||
+                    contentType.contains("\n")) {
+                throw new IllegalArgumentException("Invalid content type " + contentType);
+            }
+            return contentType;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.spectrum7.CloudAccessFramework.Accessors;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking counterpart of {@link CloudAccessor}. None of the methods block the calling thread. The returned
+ * futures complete on the threads of the underlying client, so dependent stages should not block either.
+ * <p>
+ * Failures are reported by completing the future exceptionally with a
+ * {@link org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions}.
+ */
+public interface AsyncCloudAccessor extends AutoCloseable {
+    /**
+     * Create an instance without specifying the access keys. The credentials of the instance on which the
+     * application is running will be used to create the new instance.
+     *
+     * @param launchSpecifications Values for creation of the instance. Either the template ID or details regarding
+     *                             the instance needs to be specified. If template ID is not specified, at a bare
+     *                             minimum, the AMI ID, instance type, subnet ID and the security group IDs should be
+     *                             set.
+     * @return future holding the launch specifications, filled in with the instance ID, the reservation ID, the
+     * addresses known at launch and the private key of the instance
+     */
+    CompletableFuture<LaunchSpecifications> createComputeInstance(LaunchSpecifications launchSpecifications);
+    
+    /**
+     * Creates a compute instance with the specified access and secret keys.
+     *
+     * @param accessKey            The accesskey for creation of the instance
+     * @param secretKey            The secret key for the instance
+     * @param launchSpecifications Values for creation of the instance. Either the template ID or details regarding
+     *                             the instance needs to be specified. If template ID is not specified, at a bare
+     *                             minimum, the AMI ID, instance type, subnet ID and the security group IDs should be
+     *                             set.
+     * @return future holding the launch specifications, filled in with the instance ID, the reservation ID, the
+     * addresses known at launch and the private key of the instance
+     */
+    CompletableFuture<LaunchSpecifications> createComputeInstance(
+            String accessKey, String secretKey, LaunchSpecifications launchSpecifications);
+    
+    /**
+     * Releases the clients, connection pools and event loops held by the accessor. The accessor should not be used
+     * after it is closed.
+     */
+    @Override
+    void close();
+}
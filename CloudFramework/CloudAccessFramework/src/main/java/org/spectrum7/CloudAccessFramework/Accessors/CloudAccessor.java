@@ -1,8 +1,16 @@
 package org.spectrum7.CloudAccessFramework.Accessors;
 
 import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.ComputeInstance;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.InstanceQuery;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.AccessorMetrics;
 
-public interface CloudAccessor {
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public interface CloudAccessor extends AutoCloseable {
     /**
      * Create an instance without specifying the access keys. This function should be used only when
      * running your application on an Amazon EC2 instance. The IAM credentials which exist within the
@@ -44,4 +52,236 @@ public interface CloudAccessor {
      */
     void createComputeInstance(
             String accessKey, String secretKey, LaunchSpecifications launchSpecifications) throws CloudExceptions;
+    
+    /**
+     * Creates a number of instances without specifying the access keys. Specifications which would result in the
+     * same launch request (same template or AMI, instance type, subnet, security groups and user data) are launched
+     * together with a single request, and share the key pair created for that request.
+     * <p>
+     * Failures do not stop the batch. Each specification gets its own result, so that a partial launch (for
+     * instance when the provider has capacity for only some of the instances) can be detected and retried.
+     *
+     * @param launchSpecifications Values for creation of the instances. Each specification describes one instance.
+     * @return One result per specification, in the same order as launchSpecifications
+     * @throws CloudExceptions Exception thrown when the batch cannot be processed at all
+     */
+    List<LaunchResult> createComputeInstances(List<LaunchSpecifications> launchSpecifications)
+            throws CloudExceptions;
+    
+    /**
+     * Creates a number of instances with the specified access and secret keys. Specifications which would result in
+     * the same launch request are launched together with a single request.
+     *
+     * @param accessKey            The accesskey for creation of the instances
+     * @param secretKey            The secret key for the instances
+     * @param launchSpecifications Values for creation of the instances. Each specification describes one instance.
+     * @return One result per specification, in the same order as launchSpecifications
+     * @throws CloudExceptions Exception thrown when the batch cannot be processed at all
+     */
+    List<LaunchResult> createComputeInstances(
+            String accessKey, String secretKey, List<LaunchSpecifications> launchSpecifications) throws CloudExceptions;
+    
+    /**
+     * Waits for a launched instance to be running without specifying the access keys. The instances waited on are
+     * polled together in the background, so waiting for many instances does not multiply the API calls. Once the
+     * instance is running and has its addresses, the instance ID, the IP addresses and the host name are filled into
+     * the launch specifications.
+     *
+     * @param launchSpecifications Values of a launched instance, holding its instance ID
+     * @return future holding launchSpecifications once the instance is running. The future fails with
+     * CloudExceptions if the instance is terminated or does not come up in time.
+     */
+    CompletableFuture<LaunchSpecifications> awaitRunning(LaunchSpecifications launchSpecifications);
+    
+    /**
+     * Waits for a launched instance to be running, polling with the specified access and secret keys.
+     *
+     * @param accessKey            The accesskey of the instance
+     * @param secretKey            The secret key of the instance
+     * @param launchSpecifications Values of a launched instance, holding its instance ID
+     * @return future holding launchSpecifications once the instance is running
+     */
+    CompletableFuture<LaunchSpecifications> awaitRunning(
+            String accessKey, String secretKey, LaunchSpecifications launchSpecifications);
+    
+    /**
+     * Terminates a number of instances without specifying the access keys. The instances are terminated with as
+     * few calls as possible, grouped by region, and the key pairs created for them are deleted in the background
+     * once the termination has been accepted. Shared key pairs are kept.
+     * <p>
+     * Failures do not stop the batch. Each specification gets its own result, and instances which the provider does
+     * not know are reported as NOT_FOUND.
+     *
+     * @param launchSpecifications Values of launched instances, holding their instance IDs
+     * @return One result per specification, in the same order as launchSpecifications
+     * @throws CloudExceptions Exception thrown when the batch cannot be processed at all
+     */
+    List<TerminationResult> terminateComputeInstances(Collection<LaunchSpecifications> launchSpecifications)
+            throws CloudExceptions;
+    
+    /**
+     * Terminates a number of instances with the specified access and secret keys.
+     *
+     * @param accessKey            The accesskey of the instances
+     * @param secretKey            The secret key of the instances
+     * @param launchSpecifications Values of launched instances, holding their instance IDs
+     * @return One result per specification, in the same order as launchSpecifications
+     * @throws CloudExceptions Exception thrown when the batch cannot be processed at all
+     */
+    List<TerminationResult> terminateComputeInstances(
+            String accessKey, String secretKey, Collection<LaunchSpecifications> launchSpecifications)
+            throws CloudExceptions;
+    
+    /**
+     * Waits for an instance to be terminated without specifying the access keys. The instances waited on are polled
+     * together in the background, as with {@link #awaitRunning(LaunchSpecifications)}.
+     *
+     * @param launchSpecifications Values of an instance being terminated, holding its instance ID
+     * @return future holding launchSpecifications once the instance is terminated. The future fails with
+     * CloudExceptions if the instance is not terminated in time.
+     */
+    CompletableFuture<LaunchSpecifications> awaitTerminated(LaunchSpecifications launchSpecifications);
+    
+    /**
+     * Waits for an instance to be terminated, polling with the specified access and secret keys.
+     *
+     * @param accessKey            The accesskey of the instance
+     * @param secretKey            The secret key of the instance
+     * @param launchSpecifications Values of an instance being terminated, holding its instance ID
+     * @return future holding launchSpecifications once the instance is terminated
+     */
+    CompletableFuture<LaunchSpecifications> awaitTerminated(
+            String accessKey, String secretKey, LaunchSpecifications launchSpecifications);
+    
+    /**
+     * Stops running instances without specifying the access keys, with as few calls as possible grouped by region. A
+     * stopped instance keeps its volumes and its private IP address, and can be started again much faster than a new
+     * instance can be launched.
+     *
+     * @param launchSpecifications Values of launched instances, holding their instance IDs
+     * @throws CloudExceptions Exception thrown when the instances of a region cannot be stopped. The other regions
+     *                         are stopped all the same.
+     */
+    void stopComputeInstances(Collection<LaunchSpecifications> launchSpecifications) throws CloudExceptions;
+    
+    /**
+     * Stops running instances with the specified access and secret keys.
+     *
+     * @param accessKey            The accesskey of the instances
+     * @param secretKey            The secret key of the instances
+     * @param launchSpecifications Values of launched instances, holding their instance IDs
+     * @throws CloudExceptions Exception thrown when the instances of a region cannot be stopped
+     */
+    void stopComputeInstances(
+            String accessKey, String secretKey, Collection<LaunchSpecifications> launchSpecifications)
+            throws CloudExceptions;
+    
+    /**
+     * Waits for an instance to be stopped without specifying the access keys, polling in the background as
+     * {@link #awaitRunning(LaunchSpecifications)} does.
+     *
+     * @param launchSpecifications Values of an instance being stopped, holding its instance ID
+     * @return future holding launchSpecifications once the instance is stopped. The future fails with CloudExceptions
+     * if the instance is terminated or is not stopped in time.
+     */
+    CompletableFuture<LaunchSpecifications> awaitStopped(LaunchSpecifications launchSpecifications);
+    
+    /**
+     * Waits for an instance to be stopped, polling with the specified access and secret keys.
+     *
+     * @param accessKey            The accesskey of the instance
+     * @param secretKey            The secret key of the instance
+     * @param launchSpecifications Values of an instance being stopped, holding its instance ID
+     * @return future holding launchSpecifications once the instance is stopped
+     */
+    CompletableFuture<LaunchSpecifications> awaitStopped(
+            String accessKey, String secretKey, LaunchSpecifications launchSpecifications);
+    
+    /**
+     * Starts stopped instances without specifying the access keys, with as few calls as possible grouped by region.
+     * The addresses of the instances are filled in by {@link #awaitRunning(LaunchSpecifications)} once they are
+     * running.
+     *
+     * @param launchSpecifications Values of stopped instances, holding their instance IDs
+     * @throws CloudExceptions Exception thrown when the instances of a region cannot be started, for instance when
+     *                         the provider is short of capacity. The other regions are started all the same.
+     */
+    void startComputeInstances(Collection<LaunchSpecifications> launchSpecifications) throws CloudExceptions;
+    
+    /**
+     * Starts stopped instances with the specified access and secret keys.
+     *
+     * @param accessKey            The accesskey of the instances
+     * @param secretKey            The secret key of the instances
+     * @param launchSpecifications Values of stopped instances, holding their instance IDs
+     * @throws CloudExceptions Exception thrown when the instances of a region cannot be started
+     */
+    void startComputeInstances(
+            String accessKey, String secretKey, Collection<LaunchSpecifications> launchSpecifications)
+            throws CloudExceptions;
+    
+    /**
+     * Tags instances without specifying the access keys. The tags are added to the tags of the instances, and the
+     * tags written to many instances around the same time are written together, with a call per region and set of
+     * tags rather than a call per instance.
+     *
+     * @param launchSpecifications Values of launched instances, holding their instance IDs
+     * @param tags                 The tags to write
+     * @return future completing once the instances are tagged. The future fails with CloudExceptions if an instance
+     * cannot be tagged.
+     */
+    CompletableFuture<Void> tagComputeInstances(
+            Collection<LaunchSpecifications> launchSpecifications, Map<String, String> tags);
+    
+    /**
+     * Tags instances with the specified access and secret keys.
+     *
+     * @param accessKey            The accesskey of the instances
+     * @param secretKey            The secret key of the instances
+     * @param launchSpecifications Values of launched instances, holding their instance IDs
+     * @param tags                 The tags to write
+     * @return future completing once the instances are tagged
+     */
+    CompletableFuture<Void> tagComputeInstances(
+            String accessKey, String secretKey, Collection<LaunchSpecifications> launchSpecifications,
+            Map<String, String> tags);
+    
+    /**
+     * Lists instances without specifying the access keys. The instances are read from a local inventory of the
+     * region, which is loaded with a full listing on the first query and refreshed incrementally in the background.
+     * Instances launched by this accessor are added to the inventory as soon as they are launched.
+     *
+     * @param query Criteria of the instances, including their region
+     * @return The instances matching the query
+     * @throws CloudExceptions Exception thrown when the inventory of the region cannot be loaded
+     */
+    List<ComputeInstance> listComputeInstances(InstanceQuery query) throws CloudExceptions;
+    
+    /**
+     * Lists instances with the specified access and secret keys. Each set of credentials has its own inventory.
+     *
+     * @param accessKey The accesskey of the instances
+     * @param secretKey The secret key of the instances
+     * @param query     Criteria of the instances, including their region
+     * @return The instances matching the query
+     * @throws CloudExceptions Exception thrown when the inventory of the region cannot be loaded
+     */
+    List<ComputeInstance> listComputeInstances(String accessKey, String secretKey, InstanceQuery query)
+            throws CloudExceptions;
+    
+    /**
+     * Returns the metrics of the accessor: latency histograms, counters of successes, errors and throttled attempts,
+     * and the number of operations in flight, per cloud provider, region and API action. Use
+     * {@link AccessorMetrics#snapshot()} to read or export them.
+     *
+     * @return AccessorMetrics instance
+     */
+    AccessorMetrics getMetrics();
+    
+    /**
+     * Releases the clients, connection pools and other resources held by the accessor. The accessor should not be
+     * used after it is closed.
+     */
+    @Override
+    void close();
 }
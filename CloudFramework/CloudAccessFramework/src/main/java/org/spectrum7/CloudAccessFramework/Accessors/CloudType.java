@@ -1,14 +1,26 @@
 package org.spectrum7.CloudAccessFramework.Accessors;
 
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Stream;
-
-import static java.util.stream.Collectors.toSet;
 
 public enum CloudType {
     AWS("aws"),
     GOOGLE("google"),
     UNKNOWN(null);
+    private static final Map<String, CloudType> VALUES = new HashMap<>();
+    private static final Set<CloudType> KNOWN_VALUES = EnumSet.noneOf(CloudType.class);
+    
+    static {
+        for (CloudType cloudType : values()) {
+            if (cloudType != UNKNOWN) {
+                VALUES.put(cloudType.value, cloudType);
+                KNOWN_VALUES.add(cloudType);
+            }
+        }
+    }
+    
     private final String value;
     
     private CloudType(String value) {
@@ -25,8 +37,7 @@ public enum CloudType {
         if (value == null) {
             return null;
         }
-        return Stream.of(CloudType.values()).filter(e -> e.toString().equals(value)).findFirst()
-                .orElse(UNKNOWN);
+        return VALUES.getOrDefault(value, UNKNOWN);
     }
     
     /**
@@ -36,7 +47,7 @@ public enum CloudType {
      * @return a {@link Set} of known {@link CloudType}s
      */
     public static Set<CloudType> knownValues() {
-        return Stream.of(values()).filter(v -> v != UNKNOWN).collect(toSet());
+        return EnumSet.copyOf(KNOWN_VALUES);
     }
     
     @Override
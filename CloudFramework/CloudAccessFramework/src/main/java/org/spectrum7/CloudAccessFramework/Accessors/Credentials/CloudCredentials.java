@@ -0,0 +1,60 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Credentials;
+
+import java.time.Instant;
+
+/**
+ * Immutable set of credentials of a cloud provider: an access key, its secret and, for temporary credentials, a
+ * session token and an expiration time.
+ */
+public final class CloudCredentials {
+    private final String accessKey;
+    private final String secretKey;
+    private final String sessionToken;
+    private final Instant expiration;
+    
+    /**
+     * @param accessKey    The access key
+     * @param secretKey    The secret key
+     * @param sessionToken Session token of temporary credentials. Null for long term credentials.
+     * @param expiration   Time at which the credentials expire. Null if they do not expire.
+     */
+    public CloudCredentials(String accessKey, String secretKey, String sessionToken, Instant expiration) {
+        if (accessKey == null || secretKey == null) {
+            throw new IllegalArgumentException("An access key and a secret key are required");
+        }
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.sessionToken = sessionToken;
+        this.expiration = expiration;
+    }
+    
+    public String getAccessKey() {
+        return accessKey;
+    }
+    
+    public String getSecretKey() {
+        return secretKey;
+    }
+    
+    /**
+     * @return Session token of temporary credentials. Null for long term credentials.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+    
+    /**
+     * @return Time at which the credentials expire. Null if they do not expire.
+     */
+    public Instant getExpiration() {
+        return expiration;
+    }
+    
+    /**
+     * The secret key and the session token are left out.
+     */
+    @Override
+    public String toString() {
+        return "CloudCredentials{accessKey=" + accessKey + ", expiration=" + expiration + '}';
+    }
+}
@@ -0,0 +1,142 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Credentials;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Supplier;
+
+/**
+ * Process wide set of RefreshingCredentials, one per identity, so that all the clients of an identity share its
+ * cached credentials and its refreshes whatever their region. The background refreshes of all the identities run on
+ * a single daemon thread, created on first use.
+ */
+public class CredentialsRegistry implements AutoCloseable {
+    public static final Duration DEFAULT_REFRESH_AHEAD = Duration.ofMinutes(5);
+    public static final Duration DEFAULT_STALE_WINDOW = Duration.ofMinutes(1);
+    private final Map<String, RefreshingCredentials> credentials = new ConcurrentHashMap<>();
+    private final long refreshAheadMillis;
+    private final long staleMillis;
+    private volatile ScheduledExecutorService scheduler = null;
+    private volatile boolean closed = false;
+    
+    private CredentialsRegistry(Builder builder) {
+        this.refreshAheadMillis = builder.refreshAhead.toMillis();
+        this.staleMillis = builder.staleWindow.toMillis();
+    }
+    
+    /**
+     * Creates a registry with the default refresh timings.
+     *
+     * @return CredentialsRegistry instance
+     */
+    public static CredentialsRegistry create() {
+        return builder().build();
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Returns the shared credentials of an identity, creating them on first use.
+     *
+     * @param identity Name of the identity, for instance the access key or the instance profile
+     * @param source   Creates the source of the credentials of the identity. It is called only on first use.
+     * @return RefreshingCredentials of the identity
+     */
+    public RefreshingCredentials get(String identity, Supplier<CredentialsSource> source) {
+        if (closed) {
+            throw new IllegalStateException("The credentials registry has been closed");
+        }
+        return credentials.computeIfAbsent(identity, k -> new RefreshingCredentials(k, source.get(),
+                refreshAheadMillis, staleMillis, this::scheduler));
+    }
+    
+    /**
+     * Forgets an identity, for instance when its keys are no longer used. Its credentials are fetched again if it is
+     * used afterwards.
+     *
+     * @param identity Name of the identity
+     */
+    public void invalidate(String identity) {
+        RefreshingCredentials removed = credentials.remove(identity);
+        if (removed != null) {
+            removed.close();
+        }
+    }
+    
+    /**
+     * Number of identities currently held by the registry
+     *
+     * @return identity count
+     */
+    public int size() {
+        return credentials.size();
+    }
+    
+    private ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                        Thread thread = new Thread(runnable, "credentials-refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    scheduler = executor;
+                }
+            }
+        }
+        return scheduler;
+    }
+    
+    /**
+     * Stops the background refreshes and forgets all the identities.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        credentials.keySet().forEach(this::invalidate);
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    public static final class Builder {
+        private Duration refreshAhead = DEFAULT_REFRESH_AHEAD;
+        private Duration staleWindow = DEFAULT_STALE_WINDOW;
+        
+        private Builder() {
+        }
+        
+        /**
+         * @param refreshAhead Time before their expiration at which credentials are refreshed in the background.
+         *                     Up to a quarter more is taken off at random to spread the refreshes.
+         * @return this builder
+         */
+        public Builder refreshAhead(Duration refreshAhead) {
+            this.refreshAhead = refreshAhead;
+            return this;
+        }
+        
+        /**
+         * @param staleWindow Time before their expiration from which credentials are no longer handed out, and callers
+         *                    wait for fresh ones instead
+         * @return this builder
+         */
+        public Builder staleWindow(Duration staleWindow) {
+            this.staleWindow = staleWindow;
+            return this;
+        }
+        
+        public CredentialsRegistry build() {
+            if (refreshAhead.compareTo(staleWindow) < 0) {
+                throw new IllegalArgumentException("refreshAhead should not be shorter than staleWindow");
+            }
+            return new CredentialsRegistry(this);
+        }
+    }
+}
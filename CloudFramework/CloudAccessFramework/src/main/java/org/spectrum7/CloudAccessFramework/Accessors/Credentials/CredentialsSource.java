@@ -0,0 +1,16 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Credentials;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+/**
+ * Fetches fresh credentials of one identity, for instance from the instance metadata service. Sources do not cache:
+ * every call fetches, and RefreshingCredentials decides when to call.
+ */
+@FunctionalInterface
+public interface CredentialsSource {
+    /**
+     * @return The current credentials of the identity
+     * @throws CloudExceptions Exception thrown when the credentials cannot be fetched
+     */
+    CloudCredentials fetch() throws CloudExceptions;
+}
@@ -0,0 +1,211 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Credentials;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cached credentials of one identity, shared by every client of that identity. Credentials which expire are fetched
+ * again in the background ahead of their expiration, at a jittered time so that identities fetched together do not
+ * refresh together, and callers keep getting the current credentials meanwhile. Callers only wait for a fetch when
+ * there are no credentials yet or when the current ones are about to expire.
+ * <p>
+ * Fetches are single flight: however many threads need credentials at once, a single fetch is made and all of them
+ * get its result. When a background refresh fails, the current credentials are kept and the refresh is attempted
+ * again later, as long as they have not expired.
+ */
+public final class RefreshingCredentials {
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private final String identity;
+    private final CredentialsSource source;
+    private final long refreshAheadMillis;
+    private final long staleMillis;
+    private final Supplier<ScheduledExecutorService> scheduler;
+    private volatile CloudCredentials credentials = null;
+    private volatile long nextAttemptMillis = 0;
+    private CompletableFuture<CloudCredentials> inFlight = null;
+    private ScheduledFuture<?> scheduledRefresh = null;
+    private boolean closed = false;
+    
+    /**
+     * @param identity           Name of the identity, for the error messages
+     * @param source             Fetches the credentials of the identity
+     * @param refreshAheadMillis Time before the expiration at which the credentials are refreshed in the background
+     * @param staleMillis        Time before the expiration from which the credentials are no longer handed out
+     * @param scheduler          Runs the background refreshes
+     */
+    RefreshingCredentials(String identity, CredentialsSource source, long refreshAheadMillis, long staleMillis,
+                          Supplier<ScheduledExecutorService> scheduler) {
+        this.identity = identity;
+        this.source = source;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.staleMillis = staleMillis;
+        this.scheduler = scheduler;
+    }
+    
+    public String getIdentity() {
+        return identity;
+    }
+    
+    /**
+     * Returns the cached credentials, fetching them only if there are none yet or if they are about to expire.
+     *
+     * @return The credentials of the identity
+     * @throws CloudExceptions Exception thrown when the credentials had to be fetched and could not be
+     */
+    public CloudCredentials get() throws CloudExceptions {
+        CloudCredentials current = credentials;
+        long now = System.currentTimeMillis();
+        if (current != null && !expiresWithin(current, now, staleMillis)) {
+            if (expiresWithin(current, now, refreshAheadMillis) && now >= nextAttemptMillis) {
+                fetch(true);
+            }
+            return current;
+        }
+        try {
+            return fetch(false).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudExceptions("Interrupted while fetching the credentials of " + identity, e);
+        }
+        catch (ExecutionException e) {
+            /*
+            Stale credentials are still better than none until they actually expire.
+             */
+            if (current != null && !expiresWithin(current, System.currentTimeMillis(), 0)) {
+                return current;
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof CloudExceptions) {
+                throw (CloudExceptions) cause;
+            }
+            throw new CloudExceptions("Unable to fetch the credentials of " + identity, cause);
+        }
+    }
+    
+    /**
+     * Starts fetching the credentials in the background, unless a fetch is already in flight.
+     *
+     * @return The fetch in flight
+     */
+    public CompletableFuture<CloudCredentials> refresh() {
+        return fetch(true);
+    }
+    
+    private CompletableFuture<CloudCredentials> fetch(boolean background) {
+        CompletableFuture<CloudCredentials> fetch;
+        synchronized (this) {
+            if (inFlight != null) {
+                return inFlight;
+            }
+            fetch = new CompletableFuture<>();
+            inFlight = fetch;
+        }
+        if (!background) {
+            load(fetch);
+            return fetch;
+        }
+        try {
+            scheduler.get().execute(() -> load(fetch));
+        }
+        catch (RejectedExecutionException e) {
+            synchronized (this) {
+                inFlight = null;
+            }
+            fetch.completeExceptionally(e);
+        }
+        return fetch;
+    }
+    
+    private void load(CompletableFuture<CloudCredentials> fetch) {
+        CloudCredentials fetched;
+        try {
+            fetched = source.fetch();
+            if (fetched == null) {
+                throw new CloudExceptions("No credentials were returned for " + identity);
+            }
+        }
+        catch (CloudExceptions | RuntimeException e) {
+            nextAttemptMillis = System.currentTimeMillis() + RETRY_DELAY_MILLIS;
+            synchronized (this) {
+                inFlight = null;
+            }
+            scheduleRefresh(credentials, true);
+            fetch.completeExceptionally(e);
+            return;
+        }
+        /*
+        The credentials are published before the fetch is cleared, so that a caller which finds no fetch in flight
+        finds the new credentials.
+         */
+        credentials = fetched;
+        nextAttemptMillis = 0;
+        synchronized (this) {
+            inFlight = null;
+        }
+        scheduleRefresh(fetched, false);
+        fetch.complete(fetched);
+    }
+    
+    /*
+    Refreshes are scheduled so that credentials which are not used for a while are still fresh when they are used
+    again. After a failure the refresh is attempted again after a short delay, until the credentials expire.
+     */
+    private void scheduleRefresh(CloudCredentials current, boolean retry) {
+        if (current == null || current.getExpiration() == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expiration = current.getExpiration().toEpochMilli();
+        long delay;
+        if (retry) {
+            if (expiration <= now) {
+                return;
+            }
+            delay = Math.min(RETRY_DELAY_MILLIS, (expiration - now) / 2);
+        }
+        else {
+            long jitter = refreshAheadMillis < 4 ? 0 : ThreadLocalRandom.current().nextLong(refreshAheadMillis / 4);
+            delay = Math.max(0, expiration - refreshAheadMillis - jitter - now);
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (scheduledRefresh != null) {
+                scheduledRefresh.cancel(false);
+            }
+            try {
+                scheduledRefresh = scheduler.get().schedule(() -> fetch(false), delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                scheduledRefresh = null;
+            }
+        }
+    }
+    
+    private static boolean expiresWithin(CloudCredentials credentials, long now, long millis) {
+        Instant expiration = credentials.getExpiration();
+        return expiration != null && now >= expiration.toEpochMilli() - millis;
+    }
+    
+    /**
+     * Cancels the scheduled refresh. The credentials can still be used, but are fetched only when they are needed.
+     */
+    synchronized void close() {
+        closed = true;
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+    }
+}
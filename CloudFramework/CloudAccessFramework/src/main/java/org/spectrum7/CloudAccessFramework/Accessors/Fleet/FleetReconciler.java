@@ -0,0 +1,535 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Fleet;
+
+import com.google.common.flogger.FluentLogger;
+import org.spectrum7.CloudAccessFramework.Accessors.CloudAccessor;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.ComputeInstance;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.ComputeInstanceState;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.InstanceQuery;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchResult;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.Accessors.TerminationResult;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps fleets of instances at their desired size. Each fleet is declared as a {@link FleetTarget}: a region, a
+ * number of instances, the tags identifying its instances and how to launch a new one. The reconciler compares the
+ * targets with the pending and running instances of the inventory at a fixed interval, and closes the gap with one
+ * batched launch of the missing instances and one batched termination of the extra ones for all the fleets.
+ * <p>
+ * An iteration lists the instances of each region once, so its API calls depend on the number of regions and on the
+ * changes it makes, not on the size of the fleets. The changes of an iteration are capped, so that a large change of
+ * target is converged to over several iterations. A change of target, or a call to {@link #reconcile()}, runs an
+ * iteration right away; requests made while an iteration is under way are served by a single following iteration.
+ * <p>
+ * The launches and terminations of the reconciler are remembered until the inventory shows them, so that an
+ * inventory which lags behind does not lead to launching or terminating the same instances twice. The extra
+ * instances of a fleet are terminated newest first. The reconciler uses the access and secret keys it is built
+ * with, or the credentials of the instance on which the application is running.
+ */
+public class FleetReconciler implements AutoCloseable {
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(30);
+    public static final int DEFAULT_MAX_LAUNCHES = 50;
+    public static final int DEFAULT_MAX_TERMINATIONS = 50;
+    public static final Duration DEFAULT_SETTLE_TIME = Duration.ofMinutes(5);
+    private static final String NAME_TAG = "Name";
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private final CloudAccessor accessor;
+    private final String accessKey;
+    private final String secretKey;
+    private final int maxLaunches;
+    private final int maxTerminations;
+    private final long settleNanos;
+    private final Map<String, Fleet> fleets = new ConcurrentHashMap<>();
+    private final AtomicBoolean requested = new AtomicBoolean();
+    private final ScheduledThreadPoolExecutor scheduler;
+    
+    private FleetReconciler(Builder builder) {
+        this.accessor = builder.accessor;
+        this.accessKey = builder.accessKey;
+        this.secretKey = builder.secretKey;
+        this.maxLaunches = builder.maxLaunches;
+        this.maxTerminations = builder.maxTerminations;
+        this.settleNanos = builder.settleTime.toNanos();
+        builder.targets.forEach(target -> fleets.put(target.getName(), new Fleet(target)));
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "fleet-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::iterate, 0, builder.interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Adds a fleet, or replaces the target of the fleet with the same name, and reconciles right away. The instances
+     * of a replaced fleet which its new tags no longer match are left alone.
+     *
+     * @param target The desired state of the fleet
+     */
+    public void setTarget(FleetTarget target) {
+        if (target == null) {
+            throw new IllegalArgumentException("The target is required");
+        }
+        fleets.compute(target.getName(), (name, fleet) -> {
+            if (fleet == null) {
+                return new Fleet(target);
+            }
+            fleet.target = target;
+            return fleet;
+        });
+        reconcile();
+    }
+    
+    /**
+     * Changes the number of instances of a fleet and reconciles right away.
+     *
+     * @param name  Name of the fleet
+     * @param count The new number of instances
+     */
+    public void setCount(String name, int count) {
+        Fleet fleet = fleet(name);
+        fleet.target = fleet.target.withCount(count);
+        reconcile();
+    }
+    
+    /**
+     * Stops managing a fleet. Its instances are left running.
+     *
+     * @param name Name of the fleet
+     * @return true if the fleet was managed
+     */
+    public boolean removeTarget(String name) {
+        return fleets.remove(name) != null;
+    }
+    
+    /**
+     * @param name Name of the fleet
+     * @return The desired state of the fleet
+     */
+    public FleetTarget getTarget(String name) {
+        return fleet(name).target;
+    }
+    
+    /**
+     * @return The names of the fleets managed
+     */
+    public Set<String> getFleets() {
+        return fleets.keySet();
+    }
+    
+    /**
+     * @param name Name of the fleet
+     * @return The state of the fleet as of the last iteration which covered it
+     */
+    public FleetStatus getStatus(String name) {
+        return fleet(name).status;
+    }
+    
+    /**
+     * Runs an iteration now instead of at the next interval. Calls made before the iteration starts are served by it.
+     */
+    public void reconcile() {
+        if (requested.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::iterate);
+            }
+            catch (RejectedExecutionException e) {
+                /* The reconciler is closed */
+                requested.set(false);
+            }
+        }
+    }
+    
+    /**
+     * Stops reconciling. The instances of the fleets are left as they are, and the accessor is not closed.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+    }
+    
+    private Fleet fleet(String name) {
+        Fleet fleet = fleets.get(name);
+        if (fleet == null) {
+            throw new IllegalArgumentException("Unknown fleet " + name);
+        }
+        return fleet;
+    }
+    
+    /*
+    Runs on the scheduler thread only, which is the only one touching the launches and terminations in flight.
+     */
+    private void iterate() {
+        requested.set(false);
+        try {
+            reconcileAll();
+        }
+        catch (RuntimeException e) {
+            /* The next iteration tries again */
+            logger.atSevere().withCause(e).log("Fleet reconciliation failed");
+            CloudExceptions error = new CloudExceptions("Fleet reconciliation failed", e);
+            Instant now = Instant.now();
+            fleets.values().forEach(fleet -> fleet.report(fleet.running, now, error));
+        }
+    }
+    
+    private void reconcileAll() {
+        Map<String, List<Fleet>> regions = new LinkedHashMap<>();
+        for (Fleet fleet : fleets.values()) {
+            regions.computeIfAbsent(fleet.target.getRegion(), region -> new ArrayList<>()).add(fleet);
+        }
+        Instant now = Instant.now();
+        long nowNanos = System.nanoTime();
+        List<Change> launches = new ArrayList<>();
+        List<Change> terminations = new ArrayList<>();
+        int launchBudget = maxLaunches;
+        int terminationBudget = maxTerminations;
+        List<Fleet> observed = new ArrayList<>();
+        for (Map.Entry<String, List<Fleet>> region : regions.entrySet()) {
+            List<ComputeInstance> instances;
+            try {
+                instances = list(InstanceQuery.builder(region.getKey())
+                        .states(ComputeInstanceState.PENDING, ComputeInstanceState.RUNNING).build());
+            }
+            catch (CloudExceptions | RuntimeException e) {
+                CloudExceptions error = e instanceof CloudExceptions ? (CloudExceptions) e :
+                        new CloudExceptions("Unable to list the instances in " + region.getKey(), e);
+                region.getValue().forEach(fleet -> fleet.report(0, now, error));
+                continue;
+            }
+            for (Fleet fleet : region.getValue()) {
+                observed.add(fleet);
+                List<ComputeInstance> members = fleet.observe(instances, nowNanos, settleNanos);
+                int diff = fleet.target.getCount() - members.size() - fleet.launching.size();
+                if (diff > 0 && launchBudget > 0) {
+                    int count = Math.min(diff, launchBudget);
+                    launchBudget -= count;
+                    for (int i = 0; i < count; i++) {
+                        launches.add(new Change(fleet, fleet.newInstance()));
+                    }
+                }
+                else if (diff < 0 && terminationBudget > 0) {
+                    int count = Math.min(-diff, terminationBudget);
+                    terminationBudget -= count;
+                    members.sort(Comparator.comparing(ComputeInstance::getLaunchTime,
+                            Comparator.nullsFirst(Comparator.<Instant>naturalOrder())).reversed()
+                            .thenComparing(ComputeInstance::getInstanceID));
+                    for (ComputeInstance member : members.subList(0, count)) {
+                        LaunchSpecifications specifications = fleet.specificationsOf(member);
+                        if (specifications != null) {
+                            terminations.add(new Change(fleet, specifications));
+                        }
+                    }
+                }
+            }
+        }
+        Map<Fleet, CloudExceptions> errors = new HashMap<>();
+        launch(launches, nowNanos, errors);
+        terminate(terminations, nowNanos, errors);
+        observed.forEach(fleet -> fleet.report(fleet.running, now, errors.get(fleet)));
+    }
+    
+    private void launch(List<Change> launches, long nowNanos, Map<Fleet, CloudExceptions> errors) {
+        if (launches.isEmpty()) {
+            return;
+        }
+        List<LaunchSpecifications> instanceSpecifications = new ArrayList<>(launches.size());
+        launches.forEach(launch -> instanceSpecifications.add(launch.specifications));
+        List<LaunchResult> results;
+        try {
+            results = accessKey == null ? accessor.createComputeInstances(instanceSpecifications) :
+                    accessor.createComputeInstances(accessKey, secretKey, instanceSpecifications);
+        }
+        catch (CloudExceptions | RuntimeException e) {
+            CloudExceptions error = e instanceof CloudExceptions ? (CloudExceptions) e :
+                    new CloudExceptions("Unable to launch the instances of the fleets", e);
+            launches.forEach(launch -> errors.put(launch.fleet, error));
+            return;
+        }
+        for (int i = 0; i < launches.size(); i++) {
+            Change launch = launches.get(i);
+            LaunchResult result = results.get(i);
+            if (result.isLaunched() && launch.specifications.getInstanceID() != null) {
+                launch.fleet.launching.put(launch.specifications.getInstanceID(), nowNanos);
+                launch.fleet.launched.put(launch.specifications.getInstanceID(), launch.specifications);
+            }
+            else {
+                errors.put(launch.fleet, result.getError());
+            }
+        }
+    }
+    
+    private void terminate(List<Change> terminations, long nowNanos, Map<Fleet, CloudExceptions> errors) {
+        if (terminations.isEmpty()) {
+            return;
+        }
+        List<LaunchSpecifications> instanceSpecifications = new ArrayList<>(terminations.size());
+        terminations.forEach(termination -> instanceSpecifications.add(termination.specifications));
+        List<TerminationResult> results;
+        try {
+            results = accessKey == null ? accessor.terminateComputeInstances(instanceSpecifications) :
+                    accessor.terminateComputeInstances(accessKey, secretKey, instanceSpecifications);
+        }
+        catch (CloudExceptions | RuntimeException e) {
+            CloudExceptions error = e instanceof CloudExceptions ? (CloudExceptions) e :
+                    new CloudExceptions("Unable to terminate the instances of the fleets", e);
+            terminations.forEach(termination -> errors.put(termination.fleet, error));
+            return;
+        }
+        for (int i = 0; i < terminations.size(); i++) {
+            Change termination = terminations.get(i);
+            TerminationResult result = results.get(i);
+            if (result.isTerminated()) {
+                String instanceID = termination.specifications.getInstanceID();
+                termination.fleet.terminating.put(instanceID, nowNanos);
+                termination.fleet.launched.remove(instanceID);
+                termination.fleet.running--;
+            }
+            else {
+                errors.put(termination.fleet, result.getError());
+            }
+        }
+    }
+    
+    private List<ComputeInstance> list(InstanceQuery query) throws CloudExceptions {
+        return accessKey == null ? accessor.listComputeInstances(query) :
+                accessor.listComputeInstances(accessKey, secretKey, query);
+    }
+    
+    /* A launch or a termination of an instance of a fleet */
+    private static final class Change {
+        private final Fleet fleet;
+        private final LaunchSpecifications specifications;
+        
+        private Change(Fleet fleet, LaunchSpecifications specifications) {
+            this.fleet = fleet;
+            this.specifications = specifications;
+        }
+    }
+    
+    /*
+    The target of a fleet, and the launches and terminations in flight by instance ID with the time they were made.
+    Only the target and the status are read outside the scheduler thread.
+     */
+    private static final class Fleet {
+        private final Map<String, Long> launching = new HashMap<>();
+        private final Map<String, Long> terminating = new HashMap<>();
+        private final Map<String, LaunchSpecifications> launched = new HashMap<>();
+        private volatile FleetTarget target;
+        private volatile FleetStatus status;
+        private int running = 0;
+        
+        private Fleet(FleetTarget target) {
+            this.target = target;
+            this.status = new FleetStatus(target.getName(), target.getCount(), 0, 0, 0, null, null);
+        }
+        
+        /**
+         * Picks the instances of the fleet out of the instances of its region, and settles the launches and
+         * terminations which the inventory shows or which are older than the settle time.
+         *
+         * @return The instances of the fleet which are not being terminated
+         */
+        private List<ComputeInstance> observe(List<ComputeInstance> instances, long nowNanos, long settleNanos) {
+            InstanceQuery.Builder builder = InstanceQuery.builder(target.getRegion());
+            target.getTags().forEach(builder::tag);
+            InstanceQuery query = builder.build();
+            Map<String, ComputeInstance> members = new LinkedHashMap<>();
+            for (ComputeInstance instance : instances) {
+                if (query.matches(instance)) {
+                    members.put(instance.getInstanceID(), instance);
+                }
+            }
+            launching.keySet().removeAll(members.keySet());
+            terminating.keySet().retainAll(members.keySet());
+            expire(launching, nowNanos, settleNanos);
+            expire(terminating, nowNanos, settleNanos);
+            Set<String> known = new HashSet<>(members.keySet());
+            known.addAll(launching.keySet());
+            launched.keySet().retainAll(known);
+            members.keySet().removeAll(terminating.keySet());
+            running = members.size();
+            return new ArrayList<>(members.values());
+        }
+        
+        /**
+         * @return new launch specifications of the fleet, with the tags of the fleet added to theirs
+         */
+        private LaunchSpecifications newInstance() {
+            LaunchSpecifications specifications = target.getSpecifications().get();
+            Map<String, String> tags = new LinkedHashMap<>();
+            if (specifications.getTags() != null) {
+                tags.putAll(specifications.getTags());
+            }
+            tags.putAll(target.getTags());
+            specifications.setTags(tags);
+            return specifications;
+        }
+        
+        /**
+         * @return The launch specifications of an instance of the fleet. An instance launched elsewhere gets new
+         * specifications naming the instance by its Name tag, or null if they cannot hold its region.
+         */
+        private LaunchSpecifications specificationsOf(ComputeInstance instance) {
+            LaunchSpecifications specifications = launched.get(instance.getInstanceID());
+            if (specifications != null) {
+                return specifications;
+            }
+            specifications = target.getSpecifications().get();
+            try {
+                specifications.setRegion(instance.getRegion());
+            }
+            catch (CloudExceptions e) {
+                return null;
+            }
+            specifications.setInstanceID(instance.getInstanceID());
+            specifications.setInstanceName(instance.getTags().get(NAME_TAG));
+            return specifications;
+        }
+        
+        private void report(int running, Instant now, CloudExceptions error) {
+            status = new FleetStatus(target.getName(), target.getCount(), running, launching.size(),
+                    terminating.size(), now, error);
+        }
+        
+        private static void expire(Map<String, Long> inFlight, long nowNanos, long settleNanos) {
+            Iterator<Long> times = inFlight.values().iterator();
+            while (times.hasNext()) {
+                if (nowNanos - times.next() >= settleNanos) {
+                    times.remove();
+                }
+            }
+        }
+    }
+    
+    public static final class Builder {
+        private final List<FleetTarget> targets = new ArrayList<>();
+        private CloudAccessor accessor = null;
+        private String accessKey = null;
+        private String secretKey = null;
+        private Duration interval = DEFAULT_INTERVAL;
+        private Duration settleTime = DEFAULT_SETTLE_TIME;
+        private int maxLaunches = DEFAULT_MAX_LAUNCHES;
+        private int maxTerminations = DEFAULT_MAX_TERMINATIONS;
+        
+        private Builder() {
+        }
+        
+        /**
+         * @param accessor The accessor listing, launching and terminating the instances. It is not closed with the
+         *                 reconciler.
+         * @return this builder
+         */
+        public Builder accessor(CloudAccessor accessor) {
+            this.accessor = accessor;
+            return this;
+        }
+        
+        /**
+         * @param accessKey The access key of the instances. The credentials of the instance on which the
+         *                  application is running are used if not set.
+         * @param secretKey The secret key of the instances
+         * @return this builder
+         */
+        public Builder credentials(String accessKey, String secretKey) {
+            this.accessKey = accessKey;
+            this.secretKey = secretKey;
+            return this;
+        }
+        
+        /**
+         * Adds a fleet. More can be added to the reconciler once built.
+         *
+         * @param target The desired state of the fleet
+         * @return this builder
+         */
+        public Builder target(FleetTarget target) {
+            this.targets.add(target);
+            return this;
+        }
+        
+        /**
+         * @param interval Interval between two iterations, on top of the iterations run when a target changes.
+         *                 Defaults to 30 seconds.
+         * @return this builder
+         */
+        public Builder interval(Duration interval) {
+            this.interval = interval;
+            return this;
+        }
+        
+        /**
+         * @param maxLaunches Maximum number of instances launched by an iteration, for all the fleets. Defaults to 50.
+         * @return this builder
+         */
+        public Builder maxLaunchesPerIteration(int maxLaunches) {
+            this.maxLaunches = maxLaunches;
+            return this;
+        }
+        
+        /**
+         * @param maxTerminations Maximum number of instances terminated by an iteration, for all the fleets. Defaults
+         *                        to 50.
+         * @return this builder
+         */
+        public Builder maxTerminationsPerIteration(int maxTerminations) {
+            this.maxTerminations = maxTerminations;
+            return this;
+        }
+        
+        /**
+         * @param settleTime Time after which a launch the inventory does not show, or a termination it still shows,
+         *                   is no longer accounted for. Defaults to 5 minutes.
+         * @return this builder
+         */
+        public Builder settleTime(Duration settleTime) {
+            this.settleTime = settleTime;
+            return this;
+        }
+        
+        public FleetReconciler build() {
+            if (accessor == null) {
+                throw new IllegalArgumentException("The accessor is required");
+            }
+            if (accessKey != null && secretKey == null) {
+                throw new IllegalArgumentException("The secret key is required with an access key");
+            }
+            if (interval == null || interval.isZero() || interval.isNegative()) {
+                throw new IllegalArgumentException("The interval must be positive");
+            }
+            if (settleTime == null || settleTime.isZero() || settleTime.isNegative()) {
+                throw new IllegalArgumentException("The settle time must be positive");
+            }
+            if (maxLaunches < 1 || maxTerminations < 1) {
+                throw new IllegalArgumentException("The launches and terminations per iteration must be positive");
+            }
+            Set<String> names = new HashSet<>();
+            for (FleetTarget target : targets) {
+                if (target == null || !names.add(target.getName())) {
+                    throw new IllegalArgumentException("The targets must be set and have different names");
+                }
+            }
+            return new FleetReconciler(this);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Fleet;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.time.Instant;
+
+/**
+ * State of a fleet as seen by the last iteration of the reconciler which covered it.
+ */
+public final class FleetStatus {
+    private final String name;
+    private final int desired;
+    private final int running;
+    private final int launching;
+    private final int terminating;
+    private final Instant reconciled;
+    private final CloudExceptions lastError;
+    
+    FleetStatus(String name, int desired, int running, int launching, int terminating, Instant reconciled,
+                CloudExceptions lastError) {
+        this.name = name;
+        this.desired = desired;
+        this.running = running;
+        this.launching = launching;
+        this.terminating = terminating;
+        this.reconciled = reconciled;
+        this.lastError = lastError;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int getDesired() {
+        return desired;
+    }
+    
+    /**
+     * @return The number of pending or running instances of the fleet in the inventory, without those being
+     * terminated
+     */
+    public int getRunning() {
+        return running;
+    }
+    
+    /**
+     * @return The number of instances launched by the reconciler which the inventory does not show yet
+     */
+    public int getLaunching() {
+        return launching;
+    }
+    
+    /**
+     * @return The number of instances terminated by the reconciler which the inventory still shows
+     */
+    public int getTerminating() {
+        return terminating;
+    }
+    
+    /**
+     * @return Time of the last iteration covering the fleet. Null before the first one.
+     */
+    public Instant getReconciled() {
+        return reconciled;
+    }
+    
+    /**
+     * @return The error of the last iteration covering the fleet. Null if it succeeded.
+     */
+    public CloudExceptions getLastError() {
+        return lastError;
+    }
+    
+    /**
+     * @return true if the fleet has its desired number of instances, without launches or terminations under way
+     */
+    public boolean isConverged() {
+        return running == desired && launching == 0 && terminating == 0;
+    }
+    
+    @Override
+    public String toString() {
+        return "FleetStatus{name=" + name + ", desired=" + desired + ", running=" + running + ", launching=" +
+                launching + ", terminating=" + terminating + ", reconciled=" + reconciled + ", lastError=" +
+                lastError + '}';
+    }
+}
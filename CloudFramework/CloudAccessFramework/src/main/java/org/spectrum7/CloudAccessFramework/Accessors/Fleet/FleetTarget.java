@@ -0,0 +1,130 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Fleet;
+
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Desired state of a fleet: the number of instances of a launch shape which should be running in a region. The
+ * instances of the fleet are the ones carrying all its tags, which are added to the instances it launches.
+ */
+public final class FleetTarget {
+    private final String name;
+    private final String region;
+    private final int count;
+    private final Map<String, String> tags;
+    private final Supplier<LaunchSpecifications> specifications;
+    
+    private FleetTarget(Builder builder) {
+        this.name = builder.name;
+        this.region = builder.region;
+        this.count = builder.count;
+        this.tags = Collections.unmodifiableMap(new LinkedHashMap<>(builder.tags));
+        this.specifications = builder.specifications;
+    }
+    
+    /**
+     * @param name Name of the fleet, unique within a reconciler
+     * @return Builder of the target
+     */
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public String getRegion() {
+        return region;
+    }
+    
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * @return The tags identifying the instances of the fleet
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+    
+    public Supplier<LaunchSpecifications> getSpecifications() {
+        return specifications;
+    }
+    
+    /**
+     * @param count The new number of instances
+     * @return A target identical to this one but for the number of instances
+     */
+    public FleetTarget withCount(int count) {
+        return builder(name).region(region).count(count).tags(tags).specifications(specifications).build();
+    }
+    
+    @Override
+    public String toString() {
+        return "FleetTarget{name=" + name + ", region=" + region + ", count=" + count + ", tags=" + tags + '}';
+    }
+    
+    public static final class Builder {
+        private final String name;
+        private final Map<String, String> tags = new LinkedHashMap<>();
+        private String region = null;
+        private int count = 0;
+        private Supplier<LaunchSpecifications> specifications = null;
+        
+        private Builder(String name) {
+            this.name = name;
+        }
+        
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+        
+        public Builder count(int count) {
+            this.count = count;
+            return this;
+        }
+        
+        public Builder tag(String key, String value) {
+            this.tags.put(key, value);
+            return this;
+        }
+        
+        public Builder tags(Map<String, String> tags) {
+            this.tags.putAll(tags);
+            return this;
+        }
+        
+        /**
+         * @param specifications Creates the launch specifications of a new instance of the fleet, in the region of
+         *                       the fleet. Each call must return new specifications.
+         * @return this builder
+         */
+        public Builder specifications(Supplier<LaunchSpecifications> specifications) {
+            this.specifications = specifications;
+            return this;
+        }
+        
+        public FleetTarget build() {
+            if (name == null || name.isEmpty() || region == null || region.isEmpty()) {
+                throw new IllegalArgumentException("A fleet needs a name and a region");
+            }
+            if (count < 0) {
+                throw new IllegalArgumentException("The number of instances of a fleet cannot be negative");
+            }
+            if (tags.isEmpty() || tags.containsValue(null)) {
+                throw new IllegalArgumentException("A fleet needs tags with values to identify its instances");
+            }
+            if (specifications == null) {
+                throw new IllegalArgumentException("A fleet needs launch specifications");
+            }
+            return new FleetTarget(this);
+        }
+    }
+}
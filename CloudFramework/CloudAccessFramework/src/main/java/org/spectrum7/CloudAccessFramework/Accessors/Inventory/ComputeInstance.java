@@ -0,0 +1,233 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Inventory;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of a compute instance as known to the inventory.
+ */
+public final class ComputeInstance {
+    private final String instanceID;
+    private final String region;
+    private final ComputeInstanceState state;
+    private final String instanceType;
+    private final String imageID;
+    private final String subnetID;
+    private final String vpcID;
+    private final String privateIPAddress;
+    private final String publicIPAddress;
+    private final String publicHostName;
+    private final Instant launchTime;
+    private final Map<String, String> tags;
+    
+    private ComputeInstance(Builder builder) {
+        this.instanceID = Objects.requireNonNull(builder.instanceID, "instanceID");
+        this.region = Objects.requireNonNull(builder.region, "region");
+        this.state = builder.state != null ? builder.state : ComputeInstanceState.UNKNOWN;
+        this.instanceType = builder.instanceType;
+        this.imageID = builder.imageID;
+        this.subnetID = builder.subnetID;
+        this.vpcID = builder.vpcID;
+        this.privateIPAddress = builder.privateIPAddress;
+        this.publicIPAddress = builder.publicIPAddress;
+        this.publicHostName = builder.publicHostName;
+        this.launchTime = builder.launchTime;
+        this.tags = Collections.unmodifiableMap(new LinkedHashMap<>(builder.tags));
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+    
+    public String getInstanceID() {
+        return instanceID;
+    }
+    
+    public String getRegion() {
+        return region;
+    }
+    
+    public ComputeInstanceState getState() {
+        return state;
+    }
+    
+    public String getInstanceType() {
+        return instanceType;
+    }
+    
+    public String getImageID() {
+        return imageID;
+    }
+    
+    public String getSubnetID() {
+        return subnetID;
+    }
+    
+    public String getVpcID() {
+        return vpcID;
+    }
+    
+    public String getPrivateIPAddress() {
+        return privateIPAddress;
+    }
+    
+    public String getPublicIPAddress() {
+        return publicIPAddress;
+    }
+    
+    public String getPublicHostName() {
+        return publicHostName;
+    }
+    
+    public Instant getLaunchTime() {
+        return launchTime;
+    }
+    
+    /**
+     * @return Unmodifiable map of the tags of the instance
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ComputeInstance)) {
+            return false;
+        }
+        ComputeInstance that = (ComputeInstance) o;
+        return instanceID.equals(that.instanceID) && region.equals(that.region) && state == that.state &&
+                Objects.equals(instanceType, that.instanceType) && Objects.equals(imageID, that.imageID) &&
+                Objects.equals(subnetID, that.subnetID) && Objects.equals(vpcID, that.vpcID) &&
+                Objects.equals(privateIPAddress, that.privateIPAddress) &&
+                Objects.equals(publicIPAddress, that.publicIPAddress) &&
+                Objects.equals(publicHostName, that.publicHostName) && Objects.equals(launchTime, that.launchTime) &&
+                tags.equals(that.tags);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(instanceID, region, state);
+    }
+    
+    @Override
+    public String toString() {
+        return "ComputeInstance{" + instanceID + ", " + region + ", " + state + '}';
+    }
+    
+    public static final class Builder {
+        private String instanceID;
+        private String region;
+        private ComputeInstanceState state;
+        private String instanceType;
+        private String imageID;
+        private String subnetID;
+        private String vpcID;
+        private String privateIPAddress;
+        private String publicIPAddress;
+        private String publicHostName;
+        private Instant launchTime;
+        private Map<String, String> tags = new LinkedHashMap<>();
+        
+        private Builder() {
+        }
+        
+        private Builder(ComputeInstance instance) {
+            this.instanceID = instance.instanceID;
+            this.region = instance.region;
+            this.state = instance.state;
+            this.instanceType = instance.instanceType;
+            this.imageID = instance.imageID;
+            this.subnetID = instance.subnetID;
+            this.vpcID = instance.vpcID;
+            this.privateIPAddress = instance.privateIPAddress;
+            this.publicIPAddress = instance.publicIPAddress;
+            this.publicHostName = instance.publicHostName;
+            this.launchTime = instance.launchTime;
+            this.tags = new LinkedHashMap<>(instance.tags);
+        }
+        
+        public Builder instanceID(String instanceID) {
+            this.instanceID = instanceID;
+            return this;
+        }
+        
+        public Builder region(String region) {
+            this.region = region;
+            return this;
+        }
+        
+        public Builder state(ComputeInstanceState state) {
+            this.state = state;
+            return this;
+        }
+        
+        public Builder instanceType(String instanceType) {
+            this.instanceType = instanceType;
+            return this;
+        }
+        
+        public Builder imageID(String imageID) {
+            this.imageID = imageID;
+            return this;
+        }
+        
+        public Builder subnetID(String subnetID) {
+            this.subnetID = subnetID;
+            return this;
+        }
+        
+        public Builder vpcID(String vpcID) {
+            this.vpcID = vpcID;
+            return this;
+        }
+        
+        public Builder privateIPAddress(String privateIPAddress) {
+            this.privateIPAddress = privateIPAddress;
+            return this;
+        }
+        
+        public Builder publicIPAddress(String publicIPAddress) {
+            this.publicIPAddress = publicIPAddress;
+            return this;
+        }
+        
+        public Builder publicHostName(String publicHostName) {
+            this.publicHostName = publicHostName;
+            return this;
+        }
+        
+        public Builder launchTime(Instant launchTime) {
+            this.launchTime = launchTime;
+            return this;
+        }
+        
+        /**
+         * @param tags Tags of the instance, replacing the tags set before
+         * @return this builder
+         */
+        public Builder tags(Map<String, String> tags) {
+            this.tags = tags == null ? new LinkedHashMap<>() : new LinkedHashMap<>(tags);
+            return this;
+        }
+        
+        public Builder tag(String key, String value) {
+            this.tags.put(key, value);
+            return this;
+        }
+        
+        public ComputeInstance build() {
+            return new ComputeInstance(this);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Inventory;
+
+/**
+ * Lifecycle state of a compute instance, common to all the cloud providers.
+ */
+public enum ComputeInstanceState {
+    PENDING,
+    RUNNING,
+    STOPPING,
+    STOPPED,
+    SHUTTING_DOWN,
+    TERMINATED,
+    UNKNOWN;
+    
+    /**
+     * @return true if the instance is moving between two states, and is expected to change state on its own
+     */
+    public boolean isTransitional() {
+        return this == PENDING || this == STOPPING || this == SHUTTING_DOWN;
+    }
+}
@@ -0,0 +1,271 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Inventory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of compute instances by instance ID, tag, subnet, VPC and state. Queries start from the smallest
+ * of the index entries matching their criteria and check the remaining criteria on those instances only, so they
+ * do not scan the whole inventory.
+ * <p>
+ * Every change is numbered. A full listing of the instances started at a given point (see {@link #mark()}) does not
+ * overwrite the changes applied after that point, which may be more recent than the listing.
+ */
+public class InstanceIndex {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Entry> instances = new HashMap<>();
+    private final Map<String, Set<String>> bySubnet = new HashMap<>();
+    private final Map<String, Set<String>> byVpc = new HashMap<>();
+    private final Map<ComputeInstanceState, Set<String>> byState = new EnumMap<>(ComputeInstanceState.class);
+    private final Map<String, Set<String>> byTagKey = new HashMap<>();
+    private final Map<String, Map<String, Set<String>>> byTag = new HashMap<>();
+    private long sequence = 0;
+    
+    /**
+     * @return The number of the last change, to pass to {@link #replaceAll(Collection, Collection, long)}
+     */
+    public long mark() {
+        lock.readLock().lock();
+        try {
+            return sequence;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Adds an instance or replaces the instance with the same ID.
+     *
+     * @param instance Current state of the instance
+     */
+    public void put(ComputeInstance instance) {
+        lock.writeLock().lock();
+        try {
+            put(instance, ++sequence);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @param instanceID ID of an instance which no longer exists
+     */
+    public void remove(String instanceID) {
+        lock.writeLock().lock();
+        try {
+            sequence++;
+            Entry entry = instances.remove(instanceID);
+            if (entry != null) {
+                unindex(entry.instance);
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Applies a full listing of a set of instances. The instances of the listing are added or replaced, and the
+     * instances in scope which are missing from the listing are removed, except for the instances changed after the
+     * listing started.
+     *
+     * @param listed      The instances returned by the listing
+     * @param scope       IDs of the instances the listing covered
+     * @param listingMark Value of {@link #mark()} taken before the listing started
+     */
+    public void replaceAll(Collection<ComputeInstance> listed, Collection<String> scope, long listingMark) {
+        lock.writeLock().lock();
+        try {
+            long change = ++sequence;
+            Set<String> listedIDs = new HashSet<>();
+            for (ComputeInstance instance : listed) {
+                listedIDs.add(instance.getInstanceID());
+                Entry entry = instances.get(instance.getInstanceID());
+                if (entry == null || entry.sequence <= listingMark) {
+                    put(instance, change);
+                }
+            }
+            for (String instanceID : scope) {
+                Entry entry = instances.get(instanceID);
+                if (entry != null && entry.sequence <= listingMark && !listedIDs.contains(instanceID)) {
+                    instances.remove(instanceID);
+                    unindex(entry.instance);
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * @param instanceID ID of the instance
+     * @return The instance. Null if it is not in the index.
+     */
+    public ComputeInstance get(String instanceID) {
+        lock.readLock().lock();
+        try {
+            Entry entry = instances.get(instanceID);
+            return entry == null ? null : entry.instance;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return IDs of all the instances in the index
+     */
+    public Set<String> instanceIDs() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(instances.keySet());
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @param query Criteria of the instances
+     * @return The instances matching the query
+     */
+    public List<ComputeInstance> query(InstanceQuery query) {
+        lock.readLock().lock();
+        try {
+            Collection<String> candidates = candidates(query);
+            List<ComputeInstance> result = new ArrayList<>();
+            for (String instanceID : candidates) {
+                Entry entry = instances.get(instanceID);
+                if (entry != null && query.matches(entry.instance)) {
+                    result.add(entry.instance);
+                }
+            }
+            return result;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return instances.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /*
+    The smallest set of instance IDs which contains all the matches of the query.
+     */
+    private Collection<String> candidates(InstanceQuery query) {
+        Collection<String> smallest = instances.keySet();
+        if (query.getInstanceIDs() != null) {
+            smallest = smaller(smallest, query.getInstanceIDs());
+        }
+        if (query.getSubnetID() != null) {
+            smallest = smaller(smallest, bySubnet.getOrDefault(query.getSubnetID(), Collections.emptySet()));
+        }
+        if (query.getVpcID() != null) {
+            smallest = smaller(smallest, byVpc.getOrDefault(query.getVpcID(), Collections.emptySet()));
+        }
+        if (query.getStates() != null) {
+            List<String> inStates = new ArrayList<>();
+            for (ComputeInstanceState state : query.getStates()) {
+                inStates.addAll(byState.getOrDefault(state, Collections.emptySet()));
+            }
+            smallest = smaller(smallest, inStates);
+        }
+        for (Map.Entry<String, String> tag : query.getTags().entrySet()) {
+            Set<String> tagged;
+            if (tag.getValue() == null) {
+                tagged = byTagKey.getOrDefault(tag.getKey(), Collections.emptySet());
+            }
+            else {
+                tagged = byTag.getOrDefault(tag.getKey(), Collections.emptyMap())
+                        .getOrDefault(tag.getValue(), Collections.emptySet());
+            }
+            smallest = smaller(smallest, tagged);
+        }
+        return smallest;
+    }
+    
+    private static Collection<String> smaller(Collection<String> a, Collection<String> b) {
+        return b.size() < a.size() ? b : a;
+    }
+    
+    private void put(ComputeInstance instance, long change) {
+        Entry previous = instances.put(instance.getInstanceID(), new Entry(instance, change));
+        if (previous != null) {
+            unindex(previous.instance);
+        }
+        String instanceID = instance.getInstanceID();
+        add(bySubnet, instance.getSubnetID(), instanceID);
+        add(byVpc, instance.getVpcID(), instanceID);
+        byState.computeIfAbsent(instance.getState(), s -> new HashSet<>()).add(instanceID);
+        for (Map.Entry<String, String> tag : instance.getTags().entrySet()) {
+            add(byTagKey, tag.getKey(), instanceID);
+            add(byTag.computeIfAbsent(tag.getKey(), k -> new HashMap<>()), tag.getValue(), instanceID);
+        }
+    }
+    
+    private void unindex(ComputeInstance instance) {
+        String instanceID = instance.getInstanceID();
+        remove(bySubnet, instance.getSubnetID(), instanceID);
+        remove(byVpc, instance.getVpcID(), instanceID);
+        remove(byState, instance.getState(), instanceID);
+        for (Map.Entry<String, String> tag : instance.getTags().entrySet()) {
+            remove(byTagKey, tag.getKey(), instanceID);
+            Map<String, Set<String>> values = byTag.get(tag.getKey());
+            if (values != null) {
+                remove(values, tag.getValue(), instanceID);
+                if (values.isEmpty()) {
+                    byTag.remove(tag.getKey());
+                }
+            }
+        }
+    }
+    
+    private static <K> void add(Map<K, Set<String>> index, K key, String instanceID) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new HashSet<>()).add(instanceID);
+        }
+    }
+    
+    private static <K> void remove(Map<K, Set<String>> index, K key, String instanceID) {
+        if (key == null) {
+            return;
+        }
+        Set<String> instanceIDs = index.get(key);
+        if (instanceIDs != null) {
+            instanceIDs.remove(instanceID);
+            if (instanceIDs.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+    
+    private static final class Entry {
+        private final ComputeInstance instance;
+        private final long sequence;
+        
+        private Entry(ComputeInstance instance, long sequence) {
+            this.instance = instance;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Inventory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Criteria for selecting instances from the inventory of a region. An instance matches when it matches every
+ * criterion which is set. Criteria which are not set match all the instances.
+ */
+public final class InstanceQuery {
+    private final String region;
+    private final Set<String> instanceIDs;
+    private final Set<ComputeInstanceState> states;
+    private final String subnetID;
+    private final String vpcID;
+    private final Map<String, String> tags;
+    
+    private InstanceQuery(Builder builder) {
+        this.region = builder.region;
+        this.instanceIDs = builder.instanceIDs == null ? null : Collections.unmodifiableSet(builder.instanceIDs);
+        this.states = builder.states == null ? null : Collections.unmodifiableSet(builder.states);
+        this.subnetID = builder.subnetID;
+        this.vpcID = builder.vpcID;
+        this.tags = Collections.unmodifiableMap(builder.tags);
+    }
+    
+    /**
+     * @param region Region of the instances
+     * @return Builder of a query on the instances of the region
+     */
+    public static Builder builder(String region) {
+        return new Builder(region);
+    }
+    
+    public String getRegion() {
+        return region;
+    }
+    
+    /**
+     * @return The instance IDs to select. Null if the query is not restricted to instance IDs.
+     */
+    public Set<String> getInstanceIDs() {
+        return instanceIDs;
+    }
+    
+    /**
+     * @return The states to select. Null if the query is not restricted to states.
+     */
+    public Set<ComputeInstanceState> getStates() {
+        return states;
+    }
+    
+    public String getSubnetID() {
+        return subnetID;
+    }
+    
+    public String getVpcID() {
+        return vpcID;
+    }
+    
+    /**
+     * @return Tags the instances should have. A null value matches any value of the tag.
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+    
+    /**
+     * @param instance Instance from the inventory
+     * @return true if the instance matches all the criteria of the query
+     */
+    public boolean matches(ComputeInstance instance) {
+        if (!region.equals(instance.getRegion())) {
+            return false;
+        }
+        if (instanceIDs != null && !instanceIDs.contains(instance.getInstanceID())) {
+            return false;
+        }
+        if (states != null && !states.contains(instance.getState())) {
+            return false;
+        }
+        if (subnetID != null && !subnetID.equals(instance.getSubnetID())) {
+            return false;
+        }
+        if (vpcID != null && !vpcID.equals(instance.getVpcID())) {
+            return false;
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            String value = instance.getTags().get(tag.getKey());
+            if (value == null || (tag.getValue() != null && !tag.getValue().equals(value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public static final class Builder {
+        private final String region;
+        private final Map<String, String> tags = new LinkedHashMap<>();
+        private Set<String> instanceIDs = null;
+        private Set<ComputeInstanceState> states = null;
+        private String subnetID = null;
+        private String vpcID = null;
+        
+        private Builder(String region) {
+            if (region == null || region.isEmpty()) {
+                throw new IllegalArgumentException("A region is required");
+            }
+            this.region = region;
+        }
+        
+        /**
+         * @param instanceIDs Instance IDs to select
+         * @return this builder
+         */
+        public Builder instanceIDs(Collection<String> instanceIDs) {
+            this.instanceIDs = new HashSet<>(instanceIDs);
+            return this;
+        }
+        
+        /**
+         * @param states States to select
+         * @return this builder
+         */
+        public Builder states(ComputeInstanceState... states) {
+            this.states = EnumSet.noneOf(ComputeInstanceState.class);
+            Collections.addAll(this.states, states);
+            return this;
+        }
+        
+        public Builder subnetID(String subnetID) {
+            this.subnetID = subnetID;
+            return this;
+        }
+        
+        public Builder vpcID(String vpcID) {
+            this.vpcID = vpcID;
+            return this;
+        }
+        
+        /**
+         * @param key   Key of a tag the instances should have
+         * @param value Value of the tag. Null to match any value.
+         * @return this builder
+         */
+        public Builder tag(String key, String value) {
+            this.tags.put(key, value);
+            return this;
+        }
+        
+        public InstanceQuery build() {
+            return new InstanceQuery(this);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.spectrum7.CloudAccessFramework.Accessors;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+/**
+ * Outcome of launching a single instance as part of a batch launch. When the instance was launched, the launch
+ * specifications are filled in with the instance details. Otherwise the error describes why it was not launched.
+ */
+public class LaunchResult {
+    private final LaunchSpecifications launchSpecifications;
+    private final Status status;
+    private final CloudExceptions error;
+    
+    private LaunchResult(LaunchSpecifications launchSpecifications, Status status, CloudExceptions error) {
+        this.launchSpecifications = launchSpecifications;
+        this.status = status;
+        this.error = error;
+    }
+    
+    public static LaunchResult launched(LaunchSpecifications launchSpecifications) {
+        return new LaunchResult(launchSpecifications, Status.LAUNCHED, null);
+    }
+    
+    public static LaunchResult insufficientCapacity(LaunchSpecifications launchSpecifications, CloudExceptions error) {
+        return new LaunchResult(launchSpecifications, Status.INSUFFICIENT_CAPACITY, error);
+    }
+    
+    public static LaunchResult failed(LaunchSpecifications launchSpecifications, CloudExceptions error) {
+        return new LaunchResult(launchSpecifications, Status.FAILED, error);
+    }
+    
+    /**
+     * @return The launch specifications passed by the caller
+     */
+    public LaunchSpecifications getLaunchSpecifications() {
+        return launchSpecifications;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    /**
+     * @return The reason the instance was not launched. Null if the instance was launched.
+     */
+    public CloudExceptions getError() {
+        return error;
+    }
+    
+    public boolean isLaunched() {
+        return status == Status.LAUNCHED;
+    }
+    
+    public enum Status {
+        /**
+         * The instance was launched
+         */
+        LAUNCHED,
+        /**
+         * The cloud provider did not have enough capacity to launch the instance. The launch can be retried later or
+         * with a different instance type or subnet.
+         */
+        INSUFFICIENT_CAPACITY,
+        /**
+         * The launch failed for any other reason
+         */
+        FAILED
+    }
+}
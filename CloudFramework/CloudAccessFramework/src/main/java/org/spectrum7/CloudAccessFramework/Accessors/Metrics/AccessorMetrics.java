@@ -0,0 +1,67 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Metrics;
+
+import java.util.Collections;
+
+/**
+ * Metrics of the operations made by the accessors. Every operation is tagged with the cloud provider, the region and
+ * the API action, and is timed from start to end including the waits for rate limit permits and the retries.
+ * <p>
+ * Implementations are called on the request path of every API call, and should be cheap and non blocking.
+ */
+public interface AccessorMetrics {
+    /**
+     * Starts timing an operation. The operation is counted as in flight until the timer is ended.
+     *
+     * @param provider Name of the cloud provider, for instance "aws"
+     * @param region   Region of the operation
+     * @param action   Name of the API action or of the local operation
+     * @return OperationTimer to end exactly once with {@link OperationTimer#success()} or
+     * {@link OperationTimer#failure()}
+     */
+    OperationTimer start(String provider, String region, String action);
+    
+    /**
+     * @return Point in time copy of all the metrics recorded so far
+     */
+    MetricsSnapshot snapshot();
+    
+    /**
+     * @return AccessorMetrics which records nothing
+     */
+    static AccessorMetrics noop() {
+        return NoopMetrics.INSTANCE;
+    }
+    
+    final class NoopMetrics implements AccessorMetrics, OperationTimer {
+        private static final NoopMetrics INSTANCE = new NoopMetrics();
+        
+        private NoopMetrics() {
+        }
+        
+        @Override
+        public OperationTimer start(String provider, String region, String action) {
+            return this;
+        }
+        
+        @Override
+        public MetricsSnapshot snapshot() {
+            return new MetricsSnapshot(Collections.emptyList());
+        }
+        
+        @Override
+        public void attempt(long durationNanos) {
+        }
+        
+        @Override
+        public void throttled() {
+        }
+        
+        @Override
+        public void success() {
+        }
+        
+        @Override
+        public void failure() {
+        }
+    }
+}
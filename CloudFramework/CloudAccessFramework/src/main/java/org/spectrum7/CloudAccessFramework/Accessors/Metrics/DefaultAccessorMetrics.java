@@ -0,0 +1,137 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free in-memory AccessorMetrics. The metrics of each (provider, region, action) are held in LongAdder counters
+ * and LatencyHistograms, so that concurrent operations do not contend on a lock. Recording an operation costs a
+ * map lookup, a few atomic increments and two histogram updates, which is cheap enough to keep enabled in
+ * production.
+ */
+public class DefaultAccessorMetrics implements AccessorMetrics {
+    private final Map<MetricKey, OperationMetrics> operations = new ConcurrentHashMap<>();
+    
+    @Override
+    public OperationTimer start(String provider, String region, String action) {
+        MetricKey key = new MetricKey(provider, region, action);
+        OperationMetrics metrics = operations.get(key);
+        if (metrics == null) {
+            metrics = operations.computeIfAbsent(key, k -> new OperationMetrics());
+        }
+        metrics.inFlight.increment();
+        return new Timer(metrics);
+    }
+    
+    @Override
+    public MetricsSnapshot snapshot() {
+        List<OperationSnapshot> snapshots = new ArrayList<>(operations.size());
+        operations.forEach((key, metrics) -> snapshots.add(new OperationSnapshot(key.provider, key.region,
+                key.action, metrics.successes.sum(), metrics.failures.sum(), metrics.throttles.sum(),
+                metrics.attempts.sum(), metrics.inFlight.sum(), metrics.latency.snapshot(),
+                metrics.delay.snapshot())));
+        snapshots.sort(Comparator.comparing(OperationSnapshot::getProvider)
+                .thenComparing(OperationSnapshot::getRegion)
+                .thenComparing(OperationSnapshot::getAction));
+        return new MetricsSnapshot(snapshots);
+    }
+    
+    private static final class OperationMetrics {
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder throttles = new LongAdder();
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram delay = new LatencyHistogram();
+    }
+    
+    /*
+    A timer belongs to one operation, but a hedged operation records its attempts from several threads at once, so
+    its own fields are atomic. The attempts of a hedged operation overlap, so the delay is floored at zero.
+     */
+    private static final class Timer implements OperationTimer {
+        private final OperationMetrics metrics;
+        private final long startNanos = System.nanoTime();
+        private final LongAdder attemptNanos = new LongAdder();
+        private final AtomicBoolean ended = new AtomicBoolean(false);
+        
+        private Timer(OperationMetrics metrics) {
+            this.metrics = metrics;
+        }
+        
+        @Override
+        public void attempt(long durationNanos) {
+            attemptNanos.add(durationNanos);
+            metrics.attempts.increment();
+        }
+        
+        @Override
+        public void throttled() {
+            metrics.throttles.increment();
+        }
+        
+        @Override
+        public void success() {
+            if (end()) {
+                metrics.successes.increment();
+            }
+        }
+        
+        @Override
+        public void failure() {
+            if (end()) {
+                metrics.failures.increment();
+            }
+        }
+        
+        private boolean end() {
+            if (!ended.compareAndSet(false, true)) {
+                return false;
+            }
+            long latency = System.nanoTime() - startNanos;
+            metrics.inFlight.decrement();
+            metrics.latency.record(latency);
+            long attempted = attemptNanos.sum();
+            if (attempted > 0) {
+                metrics.delay.record(Math.max(0, latency - attempted));
+            }
+            return true;
+        }
+    }
+    
+    private static final class MetricKey {
+        private final String provider;
+        private final String region;
+        private final String action;
+        
+        private MetricKey(String provider, String region, String action) {
+            this.provider = String.valueOf(provider);
+            this.region = String.valueOf(region);
+            this.action = String.valueOf(action);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof MetricKey)) {
+                return false;
+            }
+            MetricKey that = (MetricKey) o;
+            return provider.equals(that.provider) && region.equals(that.region) && action.equals(that.action);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(provider, region, action);
+        }
+    }
+}
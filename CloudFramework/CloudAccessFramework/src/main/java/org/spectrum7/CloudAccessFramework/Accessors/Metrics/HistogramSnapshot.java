@@ -0,0 +1,73 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Metrics;
+
+/**
+ * Point in time copy of a LatencyHistogram.
+ */
+public final class HistogramSnapshot {
+    private final long[] bucketCounts;
+    private final long count;
+    private final long sum;
+    private final long max;
+    
+    HistogramSnapshot(long[] bucketCounts, long count, long sum, long max) {
+        this.bucketCounts = bucketCounts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+    
+    /**
+     * @return Number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+    
+    /**
+     * @return Sum of the recorded values in nanoseconds
+     */
+    public long getSum() {
+        return sum;
+    }
+    
+    /**
+     * @return Largest recorded value in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+    
+    /**
+     * @return Mean of the recorded values in nanoseconds. 0 if nothing was recorded.
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+    
+    /**
+     * @param percentile Percentile between 0 and 100, for instance 99.9
+     * @return Upper bound of the bucket holding the value at the percentile, in nanoseconds, capped at the largest
+     * recorded value. 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile should be between 0 and 100");
+        }
+        long total = 0;
+        for (long bucketCount : bucketCounts) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < bucketCounts.length; bucket++) {
+            seen += bucketCounts[bucket];
+            if (seen >= rank) {
+                return Math.min(max, LatencyHistogram.bucketUpperBound(bucket));
+            }
+        }
+        return max;
+    }
+}
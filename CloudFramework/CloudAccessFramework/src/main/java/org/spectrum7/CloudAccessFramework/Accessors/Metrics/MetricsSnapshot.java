@@ -0,0 +1,89 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Point in time copy of the metrics of all the operations, with an export to the Prometheus text format.
+ */
+public final class MetricsSnapshot {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+    private final List<OperationSnapshot> operations;
+    
+    public MetricsSnapshot(List<OperationSnapshot> operations) {
+        this.operations = Collections.unmodifiableList(operations);
+    }
+    
+    public List<OperationSnapshot> getOperations() {
+        return operations;
+    }
+    
+    /**
+     * Exports the metrics in the Prometheus text exposition format, with the durations in seconds. Latencies and
+     * delays are exported as summaries with the 0.5, 0.9, 0.99 and 0.999 quantiles.
+     *
+     * @return The metrics, one sample per line
+     */
+    public String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        counter(text, "cloud_accessor_operations_total", "Operations ended, by outcome", true);
+        counter(text, "cloud_accessor_attempts_total", "Attempts of the operations, including retries", false);
+        text.append("# HELP cloud_accessor_throttles_total Attempts rejected by a request rate limit\n")
+                .append("# TYPE cloud_accessor_throttles_total counter\n");
+        for (OperationSnapshot operation : operations) {
+            sample(text, "cloud_accessor_throttles_total", operation, null, operation.getThrottles());
+        }
+        text.append("# HELP cloud_accessor_in_flight Operations started and not ended yet\n")
+                .append("# TYPE cloud_accessor_in_flight gauge\n");
+        for (OperationSnapshot operation : operations) {
+            sample(text, "cloud_accessor_in_flight", operation, null, operation.getInFlight());
+        }
+        summary(text, "cloud_accessor_latency_seconds", "Duration of the operations", false);
+        summary(text, "cloud_accessor_delay_seconds", "Time spent waiting for permits and backing off", true);
+        return text.toString();
+    }
+    
+    private void counter(StringBuilder text, String name, String help, boolean byOutcome) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" counter\n");
+        for (OperationSnapshot operation : operations) {
+            if (byOutcome) {
+                sample(text, name, operation, "outcome=\"success\"", operation.getSuccesses());
+                sample(text, name, operation, "outcome=\"failure\"", operation.getFailures());
+            }
+            else {
+                sample(text, name, operation, null, operation.getAttempts());
+            }
+        }
+    }
+    
+    private void summary(StringBuilder text, String name, String help, boolean delay) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" summary\n");
+        for (OperationSnapshot operation : operations) {
+            HistogramSnapshot histogram = delay ? operation.getDelay() : operation.getLatency();
+            for (double quantile : QUANTILES) {
+                sample(text, name, operation, "quantile=\"" + quantile + '"',
+                        histogram.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND);
+            }
+            sample(text, name + "_sum", operation, null, histogram.getSum() / NANOS_PER_SECOND);
+            sample(text, name + "_count", operation, null, histogram.getCount());
+        }
+    }
+    
+    private static void sample(StringBuilder text, String name, OperationSnapshot operation, String extraLabel,
+                               Object value) {
+        text.append(name).append("{provider=\"").append(escape(operation.getProvider()))
+                .append("\",region=\"").append(escape(operation.getRegion()))
+                .append("\",action=\"").append(escape(operation.getAction())).append('"');
+        if (extraLabel != null) {
+            text.append(',').append(extraLabel);
+        }
+        text.append("} ").append(value).append('\n');
+    }
+    
+    private static String escape(String value) {
+        return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,92 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Metrics;
+
+/**
+ * Point in time copy of the metrics of one operation, identified by cloud provider, region and action.
+ */
+public final class OperationSnapshot {
+    private final String provider;
+    private final String region;
+    private final String action;
+    private final long successes;
+    private final long failures;
+    private final long throttles;
+    private final long attempts;
+    private final long inFlight;
+    private final HistogramSnapshot latency;
+    private final HistogramSnapshot delay;
+    
+    OperationSnapshot(String provider, String region, String action, long successes, long failures, long throttles,
+                      long attempts, long inFlight, HistogramSnapshot latency, HistogramSnapshot delay) {
+        this.provider = provider;
+        this.region = region;
+        this.action = action;
+        this.successes = successes;
+        this.failures = failures;
+        this.throttles = throttles;
+        this.attempts = attempts;
+        this.inFlight = inFlight;
+        this.latency = latency;
+        this.delay = delay;
+    }
+    
+    public String getProvider() {
+        return provider;
+    }
+    
+    public String getRegion() {
+        return region;
+    }
+    
+    public String getAction() {
+        return action;
+    }
+    
+    /**
+     * @return Number of operations which ended successfully
+     */
+    public long getSuccesses() {
+        return successes;
+    }
+    
+    /**
+     * @return Number of operations which ended with an error
+     */
+    public long getFailures() {
+        return failures;
+    }
+    
+    /**
+     * @return Number of attempts rejected by the provider because of a request rate limit
+     */
+    public long getThrottles() {
+        return throttles;
+    }
+    
+    /**
+     * @return Number of attempts, including the retries
+     */
+    public long getAttempts() {
+        return attempts;
+    }
+    
+    /**
+     * @return Number of operations started and not ended yet
+     */
+    public long getInFlight() {
+        return inFlight;
+    }
+    
+    /**
+     * @return Durations of the operations from start to end
+     */
+    public HistogramSnapshot getLatency() {
+        return latency;
+    }
+    
+    /**
+     * @return Time each operation spent outside of its attempts, waiting for rate limit permits or backing off
+     */
+    public HistogramSnapshot getDelay() {
+        return delay;
+    }
+}
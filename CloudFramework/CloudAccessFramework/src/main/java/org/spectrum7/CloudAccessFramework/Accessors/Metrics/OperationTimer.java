@@ -0,0 +1,29 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Metrics;
+
+/**
+ * Records a single operation started with {@link AccessorMetrics#start(String, String, String)}.
+ */
+public interface OperationTimer {
+    /**
+     * Records one attempt of the operation. The time of the operation which is not spent in attempts is recorded as
+     * delay (waiting for rate limit permits and backing off between retries).
+     *
+     * @param durationNanos Duration of the attempt
+     */
+    void attempt(long durationNanos);
+    
+    /**
+     * Records an attempt rejected by the provider because of a request rate limit.
+     */
+    void throttled();
+    
+    /**
+     * Ends the operation as successful.
+     */
+    void success();
+    
+    /**
+     * Ends the operation as failed.
+     */
+    void failure();
+}
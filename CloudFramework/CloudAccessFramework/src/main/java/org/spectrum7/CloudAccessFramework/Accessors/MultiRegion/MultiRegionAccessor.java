@@ -0,0 +1,190 @@
+package org.spectrum7.CloudAccessFramework.Accessors.MultiRegion;
+
+import org.spectrum7.CloudAccessFramework.Accessors.CloudAccessor;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.ComputeInstance;
+import org.spectrum7.CloudAccessFramework.Accessors.Inventory.InstanceQuery;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchResult;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Runs the launches and the listings of a CloudAccessor on several regions concurrently instead of one region after
+ * the other on the calling thread. The regions are handled on a MultiRegionExecutor, which bounds the number of
+ * operations running at once on each region.
+ * <p>
+ * A region which fails does not fail the others. Launches report a result per specification, as
+ * {@link CloudAccessor#createComputeInstances(List)} does, and listings report the failed regions apart from the
+ * instances of the regions which succeeded.
+ */
+public class MultiRegionAccessor implements AutoCloseable {
+    private final CloudAccessor accessor;
+    private final MultiRegionExecutor executor;
+    private final boolean ownsExecutor;
+    
+    /**
+     * Creates a multi-region accessor with its own executor, using a fixed pool of threads.
+     *
+     * @param accessor Accessor running the operations on each region. It is not closed with the multi-region
+     *                 accessor.
+     */
+    public MultiRegionAccessor(CloudAccessor accessor) {
+        this(accessor, MultiRegionExecutor.create(), true);
+    }
+    
+    /**
+     * Creates a multi-region accessor running its operations on the specified executor. The executor is not closed
+     * with the multi-region accessor, so it can be shared.
+     *
+     * @param accessor Accessor running the operations on each region. It is not closed with the multi-region
+     *                 accessor.
+     * @param executor Executor of the operations on the regions
+     */
+    public MultiRegionAccessor(CloudAccessor accessor, MultiRegionExecutor executor) {
+        this(accessor, executor, false);
+    }
+    
+    private MultiRegionAccessor(CloudAccessor accessor, MultiRegionExecutor executor, boolean ownsExecutor) {
+        this.accessor = accessor;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+    
+    /**
+     * Creates instances in any number of regions without specifying the access keys. The specifications are split
+     * by region and each region is launched as a batch with
+     * {@link CloudAccessor#createComputeInstances(List)}, all the regions at once.
+     *
+     * @param launchSpecifications Values for creation of the instances. Each specification describes one instance
+     *                             and holds its region.
+     * @return One result per specification, in the same order as launchSpecifications. The specifications of a
+     * region which failed as a whole are reported as FAILED with the error of the region.
+     * @throws CloudExceptions Exception thrown when the calling thread is interrupted while waiting
+     */
+    public List<LaunchResult> createComputeInstances(List<LaunchSpecifications> launchSpecifications)
+            throws CloudExceptions {
+        return createComputeInstances(launchSpecifications, accessor::createComputeInstances);
+    }
+    
+    /**
+     * Creates instances in any number of regions with the specified access and secret keys.
+     *
+     * @param accessKey            The accesskey for creation of the instances
+     * @param secretKey            The secret key for the instances
+     * @param launchSpecifications Values for creation of the instances. Each specification describes one instance
+     *                             and holds its region.
+     * @return One result per specification, in the same order as launchSpecifications
+     * @throws CloudExceptions Exception thrown when the calling thread is interrupted while waiting
+     */
+    public List<LaunchResult> createComputeInstances(
+            String accessKey, String secretKey, List<LaunchSpecifications> launchSpecifications)
+            throws CloudExceptions {
+        return createComputeInstances(launchSpecifications,
+                batch -> accessor.createComputeInstances(accessKey, secretKey, batch));
+    }
+    
+    private List<LaunchResult> createComputeInstances(
+            List<LaunchSpecifications> launchSpecifications, BatchLaunch launch) throws CloudExceptions {
+        if (launchSpecifications == null) {
+            throw new CloudExceptions("No launch specifications specified");
+        }
+        LaunchResult[] results = new LaunchResult[launchSpecifications.size()];
+        Map<String, List<Integer>> regions = new LinkedHashMap<>();
+        for (int i = 0; i < launchSpecifications.size(); i++) {
+            String region = launchSpecifications.get(i).getRegion();
+            if (region == null) {
+                results[i] = LaunchResult.failed(launchSpecifications.get(i),
+                        new CloudExceptions("No region specified for " + launchSpecifications.get(i)
+                                .getInstanceName()));
+                continue;
+            }
+            regions.computeIfAbsent(region, r -> new ArrayList<>()).add(i);
+        }
+        MultiRegionResult<List<LaunchResult>> launched = executor.run(regions.keySet(), region -> {
+            List<LaunchSpecifications> batch = new ArrayList<>();
+            regions.get(region).forEach(i -> batch.add(launchSpecifications.get(i)));
+            return launch.launch(batch);
+        });
+        for (Map.Entry<String, List<Integer>> region : regions.entrySet()) {
+            List<LaunchResult> regionResults = launched.getResult(region.getKey());
+            CloudExceptions error = launched.getFailures().get(region.getKey());
+            for (int j = 0; j < region.getValue().size(); j++) {
+                int i = region.getValue().get(j);
+                results[i] = regionResults != null ? regionResults.get(j) :
+                        LaunchResult.failed(launchSpecifications.get(i), error);
+            }
+        }
+        return Arrays.asList(results);
+    }
+    
+    /**
+     * Lists instances in any number of regions without specifying the access keys, all the regions at once.
+     *
+     * @param regions Regions to list the instances of
+     * @param query   Creates the query of a region, for instance
+     *                {@code region -> InstanceQuery.builder(region).states(RUNNING).build()}
+     * @return The instances of each region which could be listed, and the errors of the others
+     * @throws CloudExceptions Exception thrown when the calling thread is interrupted while waiting
+     */
+    public MultiRegionResult<List<ComputeInstance>> listComputeInstances(
+            Collection<String> regions, Function<String, InstanceQuery> query) throws CloudExceptions {
+        return executor.run(regions, region -> accessor.listComputeInstances(query.apply(region)));
+    }
+    
+    /**
+     * Lists instances in any number of regions with the specified access and secret keys.
+     *
+     * @param accessKey The accesskey of the instances
+     * @param secretKey The secret key of the instances
+     * @param regions   Regions to list the instances of
+     * @param query     Creates the query of a region
+     * @return The instances of each region which could be listed, and the errors of the others
+     * @throws CloudExceptions Exception thrown when the calling thread is interrupted while waiting
+     */
+    public MultiRegionResult<List<ComputeInstance>> listComputeInstances(
+            String accessKey, String secretKey, Collection<String> regions, Function<String, InstanceQuery> query)
+            throws CloudExceptions {
+        return executor.run(regions,
+                region -> accessor.listComputeInstances(accessKey, secretKey, query.apply(region)));
+    }
+    
+    /**
+     * Runs any other operation of the accessor on several regions at once, within the same bounds per region as the
+     * launches and the listings.
+     *
+     * @param regions Regions to run the operation on
+     * @param task    Operation to run on each region, with the accessor
+     * @param <T>     Type of the result of the operation on one region
+     * @return The result or the error of every region
+     * @throws CloudExceptions Exception thrown when the calling thread is interrupted while waiting
+     */
+    public <T> MultiRegionResult<T> run(Collection<String> regions, RegionTask<T> task) throws CloudExceptions {
+        return executor.run(regions, task);
+    }
+    
+    public CloudAccessor getAccessor() {
+        return accessor;
+    }
+    
+    /**
+     * Closes the executor if it was created by this accessor. The underlying accessor is left open.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.close();
+        }
+    }
+    
+    @FunctionalInterface
+    private interface BatchLaunch {
+        List<LaunchResult> launch(List<LaunchSpecifications> batch) throws CloudExceptions;
+    }
+}
@@ -0,0 +1,366 @@
+package org.spectrum7.CloudAccessFramework.Accessors.MultiRegion;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs operations on several regions concurrently. The number of operations running at once on a region is bounded,
+ * so that fanning out does not exceed the request rates of a region, while the regions themselves proceed
+ * independently. Operations over the bound wait in a queue of their region without holding a thread.
+ * <p>
+ * The operations run on an executor which can be chosen: a fixed pool of daemon threads by default, virtual threads
+ * on runtimes which have them, or any executor passed to the builder.
+ */
+public class MultiRegionExecutor implements AutoCloseable {
+    public static final int DEFAULT_THREADS = 16;
+    public static final int DEFAULT_MAX_CONCURRENCY_PER_REGION = 4;
+    private static final Method VIRTUAL_THREAD_EXECUTOR = virtualThreadExecutorFactory();
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int maxConcurrencyPerRegion;
+    private final Map<String, RegionLane> lanes = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+    
+    private MultiRegionExecutor(Builder builder) {
+        this.maxConcurrencyPerRegion = builder.maxConcurrencyPerRegion;
+        this.ownsExecutor = builder.executor == null;
+        if (!ownsExecutor) {
+            this.executor = builder.executor;
+        }
+        else if (builder.virtualThreads) {
+            this.executor = newVirtualThreadExecutor();
+        }
+        else {
+            AtomicInteger count = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(builder.threads, runnable -> {
+                Thread thread = new Thread(runnable, "multi-region-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    /**
+     * Creates an executor with a fixed pool of threads and the default bound per region.
+     *
+     * @return MultiRegionExecutor instance
+     */
+    public static MultiRegionExecutor create() {
+        return builder().build();
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Virtual threads are available from Java 21. The project is compiled for Java 8, so they are looked up at run
+     * time.
+     *
+     * @return true if the runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VIRTUAL_THREAD_EXECUTOR != null;
+    }
+    
+    /**
+     * Runs an operation on every region and waits for all of them to complete.
+     *
+     * @param regions Regions to run the operation on
+     * @param task    Operation to run on each region
+     * @param <T>     Type of the result of the operation on one region
+     * @return The result or the error of every region
+     * @throws CloudExceptions Exception thrown when the calling thread is interrupted while waiting
+     */
+    public <T> MultiRegionResult<T> run(Collection<String> regions, RegionTask<T> task) throws CloudExceptions {
+        try {
+            return submit(regions, task).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudExceptions("Interrupted while waiting for the regions " + regions, e);
+        }
+        catch (ExecutionException e) {
+            /* The aggregated future only completes normally */
+            throw new CloudExceptions("Unable to run the operation on the regions " + regions, e.getCause());
+        }
+    }
+    
+    /**
+     * Runs an operation on every region without waiting.
+     *
+     * @param regions Regions to run the operation on. Duplicates are run once.
+     * @param task    Operation to run on each region
+     * @param <T>     Type of the result of the operation on one region
+     * @return future holding the result or the error of every region once the operation completed on all of them
+     */
+    public <T> CompletableFuture<MultiRegionResult<T>> submit(Collection<String> regions, RegionTask<T> task) {
+        Map<String, CompletableFuture<T>> futures = new LinkedHashMap<>();
+        for (String region : new LinkedHashSet<>(regions)) {
+            futures.put(region, submit(region, task));
+        }
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, error) -> {
+                    Map<String, T> results = new LinkedHashMap<>();
+                    Map<String, CloudExceptions> failures = new LinkedHashMap<>();
+                    futures.forEach((region, future) -> {
+                        try {
+                            results.put(region, future.join());
+                        }
+                        catch (CompletionException | CancellationException e) {
+                            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                            failures.put(region, cause instanceof CloudExceptions ? (CloudExceptions) cause :
+                                    new CloudExceptions("Unable to run the operation on " + region, cause));
+                        }
+                    });
+                    return new MultiRegionResult<>(results, failures);
+                });
+    }
+    
+    /**
+     * Runs an operation on one region, once fewer than the maximum number of operations run on that region.
+     *
+     * @param region Region to run the operation on
+     * @param task   Operation to run
+     * @param <T>    Type of the result of the operation
+     * @return future holding the result of the operation. The future fails with CloudExceptions.
+     */
+    public <T> CompletableFuture<T> submit(String region, RegionTask<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(new CloudExceptions("The multi-region executor has been closed"));
+            return future;
+        }
+        lanes.computeIfAbsent(region, RegionLane::new).submit(new Operation(() -> {
+            try {
+                future.complete(task.run(region));
+            }
+            catch (CloudExceptions e) {
+                future.completeExceptionally(e);
+            }
+            catch (RuntimeException e) {
+                future.completeExceptionally(new CloudExceptions("Unable to run the operation on " + region, e));
+            }
+            catch (Throwable e) {
+                /* The future fails on errors as well, so that nothing waits for it forever */
+                future.completeExceptionally(new CloudExceptions("Unable to run the operation on " + region, e));
+                if (e instanceof Error) {
+                    throw (Error) e;
+                }
+            }
+        }, future));
+        return future;
+    }
+    
+    /**
+     * @return The bound on the number of operations running at once on a region
+     */
+    public int getMaxConcurrencyPerRegion() {
+        return maxConcurrencyPerRegion;
+    }
+    
+    /**
+     * Stops the threads of the executor. An executor passed to the builder is left running, since it may be shared.
+     * Operations which have not started yet fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        CloudExceptions error = new CloudExceptions("The multi-region executor has been closed");
+        if (ownsExecutor) {
+            for (Runnable dropped : executor.shutdownNow()) {
+                if (dropped instanceof Operation) {
+                    ((Operation) dropped).future.completeExceptionally(error);
+                }
+            }
+        }
+        lanes.values().forEach(lane -> lane.cancel(error));
+    }
+    
+    private static Method virtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+    
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        }
+        catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to create a virtual thread executor", e);
+        }
+    }
+    
+    /**
+     * Operations of one region. At most maxConcurrencyPerRegion of them are handed to the executor at once, the
+     * others are queued and handed over as the running ones complete.
+     */
+    private final class RegionLane {
+        private final String region;
+        private final Queue<Operation> queue = new ArrayDeque<>();
+        private int running = 0;
+        
+        private RegionLane(String region) {
+            this.region = region;
+        }
+        
+        private void submit(Operation operation) {
+            synchronized (this) {
+                if (running >= maxConcurrencyPerRegion) {
+                    queue.add(operation);
+                    return;
+                }
+                running++;
+            }
+            dispatch(operation);
+        }
+        
+        private void dispatch(Operation operation) {
+            operation.lane = this;
+            try {
+                executor.execute(operation);
+            }
+            catch (RejectedExecutionException e) {
+                /*
+                The executor is shut down: the operation and all those queued behind it fail instead of waiting
+                forever.
+                 */
+                CloudExceptions error = new CloudExceptions("The operations on " + region + " were rejected", e);
+                synchronized (this) {
+                    running--;
+                }
+                operation.future.completeExceptionally(error);
+                cancel(error);
+            }
+        }
+        
+        private void next() {
+            Operation next;
+            synchronized (this) {
+                next = queue.poll();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            dispatch(next);
+        }
+        
+        private void cancel(CloudExceptions error) {
+            List<Operation> cancelled;
+            synchronized (this) {
+                cancelled = new ArrayList<>(queue);
+                queue.clear();
+            }
+            cancelled.forEach(operation -> operation.future.completeExceptionally(error));
+        }
+    }
+    
+    /**
+     * Operation handed to the executor. Once it completes, the next operation queued on its region is handed over.
+     */
+    private static final class Operation implements Runnable {
+        private final Runnable body;
+        private final CompletableFuture<?> future;
+        private RegionLane lane = null;
+        
+        private Operation(Runnable body, CompletableFuture<?> future) {
+            this.body = body;
+            this.future = future;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                body.run();
+            }
+            finally {
+                lane.next();
+            }
+        }
+    }
+    
+    public static final class Builder {
+        private ExecutorService executor = null;
+        private boolean virtualThreads = false;
+        private int threads = DEFAULT_THREADS;
+        private int maxConcurrencyPerRegion = DEFAULT_MAX_CONCURRENCY_PER_REGION;
+        
+        private Builder() {
+        }
+        
+        /**
+         * @param executor Executor the operations run on. It is not shut down with the MultiRegionExecutor, so it
+         *                 can be shared.
+         * @return this builder
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+        
+        /**
+         * @param virtualThreads true to run every operation on its own virtual thread instead of a fixed pool.
+         *                       Requires Java 21 or later at run time.
+         * @return this builder
+         */
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+        
+        /**
+         * @param threads Size of the fixed pool of threads, when neither an executor nor virtual threads are used
+         * @return this builder
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+        
+        /**
+         * @param maxConcurrencyPerRegion Maximum number of operations running at once on a region
+         * @return this builder
+         */
+        public Builder maxConcurrencyPerRegion(int maxConcurrencyPerRegion) {
+            this.maxConcurrencyPerRegion = maxConcurrencyPerRegion;
+            return this;
+        }
+        
+        public MultiRegionExecutor build() {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads should be at least 1");
+            }
+            if (maxConcurrencyPerRegion < 1) {
+                throw new IllegalArgumentException("maxConcurrencyPerRegion should be at least 1");
+            }
+            if (virtualThreads && executor == null && !isVirtualThreadsSupported()) {
+                throw new IllegalArgumentException("Virtual threads require Java 21 or later");
+            }
+            return new MultiRegionExecutor(this);
+        }
+    }
+}
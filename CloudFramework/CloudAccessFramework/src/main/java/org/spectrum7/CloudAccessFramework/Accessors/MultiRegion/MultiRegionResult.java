@@ -0,0 +1,57 @@
+package org.spectrum7.CloudAccessFramework.Accessors.MultiRegion;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of an operation run on several regions. Each region either has a result or an error, so that the regions
+ * which succeeded can be used even when some of them failed.
+ *
+ * @param <T> Type of the result of the operation on one region
+ */
+public final class MultiRegionResult<T> {
+    private final Map<String, T> results;
+    private final Map<String, CloudExceptions> failures;
+    
+    MultiRegionResult(Map<String, T> results, Map<String, CloudExceptions> failures) {
+        this.results = Collections.unmodifiableMap(new LinkedHashMap<>(results));
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+    
+    /**
+     * @return The results of the regions on which the operation succeeded, in the order the regions were passed
+     */
+    public Map<String, T> getResults() {
+        return results;
+    }
+    
+    /**
+     * @return The errors of the regions on which the operation failed, in the order the regions were passed
+     */
+    public Map<String, CloudExceptions> getFailures() {
+        return failures;
+    }
+    
+    /**
+     * @param region Region of the operation
+     * @return The result of the operation on the region. Null if it failed or did not run on the region.
+     */
+    public T getResult(String region) {
+        return results.get(region);
+    }
+    
+    /**
+     * @return true if the operation succeeded on every region
+     */
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+    
+    @Override
+    public String toString() {
+        return "MultiRegionResult{succeeded=" + results.keySet() + ", failed=" + failures.keySet() + '}';
+    }
+}
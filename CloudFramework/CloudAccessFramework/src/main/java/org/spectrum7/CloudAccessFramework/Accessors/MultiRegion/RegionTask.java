@@ -0,0 +1,19 @@
+package org.spectrum7.CloudAccessFramework.Accessors.MultiRegion;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+/**
+ * Operation run on one region as part of a multi-region operation.
+ *
+ * @param <T> Type of the result of the operation
+ */
+@FunctionalInterface
+public interface RegionTask<T> {
+    /**
+     * @param region Region the operation runs on
+     * @return The result of the operation on the region
+     * @throws CloudExceptions Exception thrown when the operation fails on the region. The other regions are not
+     *                         affected.
+     */
+    T run(String region) throws CloudExceptions;
+}
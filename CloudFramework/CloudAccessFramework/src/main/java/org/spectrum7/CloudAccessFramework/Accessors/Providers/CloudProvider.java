@@ -0,0 +1,32 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Providers;
+
+import org.spectrum7.CloudAccessFramework.Accessors.CloudAccessor;
+import org.spectrum7.CloudAccessFramework.Accessors.CloudType;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+
+/**
+ * Implementation of a cloud provider, discovered with {@link java.util.ServiceLoader}. A module implementing a
+ * provider lists its class in META-INF/services/org.spectrum7.CloudAccessFramework.Accessors.Providers.CloudProvider.
+ * <p>
+ * All the providers on the class path are instantiated when the registry is first used, so an implementation should
+ * not load the classes of its SDK until one of its factory methods is called.
+ */
+public interface CloudProvider {
+    /**
+     * @return The cloud provider implemented
+     */
+    CloudType getCloudType();
+    
+    /**
+     * @return New launch specifications of the cloud provider
+     */
+    LaunchSpecifications newLaunchSpecifications();
+    
+    /**
+     * Creates an accessor with the default configuration of the cloud provider. The caller owns the accessor and
+     * should close it.
+     *
+     * @return New accessor of the cloud provider
+     */
+    CloudAccessor newAccessor();
+}
@@ -0,0 +1,80 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Providers;
+
+import org.spectrum7.CloudAccessFramework.Accessors.CloudType;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Registry of the cloud providers found on the class path. The providers are discovered once, on the first lookup,
+ * and are then found with a constant time lookup by cloud type. Only the providers used load their SDK.
+ */
+public final class CloudProviders {
+    private CloudProviders() {
+    }
+    
+    /**
+     * Returns the provider of a cloud type.
+     *
+     * @param cloudType The cloud type
+     * @return The provider of cloudType
+     * @throws CloudExceptions Exception thrown when no provider of cloudType is on the class path
+     */
+    public static CloudProvider get(CloudType cloudType) throws CloudExceptions {
+        CloudProvider provider = cloudType == null ? null : Registry.PROVIDERS.get(cloudType);
+        if (provider == null) {
+            throw new CloudExceptions("No provider is available for the cloud provider " + cloudType,
+                    Registry.LOAD_ERROR);
+        }
+        return provider;
+    }
+    
+    /**
+     * @param cloudType The cloud type
+     * @return true if a provider of cloudType is on the class path
+     */
+    public static boolean isAvailable(CloudType cloudType) {
+        return cloudType != null && Registry.PROVIDERS.containsKey(cloudType);
+    }
+    
+    /**
+     * @return The cloud types of the providers found on the class path
+     */
+    public static Set<CloudType> available() {
+        return Collections.unmodifiableSet(Registry.PROVIDERS.keySet());
+    }
+    
+    /* Holder of the providers, loaded when the class is first initialized */
+    private static final class Registry {
+        private static final Map<CloudType, CloudProvider> PROVIDERS = new EnumMap<>(CloudType.class);
+        private static final ServiceConfigurationError LOAD_ERROR;
+        
+        static {
+            ServiceConfigurationError loadError = null;
+            Iterator<CloudProvider> providers = ServiceLoader.load(CloudProvider.class).iterator();
+            while (true) {
+                try {
+                    if (!providers.hasNext()) {
+                        break;
+                    }
+                    CloudProvider provider = providers.next();
+                    /* The first provider of a cloud type on the class path wins */
+                    PROVIDERS.putIfAbsent(provider.getCloudType(), provider);
+                }
+                catch (ServiceConfigurationError e) {
+                    /* A broken provider does not hide the others. The error is reported if its type is looked up. */
+                    if (loadError == null) {
+                        loadError = e;
+                    }
+                }
+            }
+            LOAD_ERROR = loadError;
+        }
+    }
+}
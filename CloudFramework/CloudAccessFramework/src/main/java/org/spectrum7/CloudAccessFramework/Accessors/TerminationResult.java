@@ -0,0 +1,78 @@
+package org.spectrum7.CloudAccessFramework.Accessors;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+/**
+ * Outcome of terminating a single instance as part of a bulk termination.
+ */
+public class TerminationResult {
+    private final LaunchSpecifications launchSpecifications;
+    private final Status status;
+    private final CloudExceptions error;
+    
+    private TerminationResult(LaunchSpecifications launchSpecifications, Status status, CloudExceptions error) {
+        this.launchSpecifications = launchSpecifications;
+        this.status = status;
+        this.error = error;
+    }
+    
+    public static TerminationResult terminating(LaunchSpecifications launchSpecifications) {
+        return new TerminationResult(launchSpecifications, Status.TERMINATING, null);
+    }
+    
+    public static TerminationResult terminated(LaunchSpecifications launchSpecifications) {
+        return new TerminationResult(launchSpecifications, Status.TERMINATED, null);
+    }
+    
+    public static TerminationResult notFound(LaunchSpecifications launchSpecifications, CloudExceptions error) {
+        return new TerminationResult(launchSpecifications, Status.NOT_FOUND, error);
+    }
+    
+    public static TerminationResult failed(LaunchSpecifications launchSpecifications, CloudExceptions error) {
+        return new TerminationResult(launchSpecifications, Status.FAILED, error);
+    }
+    
+    /**
+     * @return The launch specifications passed by the caller
+     */
+    public LaunchSpecifications getLaunchSpecifications() {
+        return launchSpecifications;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    /**
+     * @return The reason the instance could not be terminated, or was not found. Null otherwise.
+     */
+    public CloudExceptions getError() {
+        return error;
+    }
+    
+    /**
+     * @return true if the instance is gone or going away, including when it was not found
+     */
+    public boolean isTerminated() {
+        return status != Status.FAILED;
+    }
+    
+    public enum Status {
+        /**
+         * The termination was accepted. The instance is shutting down or already terminated.
+         */
+        TERMINATING,
+        /**
+         * The instance has reached the terminated state
+         */
+        TERMINATED,
+        /**
+         * The cloud provider does not know the instance, for instance because it was terminated long ago
+         */
+        NOT_FOUND,
+        /**
+         * The termination failed for any other reason
+         */
+        FAILED
+    }
+}
@@ -0,0 +1,111 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Throttling;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket whose refill rate adapts to throttling responses. The rate is halved whenever the provider throttles
+ * a request and grows back linearly with time while requests succeed (additive increase, multiplicative decrease),
+ * so that the callers converge on the rate the provider actually accepts.
+ * <p>
+ * Permits are handed out as reservations. A caller which finds the bucket empty is told how long to wait for its
+ * permit, and the permit is reserved for it, so waiting callers are served in order without spinning.
+ */
+public class AdaptiveRateLimiter {
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private final double minRate;
+    private final double maxRate;
+    private final double burst;
+    private final double increasePerSecond;
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+    private long lastIncreaseNanos;
+    
+    /**
+     * @param initialRate       Permits per second to start with
+     * @param minRate           The rate never drops below this value, however often the provider throttles
+     * @param maxRate           The rate never grows beyond this value
+     * @param burst             Maximum number of permits which can be accumulated while idle
+     * @param increasePerSecond Permits per second added to the rate for every second without throttling
+     */
+    public AdaptiveRateLimiter(double initialRate, double minRate, double maxRate, double burst,
+                               double increasePerSecond) {
+        if (minRate <= 0 || maxRate < minRate || initialRate < minRate || initialRate > maxRate || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate limits");
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.burst = burst;
+        this.increasePerSecond = increasePerSecond;
+        this.rate = initialRate;
+        this.tokens = burst;
+        this.lastRefillNanos = System.nanoTime();
+        this.lastIncreaseNanos = lastRefillNanos;
+    }
+    
+    /**
+     * Reserves a permit.
+     *
+     * @return Nanoseconds the caller should wait before using the permit. 0 if the permit can be used immediately.
+     */
+    public synchronized long reserve() {
+        refill(System.nanoTime());
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens / rate * NANOS_PER_SECOND);
+    }
+    
+    /**
+     * Reserves a permit and waits until it can be used.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+    
+    /**
+     * Records a throttling response. The rate is cut down and the permits accumulated so far are dropped.
+     */
+    public synchronized void onThrottle() {
+        long now = System.nanoTime();
+        refill(now);
+        rate = Math.max(minRate, rate * DECREASE_FACTOR);
+        tokens = Math.min(tokens, 0);
+        lastIncreaseNanos = now;
+    }
+    
+    /**
+     * Records a successful request. The rate grows with the time elapsed since the last adjustment.
+     */
+    public synchronized void onSuccess() {
+        long now = System.nanoTime();
+        double elapsedSeconds = (double) (now - lastIncreaseNanos) / NANOS_PER_SECOND;
+        if (elapsedSeconds > 0) {
+            refill(now);
+            rate = Math.min(maxRate, rate + increasePerSecond * elapsedSeconds);
+            lastIncreaseNanos = now;
+        }
+    }
+    
+    /**
+     * @return The current rate in permits per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+    
+    private void refill(long now) {
+        double elapsedSeconds = (double) (now - lastRefillNanos) / NANOS_PER_SECOND;
+        if (elapsedSeconds > 0) {
+            tokens = Math.min(burst, tokens + elapsedSeconds * rate);
+            lastRefillNanos = now;
+        }
+    }
+}
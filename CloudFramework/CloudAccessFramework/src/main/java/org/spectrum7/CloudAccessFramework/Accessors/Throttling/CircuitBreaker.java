@@ -0,0 +1,95 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Throttling;
+
+import java.time.Duration;
+
+/**
+ * Stops calling an endpoint which keeps failing. The breaker opens after a number of consecutive failures, and calls
+ * are then rejected without being sent until the open duration has passed. A single probe call is then let through:
+ * the breaker closes if it succeeds and opens again if it fails.
+ * <p>
+ * Only failures which point at the endpoint, such as server errors and timeouts, should be recorded as failures. An
+ * error returned by a healthy endpoint, such as an invalid request or a throttling response, is a success here.
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAt = 0;
+    private boolean probing = false;
+    
+    /**
+     * @param failureThreshold Number of consecutive failures which open the breaker
+     * @param openDuration     Time the breaker stays open before a probe call is let through
+     */
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        if (failureThreshold < 1 || openDuration == null || openDuration.isNegative() || openDuration.isZero()) {
+            throw new IllegalArgumentException("Invalid circuit breaker");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+    
+    /**
+     * Asks for a call. Every call allowed must be followed by {@link #onSuccess()} or {@link #onFailure()}, or by
+     * {@link #release()} if it is not sent.
+     *
+     * @return true if the call can be sent
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                return false;
+            }
+            probing = true;
+        }
+        return true;
+    }
+    
+    /**
+     * Records a call answered by the endpoint.
+     */
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+    
+    /**
+     * Records a call which failed because of the endpoint.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            failures = 0;
+            probing = false;
+        }
+    }
+    
+    /**
+     * Gives back a call which was allowed but not sent, so that another probe call can be let through.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+    
+    public synchronized State getState() {
+        return state;
+    }
+    
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+}
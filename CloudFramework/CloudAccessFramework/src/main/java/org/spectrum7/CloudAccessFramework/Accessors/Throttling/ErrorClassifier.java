@@ -0,0 +1,20 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Throttling;
+
+/**
+ * Provider specific classification of the errors returned by API calls.
+ */
+public interface ErrorClassifier {
+    /**
+     * @param error Error thrown by an API call
+     * @return true if the provider rejected the call because the caller exceeded a request rate limit. Such calls
+     * were not processed and can always be retried.
+     */
+    boolean isThrottle(Throwable error);
+    
+    /**
+     * @param error Error thrown by an API call
+     * @return true if the error is transient (a network error or a server side failure) and the call is likely to
+     * succeed when retried. Only idempotent calls are retried on such errors.
+     */
+    boolean isTransient(Throwable error);
+}
@@ -0,0 +1,73 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Throttling;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.HistogramSnapshot;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.LatencyHistogram;
+
+import java.time.Duration;
+
+/**
+ * Tracks a percentile of the recent latencies of a call. The latencies are recorded in a LatencyHistogram which is
+ * replaced at the end of every window, so the percentile follows the latency of the provider as it changes. It is
+ * read from the last complete window with enough samples, and from the current one until there is such a window.
+ */
+public class LatencyTracker {
+    private final double percentile;
+    private final long windowNanos;
+    private final long minSamples;
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile long windowStart = System.nanoTime();
+    private volatile long previousValue = -1;
+    
+    /**
+     * @param percentile Percentile between 0 and 100, for instance 95
+     * @param window     Duration of a window
+     * @param minSamples Number of latencies a window needs for its percentile to be used
+     */
+    public LatencyTracker(double percentile, Duration window, int minSamples) {
+        if (percentile <= 0 || percentile > 100 || window == null || window.isNegative() || window.isZero() ||
+                minSamples < 1) {
+            throw new IllegalArgumentException("Invalid latency tracker");
+        }
+        this.percentile = percentile;
+        this.windowNanos = window.toNanos();
+        this.minSamples = minSamples;
+    }
+    
+    /**
+     * @param nanos Latency of a call
+     */
+    public void record(long nanos) {
+        rotate();
+        current.record(nanos);
+    }
+    
+    /**
+     * @return The percentile of the recent latencies in nanoseconds. -1 if too few latencies were recorded.
+     */
+    public long getValueNanos() {
+        rotate();
+        if (previousValue >= 0) {
+            return previousValue;
+        }
+        HistogramSnapshot snapshot = current.snapshot();
+        return snapshot.getCount() < minSamples ? -1 : snapshot.getValueAtPercentile(percentile);
+    }
+    
+    private void rotate() {
+        if (System.nanoTime() - windowStart < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - windowStart < windowNanos) {
+                return;
+            }
+            HistogramSnapshot snapshot = current.snapshot();
+            current = new LatencyHistogram();
+            windowStart = now;
+            if (snapshot.getCount() >= minSamples) {
+                previousValue = snapshot.getValueAtPercentile(percentile);
+            }
+        }
+    }
+}
@@ -0,0 +1,780 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Throttling;
+
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Shared rate limiting and retry layer for provider API calls. Every call goes through an AdaptiveRateLimiter for
+ * its scope (typically the account and the region) and API action, so that all the threads of the process share one
+ * view of the rate the provider accepts.
+ * <p>
+ * Failed calls are retried with exponential backoff and full jitter. Throttled calls are always retried, other
+ * transient errors only for idempotent calls. Retries are drawn from a RetryBudget shared by all the calls, which
+ * keeps a burst of failures from turning into a retry storm. Errors which are not retried are wrapped in
+ * CloudExceptions.
+ * <p>
+ * Optionally, calls get a deadline covering their waits, attempts and retries, and idempotent reads are hedged: a
+ * second attempt is sent when the first one has not answered after a percentile of the recent latencies of the
+ * action, and the first answer is used. A circuit breaker per scope then rejects calls right away while the
+ * endpoint keeps failing. Attempts which have to be timed or hedged run on a bounded pool of daemon threads, so that
+ * the caller can stop waiting for an attempt which hangs. When all the threads are busy, as with a slow endpoint,
+ * attempts wait for a thread until their deadline, and hedges are not sent. An attempt is interrupted once the caller
+ * stops waiting for it, and counts once as a failure of the endpoint if it was sent.
+ */
+public class RequestThrottler implements AutoCloseable {
+    private static final Duration HEDGING_WINDOW = Duration.ofMinutes(1);
+    private static final int HEDGING_MIN_SAMPLES = 20;
+    private final Map<String, AdaptiveRateLimiter> limiters = new ConcurrentHashMap<>();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+    private final Map<String, Double> actionRates;
+    private final Map<String, Long> actionDeadlines;
+    private final ErrorClassifier classifier;
+    private final RetryBudget retryBudget;
+    private final double initialRate;
+    private final double minRate;
+    private final double maxRate;
+    private final double burst;
+    private final double increasePerSecond;
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+    private final long deadlineNanos;
+    private final double hedgingPercentile;
+    private final long minHedgeDelayNanos;
+    private final int breakerThreshold;
+    private final Duration breakerOpenDuration;
+    private final int attemptThreads;
+    private volatile ScheduledExecutorService scheduler = null;
+    private volatile ThreadPoolExecutor attempts = null;
+    
+    private RequestThrottler(Builder builder) {
+        this.actionRates = new ConcurrentHashMap<>(builder.actionRates);
+        this.actionDeadlines = new ConcurrentHashMap<>(builder.actionDeadlines);
+        this.classifier = builder.classifier;
+        this.retryBudget = new RetryBudget(builder.retryRatio, builder.retryReserve);
+        this.initialRate = builder.initialRate;
+        this.minRate = builder.minRate;
+        this.maxRate = builder.maxRate;
+        this.burst = builder.burst;
+        this.increasePerSecond = builder.increasePerSecond;
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayNanos = builder.baseDelay.toNanos();
+        this.maxDelayNanos = builder.maxDelay.toNanos();
+        this.deadlineNanos = builder.deadlineNanos;
+        this.hedgingPercentile = builder.hedgingPercentile;
+        this.minHedgeDelayNanos = builder.minHedgeDelayNanos;
+        this.breakerThreshold = builder.breakerThreshold;
+        this.breakerOpenDuration = builder.breakerOpenDuration;
+        this.attemptThreads = builder.attemptThreads;
+    }
+    
+    public static Builder builder(ErrorClassifier classifier) {
+        return new Builder(classifier);
+    }
+    
+    /**
+     * Executes a call, waiting for a permit first and retrying it on throttling and transient errors.
+     *
+     * @param scope      Scope of the rate limit, typically the account and the region
+     * @param action     Name of the API action
+     * @param idempotent true if the call can safely be repeated after a transient error
+     * @param call       The API call
+     * @param <T>        Type of the response
+     * @return The response of the call
+     * @throws CloudExceptions Exception thrown when the call fails and cannot be retried any more
+     */
+    public <T> T execute(String scope, String action, boolean idempotent, Callable<T> call) throws CloudExceptions {
+        return execute(scope, action, idempotent, false, call);
+    }
+    
+    /**
+     * Executes an idempotent read like {@link #execute(String, String, boolean, Callable)}, and hedges its attempts
+     * when hedging is enabled. The hedges are drawn from the retry budget.
+     *
+     * @param scope  Scope of the rate limit, typically the account and the region
+     * @param action Name of the API action
+     * @param call   The API call, which must be safe to send twice at the same time
+     * @param <T>    Type of the response
+     * @return The response of the call
+     * @throws CloudExceptions Exception thrown when the call fails and cannot be retried any more
+     */
+    public <T> T executeHedged(String scope, String action, Callable<T> call) throws CloudExceptions {
+        return execute(scope, action, true, hedgingPercentile > 0, call);
+    }
+    
+    private <T> T execute(String scope, String action, boolean idempotent, boolean hedged, Callable<T> call)
+            throws CloudExceptions {
+        AdaptiveRateLimiter limiter = limiterFor(scope, action);
+        CircuitBreaker breaker = breakerFor(scope);
+        LatencyTracker tracker = hedged ? trackers.computeIfAbsent(scope + '/' + action,
+                k -> new LatencyTracker(hedgingPercentile, HEDGING_WINDOW, HEDGING_MIN_SAMPLES)) : null;
+        long timeout = actionDeadlines.getOrDefault(action, deadlineNanos);
+        long deadline = System.nanoTime() + timeout;
+        retryBudget.deposit();
+        Exception error = null;
+        for (int attempt = 1; ; attempt++) {
+            if (timeout > 0 && deadline - System.nanoTime() <= 0) {
+                throw new CloudExceptions(action + " did not succeed within " +
+                        TimeUnit.NANOSECONDS.toMillis(timeout) + " ms", error);
+            }
+            if (breaker != null && !breaker.tryAcquire()) {
+                throw new CloudExceptions("The calls to " + scope + " keep failing, " + action + " was not sent");
+            }
+            Permit permit = new Permit(breaker);
+            try {
+                limiter.acquire();
+                long remaining = timeout > 0 ? deadline - System.nanoTime() : Long.MAX_VALUE;
+                T response = timeout > 0 || tracker != null ?
+                        send(limiter, breaker, tracker, call, permit, remaining) : send(permit, call);
+                limiter.onSuccess();
+                return response;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CloudExceptions("Interrupted while calling " + action, e);
+            }
+            catch (TimeoutException e) {
+                throw new CloudExceptions(action + " did not answer within " +
+                        TimeUnit.NANOSECONDS.toMillis(timeout) + " ms", e);
+            }
+            catch (Exception e) {
+                if (!shouldRetry(limiter, e, idempotent, attempt)) {
+                    throw wrap(action, e);
+                }
+                error = e;
+            }
+            finally {
+                /* A permit which was not used for an attempt, for instance past the deadline, is given back */
+                permit.release();
+            }
+            long backoff = backoffNanos(attempt);
+            if (timeout > 0 && deadline - System.nanoTime() <= backoff) {
+                throw new CloudExceptions(action + " did not succeed within " +
+                        TimeUnit.NANOSECONDS.toMillis(timeout) + " ms", error);
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(backoff);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CloudExceptions("Interrupted while waiting to retry " + action, e);
+            }
+        }
+    }
+    
+    /* Sends an attempt on the calling thread */
+    private <T> T send(Permit permit, Callable<T> call) throws Exception {
+        permit.sent();
+        try {
+            T response = call.call();
+            permit.report(null);
+            return response;
+        }
+        catch (Exception e) {
+            permit.report(e);
+            throw e;
+        }
+    }
+    
+    /**
+     * Sends an attempt on the attempt pool and waits for its answer until the deadline, sending a hedge when the
+     * attempt is slower than the tracked percentile. An attempt which does not answer before the deadline is a
+     * failure of the endpoint.
+     *
+     * @param permit         Permit of the circuit breaker for the first attempt. A hedge asks for its own.
+     * @param remainingNanos Time left before the deadline. Long.MAX_VALUE if the call has no deadline.
+     * @throws TimeoutException when no attempt answered before the deadline
+     */
+    private <T> T send(AdaptiveRateLimiter limiter, CircuitBreaker breaker, LatencyTracker tracker, Callable<T> call,
+                       Permit permit, long remainingNanos) throws Exception {
+        if (remainingNanos <= 0) {
+            throw new TimeoutException();
+        }
+        long start = System.nanoTime();
+        CompletableFuture<T> answer = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        List<Permit> sent = new CopyOnWriteArrayList<>();
+        sent.add(permit);
+        permit.attempt = submit(() -> run(permit, tracker, call, answer, outstanding));
+        try {
+            long hedgeDelay = tracker == null ? -1 : tracker.getValueNanos();
+            if (hedgeDelay >= 0) {
+                hedgeDelay = Math.max(minHedgeDelayNanos, hedgeDelay);
+            }
+            if (hedgeDelay >= 0 && hedgeDelay < remainingNanos) {
+                try {
+                    return answer.get(hedgeDelay, TimeUnit.NANOSECONDS);
+                }
+                catch (TimeoutException e) {
+                    hedge(limiter, breaker, tracker, call, answer, outstanding, sent);
+                }
+            }
+            return answer.get(remainingNanos - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        catch (TimeoutException e) {
+            sent.forEach(Permit::fail);
+            throw e;
+        }
+        finally {
+            /* The attempts still running are not waited for, their threads are interrupted */
+            sent.forEach(Permit::cancel);
+        }
+    }
+    
+    /*
+    A second attempt is only sent while the first one is still outstanding and the circuit breaker allows it, and the
+    answer fails only once both attempts have failed.
+     */
+    private <T> void hedge(AdaptiveRateLimiter limiter, CircuitBreaker breaker, LatencyTracker tracker,
+                           Callable<T> call, CompletableFuture<T> answer, AtomicInteger outstanding,
+                           List<Permit> sent) {
+        /* A hedge waiting for a thread would only hold back the first attempts of other calls */
+        if (answer.isDone() || !hasIdleThread() || (breaker != null && !breaker.tryAcquire())) {
+            return;
+        }
+        Permit permit = new Permit(breaker);
+        if (!retryBudget.tryWithdraw() || outstanding.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0) {
+            permit.release();
+            return;
+        }
+        sent.add(permit);
+        try {
+            permit.attempt = submit(() -> {
+                try {
+                    limiter.acquire();
+                }
+                catch (InterruptedException e) {
+                    permit.release();
+                    if (outstanding.decrementAndGet() == 0) {
+                        answer.completeExceptionally(e);
+                    }
+                    return;
+                }
+                run(permit, tracker, call, answer, outstanding);
+            });
+        }
+        catch (CloudExceptions e) {
+            permit.release();
+            outstanding.decrementAndGet();
+        }
+    }
+    
+    private <T> void run(Permit permit, LatencyTracker tracker, Callable<T> call, CompletableFuture<T> answer,
+                         AtomicInteger outstanding) {
+        if (answer.isDone()) {
+            permit.release();
+            return;
+        }
+        long start = System.nanoTime();
+        permit.sent();
+        try {
+            T response = call.call();
+            if (tracker != null) {
+                tracker.record(System.nanoTime() - start);
+            }
+            permit.report(null);
+            answer.complete(response);
+        }
+        catch (Exception e) {
+            if (answer.isDone()) {
+                /* Interrupted once the other attempt answered, which says nothing about the endpoint */
+                permit.discard();
+                return;
+            }
+            permit.report(e);
+            if (outstanding.decrementAndGet() == 0) {
+                answer.completeExceptionally(e);
+            }
+        }
+    }
+    
+    private Future<?> submit(Runnable attempt) throws CloudExceptions {
+        try {
+            return attempts().submit(attempt);
+        }
+        catch (RejectedExecutionException e) {
+            throw new CloudExceptions("The request throttler is closed, the call was not sent", e);
+        }
+    }
+    
+    private boolean hasIdleThread() {
+        ThreadPoolExecutor pool = attempts();
+        return pool.getQueue().isEmpty() && pool.getActiveCount() < attemptThreads;
+    }
+    
+    /* Errors which a healthy endpoint returns, such as throttling or an invalid request, do not count as failures */
+    private void report(CircuitBreaker breaker, Throwable error) {
+        if (breaker == null) {
+            return;
+        }
+        if (error != null && !classifier.isThrottle(error) && classifier.isTransient(error)) {
+            breaker.onFailure();
+        }
+        else {
+            breaker.onSuccess();
+        }
+    }
+    
+    /**
+     * Non blocking variant of {@link #execute(String, String, boolean, Callable)}. Waiting for permits and backing
+     * off between attempts is done on a timer thread, so no thread is held while the call is delayed. The future
+     * fails when the deadline of the action passes, and attempts are not hedged.
+     *
+     * @param scope      Scope of the rate limit, typically the account and the region
+     * @param action     Name of the API action
+     * @param idempotent true if the call can safely be repeated after a transient error
+     * @param call       Starts the API call
+     * @param <T>        Type of the response
+     * @return future holding the response of the call, completed exceptionally with CloudExceptions when the call
+     * fails and cannot be retried any more
+     */
+    public <T> CompletableFuture<T> executeAsync(
+            String scope, String action, boolean idempotent, Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long timeout = actionDeadlines.getOrDefault(action, deadlineNanos);
+        if (timeout > 0) {
+            ScheduledFuture<?> timer = scheduler().schedule(() -> result.completeExceptionally(new CloudExceptions(
+                    action + " did not succeed within " + TimeUnit.NANOSECONDS.toMillis(timeout) + " ms")),
+                    timeout, TimeUnit.NANOSECONDS);
+            result.whenComplete((value, error) -> timer.cancel(false));
+        }
+        retryBudget.deposit();
+        attemptAsync(limiterFor(scope, action), breakerFor(scope), scope, action, idempotent, call, 1, result);
+        return result;
+    }
+    
+    private <T> void attemptAsync(AdaptiveRateLimiter limiter, CircuitBreaker breaker, String scope, String action,
+                                  boolean idempotent, Supplier<CompletableFuture<T>> call, int attempt,
+                                  CompletableFuture<T> result) {
+        Runnable send = () -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (breaker != null && !breaker.tryAcquire()) {
+                result.completeExceptionally(new CloudExceptions("The calls to " + scope + " keep failing, " +
+                        action + " was not sent"));
+                return;
+            }
+            CompletableFuture<T> response;
+            try {
+                response = call.get();
+            }
+            catch (RuntimeException e) {
+                response = new CompletableFuture<>();
+                response.completeExceptionally(e);
+            }
+            response.whenComplete((value, error) -> {
+                report(breaker, error == null ? null : unwrap(error));
+                if (error == null) {
+                    limiter.onSuccess();
+                    result.complete(value);
+                    return;
+                }
+                Throwable cause = unwrap(error);
+                if (shouldRetry(limiter, cause, idempotent, attempt)) {
+                    scheduler().schedule(() -> attemptAsync(limiter, breaker, scope, action, idempotent, call,
+                            attempt + 1, result), backoffNanos(attempt), TimeUnit.NANOSECONDS);
+                }
+                else {
+                    result.completeExceptionally(wrap(action, cause));
+                }
+            });
+        };
+        long waitNanos = limiter.reserve();
+        if (waitNanos > 0) {
+            scheduler().schedule(send, waitNanos, TimeUnit.NANOSECONDS);
+        }
+        else {
+            send.run();
+        }
+    }
+    
+    private boolean shouldRetry(AdaptiveRateLimiter limiter, Throwable error, boolean idempotent, int attempt) {
+        boolean throttled = classifier.isThrottle(error);
+        if (throttled) {
+            limiter.onThrottle();
+        }
+        boolean retryable = throttled || (idempotent && classifier.isTransient(error));
+        return retryable && attempt < maxAttempts && retryBudget.tryWithdraw();
+    }
+    
+    /*
+    Exponential backoff with full jitter: a random delay between 0 and min(maxDelay, baseDelay * 2^(attempt - 1)).
+     */
+    private long backoffNanos(int attempt) {
+        long ceiling = baseDelayNanos << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayNanos) {
+            ceiling = maxDelayNanos;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+    
+    /**
+     * Returns the rate limiter of a scope and an action, creating it on first use.
+     *
+     * @param scope  Scope of the rate limit
+     * @param action Name of the API action
+     * @return AdaptiveRateLimiter instance
+     */
+    public AdaptiveRateLimiter limiterFor(String scope, String action) {
+        return limiters.computeIfAbsent(scope + '/' + action, k -> {
+            double rate = Math.min(maxRate, Math.max(minRate, actionRates.getOrDefault(action, initialRate)));
+            return new AdaptiveRateLimiter(rate, minRate, maxRate, burst, increasePerSecond);
+        });
+    }
+    
+    /**
+     * Returns the circuit breaker of a scope, creating it on first use.
+     *
+     * @param scope Scope of the calls, typically the account and the region
+     * @return CircuitBreaker instance. Null if the circuit breakers are disabled.
+     */
+    public CircuitBreaker breakerFor(String scope) {
+        if (breakerThreshold == 0) {
+            return null;
+        }
+        return breakers.computeIfAbsent(scope, k -> new CircuitBreaker(breakerThreshold, breakerOpenDuration));
+    }
+    
+    private ThreadPoolExecutor attempts() {
+        if (attempts == null) {
+            synchronized (this) {
+                if (attempts == null) {
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(attemptThreads, attemptThreads, 30,
+                            TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "request-attempt");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                    attempts = executor;
+                }
+            }
+        }
+        return attempts;
+    }
+    
+    private ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            synchronized (this) {
+                if (scheduler == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                        Thread thread = new Thread(runnable, "request-throttler");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    scheduler = executor;
+                }
+            }
+        }
+        return scheduler;
+    }
+    
+    /**
+     * Stops the timer thread used by the asynchronous calls and the attempt threads.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (attempts != null) {
+            attempts.shutdownNow();
+        }
+    }
+    
+    private static CloudExceptions wrap(String action, Throwable error) {
+        if (error instanceof CloudExceptions) {
+            return (CloudExceptions) error;
+        }
+        return new CloudExceptions(action + " failed: " + error.getMessage(), error);
+    }
+    
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) &&
+                cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+    
+    /*
+    A call allowed by a circuit breaker, and the attempt running it on the attempt pool. It is settled exactly once: by
+    the outcome of its attempt, as a failure when the attempt is still running at the deadline, or given back when the
+    attempt never started, for instance while it waited for a thread, or was cancelled once the other attempt
+    answered.
+     */
+    private final class Permit {
+        private final CircuitBreaker breaker;
+        private final AtomicBoolean settled = new AtomicBoolean(false);
+        private volatile boolean sent = false;
+        private volatile Future<?> attempt = null;
+        
+        private Permit(CircuitBreaker breaker) {
+            this.breaker = breaker;
+        }
+        
+        private void sent() {
+            sent = true;
+        }
+        
+        private void report(Throwable error) {
+            if (breaker != null && settled.compareAndSet(false, true)) {
+                RequestThrottler.this.report(breaker, error);
+            }
+        }
+        
+        private void fail() {
+            if (!sent) {
+                discard();
+            }
+            else if (breaker != null && settled.compareAndSet(false, true)) {
+                breaker.onFailure();
+            }
+        }
+        
+        private void release() {
+            if (!sent) {
+                discard();
+            }
+        }
+        
+        private void discard() {
+            if (breaker != null && settled.compareAndSet(false, true)) {
+                breaker.release();
+            }
+        }
+        
+        private void cancel() {
+            Future<?> running = attempt;
+            if (running != null) {
+                running.cancel(true);
+            }
+        }
+    }
+    
+    public static final class Builder {
+        private final ErrorClassifier classifier;
+        private final Map<String, Double> actionRates = new ConcurrentHashMap<>();
+        private final Map<String, Long> actionDeadlines = new ConcurrentHashMap<>();
+        private double initialRate = 20;
+        private double minRate = 0.5;
+        private double maxRate = 100;
+        private double burst = 20;
+        private double increasePerSecond = 1;
+        private int maxAttempts = 8;
+        private Duration baseDelay = Duration.ofMillis(100);
+        private Duration maxDelay = Duration.ofSeconds(20);
+        private double retryRatio = 0.2;
+        private int retryReserve = 10;
+        private long deadlineNanos = 0;
+        private double hedgingPercentile = 0;
+        private long minHedgeDelayNanos = 0;
+        private int breakerThreshold = 0;
+        private Duration breakerOpenDuration = null;
+        private int attemptThreads = 64;
+        
+        private Builder(ErrorClassifier classifier) {
+            if (classifier == null) {
+                throw new IllegalArgumentException("An error classifier is required");
+            }
+            this.classifier = classifier;
+        }
+        
+        /**
+         * @param initialRate Permits per second each limiter starts with, unless the action has its own rate
+         * @return this builder
+         */
+        public Builder initialRate(double initialRate) {
+            this.initialRate = initialRate;
+            return this;
+        }
+        
+        /**
+         * @param action      Name of the API action
+         * @param initialRate Permits per second the limiters of the action start with
+         * @return this builder
+         */
+        public Builder actionRate(String action, double initialRate) {
+            this.actionRates.put(action, initialRate);
+            return this;
+        }
+        
+        /**
+         * @param minRate Lowest rate a limiter is brought down to by throttling
+         * @param maxRate Highest rate a limiter grows to
+         * @return this builder
+         */
+        public Builder rateLimits(double minRate, double maxRate) {
+            this.minRate = minRate;
+            this.maxRate = maxRate;
+            return this;
+        }
+        
+        /**
+         * @param burst Permits a limiter can accumulate while idle
+         * @return this builder
+         */
+        public Builder burst(double burst) {
+            this.burst = burst;
+            return this;
+        }
+        
+        /**
+         * @param increasePerSecond Permits per second added to the rate of a limiter for every second without
+         *                          throttling
+         * @return this builder
+         */
+        public Builder increasePerSecond(double increasePerSecond) {
+            this.increasePerSecond = increasePerSecond;
+            return this;
+        }
+        
+        /**
+         * @param maxAttempts Maximum number of attempts of a call, including the first one
+         * @return this builder
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts should be at least 1");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+        
+        /**
+         * @param baseDelay Backoff ceiling of the first retry. The ceiling doubles with every retry.
+         * @param maxDelay  Highest backoff ceiling
+         * @return this builder
+         */
+        public Builder backoff(Duration baseDelay, Duration maxDelay) {
+            this.baseDelay = baseDelay;
+            this.maxDelay = maxDelay;
+            return this;
+        }
+        
+        /**
+         * @param retryRatio   Fraction of the calls which may be retried
+         * @param retryReserve Retries allowed before any call has been made
+         * @return this builder
+         */
+        public Builder retryBudget(double retryRatio, int retryReserve) {
+            this.retryRatio = retryRatio;
+            this.retryReserve = retryReserve;
+            return this;
+        }
+        
+        /**
+         * @param deadline Time within which a call, with its waits for permits, its attempts and its retries, must
+         *                 succeed. Calls have no deadline by default.
+         * @return this builder
+         */
+        public Builder deadline(Duration deadline) {
+            this.deadlineNanos = positiveNanos(deadline, "deadline");
+            return this;
+        }
+        
+        /**
+         * @param action   Name of the API action
+         * @param deadline Deadline of the calls of the action
+         * @return this builder
+         */
+        public Builder actionDeadline(String action, Duration deadline) {
+            this.actionDeadlines.put(action, positiveNanos(deadline, "deadline"));
+            return this;
+        }
+        
+        /**
+         * Enables the hedging of the calls made with {@link #executeHedged(String, String, Callable)}. Hedging starts
+         * once 20 latencies of the action have been recorded, and follows the latencies of the last minute.
+         *
+         * @param percentile Percentile of the recent latencies of the action after which a second attempt is sent,
+         *                   for instance 95
+         * @param minDelay   Shortest time after which a second attempt is sent
+         * @return this builder
+         */
+        public Builder hedging(double percentile, Duration minDelay) {
+            if (percentile <= 0 || percentile >= 100 || minDelay == null || minDelay.isNegative()) {
+                throw new IllegalArgumentException("The hedging percentile should be between 0 and 100 and the " +
+                        "delay should not be negative");
+            }
+            this.hedgingPercentile = percentile;
+            this.minHedgeDelayNanos = minDelay.toNanos();
+            return this;
+        }
+        
+        /**
+         * Enables a circuit breaker per scope.
+         *
+         * @param failureThreshold Consecutive failures of the calls of a scope, server errors and timeouts, which
+         *                         open its breaker
+         * @param openDuration     Time the calls of the scope are rejected before a probe call is let through
+         * @return this builder
+         */
+        public Builder circuitBreaker(int failureThreshold, Duration openDuration) {
+            if (failureThreshold < 1) {
+                throw new IllegalArgumentException("failureThreshold should be at least 1");
+            }
+            positiveNanos(openDuration, "openDuration");
+            this.breakerThreshold = failureThreshold;
+            this.breakerOpenDuration = openDuration;
+            return this;
+        }
+        
+        /**
+         * @param attemptThreads Maximum number of attempts running at once on the attempt pool, which runs the
+         *                       attempts of the calls with a deadline or hedging. When they are all busy, attempts
+         *                       wait for a thread until their deadline and hedges are not sent. Defaults to 64.
+         * @return this builder
+         */
+        public Builder attemptThreads(int attemptThreads) {
+            if (attemptThreads < 1) {
+                throw new IllegalArgumentException("attemptThreads should be at least 1");
+            }
+            this.attemptThreads = attemptThreads;
+            return this;
+        }
+        
+        private static long positiveNanos(Duration duration, String name) {
+            if (duration == null || duration.isNegative() || duration.isZero()) {
+                throw new IllegalArgumentException(name + " should be a positive duration");
+            }
+            return duration.toNanos();
+        }
+        
+        public RequestThrottler build() {
+            return new RequestThrottler(this);
+        }
+    }
+}
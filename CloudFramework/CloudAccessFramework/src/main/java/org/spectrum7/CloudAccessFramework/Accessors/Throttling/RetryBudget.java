@@ -0,0 +1,47 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Throttling;
+
+/**
+ * Limits retries to a fraction of the requests. Every request deposits a fraction of a token and every retry
+ * withdraws a whole token, so retries cannot multiply the load on a provider which is already struggling. A small
+ * reserve allows the first few retries when there has been no traffic yet.
+ */
+public class RetryBudget {
+    private final double depositPerRequest;
+    private final double maxBalance;
+    private double balance;
+    
+    /**
+     * @param retryRatio Fraction of the requests which may be retried, for instance 0.2 for one retry every five
+     *                   requests
+     * @param reserve    Retries allowed before any request has been made. The balance never grows beyond
+     *                   reserve + 100 retries.
+     */
+    public RetryBudget(double retryRatio, int reserve) {
+        if (retryRatio < 0 || reserve < 0) {
+            throw new IllegalArgumentException("Invalid retry budget");
+        }
+        this.depositPerRequest = retryRatio;
+        this.maxBalance = reserve + 100;
+        this.balance = reserve;
+    }
+    
+    /**
+     * Records a request.
+     */
+    public synchronized void deposit() {
+        balance = Math.min(maxBalance, balance + depositPerRequest);
+    }
+    
+    /**
+     * Takes a retry out of the budget.
+     *
+     * @return true if the retry is allowed
+     */
+    public synchronized boolean tryWithdraw() {
+        if (balance < 1) {
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+}
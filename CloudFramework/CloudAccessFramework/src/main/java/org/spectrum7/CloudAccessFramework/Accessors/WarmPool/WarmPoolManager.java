@@ -0,0 +1,487 @@
+package org.spectrum7.CloudAccessFramework.Accessors.WarmPool;
+
+import com.google.common.flogger.FluentLogger;
+import org.spectrum7.CloudAccessFramework.Accessors.CloudAccessor;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchResult;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.Accessors.TerminationResult;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Keeps pools of stopped, pre-initialized instances, one per launch shape, so that a launch starts an instance which
+ * has already booted instead of launching a new one. Starting a stopped instance skips the provisioning of the
+ * instance and the first boot, which take most of the time of a launch from an AMI.
+ * <p>
+ * A launch takes the oldest instance of the pool of its shape and starts it, and falls back to launching a new
+ * instance when the pool is empty. The pools are refilled in the background up to their target size: the new
+ * instances are launched together, left running for the warm-up time so that their user data can initialize them,
+ * stopped together and then added to the pool. The instances must have EBS root volumes to be stopped.
+ * <p>
+ * The pools live in memory. Stopped instances are kept when the manager is closed, unless they are drained first,
+ * and instances still being prepared when it is closed are terminated once they are ready. The manager uses the
+ * access and secret keys it is built with, or the credentials of the instance on which the application is running.
+ */
+public class WarmPoolManager implements AutoCloseable {
+    public static final Duration DEFAULT_REFILL_INTERVAL = Duration.ofSeconds(30);
+    private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+    private final CloudAccessor accessor;
+    private final String accessKey;
+    private final String secretKey;
+    private final Map<String, Pool> pools;
+    private final long warmUpNanos;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private volatile boolean closed = false;
+    
+    private WarmPoolManager(Builder builder) {
+        this.accessor = builder.accessor;
+        this.accessKey = builder.accessKey;
+        this.secretKey = builder.secretKey;
+        this.pools = Collections.unmodifiableMap(new LinkedHashMap<>(builder.pools));
+        this.warmUpNanos = builder.warmUpTime.toNanos();
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "warm-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refillAll, 0, builder.refillInterval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    
+    public static Builder builder() {
+        return new Builder();
+    }
+    
+    /**
+     * Launches an instance of a shape, from the pool of the shape when it holds an instance. The instance taken from
+     * the pool is started, and the future completes once it is running and its addresses and host name are filled
+     * into its launch specifications. An instance which cannot be started, or which does not come up once started, is
+     * terminated, and the next one is tried. When the pool is empty, a new instance is launched from the
+     * specifications of the shape.
+     *
+     * @param shape Name of the launch shape
+     * @return future holding the launch specifications of the instance once it is running
+     * @throws CloudExceptions Exception thrown when the pool is empty and a new instance cannot be launched
+     */
+    public CompletableFuture<LaunchSpecifications> launch(String shape) throws CloudExceptions {
+        Pool pool = pool(shape);
+        if (closed) {
+            throw new CloudExceptions("The warm pool manager is closed");
+        }
+        try {
+            return launchFrom(pool);
+        }
+        finally {
+            refillLater(pool);
+        }
+    }
+    
+    private CompletableFuture<LaunchSpecifications> launchFrom(Pool pool) throws CloudExceptions {
+        LaunchSpecifications warm;
+        while ((warm = pool.ready.pollFirst()) != null) {
+            try {
+                start(Collections.singletonList(warm));
+            }
+            catch (CloudExceptions | RuntimeException e) {
+                logger.atWarning().withCause(e).log("Unable to start pooled instance %s", warm.getInstanceName());
+                discard(Collections.singletonList(warm));
+                continue;
+            }
+            LaunchSpecifications started = warm;
+            return awaitRunning(started).handle((running, error) -> {
+                if (error == null) {
+                    return CompletableFuture.completedFuture(running);
+                }
+                logger.atWarning().withCause(error).log("Pooled instance %s did not come up",
+                        started.getInstanceName());
+                discard(Collections.singletonList(started));
+                return relaunch(pool);
+            }).thenCompose(launched -> launched);
+        }
+        LaunchSpecifications cold = pool.specifications.get();
+        if (accessKey == null) {
+            accessor.createComputeInstance(cold);
+        }
+        else {
+            accessor.createComputeInstance(accessKey, secretKey, cold);
+        }
+        return awaitRunning(cold);
+    }
+    
+    /* Tries the next instance of the pool, or a new one, away from the thread which completed the failed start */
+    private CompletableFuture<LaunchSpecifications> relaunch(Pool pool) {
+        CompletableFuture<LaunchSpecifications> relaunched = new CompletableFuture<>();
+        try {
+            scheduler.execute(() -> {
+                try {
+                    launchFrom(pool).whenComplete((running, error) -> {
+                        if (error == null) {
+                            relaunched.complete(running);
+                        }
+                        else {
+                            relaunched.completeExceptionally(error);
+                        }
+                    });
+                }
+                catch (CloudExceptions | RuntimeException e) {
+                    relaunched.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            relaunched.completeExceptionally(new CloudExceptions("The warm pool manager is closed"));
+        }
+        return relaunched;
+    }
+    
+    /**
+     * @param shape Name of the launch shape
+     * @return The number of stopped instances ready in the pool of the shape
+     */
+    public int getReadyCount(String shape) {
+        return pool(shape).ready.size();
+    }
+    
+    /**
+     * @param shape Name of the launch shape
+     * @return The number of instances being prepared for the pool of the shape
+     */
+    public int getProvisioningCount(String shape) {
+        return pool(shape).provisioning.get();
+    }
+    
+    /**
+     * @return The names of the launch shapes, in the order they were added to the builder
+     */
+    public Set<String> getShapes() {
+        return pools.keySet();
+    }
+    
+    /**
+     * Tops up every pool now instead of at the next refill interval.
+     */
+    public void refill() {
+        pools.values().forEach(this::refillLater);
+    }
+    
+    /**
+     * Takes all the stopped instances out of the pools and terminates them. The pools are refilled afterwards unless
+     * the manager is closed.
+     *
+     * @return One result per instance which was in the pools
+     * @throws CloudExceptions Exception thrown when the instances cannot be terminated at all
+     */
+    public List<TerminationResult> drain() throws CloudExceptions {
+        List<LaunchSpecifications> drained = new ArrayList<>();
+        for (Pool pool : pools.values()) {
+            LaunchSpecifications ready;
+            while ((ready = pool.ready.pollFirst()) != null) {
+                drained.add(ready);
+            }
+        }
+        if (drained.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return terminate(drained);
+    }
+    
+    /**
+     * Stops refilling the pools. The stopped instances stay in their pools and can still be drained. The accessor
+     * is not closed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdown();
+    }
+    
+    private Pool pool(String shape) {
+        Pool pool = pools.get(shape);
+        if (pool == null) {
+            throw new IllegalArgumentException("Unknown launch shape " + shape);
+        }
+        return pool;
+    }
+    
+    private void refillLater(Pool pool) {
+        try {
+            scheduler.execute(() -> refill(pool));
+        }
+        catch (RejectedExecutionException e) {
+            /* The manager is closed */
+        }
+    }
+    
+    private void refillAll() {
+        for (Pool pool : pools.values()) {
+            try {
+                refill(pool);
+            }
+            catch (RuntimeException e) {
+                /* The next refill tries again */
+                logger.atSevere().withCause(e).log("Unable to refill the warm pool");
+            }
+        }
+    }
+    
+    /*
+    Runs on the scheduler thread only, so the deficit of a pool is never topped up twice. The instances launched are
+    counted as provisioning until they are in the pool or have been discarded.
+     */
+    private void refill(Pool pool) {
+        int deficit = pool.targetSize - pool.ready.size() - pool.provisioning.get();
+        if (closed || deficit <= 0) {
+            return;
+        }
+        pool.provisioning.addAndGet(deficit);
+        List<LaunchSpecifications> instanceSpecifications = new ArrayList<>(deficit);
+        for (int i = 0; i < deficit; i++) {
+            instanceSpecifications.add(pool.specifications.get());
+        }
+        List<LaunchResult> results;
+        try {
+            results = accessKey == null ? accessor.createComputeInstances(instanceSpecifications) :
+                    accessor.createComputeInstances(accessKey, secretKey, instanceSpecifications);
+        }
+        catch (CloudExceptions | RuntimeException e) {
+            logger.atSevere().withCause(e).log("Unable to launch %d instances for the warm pool", deficit);
+            pool.provisioning.addAndGet(-deficit);
+            return;
+        }
+        List<CompletableFuture<LaunchSpecifications>> running = new ArrayList<>();
+        for (LaunchResult result : results) {
+            if (result.isLaunched()) {
+                /* An instance which fails to come up is discarded, the others go on */
+                LaunchSpecifications launched = result.getLaunchSpecifications();
+                running.add(awaitRunning(launched).handle((ready, error) -> {
+                    if (error != null) {
+                        provisioned(pool, launched, false);
+                    }
+                    return error == null ? ready : null;
+                }));
+            }
+            else {
+                pool.provisioning.decrementAndGet();
+            }
+        }
+        if (running.isEmpty()) {
+            return;
+        }
+        CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(all -> delay(warmUpNanos))
+                .thenRunAsync(() -> stop(pool, running), scheduler)
+                .exceptionally(error -> {
+                    /* The scheduler was shut down while the instances were warming up */
+                    running.forEach(instance -> {
+                        LaunchSpecifications ready = instance.join();
+                        if (ready != null) {
+                            provisioned(pool, ready, false);
+                        }
+                    });
+                    return null;
+                });
+    }
+    
+    /* Stops the instances which came up with a single call, and adds each one to the pool once it is stopped */
+    private void stop(Pool pool, List<CompletableFuture<LaunchSpecifications>> running) {
+        List<LaunchSpecifications> instances = new ArrayList<>(running.size());
+        running.forEach(instance -> {
+            if (instance.join() != null) {
+                instances.add(instance.join());
+            }
+        });
+        if (instances.isEmpty()) {
+            return;
+        }
+        try {
+            if (accessKey == null) {
+                accessor.stopComputeInstances(instances);
+            }
+            else {
+                accessor.stopComputeInstances(accessKey, secretKey, instances);
+            }
+        }
+        catch (CloudExceptions | RuntimeException e) {
+            logger.atSevere().withCause(e).log("Unable to stop %d instances for the warm pool", instances.size());
+            instances.forEach(instance -> provisioned(pool, instance, false));
+            return;
+        }
+        for (LaunchSpecifications instance : instances) {
+            (accessKey == null ? accessor.awaitStopped(instance) :
+                    accessor.awaitStopped(accessKey, secretKey, instance)).whenComplete((stopped, error) ->
+                    provisioned(pool, instance, error == null));
+        }
+    }
+    
+    private void provisioned(Pool pool, LaunchSpecifications instance, boolean ready) {
+        if (ready && !closed) {
+            pool.ready.addLast(instance);
+        }
+        else {
+            discard(Collections.singletonList(instance));
+        }
+        pool.provisioning.decrementAndGet();
+    }
+    
+    private void start(List<LaunchSpecifications> instances) throws CloudExceptions {
+        if (accessKey == null) {
+            accessor.startComputeInstances(instances);
+        }
+        else {
+            accessor.startComputeInstances(accessKey, secretKey, instances);
+        }
+    }
+    
+    private CompletableFuture<LaunchSpecifications> awaitRunning(LaunchSpecifications instance) {
+        return accessKey == null ? accessor.awaitRunning(instance) :
+                accessor.awaitRunning(accessKey, secretKey, instance);
+    }
+    
+    private List<TerminationResult> terminate(List<LaunchSpecifications> instances) throws CloudExceptions {
+        return accessKey == null ? accessor.terminateComputeInstances(instances) :
+                accessor.terminateComputeInstances(accessKey, secretKey, instances);
+    }
+    
+    private void discard(List<LaunchSpecifications> instances) {
+        try {
+            terminate(instances);
+        }
+        catch (CloudExceptions | RuntimeException e) {
+            /* Nothing more can be done for the instance */
+            logger.atSevere().withCause(e).log("Unable to terminate %d warm pool instances", instances.size());
+        }
+    }
+    
+    private CompletableFuture<Void> delay(long nanos) {
+        if (nanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> delay = new CompletableFuture<>();
+        try {
+            scheduler.schedule(() -> delay.complete(null), nanos, TimeUnit.NANOSECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            delay.completeExceptionally(new CompletionException(e));
+        }
+        return delay;
+    }
+    
+    /* The stopped instances of a launch shape, oldest first, and how to launch a new one */
+    private static final class Pool {
+        private final int targetSize;
+        private final Supplier<LaunchSpecifications> specifications;
+        private final Deque<LaunchSpecifications> ready = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger provisioning = new AtomicInteger();
+        
+        private Pool(int targetSize, Supplier<LaunchSpecifications> specifications) {
+            this.targetSize = targetSize;
+            this.specifications = specifications;
+        }
+    }
+    
+    public static final class Builder {
+        private final Map<String, Pool> pools = new LinkedHashMap<>();
+        private CloudAccessor accessor = null;
+        private String accessKey = null;
+        private String secretKey = null;
+        private Duration warmUpTime = Duration.ZERO;
+        private Duration refillInterval = DEFAULT_REFILL_INTERVAL;
+        
+        private Builder() {
+        }
+        
+        /**
+         * @param accessor The accessor launching, starting, stopping and terminating the instances. It is not closed
+         *                 with the manager.
+         * @return this builder
+         */
+        public Builder accessor(CloudAccessor accessor) {
+            this.accessor = accessor;
+            return this;
+        }
+        
+        /**
+         * @param accessKey The access key of the instances. The credentials of the instance on which the
+         *                  application is running are used if not set.
+         * @param secretKey The secret key of the instances
+         * @return this builder
+         */
+        public Builder credentials(String accessKey, String secretKey) {
+            this.accessKey = accessKey;
+            this.secretKey = secretKey;
+            return this;
+        }
+        
+        /**
+         * Adds a launch shape.
+         *
+         * @param shape          Name of the launch shape, used to launch instances of the shape
+         * @param targetSize     Number of stopped instances kept in the pool of the shape
+         * @param specifications Creates the launch specifications of a new instance of the shape. Each call must
+         *                       return new specifications.
+         * @return this builder
+         */
+        public Builder shape(String shape, int targetSize, Supplier<LaunchSpecifications> specifications) {
+            if (shape == null || specifications == null || targetSize < 0) {
+                throw new IllegalArgumentException("A launch shape needs a name, specifications and a target size " +
+                        "which is not negative");
+            }
+            pools.put(shape, new Pool(targetSize, specifications));
+            return this;
+        }
+        
+        /**
+         * @param warmUpTime Time the new instances are left running before they are stopped, for their user data
+         *                   to initialize them. Defaults to none.
+         * @return this builder
+         */
+        public Builder warmUpTime(Duration warmUpTime) {
+            this.warmUpTime = warmUpTime;
+            return this;
+        }
+        
+        /**
+         * @param refillInterval Interval at which the pools are topped up, on top of the refill after each launch.
+         *                       Defaults to 30 seconds.
+         * @return this builder
+         */
+        public Builder refillInterval(Duration refillInterval) {
+            this.refillInterval = refillInterval;
+            return this;
+        }
+        
+        public WarmPoolManager build() {
+            if (accessor == null) {
+                throw new IllegalArgumentException("The accessor is required");
+            }
+            if (accessKey != null && secretKey == null) {
+                throw new IllegalArgumentException("The secret key is required with an access key");
+            }
+            if (pools.isEmpty()) {
+                throw new IllegalArgumentException("At least one launch shape is required");
+            }
+            if (warmUpTime == null || warmUpTime.isNegative()) {
+                throw new IllegalArgumentException("The warm-up time cannot be negative");
+            }
+            if (refillInterval == null || refillInterval.isZero() || refillInterval.isNegative()) {
+                throw new IllegalArgumentException("The refill interval must be positive");
+            }
+            return new WarmPoolManager(this);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.spectrum7.CloudAccessFramework.Accessors.Throttling;
+
+import org.junit.After;
+import org.junit.Test;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class RequestThrottlerTest {
+    private static final ErrorClassifier CLASSIFIER = new ErrorClassifier() {
+        @Override
+        public boolean isThrottle(Throwable error) {
+            return false;
+        }
+        
+        @Override
+        public boolean isTransient(Throwable error) {
+            return false;
+        }
+    };
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private RequestThrottler throttler;
+    
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        if (throttler != null) {
+            throttler.close();
+        }
+    }
+    
+    /* More slow calls than attempt threads wait for a thread instead of failing */
+    @Test
+    public void slowCallsWaitForAnAttemptThread() throws Exception {
+        throttler = builder()
+                .deadline(Duration.ofSeconds(10))
+                .hedging(95, Duration.ofMillis(50))
+                .attemptThreads(4)
+                .build();
+        List<Future<String>> calls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            calls.add(callers.submit(() -> throttler.executeHedged("scope", "DescribeInstances", () -> {
+                TimeUnit.MILLISECONDS.sleep(200);
+                return "answer";
+            })));
+        }
+        for (Future<String> call : calls) {
+            assertEquals("answer", call.get(20, TimeUnit.SECONDS));
+        }
+    }
+    
+    /* An attempt still waiting for a thread at its deadline is not sent, and does not count against the endpoint */
+    @Test
+    public void attemptWaitingPastItsDeadlineIsNotSent() throws Exception {
+        throttler = builder()
+                .deadline(Duration.ofMillis(300))
+                .actionDeadline("Slow", Duration.ofSeconds(5))
+                .circuitBreaker(1, Duration.ofMinutes(1))
+                .attemptThreads(1)
+                .build();
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> slow = callers.submit(() -> throttler.execute("scope", "Slow", true, () -> {
+            started.countDown();
+            TimeUnit.MILLISECONDS.sleep(1000);
+            return "slow";
+        }));
+        assertEquals(true, started.await(5, TimeUnit.SECONDS));
+        AtomicBoolean sent = new AtomicBoolean(false);
+        try {
+            throttler.execute("scope", "Fast", true, () -> {
+                sent.set(true);
+                return "fast";
+            });
+            fail("The call should not have been sent before its deadline");
+        }
+        catch (CloudExceptions e) {
+            /* Expected */
+        }
+        assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+        assertFalse(sent.get());
+        assertEquals("fast", throttler.execute("scope", "Fast", true, () -> "fast"));
+    }
+    
+    private static RequestThrottler.Builder builder() {
+        return RequestThrottler.builder(CLASSIFIER)
+                .initialRate(1000)
+                .rateLimits(1, 1000)
+                .burst(1000);
+    }
+}
@@ -0,0 +1,41 @@
+package org.spectrum7.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.spectrum7.CloudAccessFramework.Accessors.CloudType;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import org.spectrum7.Utils.LaunchSpecificationsFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of the cloud provider by name, directly and through the LaunchSpecificationsFactory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CloudTypeBenchmark {
+    @Param({"aws", "google", "azure"})
+    private String cloudType;
+    
+    @Benchmark
+    public CloudType fromValue() {
+        return CloudType.fromValue(cloudType);
+    }
+    
+    @Benchmark
+    public LaunchSpecifications getLaunchSpecifications() {
+        try {
+            return LaunchSpecificationsFactory.getLaunchSpecifications(cloudType);
+        }
+        catch (CloudExceptions e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.spectrum7.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.spectrum7.CloudAccessFramework.AWS.AWSAccessor;
+import org.spectrum7.CloudAccessFramework.AWS.AWSErrorClassifier;
+import org.spectrum7.CloudAccessFramework.AWS.AWSKeyPairManager;
+import org.spectrum7.CloudAccessFramework.AWS.AWSLaunchPlan;
+import org.spectrum7.CloudAccessFramework.AWS.AWSLaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.AWS.EC2ClientCache;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchResult;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.Accessors.Throttling.RequestThrottler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The full launch path of AWSAccessor, from the launch specifications to the filled in specifications, against an
+ * in-process fake of EC2. The rate limits of the throttler are raised out of the way so that only the cost of the
+ * accessor, the client cache, the key pairs and the request building is measured.
+ * <p>
+ * With per instance key pairs every launch replaces the key pair of the instance, which takes a delete and a create
+ * call. With a shared key pair the private key is served from memory after the first launch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CreateComputeInstanceBenchmark {
+    private static final String REGION = "us-east-1";
+    @Param({"instance", "shared"})
+    private String keyPairMode;
+    @Param({"10"})
+    private int batchSize;
+    private Path keyStoreDirectory;
+    private AWSAccessor accessor;
+    private AWSLaunchPlan launchPlan;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, CloudExceptions {
+        keyStoreDirectory = Files.createTempDirectory("keypairs");
+        RequestThrottler throttler = RequestThrottler.builder(new AWSErrorClassifier())
+                .initialRate(1e9)
+                .rateLimits(1e9, 1e9)
+                .burst(1e9)
+                .build();
+        accessor = AWSAccessor.builder()
+                .clientCache(EC2ClientCache.builder()
+                        .clientFactory((region, credentialsProvider) -> new FakeEc2Client())
+                        .build())
+                .keyPairManager(new AWSKeyPairManager(keyStoreDirectory))
+                .throttler(throttler)
+                .build();
+        launchPlan = AWSLaunchPlan.builder()
+                .region(REGION)
+                .imageID("ami-0123456789abcdef0")
+                .instanceType("t2.micro")
+                .subnetID("subnet-0123456789abcdef0")
+                .securityGroupIDs(Arrays.asList("sg-0123456789abcdef0", "sg-0123456789abcdef1"))
+                .keyPairName("shared".equals(keyPairMode) ? "benchmark-shared" : null)
+                .tag("fleet", "benchmark")
+                .build();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        accessor.close();
+        try (Stream<Path> files = Files.walk(keyStoreDirectory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+    
+    @Benchmark
+    public LaunchSpecifications createComputeInstance() throws CloudExceptions {
+        AWSLaunchSpecifications instanceSpecifications = new AWSLaunchSpecifications();
+        instanceSpecifications.setRegion(REGION);
+        instanceSpecifications.setImageID(launchPlan.getImageID());
+        instanceSpecifications.setInstanceType(launchPlan.getInstanceType());
+        instanceSpecifications.setSubnetID(launchPlan.getSubnetID());
+        instanceSpecifications.setSecurityGroupIDs(launchPlan.getSecurityGroupIDs());
+        instanceSpecifications.setKeyPairName(launchPlan.getKeyPairName());
+        instanceSpecifications.setTags(launchPlan.getTags());
+        instanceSpecifications.setInstanceName("benchmark");
+        accessor.createComputeInstance(instanceSpecifications);
+        return instanceSpecifications;
+    }
+    
+    @Benchmark
+    public LaunchSpecifications createComputeInstanceFromPlan() throws CloudExceptions {
+        AWSLaunchSpecifications instanceSpecifications = launchPlan.newLaunchSpecifications("benchmark");
+        accessor.createComputeInstance(instanceSpecifications);
+        return instanceSpecifications;
+    }
+    
+    @Benchmark
+    public List<LaunchResult> createComputeInstances() throws CloudExceptions {
+        List<LaunchSpecifications> instanceSpecifications = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            instanceSpecifications.add(launchPlan.newLaunchSpecifications("benchmark-" + i));
+        }
+        return accessor.createComputeInstances(instanceSpecifications);
+    }
+}
@@ -0,0 +1,109 @@
+package org.spectrum7.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.spectrum7.CloudAccessFramework.AWS.AWSLaunchPlan;
+import org.spectrum7.CloudAccessFramework.AWS.AWSLaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of AWSLaunchSpecifications, by hand and from a launch plan, along with tag handling and the
+ * validation of the region and the instance type.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LaunchSpecificationsBenchmark {
+    @Benchmark
+    public AWSLaunchSpecifications construct(Tags tags, Validation validation) throws CloudExceptions {
+        AWSLaunchSpecifications instanceSpecifications = new AWSLaunchSpecifications();
+        instanceSpecifications.setRegion(validation.region);
+        instanceSpecifications.setInstanceType(validation.instanceType);
+        instanceSpecifications.setImageID("ami-0123456789abcdef0");
+        instanceSpecifications.setSubnetID("subnet-0123456789abcdef0");
+        instanceSpecifications.setSecurityGroupIDs(
+                Arrays.asList("sg-0123456789abcdef0", "sg-0123456789abcdef1"));
+        instanceSpecifications.setInstanceName("benchmark");
+        instanceSpecifications.setTags(tags.tags);
+        return instanceSpecifications;
+    }
+    
+    @Benchmark
+    public AWSLaunchSpecifications constructFromPlan(Tags tags) {
+        return tags.launchPlan.newLaunchSpecifications("benchmark");
+    }
+    
+    @Benchmark
+    public Map<String, String> setTags(Tags tags) {
+        tags.specifications.setTags(tags.tags);
+        return tags.specifications.getTags();
+    }
+    
+    @Benchmark
+    public AWSLaunchSpecifications setRegion(Validation validation) throws CloudExceptions {
+        validation.specifications.setRegion(validation.region);
+        return validation.specifications;
+    }
+    
+    @Benchmark
+    public AWSLaunchSpecifications setInstanceType(Validation validation) throws CloudExceptions {
+        validation.specifications.setInstanceType(validation.instanceType);
+        return validation.specifications;
+    }
+    
+    @Benchmark
+    public boolean setRegionInvalid(Validation validation) {
+        try {
+            validation.specifications.setRegion("mars-north-1");
+            return true;
+        }
+        catch (CloudExceptions e) {
+            return false;
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Tags {
+        @Param({"0", "5", "20"})
+        private int tagCount;
+        private Map<String, String> tags;
+        private AWSLaunchPlan launchPlan;
+        private AWSLaunchSpecifications specifications;
+        
+        @Setup
+        public void setUp() throws CloudExceptions {
+            tags = new LinkedHashMap<>();
+            for (int i = 0; i < tagCount; i++) {
+                tags.put("key-" + i, "value-" + i);
+            }
+            launchPlan = AWSLaunchPlan.builder()
+                    .region("us-east-1")
+                    .imageID("ami-0123456789abcdef0")
+                    .instanceType("t2.micro")
+                    .subnetID("subnet-0123456789abcdef0")
+                    .securityGroupIDs(Arrays.asList("sg-0123456789abcdef0", "sg-0123456789abcdef1"))
+                    .tags(tags)
+                    .build();
+            specifications = new AWSLaunchSpecifications();
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Validation {
+        @Param({"us-east-1", "ap-southeast-2"})
+        private String region;
+        @Param({"t2.micro", "m5.24xlarge"})
+        private String instanceType;
+        private final AWSLaunchSpecifications specifications = new AWSLaunchSpecifications();
+    }
+}
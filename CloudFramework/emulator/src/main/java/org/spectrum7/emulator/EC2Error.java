@@ -0,0 +1,29 @@
+package org.spectrum7.emulator;
+
+/**
+ * Error answered to a request, in the Response/Errors/Error form of EC2.
+ */
+final class EC2Error extends RuntimeException {
+    private static final long serialVersionUID = 3708546209733114862L;
+    private final int status;
+    private final String code;
+    
+    /**
+     * @param status  HTTP status of the response
+     * @param code    EC2 error code, such as RequestLimitExceeded
+     * @param message Message of the error
+     */
+    EC2Error(int status, String code, String message) {
+        super(message, null, false, false);
+        this.status = status;
+        this.code = code;
+    }
+    
+    int getStatus() {
+        return status;
+    }
+    
+    String getCode() {
+        return code;
+    }
+}
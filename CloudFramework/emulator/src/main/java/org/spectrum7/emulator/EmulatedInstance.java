@@ -0,0 +1,173 @@
+package org.spectrum7.emulator;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Instance held by the emulator. The state is derived from the time elapsed since the launch, the last start, the
+ * last stop or the termination, so that instances move from pending to running, from stopping to stopped and from
+ * shutting-down to terminated without any background work.
+ */
+final class EmulatedInstance {
+    static final String PENDING = "pending";
+    static final String RUNNING = "running";
+    static final String SHUTTING_DOWN = "shutting-down";
+    static final String STOPPING = "stopping";
+    static final String STOPPED = "stopped";
+    static final String TERMINATED = "terminated";
+    private final String instanceID;
+    private final String reservationID;
+    private final int launchIndex;
+    private final String imageID;
+    private final String instanceType;
+    private final String subnetID;
+    private final String vpcID;
+    private final String keyName;
+    private final String clientToken;
+    private final String privateIPAddress;
+    private final Instant launchTime;
+    private final Map<String, String> tags;
+    private long startNanos;
+    private long stopNanos = -1;
+    private long terminationNanos = -1;
+    
+    EmulatedInstance(String instanceID, String reservationID, int launchIndex, String imageID, String instanceType,
+                     String subnetID, String vpcID, String keyName, String clientToken, String privateIPAddress,
+                     Map<String, String> tags) {
+        this.instanceID = instanceID;
+        this.reservationID = reservationID;
+        this.launchIndex = launchIndex;
+        this.imageID = imageID;
+        this.instanceType = instanceType;
+        this.subnetID = subnetID;
+        this.vpcID = vpcID;
+        this.keyName = keyName;
+        this.clientToken = clientToken;
+        this.privateIPAddress = privateIPAddress;
+        this.launchTime = Instant.now();
+        this.startNanos = System.nanoTime();
+        this.tags = new LinkedHashMap<>(tags);
+    }
+    
+    /**
+     * @param pendingNanos      Time an instance stays pending after its launch
+     * @param shuttingDownNanos Time an instance stays shutting-down after its termination, and stopping after it
+     *                          is stopped
+     * @return Name of the current state of the instance
+     */
+    synchronized String state(long pendingNanos, long shuttingDownNanos) {
+        long now = System.nanoTime();
+        if (terminationNanos >= 0) {
+            return now - terminationNanos < shuttingDownNanos ? SHUTTING_DOWN : TERMINATED;
+        }
+        if (stopNanos >= 0) {
+            return now - stopNanos < shuttingDownNanos ? STOPPING : STOPPED;
+        }
+        return now - startNanos < pendingNanos ? PENDING : RUNNING;
+    }
+    
+    /**
+     * @return true if the instance held capacity and was terminated by this call, false if it had been stopped or
+     * terminated already
+     */
+    synchronized boolean terminate() {
+        if (terminationNanos >= 0) {
+            return false;
+        }
+        terminationNanos = System.nanoTime();
+        return stopNanos < 0;
+    }
+    
+    /**
+     * @return true if the instance was stopped by this call, false if it had been stopped already
+     */
+    synchronized boolean stop() {
+        if (stopNanos >= 0) {
+            return false;
+        }
+        stopNanos = System.nanoTime();
+        return true;
+    }
+    
+    /**
+     * Starts a stopped instance. The caller must have checked that the instance is stopped.
+     */
+    synchronized void start() {
+        stopNanos = -1;
+        startNanos = System.nanoTime();
+    }
+    
+    synchronized boolean isTerminated() {
+        return terminationNanos >= 0;
+    }
+    
+    synchronized Map<String, String> getTags() {
+        return new LinkedHashMap<>(tags);
+    }
+    
+    synchronized void putTags(Map<String, String> tags) {
+        this.tags.putAll(tags);
+    }
+    
+    static int stateCode(String state) {
+        switch (state) {
+            case PENDING:
+                return 0;
+            case RUNNING:
+                return 16;
+            case SHUTTING_DOWN:
+                return 32;
+            case STOPPING:
+                return 64;
+            case STOPPED:
+                return 80;
+            default:
+                return 48;
+        }
+    }
+    
+    String getInstanceID() {
+        return instanceID;
+    }
+    
+    String getReservationID() {
+        return reservationID;
+    }
+    
+    int getLaunchIndex() {
+        return launchIndex;
+    }
+    
+    String getImageID() {
+        return imageID;
+    }
+    
+    String getInstanceType() {
+        return instanceType;
+    }
+    
+    String getSubnetID() {
+        return subnetID;
+    }
+    
+    String getVpcID() {
+        return vpcID;
+    }
+    
+    String getKeyName() {
+        return keyName;
+    }
+    
+    String getClientToken() {
+        return clientToken;
+    }
+    
+    String getPrivateIPAddress() {
+        return privateIPAddress;
+    }
+    
+    Instant getLaunchTime() {
+        return launchTime;
+    }
+}
@@ -0,0 +1,91 @@
+package org.spectrum7.emulator;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Distribution of the time the emulator takes to answer a request. Real EC2 latencies have a long right tail, which
+ * the log-normal distribution reproduces: most requests take about the median, and a few take several times longer.
+ */
+public abstract class LatencyDistribution {
+    private static final LatencyDistribution NONE = fixed(Duration.ZERO);
+    
+    /**
+     * @return Latency of a request in nanoseconds
+     */
+    public abstract long sampleNanos();
+    
+    /**
+     * @return Distribution which answers immediately
+     */
+    public static LatencyDistribution none() {
+        return NONE;
+    }
+    
+    /**
+     * @param latency Latency of every request
+     * @return Distribution with a constant latency
+     */
+    public static LatencyDistribution fixed(Duration latency) {
+        long nanos = latency.toNanos();
+        return new LatencyDistribution() {
+            @Override
+            public long sampleNanos() {
+                return nanos;
+            }
+            
+            @Override
+            public String toString() {
+                return "fixed(" + latency + ')';
+            }
+        };
+    }
+    
+    /**
+     * @param min Lowest latency
+     * @param max Highest latency
+     * @return Distribution with latencies spread evenly between min and max
+     */
+    public static LatencyDistribution uniform(Duration min, Duration max) {
+        if (max.compareTo(min) < 0) {
+            throw new IllegalArgumentException("max should not be below min");
+        }
+        long minNanos = min.toNanos();
+        long rangeNanos = max.toNanos() - minNanos;
+        return new LatencyDistribution() {
+            @Override
+            public long sampleNanos() {
+                return minNanos + (rangeNanos == 0 ? 0 : ThreadLocalRandom.current().nextLong(rangeNanos + 1));
+            }
+            
+            @Override
+            public String toString() {
+                return "uniform(" + min + ", " + max + ')';
+            }
+        };
+    }
+    
+    /**
+     * @param median Median latency
+     * @param sigma  Standard deviation of the logarithm of the latency. 0.5 puts the 99th percentile at about 3.2
+     *               times the median, 1 at about 10 times.
+     * @return Distribution with log-normally distributed latencies
+     */
+    public static LatencyDistribution logNormal(Duration median, double sigma) {
+        if (sigma < 0) {
+            throw new IllegalArgumentException("sigma should not be negative");
+        }
+        double medianNanos = median.toNanos();
+        return new LatencyDistribution() {
+            @Override
+            public long sampleNanos() {
+                return (long) (medianNanos * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+            }
+            
+            @Override
+            public String toString() {
+                return "logNormal(" + median + ", " + sigma + ')';
+            }
+        };
+    }
+}
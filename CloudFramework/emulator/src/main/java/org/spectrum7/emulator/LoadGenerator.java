@@ -0,0 +1,264 @@
+package org.spectrum7.emulator;
+
+import org.spectrum7.CloudAccessFramework.AWS.AWSAccessor;
+import org.spectrum7.CloudAccessFramework.AWS.AWSErrorClassifier;
+import org.spectrum7.CloudAccessFramework.AWS.AWSKeyPairManager;
+import org.spectrum7.CloudAccessFramework.AWS.AWSLaunchPlan;
+import org.spectrum7.CloudAccessFramework.AWS.EC2ClientCache;
+import org.spectrum7.CloudAccessFramework.Accessors.CloudAccessor;
+import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
+import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.Accessors.Metrics.DefaultAccessorMetrics;
+import org.spectrum7.CloudAccessFramework.Accessors.Throttling.RequestThrottler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Runs a number of launches through a CloudAccessor with a fixed number of launches in flight, and reports the
+ * throughput and the latency percentiles of the launches. Together with the EC2Emulator it finds the saturation
+ * point of the accessor without an AWS account: the concurrency past which the throughput stops growing and only the
+ * tail latency does.
+ * <p>
+ * The main method starts an emulator, points an AWSAccessor at it and runs the load. Options are passed as
+ * --name=value:
+ * <ul>
+ * <li>launches: number of launches, 1000 by default</li>
+ * <li>concurrency: launches in flight at once, 50 by default</li>
+ * <li>latency-ms, latency-sigma: median and log-normal spread of the emulator latency, 50 ms and 0.5 by default</li>
+ * <li>throttle-probability: probability of a RequestLimitExceeded answer, 0 by default</li>
+ * <li>run-instances-rate: rate limit of RunInstances in the emulator, none by default</li>
+ * <li>capacity, capacity-error-probability: instance capacity of the emulator and probability of an
+ * InsufficientInstanceCapacity answer, unlimited and 0 by default</li>
+ * <li>client-throttling: default to use the default throttler of the accessor, off to raise its rate limits out of
+ * the way. off by default.</li>
+ * <li>shared-key: true to launch with a shared key pair instead of a key pair per instance. false by default.</li>
+ * <li>metrics: true to print the metrics of the accessor after the run. false by default.</li>
+ * </ul>
+ * The report is printed as text, followed by a line of JSON.
+ */
+public final class LoadGenerator {
+    private static final String ACCESS_KEY = "AKIAEMULATOR";
+    private static final String SECRET_KEY = "emulator";
+    private final CloudAccessor accessor;
+    private final IntFunction<LaunchSpecifications> specifications;
+    private final int concurrency;
+    private final int launches;
+    private final String accessKey;
+    private final String secretKey;
+    
+    private LoadGenerator(Builder builder) {
+        this.accessor = builder.accessor;
+        this.specifications = builder.specifications;
+        this.concurrency = builder.concurrency;
+        this.launches = builder.launches;
+        this.accessKey = builder.accessKey;
+        this.secretKey = builder.secretKey;
+    }
+    
+    /**
+     * @param accessor       The accessor to load
+     * @param specifications Creates the launch specifications of the launch of the given index
+     * @return Builder instance
+     */
+    public static Builder builder(CloudAccessor accessor, IntFunction<LaunchSpecifications> specifications) {
+        return new Builder(accessor, specifications);
+    }
+    
+    /**
+     * Runs the launches and waits for all of them to end.
+     *
+     * @return LoadReport of the run
+     * @throws InterruptedException Exception thrown when the thread is interrupted while the launches run
+     */
+    public LoadReport run() throws InterruptedException {
+        long[] latencies = new long[launches];
+        AtomicInteger nextLaunch = new AtomicInteger();
+        AtomicInteger successes = new AtomicInteger();
+        AtomicLong failures = new AtomicLong();
+        Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                executor.execute(() -> {
+                    try {
+                        for (int launch = nextLaunch.getAndIncrement(); launch < launches;
+                             launch = nextLaunch.getAndIncrement()) {
+                            LaunchSpecifications instanceSpecifications = specifications.apply(launch);
+                            long launchStart = System.nanoTime();
+                            try {
+                                if (accessKey == null) {
+                                    accessor.createComputeInstance(instanceSpecifications);
+                                }
+                                else {
+                                    accessor.createComputeInstance(accessKey, secretKey, instanceSpecifications);
+                                }
+                                latencies[successes.getAndIncrement()] = System.nanoTime() - launchStart;
+                            }
+                            catch (CloudExceptions | RuntimeException e) {
+                                failures.incrementAndGet();
+                                errors.computeIfAbsent(errorName(e), k -> new LongAdder()).increment();
+                            }
+                        }
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - start;
+        Map<String, Long> errorCounts = new HashMap<>();
+        errors.forEach((error, count) -> errorCounts.put(error, count.sum()));
+        return new LoadReport(concurrency, failures.get(), elapsed, Arrays.copyOf(latencies, successes.get()),
+                errorCounts);
+    }
+    
+    private static String errorName(Throwable error) {
+        String code = AWSErrorClassifier.errorCode(error);
+        return code != null ? code : error.getClass().getSimpleName() + ": " + error.getMessage();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                System.err.println("Options are passed as --name=value: " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        int launches = Integer.parseInt(options.getOrDefault("launches", "1000"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "50"));
+        EC2Emulator.Builder emulatorBuilder = EC2Emulator.builder()
+                .latency(LatencyDistribution.logNormal(
+                        Duration.ofMillis(Long.parseLong(options.getOrDefault("latency-ms", "50"))),
+                        Double.parseDouble(options.getOrDefault("latency-sigma", "0.5"))))
+                .throttleProbability(Double.parseDouble(options.getOrDefault("throttle-probability", "0")))
+                .capacityErrorProbability(
+                        Double.parseDouble(options.getOrDefault("capacity-error-probability", "0")));
+        if (options.containsKey("run-instances-rate")) {
+            double rate = Double.parseDouble(options.get("run-instances-rate"));
+            emulatorBuilder.rateLimit("RunInstances", rate, Math.max(1, rate));
+        }
+        if (options.containsKey("capacity")) {
+            emulatorBuilder.capacity(Integer.parseInt(options.get("capacity")));
+        }
+        Path keyStoreDirectory = Files.createTempDirectory("keypairs");
+        DefaultAccessorMetrics metrics = new DefaultAccessorMetrics();
+        AWSAccessor.Builder accessorBuilder = AWSAccessor.builder()
+                .metrics(metrics)
+                .keyPairManager(new AWSKeyPairManager(keyStoreDirectory));
+        if (!"default".equals(options.get("client-throttling"))) {
+            accessorBuilder.throttler(RequestThrottler.builder(new AWSErrorClassifier())
+                    .initialRate(1e6)
+                    .rateLimits(1, 1e6)
+                    .burst(1e6)
+                    .build());
+        }
+        AWSLaunchPlan launchPlan = AWSLaunchPlan.builder()
+                .region("us-east-1")
+                .imageID("ami-0123456789abcdef0")
+                .instanceType("t2.micro")
+                .subnetID("subnet-0123456789abcdef0")
+                .keyPairName(Boolean.parseBoolean(options.get("shared-key")) ? "load-generator" : null)
+                .tag("load-generator", "true")
+                .build();
+        try (EC2Emulator emulator = emulatorBuilder.build();
+             AWSAccessor accessor = accessorBuilder
+                     .clientCache(EC2ClientCache.builder()
+                             .endpointOverride(emulator.getEndpoint())
+                             .maxConnections(Math.max(concurrency * 2, EC2ClientCache.DEFAULT_MAX_CONNECTIONS))
+                             .metrics(metrics)
+                             .build())
+                     .build()) {
+            LoadReport report = builder(accessor, launch -> launchPlan.newLaunchSpecifications("load-" + launch))
+                    .credentials(ACCESS_KEY, SECRET_KEY)
+                    .concurrency(concurrency)
+                    .launches(launches)
+                    .build()
+                    .run();
+            System.out.println(report);
+            report.getErrors().forEach((error, count) -> System.out.println("  " + error + ": " + count));
+            System.out.println(report.toJson());
+            if (Boolean.parseBoolean(options.get("metrics"))) {
+                System.out.print(metrics.snapshot().toPrometheusText());
+            }
+        }
+    }
+    
+    public static final class Builder {
+        private final CloudAccessor accessor;
+        private final IntFunction<LaunchSpecifications> specifications;
+        private int concurrency = 50;
+        private int launches = 1000;
+        private String accessKey = null;
+        private String secretKey = null;
+        
+        private Builder(CloudAccessor accessor, IntFunction<LaunchSpecifications> specifications) {
+            if (accessor == null || specifications == null) {
+                throw new IllegalArgumentException("An accessor and the launch specifications are required");
+            }
+            this.accessor = accessor;
+            this.specifications = specifications;
+        }
+        
+        /**
+         * @param concurrency Launches in flight at once
+         * @return this builder
+         */
+        public Builder concurrency(int concurrency) {
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("concurrency should be at least 1");
+            }
+            this.concurrency = concurrency;
+            return this;
+        }
+        
+        /**
+         * @param launches Number of launches of the run
+         * @return this builder
+         */
+        public Builder launches(int launches) {
+            if (launches < 0) {
+                throw new IllegalArgumentException("launches should not be negative");
+            }
+            this.launches = launches;
+            return this;
+        }
+        
+        /**
+         * @param accessKey Access key the launches are made with. Null to launch with the credentials of the
+         *                  instance the application runs on.
+         * @param secretKey Secret key of the access key
+         * @return this builder
+         */
+        public Builder credentials(String accessKey, String secretKey) {
+            this.accessKey = accessKey;
+            this.secretKey = secretKey;
+            return this;
+        }
+        
+        public LoadGenerator build() {
+            return new LoadGenerator(this);
+        }
+    }
+}
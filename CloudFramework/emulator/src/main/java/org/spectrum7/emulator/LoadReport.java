@@ -0,0 +1,128 @@
+package org.spectrum7.emulator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outcome of a load generator run: the number of launches, their throughput and the distribution of the latency of
+ * the successful launches.
+ */
+public final class LoadReport {
+    private final int concurrency;
+    private final long successes;
+    private final long failures;
+    private final long elapsedNanos;
+    private final long[] latenciesNanos;
+    private final Map<String, Long> errors;
+    
+    /**
+     * @param concurrency    Launches in flight at once
+     * @param failures       Number of failed launches
+     * @param elapsedNanos   Duration of the run
+     * @param latenciesNanos Latencies of the successful launches. The array is sorted in place.
+     * @param errors         Number of failed launches by error
+     */
+    LoadReport(int concurrency, long failures, long elapsedNanos, long[] latenciesNanos, Map<String, Long> errors) {
+        Arrays.sort(latenciesNanos);
+        this.concurrency = concurrency;
+        this.successes = latenciesNanos.length;
+        this.failures = failures;
+        this.elapsedNanos = elapsedNanos;
+        this.latenciesNanos = latenciesNanos;
+        this.errors = Collections.unmodifiableMap(new TreeMap<>(errors));
+    }
+    
+    public int getConcurrency() {
+        return concurrency;
+    }
+    
+    public long getSuccesses() {
+        return successes;
+    }
+    
+    public long getFailures() {
+        return failures;
+    }
+    
+    public double getElapsedSeconds() {
+        return elapsedNanos / 1e9;
+    }
+    
+    /**
+     * @return Successful launches per second over the run
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : successes * 1e9 / elapsedNanos;
+    }
+    
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Latency in milliseconds under which the percentile of the successful launches completed. 0 if no
+     * launch succeeded.
+     */
+    public double getLatencyMillis(double percentile) {
+        if (latenciesNanos.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * latenciesNanos.length);
+        return latenciesNanos[Math.max(0, Math.min(latenciesNanos.length - 1, rank - 1))] / 1e6;
+    }
+    
+    /**
+     * @return Number of failed launches by error message
+     */
+    public Map<String, Long> getErrors() {
+        return errors;
+    }
+    
+    /**
+     * @return The report as a single JSON object, for tracking runs over time
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{")
+                .append("\"concurrency\":").append(concurrency)
+                .append(",\"successes\":").append(successes)
+                .append(",\"failures\":").append(failures)
+                .append(",\"elapsedSeconds\":").append(getElapsedSeconds())
+                .append(",\"throughput\":").append(getThroughput())
+                .append(",\"latencyMillis\":{")
+                .append("\"p50\":").append(getLatencyMillis(50))
+                .append(",\"p99\":").append(getLatencyMillis(99))
+                .append(",\"p999\":").append(getLatencyMillis(99.9))
+                .append(",\"max\":").append(getLatencyMillis(100))
+                .append("},\"errors\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> error : errors.entrySet()) {
+            json.append(first ? "" : ",").append('"').append(escape(error.getKey())).append("\":")
+                    .append(error.getValue());
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+    
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%d launches, %d failed, concurrency %d, %.1f s: %.1f launches/s, "
+                        + "latency p50 %.1f ms, p99 %.1f ms, p999 %.1f ms, max %.1f ms",
+                successes + failures, failures, concurrency, getElapsedSeconds(), getThroughput(),
+                getLatencyMillis(50), getLatencyMillis(99), getLatencyMillis(99.9), getLatencyMillis(100));
+    }
+}
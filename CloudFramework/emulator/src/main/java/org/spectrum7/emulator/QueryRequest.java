@@ -0,0 +1,104 @@
+package org.spectrum7.emulator;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parameters of an EC2 query protocol request. Lists are flattened into numbered parameters starting at 1, such as
+ * InstanceId.1, InstanceId.2, and structures into dotted names, such as Filter.1.Name and Filter.1.Value.1.
+ */
+final class QueryRequest {
+    private final Map<String, String> parameters;
+    
+    private QueryRequest(Map<String, String> parameters) {
+        this.parameters = parameters;
+    }
+    
+    /**
+     * @param query Form encoded body or query string of the request
+     * @return QueryRequest instance
+     */
+    static QueryRequest parse(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null && !query.isEmpty()) {
+            for (String parameter : query.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals < 0) {
+                    parameters.put(decode(parameter), "");
+                }
+                else {
+                    parameters.put(decode(parameter.substring(0, equals)), decode(parameter.substring(equals + 1)));
+                }
+            }
+        }
+        return new QueryRequest(parameters);
+    }
+    
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    String get(String name) {
+        return parameters.get(name);
+    }
+    
+    int getInt(String name, int defaultValue) {
+        String value = parameters.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new EC2Error(400, "InvalidParameterValue", "Invalid value '" + value + "' for " + name);
+        }
+    }
+    
+    /**
+     * @param prefix Name of the list, such as InstanceId
+     * @return Values of prefix.1, prefix.2 and so on, up to the first missing index
+     */
+    List<String> list(String prefix) {
+        List<String> values = new ArrayList<>();
+        for (int i = 1; parameters.containsKey(prefix + '.' + i); i++) {
+            values.add(parameters.get(prefix + '.' + i));
+        }
+        return values;
+    }
+    
+    /**
+     * @return Values of the Filter.N.Value.M parameters, by filter name
+     */
+    Map<String, List<String>> filters() {
+        Map<String, List<String>> filters = new LinkedHashMap<>();
+        for (int i = 1; parameters.containsKey("Filter." + i + ".Name"); i++) {
+            filters.put(parameters.get("Filter." + i + ".Name"), list("Filter." + i + ".Value"));
+        }
+        return filters;
+    }
+    
+    /**
+     * @param prefix Name of the tag list, such as Tag or TagSpecification.1.Tag
+     * @return Tags of the prefix.N.Key and prefix.N.Value parameters, in order
+     */
+    Map<String, String> tags(String prefix) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        for (int i = 1; parameters.containsKey(prefix + '.' + i + ".Key"); i++) {
+            String value = parameters.get(prefix + '.' + i + ".Value");
+            tags.put(parameters.get(prefix + '.' + i + ".Key"), value == null ? "" : value);
+        }
+        return tags.isEmpty() ? Collections.emptyMap() : tags;
+    }
+}
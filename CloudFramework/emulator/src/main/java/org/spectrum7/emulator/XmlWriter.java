@@ -0,0 +1,79 @@
+package org.spectrum7.emulator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal streaming writer of the XML responses of the emulator.
+ */
+final class XmlWriter {
+    static final String NAMESPACE = "http://ec2.amazonaws.com/doc/2016-11-15/";
+    private final StringBuilder xml = new StringBuilder(512).append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    private final Deque<String> open = new ArrayDeque<>();
+    
+    /**
+     * @param root      Name of the root element
+     * @param namespace Namespace of the document. Null for none.
+     */
+    XmlWriter(String root, String namespace) {
+        xml.append('<').append(root);
+        if (namespace != null) {
+            xml.append(" xmlns=\"").append(namespace).append('"');
+        }
+        xml.append('>');
+        open.push(root);
+    }
+    
+    XmlWriter start(String name) {
+        xml.append('<').append(name).append('>');
+        open.push(name);
+        return this;
+    }
+    
+    XmlWriter end() {
+        xml.append("</").append(open.pop()).append('>');
+        return this;
+    }
+    
+    /**
+     * Writes an element with a text value. Null values are left out.
+     */
+    XmlWriter element(String name, Object value) {
+        if (value != null) {
+            xml.append('<').append(name).append('>');
+            escape(String.valueOf(value));
+            xml.append("</").append(name).append('>');
+        }
+        return this;
+    }
+    
+    private void escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    xml.append("&lt;");
+                    break;
+                case '>':
+                    xml.append("&gt;");
+                    break;
+                case '&':
+                    xml.append("&amp;");
+                    break;
+                case '"':
+                    xml.append("&quot;");
+                    break;
+                default:
+                    xml.append(c);
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        while (!open.isEmpty()) {
+            end();
+        }
+        return xml.toString();
+    }
+}
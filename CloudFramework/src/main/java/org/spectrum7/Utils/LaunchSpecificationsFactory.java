@@ -1,30 +1,43 @@
 package org.spectrum7.Utils;
 
-import org.spectrum7.CloudAccessFramework.AWS.AWSLaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.Accessors.CloudAccessor;
 import org.spectrum7.CloudAccessFramework.Accessors.CloudType;
 import org.spectrum7.CloudAccessFramework.Accessors.Exceptions.CloudExceptions;
 import org.spectrum7.CloudAccessFramework.Accessors.LaunchSpecifications;
+import org.spectrum7.CloudAccessFramework.Accessors.Providers.CloudProvider;
+import org.spectrum7.CloudAccessFramework.Accessors.Providers.CloudProviders;
 
 public class LaunchSpecificationsFactory {
     /**
      * Obtain a launch template specification relevant to cloud provider being used.
      *
      * @param cloudType valid string as specified in CloudType class.
-     * @return LaunchSpecifications class. Null could be returned if value passed is null
-     * @throws CloudExceptions Exception thrown when the specified cloud provider is not found.
+     * @return LaunchSpecifications class.
+     * @throws CloudExceptions Exception thrown when the specified cloud provider is not found, or when its
+     *                         implementation is not on the class path.
      */
     public static LaunchSpecifications getLaunchSpecifications(String cloudType) throws CloudExceptions {
+        return getProvider(cloudType).newLaunchSpecifications();
+    }
+    
+    /**
+     * Obtain an accessor of the cloud provider being used, with the default configuration of the provider. The
+     * caller should close the accessor.
+     *
+     * @param cloudType valid string as specified in CloudType class.
+     * @return CloudAccessor of the cloud provider
+     * @throws CloudExceptions Exception thrown when the specified cloud provider is not found, or when its
+     *                         implementation is not on the class path.
+     */
+    public static CloudAccessor getCloudAccessor(String cloudType) throws CloudExceptions {
+        return getProvider(cloudType).newAccessor();
+    }
+    
+    private static CloudProvider getProvider(String cloudType) throws CloudExceptions {
         CloudType c = CloudType.fromValue(cloudType);
-        LaunchSpecifications l = null;
-        if (c != null && c != CloudType.UNKNOWN) {
-            if (c.equals(CloudType.AWS)) {
-                l = new AWSLaunchSpecifications();
-            }
-            
-        }
-        else {
+        if (c == null || c == CloudType.UNKNOWN) {
             throw new CloudExceptions("Illegal cloud provider specified" + cloudType);
         }
-        return l;
+        return CloudProviders.get(c);
     }
 }